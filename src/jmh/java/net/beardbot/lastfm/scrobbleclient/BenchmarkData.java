@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.ResponseBuilder;
+import de.umass.lastfm.Track;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test data shared by the benchmarks.
+ */
+final class BenchmarkData {
+    static final int FIRST_TIMESTAMP = 1500000000;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates a user.getRecentTracks response in the format returned by Last.fm, including album, images and mbids.
+     * @param tracks The number of tracks on the page. The tracks are played one minute apart, the newest first.
+     */
+    static String recentTracksResponse(int tracks) {
+        StringBuilder xml = new StringBuilder(tracks * 900);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<lfm status=\"ok\">\n");
+        xml.append(String.format("<recenttracks user=\"benchmark\" page=\"1\" perPage=\"%d\" totalPages=\"100\" total=\"%d\">\n",tracks,tracks * 100));
+        for (int i = 0; i < tracks; i++) {
+            int timestamp = FIRST_TIMESTAMP + (tracks - i) * 60;
+            String artist = "Artist " + (i % 97);
+            String track = "Track " + i;
+            xml.append("<track>")
+                    .append("<artist mbid=\"3f8a5e5b-c24b-4068-9f1c-afad8829e06b\">").append(artist).append("</artist>")
+                    .append("<name>").append(track).append("</name>")
+                    .append("<streamable>0</streamable>")
+                    .append("<mbid>a1b2c3d4-0000-0000-0000-00000000000").append(i % 10).append("</mbid>")
+                    .append("<album mbid=\"\">Album ").append(i % 31).append("</album>")
+                    .append("<url>https://www.last.fm/music/Artist+").append(i % 97).append("/_/Track+").append(i).append("</url>")
+                    .append("<image size=\"small\">https://lastfm.freetls.fastly.net/i/u/34s/2a96cbd8b46e442fc41c2b86b821562f.png</image>")
+                    .append("<image size=\"medium\">https://lastfm.freetls.fastly.net/i/u/64s/2a96cbd8b46e442fc41c2b86b821562f.png</image>")
+                    .append("<image size=\"large\">https://lastfm.freetls.fastly.net/i/u/174s/2a96cbd8b46e442fc41c2b86b821562f.png</image>")
+                    .append("<image size=\"extralarge\">https://lastfm.freetls.fastly.net/i/u/300x300/2a96cbd8b46e442fc41c2b86b821562f.png</image>")
+                    .append("<date uts=\"").append(timestamp).append("\">14 Jul 2017, 02:40</date>")
+                    .append("</track>\n");
+        }
+        xml.append("</recenttracks>\n</lfm>\n");
+        return xml.toString();
+    }
+
+    /**
+     * Creates a page of lastfm-java {@link Track}s from {@link #recentTracksResponse(int)}.
+     */
+    static PaginatedResult<Track> recentTracks(int tracks) {
+        return parseRecentTracks(recentTracksResponse(tracks).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a user.getRecentTracks response the way lastfm-java does.
+     */
+    static PaginatedResult<Track> parseRecentTracks(byte[] response) {
+        try {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(response));
+            return ResponseBuilder.buildPaginatedResult(TransportResult.ok(document), Track.class);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link LastfmApiCallLimiter#considerCallLimit()} with and without contention.
+ * The call limit is high enough that callers never wait, so only the reservation of the time slot is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallLimiterBenchmark {
+    private static final int UNLIMITED_CALLS = 1_000_000_000;
+
+    private LastfmApiCallLimiter limiter;
+    private LastfmApiCallLimiter limiterWithParent;
+
+    @Setup
+    public void setUp() {
+        limiter = new LastfmApiCallLimiter(UNLIMITED_CALLS, UNLIMITED_CALLS, 1000, null);
+        LastfmApiCallLimiter parent = new LastfmApiCallLimiter(UNLIMITED_CALLS, UNLIMITED_CALLS, 1000, null);
+        limiterWithParent = new LastfmApiCallLimiter(UNLIMITED_CALLS, UNLIMITED_CALLS, 1000, parent);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void uncontended() {
+        limiter.considerCallLimit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contended() {
+        limiter.considerCallLimit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contendedWithSharedParent() {
+        limiterWithParent.considerCallLimit();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares scanning a history held as {@link List} of {@link Scrobble}s with scanning a memory-mapped columnar
+ * history file. Each invocation counts the plays of one artist within a time range.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarHistoryBenchmark {
+    private static final int ARTISTS = 2000;
+    private static final int TRACKS_PER_ARTIST = 20;
+
+    @Param({"100000", "1000000"})
+    private int scrobbleCount;
+
+    private List<Scrobble> scrobbles;
+    private Path file;
+    private ColumnarHistoryReader reader;
+    private String artist;
+    private int from;
+    private int to;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        scrobbles = new ArrayList<>(scrobbleCount);
+        ColumnarHistoryWriter writer = new ColumnarHistoryWriter();
+        for (int i = 0; i < scrobbleCount; i++) {
+            int artistIndex = (i * 7919) % ARTISTS;
+            Scrobble scrobble = Scrobble.of("Artist " + artistIndex, "Track " + artistIndex + "-" + (i % TRACKS_PER_ARTIST));
+            scrobble.setEpochSeconds(BenchmarkData.FIRST_TIMESTAMP + i * 60);
+            scrobbles.add(scrobble);
+            writer.add(scrobble);
+        }
+        file = Files.createTempFile("columnar-history", ".lfmc");
+        writer.write(file);
+        reader = ColumnarHistoryReader.open(file);
+
+        artist = "Artist 42";
+        from = BenchmarkData.FIRST_TIMESTAMP + scrobbleCount * 15;
+        to = BenchmarkData.FIRST_TIMESTAMP + scrobbleCount * 45;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int scanScrobbleList() {
+        int plays = 0;
+        for (Scrobble scrobble : scrobbles) {
+            int timestamp = scrobble.getEpochSeconds();
+            if (timestamp >= from && timestamp < to && artist.equals(scrobble.getArtist())){
+                plays++;
+            }
+        }
+        return plays;
+    }
+
+    @Benchmark
+    public int scanColumnarHistory() {
+        int artistId = reader.getStringId(artist);
+        int plays = 0;
+        for (int i = 0; i < reader.size(); i++) {
+            int timestamp = reader.getTimestampSeconds(i);
+            if (timestamp >= from && timestamp < to && reader.getArtistId(i) == artistId){
+                plays++;
+            }
+        }
+        return plays;
+    }
+}
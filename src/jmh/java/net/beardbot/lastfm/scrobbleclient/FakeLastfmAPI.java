@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Caller;
+import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.Result;
+import de.umass.lastfm.Session;
+import de.umass.lastfm.Track;
+import de.umass.lastfm.scrobble.ScrobbleData;
+import de.umass.lastfm.scrobble.ScrobbleResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * An in-process {@link LastfmAPI} serving the same page of recent tracks for every page number.
+ * Every call parses the page again, just like a call to Last.fm would.
+ */
+class FakeLastfmAPI implements LastfmAPI {
+    private final byte[] recentTracksResponse;
+
+    FakeLastfmAPI(int tracksPerPage, int totalPages) {
+        String response = BenchmarkData.recentTracksResponse(tracksPerPage)
+                .replace("totalPages=\"100\"", String.format("totalPages=\"%d\"",totalPages));
+        this.recentTracksResponse = response.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public PaginatedResult<Track> getRecentTracks(String user, int page, int limit, String apiKey) {
+        return BenchmarkData.parseRecentTracks(recentTracksResponse);
+    }
+
+    @Override
+    public PaginatedResult<Track> getRecentTracks(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        return getRecentTracks(user, page, limit, apiKey);
+    }
+
+    @Override
+    public ScrobblePage getRecentScrobbles(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        try {
+            return new RecentTracksParser().parse(new ByteArrayInputStream(recentTracksResponse));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public ScrobbleResult scrobble(String artist, String trackname, int timestamp, Session session) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<ScrobbleResult> scrobble(List<ScrobbleData> scrobbleData, Session session) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScrobbleResult updateNowPlaying(String artist, String trackname, Session session) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Session getSession(String username, String password, String apiKey, String secret) {
+        return Session.createSession(apiKey, secret, "sessionKey", username, false);
+    }
+
+    @Override
+    public Caller getCaller() {
+        return Caller.getInstance();
+    }
+
+    @Override
+    public Result getLastResult() {
+        return TransportResult.ok();
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.unscrobble.Unscrobbler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ScrobbleClient#getAllScrobbles()} end to end against a {@link FakeLastfmAPI},
+ * including response parsing, paging, retry and circuit breaker bookkeeping and scrobble tracking.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetScrobblesBenchmark {
+    private static final int TRACKS_PER_PAGE = LastfmConfiguration.DEFAULT_MAX_RESULTS_PER_PAGE;
+
+    @Param({"1", "10"})
+    private int pages;
+
+    @Param({"false", "true"})
+    private boolean streamingResponseParsing;
+
+    private ScrobbleClient scrobbleClient;
+
+    @Setup
+    public void setUp() throws Exception {
+        LastfmConfiguration config = new LastfmConfiguration();
+        config.setStreamingResponseParsing(streamingResponseParsing);
+        config.setIncludePlayingTracks(false);
+
+        LastfmApiCallLimiter callLimiter = new LastfmApiCallLimiter(1_000_000_000, 1_000_000_000, 1000, null);
+        scrobbleClient = new ScrobbleClient(config, new FakeLastfmAPI(TRACKS_PER_PAGE, pages), new Unscrobbler(),
+                new ScrobbleManager(config), callLimiter);
+        scrobbleClient.login(new LastfmAuthenticationDetails("apiKey", null, "benchmark", null));
+    }
+
+    @Benchmark
+    public List<Scrobble> getAllScrobbles() {
+        return scrobbleClient.getAllScrobbles();
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares converting a user.getRecentTracks page into {@link Scrobble}s through lastfm-java
+ * (DOM, {@link de.umass.lastfm.Track} objects, {@link ScrobblePage#of}) with the {@link RecentTracksParser}.
+ * Run with -prof gc to compare the allocation rates as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecentTracksParsingBenchmark {
+    @Param({"50", "1000"})
+    private int tracksPerPage;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        response = BenchmarkData.recentTracksResponse(tracksPerPage).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ScrobblePage lastfmJava() {
+        return ScrobblePage.of(BenchmarkData.parseRecentTracks(response));
+    }
+
+    @Benchmark
+    public ScrobblePage streaming() throws Exception {
+        return new RecentTracksParser().parse(new ByteArrayInputStream(response));
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Track;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of {@link Scrobble}s from lastfm-java {@link Track}s and the timestamp conversions
+ * in {@link Utils} it relies on. Each invocation converts a page of 1000 tracks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScrobbleConversionBenchmark {
+    private static final int TRACKS = 1000;
+
+    private List<Track> tracks;
+    private Date[] playedWhen;
+    private int[] epochSeconds;
+    private ZonedDateTime[] dateTimes;
+
+    @Setup
+    public void setUp() {
+        tracks = new ArrayList<>(BenchmarkData.recentTracks(TRACKS).getPageResults());
+        playedWhen = new Date[TRACKS];
+        epochSeconds = new int[TRACKS];
+        dateTimes = new ZonedDateTime[TRACKS];
+        for (int i = 0; i < TRACKS; i++) {
+            playedWhen[i] = tracks.get(i).getPlayedWhen();
+            epochSeconds[i] = Utils.dateToEpochSeconds(playedWhen[i]);
+            dateTimes[i] = Utils.epochSecondsToDateTime(epochSeconds[i]);
+        }
+    }
+
+    @Benchmark
+    public void scrobbleFromTrack(Blackhole blackhole) {
+        for (Track track : tracks) {
+            blackhole.consume(new Scrobble(track));
+        }
+    }
+
+    @Benchmark
+    public void dateToEpochSeconds(Blackhole blackhole) {
+        for (Date date : playedWhen) {
+            blackhole.consume(Utils.dateToEpochSeconds(date));
+        }
+    }
+
+    @Benchmark
+    public void epochSecondsToDateTime(Blackhole blackhole) {
+        for (int seconds : epochSeconds) {
+            blackhole.consume(Utils.epochSecondsToDateTime(seconds));
+        }
+    }
+
+    @Benchmark
+    public void dateTimeToEpochSeconds(Blackhole blackhole) {
+        for (ZonedDateTime dateTime : dateTimes) {
+            blackhole.consume(Utils.dateTimeToEpochSeconds(dateTime));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the heap footprint of {@link Scrobble}, which keeps the timestamp as primitive and creates the date-time
+ * on demand, with {@link EagerScrobble}, which mirrors the former layout holding a boxed timestamp and an eagerly
+ * created date-time. Each invocation creates a page of 1000 scrobbles the way the response parser does.
+ * Every allocated object is retained by the page, so with {@code -prof gc} the normalized allocation rate
+ * ({@code gc.alloc.rate.norm}) divided by 1000 is the footprint of a single scrobble.
+ * The retained heap of a whole history can be measured with {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScrobbleFootprintBenchmark {
+    private static final int SCROBBLES = 1000;
+    private static final int HISTORY_SIZE = 500000;
+
+    private String[] artists;
+    private String[] trackNames;
+    private int[] epochSeconds;
+
+    @Setup
+    public void setUp() {
+        artists = new String[SCROBBLES];
+        trackNames = new String[SCROBBLES];
+        epochSeconds = new int[SCROBBLES];
+        for (int i = 0; i < SCROBBLES; i++) {
+            artists[i] = "Artist " + (i % 50);
+            trackNames[i] = "Track " + i;
+            epochSeconds[i] = BenchmarkData.FIRST_TIMESTAMP + i * 60;
+        }
+    }
+
+    @Benchmark
+    public Scrobble[] compactScrobbles() {
+        Scrobble[] page = new Scrobble[SCROBBLES];
+        for (int i = 0; i < SCROBBLES; i++) {
+            page[i] = Scrobble.of(artists[i], trackNames[i]);
+            page[i].setEpochSeconds(epochSeconds[i]);
+        }
+        return page;
+    }
+
+    @Benchmark
+    public EagerScrobble[] eagerScrobbles() {
+        EagerScrobble[] page = new EagerScrobble[SCROBBLES];
+        for (int i = 0; i < SCROBBLES; i++) {
+            page[i] = new EagerScrobble(artists[i], trackNames[i], epochSeconds[i]);
+        }
+        return page;
+    }
+
+    /**
+     * Prints the retained heap per scrobble of a history of 500,000 scrobbles for both layouts.
+     * Artist and track names are shared between the scrobbles, so only the scrobbles themselves are measured.
+     * Run with a fixed heap size, e.g. {@code java -Xms1g -Xmx1g -cp target/benchmarks.jar
+     * net.beardbot.lastfm.scrobbleclient.ScrobbleFootprintBenchmark}.
+     */
+    public static void main(String[] args) {
+        ScrobbleFootprintBenchmark benchmark = new ScrobbleFootprintBenchmark();
+        benchmark.setUp();
+
+        long baseline = usedHeap();
+        Scrobble[] compactHistory = new Scrobble[HISTORY_SIZE];
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            compactHistory[i] = Scrobble.of(benchmark.artists[i % SCROBBLES], benchmark.trackNames[i % SCROBBLES]);
+            compactHistory[i].setEpochSeconds(BenchmarkData.FIRST_TIMESTAMP + i * 60);
+        }
+        long compactBytes = usedHeap() - baseline;
+        System.out.printf("Scrobble:      %,d bytes for %,d scrobbles (%.1f bytes per scrobble)%n",
+                compactBytes, compactHistory.length, (double) compactBytes / HISTORY_SIZE);
+        compactHistory = null;
+
+        baseline = usedHeap();
+        EagerScrobble[] eagerHistory = new EagerScrobble[HISTORY_SIZE];
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            eagerHistory[i] = new EagerScrobble(benchmark.artists[i % SCROBBLES], benchmark.trackNames[i % SCROBBLES],
+                    BenchmarkData.FIRST_TIMESTAMP + i * 60);
+        }
+        long eagerBytes = usedHeap() - baseline;
+        System.out.printf("EagerScrobble: %,d bytes for %,d scrobbles (%.1f bytes per scrobble)%n",
+                eagerBytes, eagerHistory.length, (double) eagerBytes / HISTORY_SIZE);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The former layout of {@link Scrobble}.
+     */
+    static class EagerScrobble {
+        private final String artist;
+        private final String trackName;
+        private final boolean nowPlaying;
+        private final Integer timestampSeconds;
+        private final ZonedDateTime timestamp;
+
+        EagerScrobble(String artist, String trackName, int timestampSeconds) {
+            this.artist = artist;
+            this.trackName = trackName;
+            this.nowPlaying = false;
+            this.timestampSeconds = timestampSeconds;
+            this.timestamp = Utils.epochSecondsToDateTime(timestampSeconds);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ScrobbleManager#persist(Scrobble)} and {@link ScrobbleManager#getOriginalScrobble(Scrobble)}
+ * for every {@link ScrobbleTrackingMode} with 10^3 to 10^6 tracked scrobbles.
+ * The persisted scrobbles are kept reachable, so the weak store does not lose entries during the measurement,
+ * and the LRU store has twice the required capacity, so no segment evicts entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScrobbleManagerBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int trackedScrobbles;
+
+    @Param({"UNBOUNDED", "LRU", "WEAK"})
+    private ScrobbleTrackingMode trackingMode;
+
+    private ScrobbleManager scrobbleManager;
+    private Scrobble[] persistedScrobbles;
+    private Scrobble newScrobble;
+
+    @Setup
+    public void setUp() {
+        LastfmConfiguration config = new LastfmConfiguration();
+        config.setScrobbleTrackingMode(trackingMode);
+        config.setMaxTrackedScrobbles(trackedScrobbles * 2);
+        scrobbleManager = new ScrobbleManager(config);
+
+        persistedScrobbles = new Scrobble[trackedScrobbles];
+        for (int i = 0; i < trackedScrobbles; i++) {
+            persistedScrobbles[i] = scrobbleManager.persist(createScrobble(i));
+        }
+        newScrobble = createScrobble(trackedScrobbles);
+    }
+
+    /**
+     * Persists a scrobble and removes it again, so the number of tracked scrobbles stays constant.
+     */
+    @Benchmark
+    public Scrobble persistAndRemove() {
+        Scrobble persistedScrobble = scrobbleManager.persist(newScrobble);
+        scrobbleManager.remove(persistedScrobble);
+        return persistedScrobble;
+    }
+
+    @Benchmark
+    public Scrobble getOriginalScrobble() {
+        return scrobbleManager.getOriginalScrobble(persistedScrobbles[ThreadLocalRandom.current().nextInt(trackedScrobbles)]);
+    }
+
+    private static Scrobble createScrobble(int index) {
+        Scrobble scrobble = Scrobble.of("Artist " + (index % 97), "Track " + index);
+        scrobble.setTimestampSeconds(BenchmarkData.FIRST_TIMESTAMP + index * 60);
+        return scrobble;
+    }
+}
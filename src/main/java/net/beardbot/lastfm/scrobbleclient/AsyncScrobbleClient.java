@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.Getter;
+import net.beardbot.lastfm.scrobbleclient.exception.LastfmAuthenticationException;
+
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking variant of the {@link ScrobbleClient}.
+ * All Last.fm invocations are executed on the configured {@link Executor}.
+ * Waiting for the API call limit and backing off between retries does not block any thread, the invocations are
+ * scheduled once the call limit permits them.
+ * Failures are propagated through the returned {@link CompletableFuture}s.
+ */
+public class AsyncScrobbleClient {
+
+    @Getter
+    private final ScrobbleClient scrobbleClient;
+    private final Executor executor;
+
+    /**
+     * Creates an {@link AsyncScrobbleClient} that executes Last.fm invocations on a shared daemon thread pool.
+     * @param scrobbleClient The {@link ScrobbleClient} that is being used for the Last.fm invocations.
+     */
+    public AsyncScrobbleClient(final ScrobbleClient scrobbleClient){
+        this(scrobbleClient, Utils.defaultExecutor());
+    }
+
+    /**
+     * Creates an {@link AsyncScrobbleClient}.
+     * @param scrobbleClient The {@link ScrobbleClient} that is being used for the Last.fm invocations.
+     * @param executor The {@link Executor} that is being used for executing the Last.fm invocations.
+     */
+    public AsyncScrobbleClient(final ScrobbleClient scrobbleClient, final Executor executor){
+        this.scrobbleClient = scrobbleClient;
+        this.executor = executor;
+    }
+
+    /**
+     * Logs the client in to Last.fm.
+     * @see ScrobbleClient#login(LastfmAuthenticationDetails)
+     * @param authenticationDetails The authentication details which contain API key, shared secret, username and password.
+     * @return A {@link CompletableFuture} that completes when the login is done.
+     *         It completes exceptionally with a {@link LastfmAuthenticationException} if Last.fm authentication fails.
+     */
+    public CompletableFuture<Void> login(final LastfmAuthenticationDetails authenticationDetails){
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                scrobbleClient.login(authenticationDetails);
+                future.complete(null);
+            } catch (Throwable e){
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Scrobbles a track to Last.fm.
+     * @see ScrobbleClient#scrobble(Scrobble)
+     * @param scrobble A {@link Scrobble} object containing track information.
+     * @return A {@link CompletableFuture} of a persisted scrobble object that can be used for updating scrobble data.
+     */
+    public CompletableFuture<Scrobble> scrobble(final Scrobble scrobble){
+        try {
+            scrobbleClient.checkScrobbleOperation(scrobble);
+        } catch (RuntimeException e){
+            return failedFuture(e);
+        }
+        return scrobbleClient.scrobbleAsync(scrobble, executor);
+    }
+
+    /**
+     * Scrobbles a track to Last.fm.
+     * @see ScrobbleClient#scrobble(String, String)
+     * @param artist The artist of the track.
+     * @param trackName The title of the track.
+     * @return A {@link CompletableFuture} of a persisted scrobble object that can be used for updating scrobble data.
+     */
+    public CompletableFuture<Scrobble> scrobble(final String artist, final String trackName){
+        return scrobble(Scrobble.of(artist,trackName));
+    }
+
+    /**
+     * Scrobbles multiple tracks to Last.fm.
+     * @see ScrobbleClient#scrobbleAll(Collection)
+     * @param scrobbles A {@link Collection} of {@link Scrobble} objects containing track information.
+     * @return A {@link CompletableFuture} of the persisted scrobble objects that can be used for updating scrobble data.
+     */
+    public CompletableFuture<List<Scrobble>> scrobbleAll(final Collection<Scrobble> scrobbles){
+        try {
+            scrobbleClient.checkScrobbleAllOperation(scrobbles);
+        } catch (RuntimeException e){
+            return failedFuture(e);
+        }
+        return scrobbleClient.scrobbleAllAsync(scrobbles, executor);
+    }
+
+    /**
+     * Sends the now playing status for a track to Last.fm.
+     * @see ScrobbleClient#nowPlaying(Scrobble)
+     * @param scrobble A {@link Scrobble} object containing track information.
+     * @return A {@link CompletableFuture} of a persisted scrobble object that can be used for updating scrobble data.
+     */
+    public CompletableFuture<Scrobble> nowPlaying(final Scrobble scrobble){
+        return execute(() -> scrobbleClient.checkScrobbleOperation(scrobble), () -> scrobbleClient.executeNowPlayingAsync(scrobble, executor));
+    }
+
+    /**
+     * Sends the now playing status for a track to Last.fm.
+     * @see ScrobbleClient#nowPlaying(String, String)
+     * @param artist The artist of the track.
+     * @param trackName The title of the track.
+     * @return A {@link CompletableFuture} of a persisted scrobble object that can be used for updating scrobble data.
+     */
+    public CompletableFuture<Scrobble> nowPlaying(final String artist, final String trackName){
+        return nowPlaying(Scrobble.of(artist,trackName));
+    }
+
+    /**
+     * Removes a {@link Scrobble} from Last.fm.
+     * @see ScrobbleClient#unscrobble(Scrobble)
+     * @param scrobble The {@link Scrobble} that shall be removed.
+     * @return A {@link CompletableFuture} that completes when the {@link Scrobble} has been removed.
+     */
+    public CompletableFuture<Void> unscrobble(final Scrobble scrobble){
+        return execute(() -> scrobbleClient.checkUnscrobbleOperation(scrobble), () -> {
+            scrobbleClient.executeUnscrobble(scrobble);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Updates track data of an existing {@link Scrobble}.
+     * @see ScrobbleClient#updateScrobble(Scrobble)
+     * @param scrobble A persisted {@link Scrobble} object that shall be updated.
+     * @return A {@link CompletableFuture} that completes when the {@link Scrobble} has been updated.
+     */
+    public CompletableFuture<Void> updateScrobble(final Scrobble scrobble){
+        return execute(() -> scrobbleClient.checkUpdateOperation(scrobble), () -> scrobbleClient.executeUpdateScrobbleAsync(scrobble, executor));
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s of the authenticated user from Last.fm.
+     * @see ScrobbleClient#getAllScrobbles()
+     * @return A {@link CompletableFuture} of a {@link List} containing all {@link Scrobble}s.
+     */
+    public CompletableFuture<List<Scrobble>> getAllScrobbles(){
+        return getScrobbles(null, scrobbleClient.getConfig().getMaxResultsPerPage(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s of the authenticated user from a specific time until now.
+     * @see ScrobbleClient#getScrobblesSince(Temporal)
+     * @param since A {@link Temporal} representing the time from when the {@link Scrobble}s should be fecthed.
+     * @return A {@link CompletableFuture} of a {@link List} containing all {@link Scrobble}s since the time defined in <b>since</b>.
+     */
+    public CompletableFuture<List<Scrobble>> getScrobblesSince(final Temporal since){
+        return getScrobblesSince(since, scrobbleClient.getConfig().getResultsPerPage());
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s of the authenticated user from a specific time until now.
+     * @see ScrobbleClient#getScrobblesSince(Temporal, int)
+     * @param since A {@link Temporal} representing the time from when the {@link Scrobble}s should be fecthed.
+     * @param resultsPerPage The results per page that shall be fetched from Last.fm.
+     * @return A {@link CompletableFuture} of a {@link List} containing all {@link Scrobble}s since the time defined in <b>since</b>.
+     */
+    public CompletableFuture<List<Scrobble>> getScrobblesSince(final Temporal since, final int resultsPerPage){
+        return getScrobbles(since, resultsPerPage, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetches a certain amount of {@link Scrobble}s.
+     * @see ScrobbleClient#getLastScrobbles(int)
+     * @param amount The amount of {@link Scrobble}s that shall be fecthed
+     * @return A {@link CompletableFuture} of a {@link List} containing the last <b>amount</b> {@link Scrobble}s.
+     */
+    public CompletableFuture<List<Scrobble>> getLastScrobbles(final int amount){
+        int resultsPerPage = scrobbleClient.resultsPerPageForAmount(amount);
+        return getScrobbles(null, resultsPerPage, scrobbleClient.pageLimitForAmount(amount, resultsPerPage), amount);
+    }
+
+    private CompletableFuture<List<Scrobble>> getScrobbles(Temporal since, int resultsPerPage, int pageLimit, int totalLimit){
+        try {
+            scrobbleClient.checkFetchOperation();
+        } catch (RuntimeException e){
+            return failedFuture(e);
+        }
+
+        if (!scrobbleClient.isFetchable(since, resultsPerPage, pageLimit, totalLimit)){
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        if (scrobbleClient.isReadingFromHistoryStore(since == null && totalLimit == Integer.MAX_VALUE)){
+            Integer syncStart = scrobbleClient.historySyncStart();
+            Integer sinceSeconds = since == null ? null : Utils.temporalToEpochSeconds(since);
+            return fetchPages(scrobbleClient.createHistorySyncCollector(syncStart), 1, scrobbleClient.getConfig().getMaxResultsPerPage(), syncStart, new ArrayList<>())
+                    .thenApplyAsync(fetchedScrobbles -> scrobbleClient.readStoredScrobbles(fetchedScrobbles, sinceSeconds, totalLimit), executor);
+        }
+
+        ScrobblePageCollector collector = scrobbleClient.createPageCollector(since, null, pageLimit, totalLimit);
+        Integer from = since == null ? null : Utils.temporalToEpochSeconds(since);
+        return fetchPages(collector, 1, resultsPerPage, from, new ArrayList<>());
+    }
+
+    private CompletableFuture<List<Scrobble>> fetchPages(ScrobblePageCollector collector, int currentPage, int resultsPerPage, Integer from,
+                                                         List<Scrobble> scrobbles){
+        return executeWithCallLimit(() -> scrobbleClient.fetchScrobblePageAsync(currentPage, resultsPerPage, from, null, executor)).thenCompose(recentTracks -> {
+            scrobbles.addAll(collector.collect(recentTracks, currentPage));
+
+            if (collector.isFinished()){
+                return CompletableFuture.completedFuture(scrobbles);
+            }
+            return fetchPages(collector, currentPage + 1, resultsPerPage, from, scrobbles);
+        });
+    }
+
+    private <T> CompletableFuture<T> execute(Runnable check, Supplier<CompletableFuture<T>> invocation){
+        try {
+            check.run();
+        } catch (RuntimeException e){
+            return failedFuture(e);
+        }
+        return executeWithCallLimit(invocation);
+    }
+
+    private <T> CompletableFuture<T> executeWithCallLimit(Supplier<CompletableFuture<T>> invocation){
+        return scrobbleClient.acquireCallPermitAsync().thenComposeAsync(ignored -> invocation.get(), executor);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable throwable){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.beardbot.lastfm.scrobbleclient.exception.CircuitBreakerOpenException;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stops calling an endpoint that keeps failing or responding slowly.
+ * The outcomes of the most recent calls are kept in a fixed-size window. Once the window holds enough calls and the
+ * share of failed or slow calls reaches its threshold, the breaker opens and rejects calls for a while. Afterwards a
+ * few trial calls are let through; if they are healthy, the breaker closes again, otherwise it reopens.
+ */
+@Slf4j
+class CircuitBreaker {
+    @Getter
+    private final String name;
+    private final boolean enabled;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallDurationMillis;
+    private final long openDurationMillis;
+    private final int halfOpenCalls;
+    private final Clock clock;
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int windowIndex;
+    private int recordedCalls;
+    private int failedCallCount;
+    private int slowCallCount;
+
+    private CircuitBreakerState state = CircuitBreakerState.CLOSED;
+    private long openedAtMillis;
+    private int halfOpenPermits;
+
+    CircuitBreaker(String name, LastfmConfiguration config){
+        this(name, config, Clock.systemUTC());
+    }
+
+    CircuitBreaker(String name, LastfmConfiguration config, Clock clock){
+        this.name = name;
+        this.enabled = config.isCircuitBreakerEnabled();
+        this.windowSize = Math.max(config.getCircuitBreakerWindowSize(), 1);
+        this.minimumCalls = Math.min(Math.max(config.getCircuitBreakerMinimumCalls(), 1), windowSize);
+        this.failureRateThreshold = config.getCircuitBreakerFailureRateThreshold();
+        this.slowCallRateThreshold = config.getCircuitBreakerSlowCallRateThreshold();
+        this.slowCallDurationMillis = config.getCircuitBreakerSlowCallDurationMillis();
+        this.openDurationMillis = config.getCircuitBreakerOpenDurationMillis();
+        this.halfOpenCalls = Math.min(Math.max(config.getCircuitBreakerHalfOpenCalls(), 1), windowSize);
+        this.clock = clock;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+    }
+
+    /**
+     * Checks whether a call may be executed.
+     * @throws CircuitBreakerOpenException If the breaker is open or all trial calls of the half-open state are in progress.
+     */
+    synchronized void acquirePermission(){
+        if (!enabled){
+            return;
+        }
+        if (state == CircuitBreakerState.OPEN && clock.millis() - openedAtMillis >= openDurationMillis){
+            transitionTo(CircuitBreakerState.HALF_OPEN);
+        }
+        if (state == CircuitBreakerState.OPEN){
+            throw new CircuitBreakerOpenException(String.format("Circuit breaker '%s' is open.",name));
+        }
+        if (state == CircuitBreakerState.HALF_OPEN){
+            if (halfOpenPermits <= 0){
+                throw new CircuitBreakerOpenException(String.format("Circuit breaker '%s' is half-open and awaits its trial calls.",name));
+            }
+            halfOpenPermits--;
+        }
+    }
+
+    synchronized void onSuccess(long durationMillis){
+        record(false, durationMillis);
+    }
+
+    synchronized void onFailure(long durationMillis){
+        record(true, durationMillis);
+    }
+
+    /**
+     * Returns a permission without recording an outcome, for calls that failed for reasons unrelated to the endpoint.
+     */
+    synchronized void releasePermission(){
+        if (enabled && state == CircuitBreakerState.HALF_OPEN && halfOpenPermits < halfOpenCalls){
+            halfOpenPermits++;
+        }
+    }
+
+    synchronized CircuitBreakerState getState(){
+        if (enabled && state == CircuitBreakerState.OPEN && clock.millis() - openedAtMillis >= openDurationMillis){
+            transitionTo(CircuitBreakerState.HALF_OPEN);
+        }
+        return state;
+    }
+
+    void addListener(CircuitBreakerListener listener){
+        listeners.add(listener);
+    }
+
+    void removeListener(CircuitBreakerListener listener){
+        listeners.remove(listener);
+    }
+
+    private void record(boolean failed, long durationMillis){
+        if (!enabled || state == CircuitBreakerState.OPEN){
+            return;
+        }
+
+        if (recordedCalls == windowSize){
+            failedCallCount -= failedCalls[windowIndex] ? 1 : 0;
+            slowCallCount -= slowCalls[windowIndex] ? 1 : 0;
+        } else {
+            recordedCalls++;
+        }
+        failedCalls[windowIndex] = failed;
+        slowCalls[windowIndex] = durationMillis >= slowCallDurationMillis;
+        failedCallCount += failed ? 1 : 0;
+        slowCallCount += slowCalls[windowIndex] ? 1 : 0;
+        windowIndex = (windowIndex + 1) % windowSize;
+
+        if (state == CircuitBreakerState.HALF_OPEN){
+            if (exceedsThresholds()){
+                transitionTo(CircuitBreakerState.OPEN);
+            } else if (recordedCalls >= halfOpenCalls){
+                transitionTo(CircuitBreakerState.CLOSED);
+            }
+        } else if (recordedCalls >= minimumCalls && exceedsThresholds()){
+            transitionTo(CircuitBreakerState.OPEN);
+        }
+    }
+
+    private boolean exceedsThresholds(){
+        double failureRate = 100.0 * failedCallCount / recordedCalls;
+        double slowCallRate = 100.0 * slowCallCount / recordedCalls;
+        return failureRate >= failureRateThreshold || slowCallRate >= slowCallRateThreshold;
+    }
+
+    private void transitionTo(CircuitBreakerState newState){
+        CircuitBreakerState oldState = state;
+        state = newState;
+        resetWindow();
+
+        if (newState == CircuitBreakerState.OPEN){
+            openedAtMillis = clock.millis();
+            log.warn("Circuit breaker '{}' opened. Calls are rejected for {} ms.",name,openDurationMillis);
+        } else if (newState == CircuitBreakerState.HALF_OPEN){
+            halfOpenPermits = halfOpenCalls;
+            log.info("Circuit breaker '{}' is half-open. Permitting {} trial calls.",name,halfOpenCalls);
+        } else {
+            log.info("Circuit breaker '{}' closed.",name);
+        }
+
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateTransition(name, oldState, newState);
+            } catch (RuntimeException e){
+                log.warn("Circuit breaker listener failed.",e);
+            }
+        }
+    }
+
+    private void resetWindow(){
+        windowIndex = 0;
+        recordedCalls = 0;
+        failedCallCount = 0;
+        slowCallCount = 0;
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+/**
+ * Is notified whenever a circuit breaker of a {@link ScrobbleClient} changes its state.
+ * Listeners are called synchronously by the thread that caused the transition and should return quickly.
+ */
+@FunctionalInterface
+public interface CircuitBreakerListener {
+    /**
+     * @param circuitBreakerName The name of the circuit breaker, {@link ScrobbleClient#API_CIRCUIT_BREAKER}
+     *                           or {@link ScrobbleClient#UNSCROBBLER_CIRCUIT_BREAKER}.
+     * @param from The previous state.
+     * @param to The new state.
+     */
+    void onStateTransition(String circuitBreakerName, CircuitBreakerState from, CircuitBreakerState to);
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+/**
+ * The state of a circuit breaker guarding calls to Last.fm.
+ */
+public enum CircuitBreakerState {
+    /**
+     * Calls are executed and their outcome is recorded.
+     */
+    CLOSED,
+    /**
+     * Too many recent calls failed or were slow. Calls fail immediately without contacting Last.fm.
+     */
+    OPEN,
+    /**
+     * The open period has elapsed. A limited number of trial calls decides whether the breaker closes or opens again.
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.HistoryStoreException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Reads a history file written by a {@link ColumnarHistoryWriter}.
+ * The file is memory-mapped, so its columns can be scanned by index without creating any objects, e.g. for counting
+ * the plays of an artist by comparing artist IDs. Names are only decoded when requested and are cached afterwards, and
+ * {@link Scrobble} objects are only created by {@link #getScrobble(int)} and {@link #stream()}.
+ * Opening a file validates the string offsets and the artist and track IDs once, so a corrupted file is rejected by
+ * {@link #open(Path)} instead of failing while it is scanned.
+ * A reader is safe for concurrent use. The mapping is released by the garbage collector once the reader is no longer
+ * referenced, independent of {@link #close()}.
+ */
+public class ColumnarHistoryReader implements Closeable {
+    static final int MAGIC = 0x4C464D48;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int NO_STRING = -1;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int size;
+    private final int dictionarySize;
+    private final IntBuffer timestamps;
+    private final IntBuffer artistIds;
+    private final IntBuffer trackIds;
+    private final IntBuffer stringOffsets;
+    private final ByteBuffer stringData;
+    private final String[] strings;
+    private volatile Map<String,Integer> stringIds;
+
+    private ColumnarHistoryReader(Path file, FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a columnar history file");
+        }
+        if (buffer.getInt(4) != VERSION){
+            throw new IOException(String.format("Unsupported version %d",buffer.getInt(4)));
+        }
+        this.size = buffer.getInt(8);
+        this.dictionarySize = buffer.getInt(12);
+        int stringDataLength = buffer.getInt(16);
+        long expectedFileSize = HEADER_SIZE + 12L * size + 4L * (dictionarySize + 1) + stringDataLength;
+        if (size < 0 || dictionarySize < 0 || stringDataLength < 0 || expectedFileSize != buffer.capacity()){
+            throw new IOException(String.format("Expected %d bytes but the file has %d bytes",expectedFileSize,buffer.capacity()));
+        }
+
+        this.timestamps = intSection(buffer, HEADER_SIZE, size);
+        this.artistIds = intSection(buffer, HEADER_SIZE + 4 * size, size);
+        this.trackIds = intSection(buffer, HEADER_SIZE + 8 * size, size);
+        this.stringOffsets = intSection(buffer, HEADER_SIZE + 12 * size, dictionarySize + 1);
+        validateStringOffsets(stringDataLength);
+        validateStringIds(artistIds);
+        validateStringIds(trackIds);
+        buffer.position(HEADER_SIZE + 12 * size + 4 * (dictionarySize + 1));
+        this.stringData = buffer.slice();
+        this.strings = new String[dictionarySize];
+    }
+
+    /**
+     * Opens and maps a history file.
+     * @param file The path of the history file.
+     * @throws HistoryStoreException If the file can not be read or is not a valid history file.
+     */
+    public static ColumnarHistoryReader open(final Path file){
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE){
+                throw new IOException("File exceeds the maximum size");
+            }
+            return new ColumnarHistoryReader(file, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e){
+            closeQuietly(channel);
+            throw new HistoryStoreException(String.format("Failed to open columnar history %s",file),e);
+        }
+    }
+
+    /**
+     * @return The number of scrobbles in the history.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return The timestamp of the scrobble at the given index in seconds since the epoch, or {@link Integer#MIN_VALUE}
+     *         if it has no timestamp.
+     */
+    public int getTimestampSeconds(int index){
+        return timestamps.get(index);
+    }
+
+    /**
+     * @return The dictionary ID of the artist of the scrobble at the given index, or -1 if it has no artist.
+     */
+    public int getArtistId(int index){
+        return artistIds.get(index);
+    }
+
+    /**
+     * @return The dictionary ID of the track name of the scrobble at the given index, or -1 if it has no track name.
+     */
+    public int getTrackId(int index){
+        return trackIds.get(index);
+    }
+
+    /**
+     * @return The number of distinct artist and track names.
+     */
+    public int getDictionarySize(){
+        return dictionarySize;
+    }
+
+    /**
+     * @param id A dictionary ID as returned by {@link #getArtistId(int)} or {@link #getTrackId(int)}.
+     * @return The artist or track name with the given ID, or null if the ID is -1.
+     */
+    public String getString(int id){
+        if (id == NO_STRING){
+            return null;
+        }
+        String string = strings[id];
+        if (string == null){
+            int start = stringOffsets.get(id);
+            byte[] bytes = new byte[stringOffsets.get(id + 1) - start];
+            ByteBuffer encodedString = stringData.duplicate();
+            encodedString.position(start);
+            encodedString.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Looks up the dictionary ID of an artist or track name. The first lookup decodes the whole dictionary.
+     * @return The dictionary ID or -1, if no scrobble of the history has this artist or track name.
+     */
+    public int getStringId(String value){
+        Map<String,Integer> ids = stringIds;
+        if (ids == null){
+            ids = new HashMap<>(dictionarySize * 4 / 3 + 1);
+            for (int id = 0; id < dictionarySize; id++) {
+                ids.put(getString(id), id);
+            }
+            stringIds = ids;
+        }
+        return ids.getOrDefault(value, NO_STRING);
+    }
+
+    /**
+     * @return A new {@link Scrobble} containing the data of the scrobble at the given index.
+     */
+    public Scrobble getScrobble(int index){
+        Scrobble scrobble = Scrobble.of(getString(getArtistId(index)), getString(getTrackId(index)));
+        scrobble.setEpochSeconds(getTimestampSeconds(index));
+        return scrobble;
+    }
+
+    /**
+     * @return A {@link Stream} of all scrobbles in the order in which they have been written. The {@link Scrobble}
+     *         objects are created while the stream is consumed.
+     */
+    public Stream<Scrobble> stream(){
+        return IntStream.range(0, size).mapToObj(this::getScrobble);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ColumnarHistoryReader(%s, %d scrobbles)",file,size);
+    }
+
+    private void validateStringOffsets(int stringDataLength) throws IOException {
+        int previousOffset = 0;
+        for (int id = 0; id <= dictionarySize; id++) {
+            int offset = stringOffsets.get(id);
+            if (offset < previousOffset || offset > stringDataLength){
+                throw new IOException(String.format("Invalid offset %d of string %d",offset,id));
+            }
+            previousOffset = offset;
+        }
+    }
+
+    private void validateStringIds(IntBuffer ids) throws IOException {
+        for (int i = 0; i < size; i++) {
+            int id = ids.get(i);
+            if (id < NO_STRING || id >= dictionarySize){
+                throw new IOException(String.format("Invalid string ID %d of scrobble %d",id,i));
+            }
+        }
+    }
+
+    private static IntBuffer intSection(ByteBuffer buffer, int position, int length){
+        ByteBuffer section = buffer.duplicate();
+        section.position(position);
+        section.limit(position + 4 * length);
+        return section.slice().asIntBuffer();
+    }
+
+    private static void closeQuietly(FileChannel channel){
+        if (channel == null){
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.HistoryStoreException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link Scrobble}s into a columnar history file that can be scanned with a {@link ColumnarHistoryReader}.
+ * Artist and track names are replaced by IDs of a shared string dictionary while the scrobbles are added, so only
+ * three ints per scrobble and every distinct name once are held in memory until the file is written.
+ * The scrobbles are written in the order in which they have been added.
+ * <p>
+ * The file consists of a header containing magic number, version, number of scrobbles, number of strings and length
+ * of the string data, followed by the timestamp, artist ID and track ID columns, the offsets of the strings within
+ * the string data and the UTF-8 encoded string data itself. All numbers are big-endian ints.
+ * Missing timestamps are written as {@link Integer#MIN_VALUE}, missing names as ID -1.
+ */
+public class ColumnarHistoryWriter {
+    private final Map<String,Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private int[] timestamps = new int[1024];
+    private int[] artistIds = new int[1024];
+    private int[] trackIds = new int[1024];
+    private int size;
+
+    /**
+     * Adds a scrobble to the history.
+     */
+    public void add(final Scrobble scrobble){
+        if (size == timestamps.length){
+            int capacity = size + (size >> 1);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            artistIds = Arrays.copyOf(artistIds, capacity);
+            trackIds = Arrays.copyOf(trackIds, capacity);
+        }
+        timestamps[size] = scrobble.getEpochSeconds();
+        artistIds[size] = stringId(scrobble.getArtist());
+        trackIds[size] = stringId(scrobble.getTrackName());
+        size++;
+    }
+
+    /**
+     * Adds scrobbles to the history.
+     */
+    public void addAll(final Iterable<Scrobble> scrobbles){
+        for (Scrobble scrobble : scrobbles) {
+            add(scrobble);
+        }
+    }
+
+    /**
+     * @return The number of added scrobbles.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Writes the history file. An existing file is replaced atomically.
+     * @param file The path of the history file.
+     * @throws HistoryStoreException If the file could not be written.
+     */
+    public void write(final Path file){
+        List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+        long stringDataLength = 0;
+        for (String string : strings) {
+            byte[] encodedString = string.getBytes(StandardCharsets.UTF_8);
+            encodedStrings.add(encodedString);
+            stringDataLength += encodedString.length;
+        }
+        long fileSize = ColumnarHistoryReader.HEADER_SIZE + 12L * size + 4L * (strings.size() + 1) + stringDataLength;
+        if (fileSize > Integer.MAX_VALUE){
+            throw new IllegalStateException(String.format("The history of %d scrobbles exceeds the maximum file size.",size));
+        }
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))){
+                output.writeInt(ColumnarHistoryReader.MAGIC);
+                output.writeInt(ColumnarHistoryReader.VERSION);
+                output.writeInt(size);
+                output.writeInt(strings.size());
+                output.writeInt((int) stringDataLength);
+                writeColumn(output, timestamps);
+                writeColumn(output, artistIds);
+                writeColumn(output, trackIds);
+
+                int offset = 0;
+                for (byte[] encodedString : encodedStrings) {
+                    output.writeInt(offset);
+                    offset += encodedString.length;
+                }
+                output.writeInt(offset);
+                for (byte[] encodedString : encodedStrings) {
+                    output.write(encodedString);
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            throw new HistoryStoreException(String.format("Failed to write columnar history %s",file),e);
+        }
+    }
+
+    private void writeColumn(DataOutputStream output, int[] column) throws IOException {
+        for (int i = 0; i < size; i++) {
+            output.writeInt(column[i]);
+        }
+    }
+
+    private int stringId(String value){
+        if (value == null){
+            return ColumnarHistoryReader.NO_STRING;
+        }
+        Integer id = stringIds.get(value);
+        if (id == null){
+            id = strings.size();
+            stringIds.put(value, id);
+            strings.add(value);
+        }
+        return id;
+    }
+}
@@ -17,26 +17,67 @@
 package net.beardbot.lastfm.scrobbleclient;
 
 import de.umass.lastfm.*;
+import de.umass.lastfm.scrobble.ScrobbleData;
 import de.umass.lastfm.scrobble.ScrobbleResult;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link LastfmAPI} based on the static API of lastfm-java.
+ * The {@link Result} of every call is kept per thread, since {@link Caller#getLastResult()} is shared by all threads
+ * of the process and may belong to a concurrent call.
+ */
 class DefaultLastfmAPI implements LastfmAPI {
+    private final ThreadLocal<Result> lastResult = new ThreadLocal<>();
+
     @Override
     public PaginatedResult<Track> getRecentTracks(String user, int page, int limit, String apiKey) {
-        return User.getRecentTracks(user,page,limit,apiKey);
+        return getRecentTracks(user,page,limit,null,null,apiKey);
+    }
+
+    @Override
+    public PaginatedResult<Track> getRecentTracks(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        Map<String,String> params = new HashMap<>();
+        params.put("user",user);
+        params.put("page",String.valueOf(page));
+        params.put("limit",String.valueOf(limit));
+        if (from != null){
+            params.put("from",String.valueOf(from));
+        }
+        if (to != null){
+            params.put("to",String.valueOf(to));
+        }
+        Result result = record(Caller.getInstance().call("user.getRecentTracks",apiKey,params));
+        return ResponseBuilder.buildPaginatedResult(result,Track.class);
+    }
+
+    @Override
+    public ScrobblePage getRecentScrobbles(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        return ScrobblePage.of(getRecentTracks(user,page,limit,from,to,apiKey));
     }
 
     @Override
     public ScrobbleResult scrobble(String artist, String trackname, int timestamp, Session session) {
-        return Track.scrobble(artist,trackname,timestamp,session);
+        return record(Track.scrobble(artist,trackname,timestamp,session));
+    }
+
+    @Override
+    public List<ScrobbleResult> scrobble(List<ScrobbleData> scrobbleData, Session session) {
+        List<ScrobbleResult> scrobbleResults = Track.scrobble(scrobbleData,session);
+        lastResult.set(scrobbleResults.isEmpty() ? null : scrobbleResults.get(0));
+        return scrobbleResults;
     }
 
     @Override
     public ScrobbleResult updateNowPlaying(String artist, String trackname, Session session){
-        return Track.updateNowPlaying(artist, trackname, session);
+        return record(Track.updateNowPlaying(artist, trackname, session));
     }
 
     @Override
     public Session getSession(String username, String password, String apiKey, String secret) {
+        lastResult.remove();
         return Authenticator.getMobileSession(username,password,apiKey,secret);
     }
 
@@ -44,4 +85,17 @@ class DefaultLastfmAPI implements LastfmAPI {
     public Caller getCaller() {
         return Caller.getInstance();
     }
+
+    /**
+     * @return The {@link Result} of the most recent call of the calling thread, or null if it is unknown.
+     */
+    @Override
+    public Result getLastResult() {
+        return lastResult.get();
+    }
+
+    private <T extends Result> T record(T result) {
+        lastResult.set(result);
+        return result;
+    }
 }
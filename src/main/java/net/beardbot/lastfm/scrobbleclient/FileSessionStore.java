@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * {@link SessionStore} keeping every session key in a separate file of a directory, encrypted with AES-GCM.
+ * The encryption key is derived from a passphrase with PBKDF2 and a random salt, which is created in the directory
+ * on first use. The file names are hashes of API key and username, and both are authenticated along with the
+ * session key, so a file can neither be attributed to a user without the passphrase nor be swapped for another one.
+ * Files that can not be decrypted, e.g. because the passphrase has changed, are treated as missing.
+ */
+@Slf4j
+public class FileSessionStore implements SessionStore {
+    static final String SALT_FILE_NAME = "session-store.salt";
+
+    private static final String FILE_SUFFIX = ".session";
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int KEY_DERIVATION_ITERATIONS = 100000;
+    private static final int KEY_LENGTH_BITS = 256;
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final byte FORMAT_VERSION = 1;
+
+    private final Path directory;
+    private final char[] passphrase;
+    private final SecureRandom random = new SecureRandom();
+    private SecretKey key;
+
+    /**
+     * @param directory The directory containing the session files. It is created if necessary.
+     * @param passphrase The passphrase the encryption key is derived from. The array is copied.
+     */
+    public FileSessionStore(final Path directory, final char[] passphrase){
+        if (passphrase == null || passphrase.length == 0){
+            throw new IllegalArgumentException("The passphrase of a session store must not be empty.");
+        }
+        this.directory = directory;
+        this.passphrase = passphrase.clone();
+    }
+
+    @Override
+    public String loadSessionKey(String apiKey, String username) throws IOException {
+        Path file = sessionFile(apiKey, username);
+        if (!Files.exists(file)){
+            return null;
+        }
+
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (content.remaining() <= 1 + IV_LENGTH || content.get() != FORMAT_VERSION){
+            log.warn("Ignoring session file {} with unknown format.",file);
+            return null;
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        content.get(iv);
+        byte[] ciphertext = new byte[content.remaining()];
+        content.get(ciphertext);
+
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(associatedData(apiKey, username));
+            return new String(cipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+        } catch (GeneralSecurityException e){
+            log.warn("Ignoring session file {} that could not be decrypted: {}",file,e.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public void saveSessionKey(String apiKey, String username, String sessionKey) throws IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        byte[] ciphertext;
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(associatedData(apiKey, username));
+            ciphertext = cipher.doFinal(sessionKey.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e){
+            throw new IOException("Failed to encrypt session key.", e);
+        }
+
+        ByteBuffer content = ByteBuffer.allocate(1 + IV_LENGTH + ciphertext.length);
+        content.put(FORMAT_VERSION).put(iv).put(ciphertext);
+
+        Path file = sessionFile(apiKey, username);
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporaryFile, content.array());
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void removeSessionKey(String apiKey, String username) throws IOException {
+        Files.deleteIfExists(sessionFile(apiKey, username));
+    }
+
+    private Path sessionFile(String apiKey, String username) throws IOException {
+        Files.createDirectories(directory);
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(associatedData(apiKey, username));
+            StringBuilder fileName = new StringBuilder(hash.length * 2 + FILE_SUFFIX.length());
+            for (byte b : hash) {
+                fileName.append(String.format("%02x",b));
+            }
+            return directory.resolve(fileName.append(FILE_SUFFIX).toString());
+        } catch (GeneralSecurityException e){
+            throw new IOException("Failed to hash session file name.", e);
+        }
+    }
+
+    private synchronized SecretKey key() throws IOException, GeneralSecurityException {
+        if (key == null){
+            PBEKeySpec keySpec = new PBEKeySpec(passphrase, salt(), KEY_DERIVATION_ITERATIONS, KEY_LENGTH_BITS);
+            try {
+                byte[] encodedKey = SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM).generateSecret(keySpec).getEncoded();
+                key = new SecretKeySpec(encodedKey, "AES");
+                Arrays.fill(encodedKey, (byte) 0);
+            } finally {
+                keySpec.clearPassword();
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Reads the salt, creating it if necessary. A new salt is written to a temporary file first and then linked into
+     * place, which fails if the salt file has been created concurrently in the meantime; the existing salt is used then.
+     * File systems without hard links fall back to an atomic move. Either way the salt file is never seen incomplete.
+     */
+    private byte[] salt() throws IOException {
+        Path saltFile = directory.resolve(SALT_FILE_NAME);
+        if (!Files.exists(saltFile)){
+            Files.createDirectories(directory);
+            byte[] salt = new byte[SALT_LENGTH];
+            random.nextBytes(salt);
+            Path temporaryFile = Files.createTempFile(directory, SALT_FILE_NAME, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)){
+                    channel.write(ByteBuffer.wrap(salt));
+                    channel.force(false);
+                }
+                publishSalt(temporaryFile, saltFile);
+            } catch (FileAlreadyExistsException e){
+                log.debug("Salt file {} has been created concurrently.",saltFile);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        }
+        byte[] salt = Files.readAllBytes(saltFile);
+        if (salt.length != SALT_LENGTH){
+            throw new IOException(String.format("Invalid salt file %s",saltFile));
+        }
+        return salt;
+    }
+
+    private static void publishSalt(Path temporaryFile, Path saltFile) throws IOException {
+        try {
+            Files.createLink(saltFile, temporaryFile);
+        } catch (UnsupportedOperationException e){
+            if (Files.exists(saltFile)){
+                throw new FileAlreadyExistsException(saltFile.toString());
+            }
+            Files.move(temporaryFile, saltFile, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static byte[] associatedData(String apiKey, String username){
+        return (apiKey + "\n" + username.toLowerCase(Locale.ROOT)).getBytes(StandardCharsets.UTF_8);
+    }
+}
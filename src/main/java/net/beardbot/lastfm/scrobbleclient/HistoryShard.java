@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Describes a time range of the scrobble history that can be exported independently of the other ranges.
+ * Shards can be handed to other processes either through Java serialization or as a descriptor string
+ * created by {@link #toDescriptor()}. Both bounds are inclusive, so neighbouring shards overlap by one second;
+ * {@link #merge(Collection)} removes the resulting duplicates.
+ */
+@Getter
+@EqualsAndHashCode
+public final class HistoryShard implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Comparator<Scrobble> MOST_RECENT_FIRST = Comparator
+            .comparingInt(Scrobble::getEpochSeconds).reversed()
+            .thenComparing(Scrobble::getArtist, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(Scrobble::getTrackName, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final int index;
+    private final int fromSeconds;
+    private final int toSeconds;
+
+    HistoryShard(int index, int fromSeconds, int toSeconds){
+        if (fromSeconds > toSeconds){
+            throw new IllegalArgumentException(String.format("Invalid shard range from %d to %d",fromSeconds,toSeconds));
+        }
+        this.index = index;
+        this.fromSeconds = fromSeconds;
+        this.toSeconds = toSeconds;
+    }
+
+    /**
+     * @return The beginning of the shard's time range.
+     */
+    public ZonedDateTime getFrom(){
+        return Utils.epochSecondsToDateTime(fromSeconds);
+    }
+
+    /**
+     * @return The end of the shard's time range.
+     */
+    public ZonedDateTime getTo(){
+        return Utils.epochSecondsToDateTime(toSeconds);
+    }
+
+    /**
+     * Creates a compact textual representation of the shard that can be parsed with {@link #fromDescriptor(String)}.
+     * @return The descriptor of the shard.
+     */
+    public String toDescriptor(){
+        return String.format("%d:%d:%d",index,fromSeconds,toSeconds);
+    }
+
+    /**
+     * Parses a descriptor created by {@link #toDescriptor()}.
+     * @param descriptor The descriptor of the shard.
+     * @throws IllegalArgumentException If the descriptor is malformed.
+     * @return The {@link HistoryShard} described by <b>descriptor</b>.
+     */
+    public static HistoryShard fromDescriptor(final String descriptor){
+        String[] parts = descriptor == null ? new String[0] : descriptor.split(":");
+        if (parts.length != 3){
+            throw new IllegalArgumentException(String.format("Malformed shard descriptor '%s'",descriptor));
+        }
+        try {
+            return new HistoryShard(Integer.parseInt(parts[0]),Integer.parseInt(parts[1]),Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException(String.format("Malformed shard descriptor '%s'",descriptor), e);
+        }
+    }
+
+    /**
+     * Merges the results of several shards into a single history.
+     * The result is ordered by timestamp, starting with the most recent {@link Scrobble}, independent of the order
+     * in which the shards have been exported. {@link Scrobble}s that appear in more than one shard are only contained once.
+     * @param shardResults The {@link Scrobble}s of each exported shard.
+     * @return A {@link List} containing the merged {@link Scrobble}s, starting with the most recent one.
+     */
+    public static List<Scrobble> merge(final Collection<? extends Collection<Scrobble>> shardResults){
+        List<Scrobble> scrobbles = new ArrayList<>();
+        for (Collection<Scrobble> shardResult : shardResults) {
+            for (Scrobble scrobble : shardResult) {
+                if (scrobble.hasTimestamp()){
+                    scrobbles.add(scrobble);
+                }
+            }
+        }
+        scrobbles.sort(MOST_RECENT_FIRST);
+
+        List<Scrobble> merged = new ArrayList<>(scrobbles.size());
+        Scrobble previous = null;
+        for (Scrobble scrobble : scrobbles) {
+            if (previous == null || MOST_RECENT_FIRST.compare(previous, scrobble) != 0){
+                merged.add(scrobble);
+            }
+            previous = scrobble;
+        }
+        return merged;
+    }
+
+    static List<HistoryShard> monthly(int fromSeconds, int toSeconds){
+        List<HistoryShard> shards = new ArrayList<>();
+        ZonedDateTime end = Utils.epochSecondsToDateTime(toSeconds);
+        ZonedDateTime shardStart = Utils.epochSecondsToDateTime(fromSeconds);
+
+        while (true){
+            ZonedDateTime nextMonth = shardStart.withDayOfMonth(1).toLocalDate().atStartOfDay(shardStart.getZone()).plusMonths(1);
+            if (!nextMonth.isBefore(end)){
+                shards.add(new HistoryShard(shards.size(), Utils.dateTimeToEpochSeconds(shardStart), toSeconds));
+                return shards;
+            }
+            shards.add(new HistoryShard(shards.size(), Utils.dateTimeToEpochSeconds(shardStart), Utils.dateTimeToEpochSeconds(nextMonth)));
+            shardStart = nextMonth;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HistoryShard(%d, %s - %s)",index,getFrom(),getTo());
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.Getter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link LastfmTransport} based on {@link HttpURLConnection}.
+ * Connections, including their TLS sessions, are kept alive and reused by the JDK's connection cache as long as every
+ * response is read completely and its stream is closed, which this transport always does. The size of the cache can
+ * be tuned with the system property <code>http.maxConnections</code>.
+ */
+@Getter
+public class HttpUrlConnectionTransport implements LastfmTransport {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final boolean gzipEnabled;
+
+    public HttpUrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, true);
+    }
+
+    /**
+     * @param connectTimeoutMillis The timeout for establishing a connection, 0 for no timeout.
+     * @param readTimeoutMillis The timeout for waiting on response data, 0 for no timeout.
+     * @param gzipEnabled Whether gzip-compressed responses are requested.
+     */
+    public HttpUrlConnectionTransport(int connectTimeoutMillis, int readTimeoutMillis, boolean gzipEnabled) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.gzipEnabled = gzipEnabled;
+    }
+
+    @Override
+    public LastfmHttpResponse post(String url, Map<String, String> parameters, String userAgent) throws IOException {
+        byte[] requestBody = encodeForm(parameters);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(requestBody.length);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+        if (userAgent != null){
+            connection.setRequestProperty("User-Agent", userAgent);
+        }
+        if (gzipEnabled){
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(requestBody);
+        }
+
+        int statusCode = connection.getResponseCode();
+        InputStream responseStream = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+        if (responseStream == null){
+            return new LastfmHttpResponse(statusCode, new byte[0]);
+        }
+
+        try (InputStream in = responseStream) {
+            byte[] body = readFully(in);
+            if ("gzip".equalsIgnoreCase(connection.getContentEncoding())){
+                body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+            }
+            return new LastfmHttpResponse(statusCode, body);
+        }
+    }
+
+    private static byte[] encodeForm(Map<String, String> parameters) throws IOException {
+        StringBuilder form = new StringBuilder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            if (form.length() > 0){
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(parameter.getKey(), "UTF-8"))
+                .append('=')
+                .append(URLEncoder.encode(parameter.getValue(), "UTF-8"));
+        }
+        return form.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1){
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
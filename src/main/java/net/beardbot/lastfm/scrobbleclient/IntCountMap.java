@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+/**
+ * Hash map from int keys to positive int counts, using open addressing with linear probing on two parallel arrays.
+ * Unlike a {@code Map<Integer,Integer>}, it neither boxes keys and counts nor creates an entry object per key.
+ * A count of 0 marks a free slot, so counts can only be increased. Not thread-safe.
+ */
+class IntCountMap {
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    IntCountMap(){
+        this(MIN_CAPACITY);
+    }
+
+    IntCountMap(int expectedSize){
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4){
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Increases the count of a key.
+     * @param amount A positive amount.
+     */
+    void add(int key, int amount){
+        int slot = slot(key, keys.length);
+        while (counts[slot] != 0){
+            if (keys[slot] == key){
+                counts[slot] += amount;
+                return;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        keys[slot] = key;
+        counts[slot] = amount;
+        if (++size * 4 > keys.length * 3){
+            resize();
+        }
+    }
+
+    /**
+     * @return The count of the key, or 0 if it has not been added.
+     */
+    int get(int key){
+        int slot = slot(key, keys.length);
+        while (counts[slot] != 0){
+            if (keys[slot] == key){
+                return counts[slot];
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return 0;
+    }
+
+    /**
+     * Adds all counts of another map to this one.
+     */
+    void addAll(IntCountMap other){
+        other.forEach(this::add);
+    }
+
+    int size(){
+        return size;
+    }
+
+    void forEach(EntryConsumer consumer){
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (counts[slot] != 0){
+                consumer.accept(keys[slot], counts[slot]);
+            }
+        }
+    }
+
+    private void resize(){
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length << 1];
+        counts = new int[oldKeys.length << 1];
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldCounts[oldSlot] != 0){
+                int slot = slot(oldKeys[oldSlot], keys.length);
+                while (counts[slot] != 0){
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = oldKeys[oldSlot];
+                counts[slot] = oldCounts[oldSlot];
+            }
+        }
+    }
+
+    private static int slot(int key, int capacity){
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+
+    interface EntryConsumer {
+        void accept(int key, int count);
+    }
+}
@@ -18,18 +18,43 @@ package net.beardbot.lastfm.scrobbleclient;
 
 import de.umass.lastfm.Caller;
 import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.Result;
 import de.umass.lastfm.Session;
 import de.umass.lastfm.Track;
+import de.umass.lastfm.scrobble.ScrobbleData;
 import de.umass.lastfm.scrobble.ScrobbleResult;
 
+import java.util.List;
+
 interface LastfmAPI {
     PaginatedResult<Track> getRecentTracks(String user, int page, int limit, String apiKey);
 
+    /**
+     * Fetches recent tracks within a time range. Bounds that are null are omitted.
+     * @param from The UNIX timestamp of the beginning of the range.
+     * @param to The UNIX timestamp of the end of the range.
+     */
+    PaginatedResult<Track> getRecentTracks(String user, int page, int limit, Integer from, Integer to, String apiKey);
+
+    /**
+     * Fetches recent tracks like {@link #getRecentTracks(String, int, int, Integer, Integer, String)}, reduced to {@link Scrobble}s.
+     * @return The fetched page, which is empty if the call failed.
+     */
+    ScrobblePage getRecentScrobbles(String user, int page, int limit, Integer from, Integer to, String apiKey);
+
     ScrobbleResult scrobble(String artist, String trackname, int timestamp, Session session);
 
+    List<ScrobbleResult> scrobble(List<ScrobbleData> scrobbleData, Session session);
+
     ScrobbleResult updateNowPlaying(String artist, String trackname, Session session);
 
     Session getSession(String username, String password, String apiKey, String secret);
 
     Caller getCaller();
+
+    /**
+     * @return The {@link Result} of the most recent call of the calling thread, used to detect that Last.fm is overloaded
+     *         and whether a call should be retried. Implementations must not return results of calls of other threads.
+     */
+    Result getLastResult();
 }
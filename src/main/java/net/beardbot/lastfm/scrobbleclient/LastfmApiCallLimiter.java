@@ -16,35 +16,253 @@
  */
 package net.beardbot.lastfm.scrobbleclient;
 
-import lombok.RequiredArgsConstructor;
+import de.umass.lastfm.Result;
 import lombok.extern.slf4j.Slf4j;
 
-@RequiredArgsConstructor
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket limiting the rate of Last.fm API calls.
+ * The bucket is implemented as a generic cell rate algorithm: the only state is the theoretical arrival time of the
+ * next call, which is advanced by one emission interval per permit through a compare-and-set.
+ * Every permit reserves its own time slot, so waiting callers are served in the order of their reservations.
+ * A limiter may have a parent limiter, e.g. a global ceiling shared by several API keys, from which every permit
+ * has to be acquired as well.
+ * <p>
+ * In adaptive mode the call limit follows an additive-increase/multiplicative-decrease scheme: responses indicating
+ * that Last.fm is overloaded (error 29, HTTP 429 or HTTP 5xx) cut the limit by a factor, while healthy responses
+ * raise it step by step up to a ceiling. Slow responses hold the current limit.
+ */
 @Slf4j
 class LastfmApiCallLimiter {
-    private final LastfmConfiguration config;
+    private static final long NO_PERMIT = -1L;
+
+    private final long windowNanos;
+    private final int burstLimit;
+    private final AtomicLong theoreticalArrivalTime;
+    private final LastfmApiCallLimiter parent;
+    private final boolean adaptive;
+    private final double minCallLimit;
+    private final double maxCallLimit;
+    private final double decreaseFactor;
+    private final double increaseStep;
+    private final long latencyThresholdNanos;
 
-    private static long millisOfFirstCall = 0;
-    private static int callsInLastSecond = 0;
+    private volatile long emissionIntervalNanos;
+    private volatile long burstToleranceNanos;
+    private double currentCallLimit;
+    private long lastDecreaseNanos;
+
+    LastfmApiCallLimiter(LastfmConfiguration config){
+        this(config, null);
+    }
+
+    LastfmApiCallLimiter(LastfmConfiguration config, LastfmApiCallLimiter parent){
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(config.getMillisForCallLimit());
+        this.burstLimit = Math.max(config.getApiCallBurstLimit(), 1);
+        this.theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+        this.parent = parent;
+        this.adaptive = config.isAdaptiveRateLimiting();
+        this.maxCallLimit = config.getAdaptiveMaxApiCallLimitPerSecond() > 0
+                ? Math.max(config.getAdaptiveMaxApiCallLimitPerSecond(), config.getApiCallLimitPerSecond())
+                : config.getApiCallLimitPerSecond();
+        this.minCallLimit = Math.min(Math.max(config.getAdaptiveMinApiCallLimitPerSecond(), Double.MIN_NORMAL), config.getApiCallLimitPerSecond());
+        this.decreaseFactor = config.getAdaptiveRateDecreaseFactor();
+        this.increaseStep = config.getAdaptiveRateIncreaseStep();
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getAdaptiveLatencyThresholdMillis());
+        this.lastDecreaseNanos = System.nanoTime() - windowNanos;
+        applyCallLimit(config.getApiCallLimitPerSecond());
+    }
 
-    synchronized void considerCallLimit() {
-        if (callsInLastSecond == 0){
-            millisOfFirstCall = System.currentTimeMillis();
+    LastfmApiCallLimiter(int callLimit, int burstLimit, long millisForCallLimit, LastfmApiCallLimiter parent){
+        this(fixedRateConfiguration(callLimit, burstLimit, millisForCallLimit), parent);
+    }
+
+    /**
+     * Adjusts the call limit according to a Last.fm response. Does nothing unless the limiter is adaptive.
+     * @param result The result of the call, may be null if it is unknown.
+     * @param latencyNanos The time it took to receive the response.
+     */
+    void recordResponse(Result result, long latencyNanos) {
+        if (!adaptive || result == null){
+            return;
         }
-        if (callsInLastSecond == config.getApiCallLimitPerSecond()){
-            long passedMillis = System.currentTimeMillis() - millisOfFirstCall;
-            long waitInterval = config.getMillisForCallLimit() - passedMillis;
 
-            if (waitInterval > 0){
-                log.debug("Reached maximum call limit. Waiting {} ms before next call.",waitInterval);
-                Utils.sleep(waitInterval);
-            }
+        if (LastfmErrors.isOverloaded(result)){
+            decreaseCallLimit(result);
+        } else if (result.isSuccessful() && latencyNanos <= latencyThresholdNanos){
+            increaseCallLimit();
+        }
+    }
+
+    /**
+     * @return The number of calls currently permitted per second.
+     */
+    double getCurrentCallsPerSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / emissionIntervalNanos;
+    }
 
-            millisOfFirstCall = System.currentTimeMillis();
-            callsInLastSecond = 0;
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Blocks until a permit is available.
+     * @return The time waited for the permit in nanoseconds.
+     */
+    long considerCallLimit() {
+        long waitNanos = reservePermit(Long.MAX_VALUE);
+
+        if (waitNanos > 0){
+            log.debug("Reached maximum call limit. Waiting {} ms before next call.",TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            Utils.sleepNanos(waitNanos);
         }
-        callsInLastSecond++;
+        return waitNanos;
+    }
+
+    /**
+     * Acquires a permit if one is available immediately.
+     * @return Whether a permit has been acquired.
+     */
+    boolean tryAcquire() {
+        return reservePermit(0) != NO_PERMIT;
     }
 
+    /**
+     * Acquires a permit if one becomes available within the given timeout, blocking until then.
+     * No permit is reserved if the timeout would be exceeded.
+     * @return Whether a permit has been acquired.
+     */
+    boolean acquire(long timeout, TimeUnit unit) {
+        long waitNanos = reservePermit(unit.toNanos(timeout));
 
+        if (waitNanos == NO_PERMIT){
+            return false;
+        }
+        if (waitNanos > 0){
+            Utils.sleepNanos(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Reserves a permit without blocking.
+     * @return A {@link CompletableFuture} that completes as soon as the reserved permit may be used.
+     */
+    CompletableFuture<Void> acquireAsync() {
+        long waitNanos = reservePermit(Long.MAX_VALUE);
+
+        if (waitNanos <= 0){
+            return CompletableFuture.completedFuture(null);
+        }
+
+        log.debug("Reached maximum call limit. Scheduling next call in {} ms.",TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Utils.scheduler().schedule(() -> future.complete(null), waitNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    private synchronized void decreaseCallLimit(Result result) {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < windowNanos){
+            return;
+        }
+        lastDecreaseNanos = now;
+
+        applyCallLimit(Math.max(currentCallLimit * decreaseFactor, minCallLimit));
+        log.warn("Last.fm is overloaded (error {}, HTTP {}). Reducing call limit to {} calls per second.",
+                result.getErrorCode(),result.getHttpErrorCode(),String.format("%.2f",getCurrentCallsPerSecond()));
+    }
+
+    private synchronized void increaseCallLimit() {
+        if (currentCallLimit >= maxCallLimit){
+            return;
+        }
+        applyCallLimit(Math.min(currentCallLimit + increaseStep / currentCallLimit, maxCallLimit));
+        log.debug("Raising call limit to {} calls per second.",String.format("%.2f",getCurrentCallsPerSecond()));
+    }
+
+    private synchronized void applyCallLimit(double callLimit) {
+        currentCallLimit = callLimit;
+        emissionIntervalNanos = Math.max((long) (windowNanos / callLimit), 1L);
+        burstToleranceNanos = emissionIntervalNanos * (burstLimit - 1);
+    }
+
+    private static LastfmConfiguration fixedRateConfiguration(int callLimit, int burstLimit, long millisForCallLimit) {
+        LastfmConfiguration config = new LastfmConfiguration();
+        config.setApiCallLimitPerSecond(callLimit);
+        config.setApiCallBurstLimit(burstLimit);
+        config.setMillisForCallLimit(millisForCallLimit);
+        config.setAdaptiveRateLimiting(false);
+        return config;
+    }
+
+    /**
+     * Reserves a permit of this limiter and of its parent.
+     * @return The time to wait until the permit may be used, or -1 if it would not be available within the given time.
+     */
+    long reservePermit(long maxWaitNanos) {
+        Reservation reservation = reserveLocalPermit(maxWaitNanos);
+
+        if (reservation == null){
+            return NO_PERMIT;
+        }
+        if (parent == null){
+            return reservation.waitNanos;
+        }
+
+        long parentWaitNanos = parent.reservePermit(maxWaitNanos);
+        if (parentWaitNanos == NO_PERMIT){
+            releaseLocalPermit(reservation);
+            return NO_PERMIT;
+        }
+        return Math.max(reservation.waitNanos, parentWaitNanos);
+    }
+
+    /**
+     * Takes back a reserved permit. If no other permit has been reserved since, the previous arrival time is restored;
+     * otherwise only the emission interval of the reservation is subtracted. The idle time that the reservation
+     * skipped must not be subtracted, since it is already covered by the reservations made since.
+     */
+    private void releaseLocalPermit(Reservation reservation) {
+        if (!theoreticalArrivalTime.compareAndSet(reservation.arrivalTime, reservation.previousArrivalTime)){
+            theoreticalArrivalTime.addAndGet(-reservation.interval);
+        }
+    }
+
+    /**
+     * @return The reservation, or null if the permit would not be available within the given time.
+     */
+    private Reservation reserveLocalPermit(long maxWaitNanos) {
+        while (true){
+            long now = System.nanoTime();
+            long arrivalTime = theoreticalArrivalTime.get();
+            long slot = arrivalTime - now > 0 ? arrivalTime : now;
+            long interval = emissionIntervalNanos;
+            long waitNanos = Math.max(slot - now - burstToleranceNanos, 0L);
+
+            if (waitNanos > maxWaitNanos){
+                return null;
+            }
+            if (theoreticalArrivalTime.compareAndSet(arrivalTime, slot + interval)){
+                return new Reservation(arrivalTime, slot + interval, interval, waitNanos);
+            }
+        }
+    }
+
+    private static final class Reservation {
+        private final long previousArrivalTime;
+        private final long arrivalTime;
+        private final long interval;
+        private final long waitNanos;
+
+        private Reservation(long previousArrivalTime, long arrivalTime, long interval, long waitNanos) {
+            this.previousArrivalTime = previousArrivalTime;
+            this.arrivalTime = arrivalTime;
+            this.interval = interval;
+            this.waitNanos = waitNanos;
+        }
+    }
 }
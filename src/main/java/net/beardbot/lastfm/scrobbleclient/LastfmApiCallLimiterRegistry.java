@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one {@link LastfmApiCallLimiter} per API key, or per API key and user if
+ * {@link LastfmConfiguration#isRateLimitPerUser()} is set.
+ * Clients sharing a registry share the limiters of their partitions, while clients of different partitions don't
+ * throttle each other. If {@link LastfmConfiguration#getGlobalApiCallLimitPerSecond()} is greater than zero, all
+ * limiters of the registry are additionally bound to a global ceiling.
+ * The configuration of the first client of a partition determines the limits of that partition.
+ */
+@Slf4j
+public class LastfmApiCallLimiterRegistry {
+    private static final LastfmApiCallLimiterRegistry defaultRegistry = new LastfmApiCallLimiterRegistry();
+
+    private final Map<String,LastfmApiCallLimiter> limiters = new ConcurrentHashMap<>();
+    private volatile LastfmApiCallLimiter globalLimiter;
+
+    /**
+     * @return The registry used by all clients that have not been given a registry explicitly.
+     */
+    public static LastfmApiCallLimiterRegistry getDefault(){
+        return defaultRegistry;
+    }
+
+    /**
+     * @return The number of partitions that currently have a limiter.
+     */
+    public int size(){
+        return limiters.size();
+    }
+
+    /**
+     * Removes all limiters from this registry.
+     * Clients that are already logged in keep using their current limiter.
+     */
+    public void clear(){
+        limiters.clear();
+        globalLimiter = null;
+    }
+
+    LastfmApiCallLimiter getLimiter(LastfmAuthenticationDetails authDetails, LastfmConfiguration config){
+        String partitionKey = partitionKey(authDetails, config);
+        return limiters.computeIfAbsent(partitionKey, key -> {
+            log.debug("Creating API call limiter for partition {}.",key);
+            return new LastfmApiCallLimiter(config, getGlobalLimiter(config));
+        });
+    }
+
+    private LastfmApiCallLimiter getGlobalLimiter(LastfmConfiguration config){
+        if (config.getGlobalApiCallLimitPerSecond() <= 0){
+            return null;
+        }
+        if (globalLimiter == null){
+            synchronized (this){
+                if (globalLimiter == null){
+                    globalLimiter = new LastfmApiCallLimiter(config.getGlobalApiCallLimitPerSecond(),config.getApiCallBurstLimit(),
+                            config.getMillisForCallLimit(),null);
+                }
+            }
+        }
+        return globalLimiter;
+    }
+
+    static String partitionKey(LastfmAuthenticationDetails authDetails, LastfmConfiguration config){
+        String apiKey = StringUtils.defaultString(authDetails.getApiKey());
+        if (!config.isRateLimitPerUser()){
+            return apiKey;
+        }
+        return String.format("%s/%s",apiKey,StringUtils.lowerCase(StringUtils.defaultString(authDetails.getUsername())));
+    }
+}
@@ -20,20 +20,112 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
+import java.nio.file.Path;
+
 @Getter
 @Setter
 @ToString
 public class LastfmConfiguration {
 
     public static final int DEFAULT_API_CALL_LIMIT_PER_SECOND = 5;
+    public static final int DEFAULT_API_CALL_BURST_LIMIT = 1;
     public static final int DEFAULT_MAX_RESULTS_PER_PAGE = 1000;
     public static final int DEFAULT_RESULTS_PER_PAGE = 50;
     public static final long DEFAULT_MILLIS_FOR_CALL_LIMIT = 1039L;
     public static final boolean DEFAULT_INCLUDE_PLAYING_TRACKS = false;
+    public static final int DEFAULT_MAX_SCROBBLES_PER_BATCH = 50;
+    /**
+     * The maximum number of scrobbles Last.fm accepts in a single call of <code>track.scrobble</code>.
+     */
+    public static final int MAX_SCROBBLES_PER_BATCH_LIMIT = 50;
+    public static final boolean DEFAULT_RATE_LIMIT_PER_USER = false;
+    public static final int DEFAULT_GLOBAL_API_CALL_LIMIT_PER_SECOND = 0;
+    public static final ScrobbleTrackingMode DEFAULT_SCROBBLE_TRACKING_MODE = ScrobbleTrackingMode.WEAK;
+    public static final int DEFAULT_MAX_TRACKED_SCROBBLES = 10000;
+    public static final long DEFAULT_SCROBBLE_TRACKING_EXPIRY_MILLIS = 0L;
+    public static final int DEFAULT_PAGE_PREFETCH_COUNT = 1;
+    public static final ScrobbleQueueSyncPolicy DEFAULT_SCROBBLE_QUEUE_SYNC_POLICY = ScrobbleQueueSyncPolicy.ALWAYS;
+    public static final long DEFAULT_SCROBBLE_QUEUE_SYNC_INTERVAL_MILLIS = 1000L;
+    public static final long DEFAULT_SCROBBLE_QUEUE_DRAIN_INTERVAL_MILLIS = 5000L;
+    public static final long DEFAULT_SCROBBLE_QUEUE_COMPACTION_THRESHOLD_BYTES = 1024L * 1024L;
+    public static final int DEFAULT_HISTORY_EXPORT_PARALLELISM = 4;
+    public static final boolean DEFAULT_ADAPTIVE_RATE_LIMITING = false;
+    public static final double DEFAULT_ADAPTIVE_MIN_API_CALL_LIMIT_PER_SECOND = 0.5;
+    public static final double DEFAULT_ADAPTIVE_MAX_API_CALL_LIMIT_PER_SECOND = 0;
+    public static final double DEFAULT_ADAPTIVE_RATE_DECREASE_FACTOR = 0.5;
+    public static final double DEFAULT_ADAPTIVE_RATE_INCREASE_STEP = 1.0;
+    public static final long DEFAULT_ADAPTIVE_LATENCY_THRESHOLD_MILLIS = 2000L;
+    public static final RetryPolicy DEFAULT_SCROBBLE_RETRY_POLICY = RetryPolicy.exponentialBackoff(3, 1000L, 30000L);
+    public static final RetryPolicy DEFAULT_NOW_PLAYING_RETRY_POLICY = RetryPolicy.none();
+    public static final RetryPolicy DEFAULT_FETCH_RETRY_POLICY = RetryPolicy.exponentialBackoff(3, 1000L, 30000L);
+    public static final boolean DEFAULT_CIRCUIT_BREAKER_ENABLED = false;
+    public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+    public static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 10;
+    public static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 50.0;
+    public static final double DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD = 100.0;
+    public static final long DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION_MILLIS = 10000L;
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION_MILLIS = 30000L;
+    public static final int DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS = 3;
+    public static final boolean DEFAULT_QUEUE_SCROBBLES_WHILE_CIRCUIT_OPEN = false;
+    public static final String DEFAULT_API_ROOT_URL = "https://ws.audioscrobbler.com/2.0/";
+    public static final boolean DEFAULT_STREAMING_RESPONSE_PARSING = false;
+    public static final boolean DEFAULT_STRING_DEDUPLICATION = false;
+    public static final int DEFAULT_STRING_POOL_CAPACITY = 16384;
 
     private int apiCallLimitPerSecond = DEFAULT_API_CALL_LIMIT_PER_SECOND;
+    private int apiCallBurstLimit = DEFAULT_API_CALL_BURST_LIMIT;
     private int maxResultsPerPage = DEFAULT_MAX_RESULTS_PER_PAGE;
     private int resultsPerPage = DEFAULT_RESULTS_PER_PAGE;
     private long millisForCallLimit = DEFAULT_MILLIS_FOR_CALL_LIMIT;
     private boolean includePlayingTracks = DEFAULT_INCLUDE_PLAYING_TRACKS;
+    private int maxScrobblesPerBatch = DEFAULT_MAX_SCROBBLES_PER_BATCH;
+    private boolean rateLimitPerUser = DEFAULT_RATE_LIMIT_PER_USER;
+    private int globalApiCallLimitPerSecond = DEFAULT_GLOBAL_API_CALL_LIMIT_PER_SECOND;
+    private ScrobbleTrackingMode scrobbleTrackingMode = DEFAULT_SCROBBLE_TRACKING_MODE;
+    private int maxTrackedScrobbles = DEFAULT_MAX_TRACKED_SCROBBLES;
+    private long scrobbleTrackingExpiryMillis = DEFAULT_SCROBBLE_TRACKING_EXPIRY_MILLIS;
+    private int pagePrefetchCount = DEFAULT_PAGE_PREFETCH_COUNT;
+    private Path historyStoreDirectory;
+    private Path scrobbleQueueDirectory;
+    private ScrobbleQueueSyncPolicy scrobbleQueueSyncPolicy = DEFAULT_SCROBBLE_QUEUE_SYNC_POLICY;
+    private long scrobbleQueueSyncIntervalMillis = DEFAULT_SCROBBLE_QUEUE_SYNC_INTERVAL_MILLIS;
+    private long scrobbleQueueDrainIntervalMillis = DEFAULT_SCROBBLE_QUEUE_DRAIN_INTERVAL_MILLIS;
+    private long scrobbleQueueCompactionThresholdBytes = DEFAULT_SCROBBLE_QUEUE_COMPACTION_THRESHOLD_BYTES;
+    private int historyExportParallelism = DEFAULT_HISTORY_EXPORT_PARALLELISM;
+    private boolean adaptiveRateLimiting = DEFAULT_ADAPTIVE_RATE_LIMITING;
+    private double adaptiveMinApiCallLimitPerSecond = DEFAULT_ADAPTIVE_MIN_API_CALL_LIMIT_PER_SECOND;
+    private double adaptiveMaxApiCallLimitPerSecond = DEFAULT_ADAPTIVE_MAX_API_CALL_LIMIT_PER_SECOND;
+    private double adaptiveRateDecreaseFactor = DEFAULT_ADAPTIVE_RATE_DECREASE_FACTOR;
+    private double adaptiveRateIncreaseStep = DEFAULT_ADAPTIVE_RATE_INCREASE_STEP;
+    private long adaptiveLatencyThresholdMillis = DEFAULT_ADAPTIVE_LATENCY_THRESHOLD_MILLIS;
+    private RetryPolicy scrobbleRetryPolicy = DEFAULT_SCROBBLE_RETRY_POLICY;
+    private RetryPolicy nowPlayingRetryPolicy = DEFAULT_NOW_PLAYING_RETRY_POLICY;
+    private RetryPolicy fetchRetryPolicy = DEFAULT_FETCH_RETRY_POLICY;
+    private boolean circuitBreakerEnabled = DEFAULT_CIRCUIT_BREAKER_ENABLED;
+    private int circuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+    private int circuitBreakerMinimumCalls = DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS;
+    private double circuitBreakerFailureRateThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+    private double circuitBreakerSlowCallRateThreshold = DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD;
+    private long circuitBreakerSlowCallDurationMillis = DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION_MILLIS;
+    private long circuitBreakerOpenDurationMillis = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION_MILLIS;
+    private int circuitBreakerHalfOpenCalls = DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS;
+    private boolean queueScrobblesWhileCircuitOpen = DEFAULT_QUEUE_SCROBBLES_WHILE_CIRCUIT_OPEN;
+    private LastfmTransport transport;
+    private String apiRootUrl = DEFAULT_API_ROOT_URL;
+    private boolean streamingResponseParsing = DEFAULT_STREAMING_RESPONSE_PARSING;
+    private SessionStore sessionStore;
+    private boolean stringDeduplication = DEFAULT_STRING_DEDUPLICATION;
+    private int stringPoolCapacity = DEFAULT_STRING_POOL_CAPACITY;
+
+    /**
+     * @param maxScrobblesPerBatch The maximum number of scrobbles that are sent in a single API call.
+     * @throws IllegalArgumentException If the value is not between 1 and {@link #MAX_SCROBBLES_PER_BATCH_LIMIT}.
+     */
+    public void setMaxScrobblesPerBatch(int maxScrobblesPerBatch){
+        if (maxScrobblesPerBatch < 1 || maxScrobblesPerBatch > MAX_SCROBBLES_PER_BATCH_LIMIT){
+            throw new IllegalArgumentException(String.format("The maximum number of scrobbles per batch must be between 1 and %d, but was %d.",
+                    MAX_SCROBBLES_PER_BATCH_LIMIT,maxScrobblesPerBatch));
+        }
+        this.maxScrobblesPerBatch = maxScrobblesPerBatch;
+    }
 }
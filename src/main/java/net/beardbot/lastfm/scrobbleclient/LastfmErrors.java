@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Result;
+
+/**
+ * Classifies Last.fm error responses.
+ * See <a href="https://www.last.fm/api/errorcodes">https://www.last.fm/api/errorcodes</a>.
+ */
+class LastfmErrors {
+    static final int OPERATION_FAILED = 8;
+    static final int INVALID_SESSION_KEY = 9;
+    static final int SERVICE_OFFLINE = 11;
+    static final int TEMPORARY_ERROR = 16;
+    static final int RATE_LIMIT_EXCEEDED = 29;
+
+    private static final int TOO_MANY_REQUESTS_HTTP_CODE = 429;
+    private static final int SERVER_ERROR_HTTP_CODE = 500;
+
+    private LastfmErrors(){}
+
+    /**
+     * @return Whether the result indicates that Last.fm is overloaded and calls should be slowed down.
+     */
+    static boolean isOverloaded(Result result){
+        return result.getErrorCode() == RATE_LIMIT_EXCEEDED
+                || result.getHttpErrorCode() == TOO_MANY_REQUESTS_HTTP_CODE
+                || result.getHttpErrorCode() >= SERVER_ERROR_HTTP_CODE;
+    }
+
+    /**
+     * @return Whether the call failed for a reason that may go away when the call is repeated.
+     *         Errors caused by the request itself, e.g. invalid parameters or an invalid session, are permanent.
+     */
+    static boolean isTransient(Result result){
+        if (result == null || result.isSuccessful()){
+            return false;
+        }
+        switch (result.getErrorCode()){
+            case OPERATION_FAILED:
+            case SERVICE_OFFLINE:
+            case TEMPORARY_ERROR:
+            case RATE_LIMIT_EXCEEDED:
+                return true;
+            default:
+                return isOverloaded(result);
+        }
+    }
+}
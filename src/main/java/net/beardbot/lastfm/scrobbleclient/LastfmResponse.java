@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.Getter;
+
+/**
+ * The response of a Last.fm API call together with the number of attempts it took.
+ */
+@Getter
+class LastfmResponse<T> {
+    private final T value;
+    private final int attempts;
+
+    LastfmResponse(T value, int attempts){
+        this.value = value;
+        this.attempts = attempts;
+    }
+}
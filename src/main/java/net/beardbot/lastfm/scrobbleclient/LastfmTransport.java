@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Sends requests to the Last.fm API.
+ * Implementations are responsible for connection handling, e.g. pooling, timeouts and compression, and have to be
+ * safe for concurrent use. See {@link LastfmConfiguration#setTransport(LastfmTransport)}.
+ */
+public interface LastfmTransport {
+    /**
+     * Sends a form-encoded POST request.
+     * @param url The URL of the API endpoint.
+     * @param parameters The form parameters, already including the API signature if the method requires one.
+     * @param userAgent The value of the User-Agent header.
+     * @throws IOException If the request could not be sent or the response could not be read.
+     * @return The response. Its body must already be decompressed.
+     */
+    LastfmHttpResponse post(String url, Map<String, String> parameters, String userAgent) throws IOException;
+}
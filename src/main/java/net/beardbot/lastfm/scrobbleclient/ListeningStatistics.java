@@ -0,0 +1,393 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.extern.slf4j.Slf4j;
+import net.beardbot.lastfm.scrobbleclient.exception.ListeningStatisticsException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Incrementally aggregated play counts per artist, per track and per day.
+ * Scrobbles are recorded once, e.g. from {@link ScrobbleClient#streamAllScrobbles()}, and afterwards by the
+ * {@link ScrobbleClient} the statistics are attached to (see {@link ScrobbleClient#setListeningStatistics(ListeningStatistics)}),
+ * so queries never need to fetch the history again.
+ * Artist and track names are mapped to int IDs, and the counts of every day (in UTC) are kept in primitive hash maps,
+ * so a query over a time range only merges the counts of the days within the range.
+ * Statistics of several shards of a history can be recorded independently and combined with {@link #merge(ListeningStatistics)}.
+ * The statistics can be saved with {@link #writeTo(Path)} and restored with {@link #readFrom(Path)}.
+ * Recording does not detect duplicates, so every scrobble must only be recorded once. Unscrobbling and updating
+ * scrobbles does not change the statistics. All methods are thread-safe.
+ */
+@Slf4j
+public class ListeningStatistics {
+    static final int MAGIC = 0x4C465354;
+    static final int VERSION = 1;
+
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private final Map<String,Integer> artistIds = new HashMap<>();
+    private final List<String> artists = new ArrayList<>();
+    private final Map<String,Integer> trackIds = new HashMap<>();
+    private final List<String> trackNames = new ArrayList<>();
+    private int[] trackArtistIds = new int[64];
+    private final IntCountMap artistPlays = new IntCountMap();
+    private final IntCountMap trackPlays = new IntCountMap();
+    private final TreeMap<Integer,Day> days = new TreeMap<>();
+    private long playCount;
+    private int newestTimestamp = Scrobble.NO_TIMESTAMP;
+
+    /**
+     * Records a play. Scrobbles without timestamp, e.g. tracks that are currently playing, and scrobbles without
+     * artist or track name are ignored.
+     */
+    public synchronized void record(final Scrobble scrobble){
+        if (!scrobble.hasTimestamp() || scrobble.isNowPlaying() || scrobble.getArtist() == null || scrobble.getTrackName() == null){
+            return;
+        }
+        int artistId = artistId(scrobble.getArtist());
+        int trackId = trackId(artistId, scrobble.getTrackName());
+        addPlays(Math.floorDiv(scrobble.getEpochSeconds(), SECONDS_PER_DAY), artistId, trackId, 1);
+        newestTimestamp = Math.max(newestTimestamp, scrobble.getEpochSeconds());
+    }
+
+    /**
+     * Records all plays of a collection of scrobbles.
+     */
+    public void recordAll(final Iterable<Scrobble> scrobbles){
+        for (Scrobble scrobble : scrobbles) {
+            record(scrobble);
+        }
+    }
+
+    /**
+     * Records all plays of a stream of scrobbles, consuming the stream.
+     */
+    public void recordAll(final Stream<Scrobble> scrobbles){
+        scrobbles.forEachOrdered(this::record);
+    }
+
+    /**
+     * Adds the plays recorded by other statistics, e.g. those of another shard of the same history.
+     * @param other The statistics to add. They are not modified.
+     */
+    public void merge(final ListeningStatistics other){
+        ListeningStatistics snapshot = other.copy();
+        synchronized (this){
+            int[] artistIdMapping = new int[snapshot.artists.size()];
+            for (int artistId = 0; artistId < artistIdMapping.length; artistId++) {
+                artistIdMapping[artistId] = artistId(snapshot.artists.get(artistId));
+            }
+            int[] trackIdMapping = new int[snapshot.trackNames.size()];
+            for (int trackId = 0; trackId < trackIdMapping.length; trackId++) {
+                trackIdMapping[trackId] = trackId(artistIdMapping[snapshot.trackArtistIds[trackId]], snapshot.trackNames.get(trackId));
+            }
+            snapshot.days.forEach((day, counts) -> counts.trackPlays.forEach((trackId, plays) ->
+                    addPlays(day, trackArtistIds[trackIdMapping[trackId]], trackIdMapping[trackId], plays)));
+            newestTimestamp = Math.max(newestTimestamp, snapshot.newestTimestamp);
+        }
+    }
+
+    /**
+     * @return The total number of recorded plays.
+     */
+    public synchronized long getPlayCount(){
+        return playCount;
+    }
+
+    /**
+     * @return The timestamp of the most recent recorded play in seconds since the epoch, or null if no play has been recorded.
+     *         Can be used for recording only the scrobbles that are newer.
+     */
+    public synchronized Integer getNewestTimestamp(){
+        return newestTimestamp == Scrobble.NO_TIMESTAMP ? null : newestTimestamp;
+    }
+
+    /**
+     * @param limit The maximum number of returned artists.
+     * @return The most played artists of all time, starting with the most played one.
+     *         Artists with the same number of plays are ordered by their first recorded play.
+     */
+    public synchronized List<PlayCount> getTopArtists(int limit){
+        return topArtists(artistPlays, limit);
+    }
+
+    /**
+     * @param limit The maximum number of returned artists.
+     * @param from The beginning of the time range. The whole day (in UTC) it belongs to is included.
+     * @param to The end of the time range. The whole day (in UTC) it belongs to is included.
+     * @return The most played artists within the time range, starting with the most played one.
+     */
+    public synchronized List<PlayCount> getTopArtists(int limit, final Temporal from, final Temporal to){
+        IntCountMap plays = new IntCountMap();
+        for (Day day : daysBetween(from, to).values()) {
+            plays.addAll(day.artistPlays);
+        }
+        return topArtists(plays, limit);
+    }
+
+    /**
+     * @param limit The maximum number of returned tracks.
+     * @return The most played tracks of all time, starting with the most played one.
+     *         Tracks with the same number of plays are ordered by their first recorded play.
+     */
+    public synchronized List<PlayCount> getTopTracks(int limit){
+        return topTracks(trackPlays, limit);
+    }
+
+    /**
+     * @param limit The maximum number of returned tracks.
+     * @param from The beginning of the time range. The whole day (in UTC) it belongs to is included.
+     * @param to The end of the time range. The whole day (in UTC) it belongs to is included.
+     * @return The most played tracks within the time range, starting with the most played one.
+     */
+    public synchronized List<PlayCount> getTopTracks(int limit, final Temporal from, final Temporal to){
+        IntCountMap plays = new IntCountMap();
+        for (Day day : daysBetween(from, to).values()) {
+            plays.addAll(day.trackPlays);
+        }
+        return topTracks(plays, limit);
+    }
+
+    /**
+     * @param from The beginning of the time range. The whole day (in UTC) it belongs to is included.
+     * @param to The end of the time range. The whole day (in UTC) it belongs to is included.
+     * @return The number of plays of every day (in UTC) within the time range that has plays, in chronological order.
+     */
+    public synchronized SortedMap<LocalDate,Integer> getPlaysPerDay(final Temporal from, final Temporal to){
+        SortedMap<LocalDate,Integer> playsPerDay = new TreeMap<>();
+        daysBetween(from, to).forEach((day, counts) -> playsPerDay.put(LocalDate.ofEpochDay(day), counts.plays));
+        return playsPerDay;
+    }
+
+    /**
+     * Saves the statistics to a file. An existing file is replaced atomically.
+     * @throws ListeningStatisticsException If the file could not be written.
+     */
+    public synchronized void writeTo(final Path file){
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))){
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(newestTimestamp);
+                output.writeInt(artists.size());
+                for (String artist : artists) {
+                    output.writeUTF(artist);
+                }
+                output.writeInt(trackNames.size());
+                for (int trackId = 0; trackId < trackNames.size(); trackId++) {
+                    output.writeInt(trackArtistIds[trackId]);
+                    output.writeUTF(trackNames.get(trackId));
+                }
+                output.writeInt(days.size());
+                for (Map.Entry<Integer,Day> day : days.entrySet()) {
+                    output.writeInt(day.getKey());
+                    output.writeInt(day.getValue().trackPlays.size());
+                    IOException[] failure = new IOException[1];
+                    day.getValue().trackPlays.forEach((trackId, plays) -> {
+                        try {
+                            output.writeInt(trackId);
+                            output.writeInt(plays);
+                        } catch (IOException e){
+                            failure[0] = e;
+                        }
+                    });
+                    if (failure[0] != null){
+                        throw failure[0];
+                    }
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            throw new ListeningStatisticsException(String.format("Failed to write listening statistics to %s",file),e);
+        }
+        log.debug("Saved listening statistics with {} plays to {}.",playCount,file);
+    }
+
+    /**
+     * Restores statistics saved with {@link #writeTo(Path)}.
+     * @throws ListeningStatisticsException If the file could not be read or is not a statistics file.
+     */
+    public static ListeningStatistics readFrom(final Path file){
+        ListeningStatistics statistics = new ListeningStatistics();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))){
+            if (input.readInt() != MAGIC){
+                throw new IOException("Not a listening statistics file");
+            }
+            int version = input.readInt();
+            if (version != VERSION){
+                throw new IOException(String.format("Unsupported version %d",version));
+            }
+            int newestTimestamp = input.readInt();
+
+            int artistCount = input.readInt();
+            for (int artistId = 0; artistId < artistCount; artistId++) {
+                statistics.artistId(input.readUTF());
+            }
+            int trackCount = input.readInt();
+            for (int trackId = 0; trackId < trackCount; trackId++) {
+                int artistId = input.readInt();
+                if (artistId < 0 || artistId >= artistCount){
+                    throw new IOException(String.format("Invalid artist ID %d",artistId));
+                }
+                statistics.trackId(artistId, input.readUTF());
+            }
+            int dayCount = input.readInt();
+            for (int i = 0; i < dayCount; i++) {
+                int day = input.readInt();
+                int entryCount = input.readInt();
+                for (int j = 0; j < entryCount; j++) {
+                    int trackId = input.readInt();
+                    int plays = input.readInt();
+                    if (trackId < 0 || trackId >= trackCount || plays <= 0){
+                        throw new IOException(String.format("Invalid play count %d of track ID %d",plays,trackId));
+                    }
+                    statistics.addPlays(day, statistics.trackArtistIds[trackId], trackId, plays);
+                }
+            }
+            statistics.newestTimestamp = newestTimestamp;
+        } catch (IOException e){
+            throw new ListeningStatisticsException(String.format("Failed to read listening statistics from %s",file),e);
+        }
+        return statistics;
+    }
+
+    private synchronized ListeningStatistics copy(){
+        ListeningStatistics copy = new ListeningStatistics();
+        copy.artists.addAll(artists);
+        copy.trackNames.addAll(trackNames);
+        copy.trackArtistIds = Arrays.copyOf(trackArtistIds, trackNames.size());
+        days.forEach((day, counts) -> {
+            Day copiedDay = new Day();
+            copiedDay.trackPlays.addAll(counts.trackPlays);
+            copy.days.put(day, copiedDay);
+        });
+        copy.newestTimestamp = newestTimestamp;
+        return copy;
+    }
+
+    private void addPlays(int day, int artistId, int trackId, int plays){
+        Day counts = days.computeIfAbsent(day, key -> new Day());
+        counts.artistPlays.add(artistId, plays);
+        counts.trackPlays.add(trackId, plays);
+        counts.plays += plays;
+        artistPlays.add(artistId, plays);
+        trackPlays.add(trackId, plays);
+        playCount += plays;
+    }
+
+    private NavigableMap<Integer,Day> daysBetween(Temporal from, Temporal to){
+        int fromDay = Math.floorDiv(Utils.temporalToEpochSeconds(from), SECONDS_PER_DAY);
+        int toDay = Math.floorDiv(Utils.temporalToEpochSeconds(to), SECONDS_PER_DAY);
+        if (fromDay > toDay){
+            throw new IllegalArgumentException(String.format("Invalid time range from %s to %s",from,to));
+        }
+        return days.subMap(fromDay, true, toDay, true);
+    }
+
+    private int artistId(String artist){
+        Integer artistId = artistIds.get(artist);
+        if (artistId == null){
+            artistId = artists.size();
+            artistIds.put(artist, artistId);
+            artists.add(artist);
+        }
+        return artistId;
+    }
+
+    private int trackId(int artistId, String trackName){
+        String key = artistId + "\u0000" + trackName;
+        Integer trackId = trackIds.get(key);
+        if (trackId == null){
+            trackId = trackNames.size();
+            trackIds.put(key, trackId);
+            trackNames.add(trackName);
+            if (trackId == trackArtistIds.length){
+                trackArtistIds = Arrays.copyOf(trackArtistIds, trackId << 1);
+            }
+            trackArtistIds[trackId] = artistId;
+        }
+        return trackId;
+    }
+
+    private List<PlayCount> topArtists(IntCountMap plays, int limit){
+        List<PlayCount> topArtists = new ArrayList<>();
+        for (long entry : top(plays, limit)) {
+            topArtists.add(new PlayCount(artists.get(id(entry)), null, plays(entry)));
+        }
+        return topArtists;
+    }
+
+    private List<PlayCount> topTracks(IntCountMap plays, int limit){
+        List<PlayCount> topTracks = new ArrayList<>();
+        for (long entry : top(plays, limit)) {
+            int trackId = id(entry);
+            topTracks.add(new PlayCount(artists.get(trackArtistIds[trackId]), trackNames.get(trackId), plays(entry)));
+        }
+        return topTracks;
+    }
+
+    /**
+     * Selects the entries with the highest counts. Every entry is packed into a long, with the count in the upper
+     * half and the complement of the ID in the lower half, so sorting the longs orders them by count and then by ID.
+     */
+    private static long[] top(IntCountMap plays, int limit){
+        long[] entries = new long[plays.size()];
+        int[] size = new int[1];
+        plays.forEach((id, count) -> entries[size[0]++] = ((long) count << 32) | (~id & 0xFFFFFFFFL));
+        Arrays.sort(entries);
+
+        long[] top = new long[Math.max(0, Math.min(limit, entries.length))];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = entries[entries.length - 1 - i];
+        }
+        return top;
+    }
+
+    private static int id(long entry){
+        return ~(int) entry;
+    }
+
+    private static int plays(long entry){
+        return (int) (entry >>> 32);
+    }
+
+    private static class Day {
+        private final IntCountMap artistPlays = new IntCountMap();
+        private final IntCountMap trackPlays = new IntCountMap();
+        private int plays;
+    }
+}
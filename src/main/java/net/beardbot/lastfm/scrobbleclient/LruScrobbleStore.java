@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Evicts the least recently used scrobbles as soon as the maximum size is exceeded,
+ * and scrobbles that have not been accessed within the expiry time.
+ * This store is not thread-safe.
+ */
+class LruScrobbleStore implements ScrobbleStore {
+    private final int maxSize;
+    private final long expiryMillis;
+    private final Clock clock;
+    private final LinkedHashMap<Scrobble,Entry> scrobbles = new LinkedHashMap<>(16, 0.75f, true);
+    private long evictionCount;
+
+    /**
+     * @param maxSize The maximum number of tracked scrobbles.
+     * @param expiryMillis The time after which unused scrobbles are evicted. Values less than or equal to zero disable expiry.
+     */
+    LruScrobbleStore(int maxSize, long expiryMillis, Clock clock){
+        this.maxSize = maxSize;
+        this.expiryMillis = expiryMillis;
+        this.clock = clock;
+    }
+
+    @Override
+    public void put(Scrobble persistedScrobble, Scrobble originalScrobble) {
+        long now = clock.millis();
+        evictExpired(now);
+        scrobbles.put(persistedScrobble, new Entry(originalScrobble, now));
+
+        while (scrobbles.size() > maxSize){
+            evictEldest();
+        }
+    }
+
+    @Override
+    public Scrobble get(Scrobble persistedScrobble) {
+        long now = clock.millis();
+        evictExpired(now);
+
+        Entry entry = scrobbles.get(persistedScrobble);
+        if (entry == null){
+            return null;
+        }
+        entry.lastAccess = now;
+        return entry.originalScrobble;
+    }
+
+    @Override
+    public boolean update(Scrobble persistedScrobble, Consumer<Scrobble> action) {
+        Scrobble originalScrobble = get(persistedScrobble);
+        if (originalScrobble == null){
+            return false;
+        }
+        action.accept(originalScrobble);
+        return true;
+    }
+
+    @Override
+    public void remove(Scrobble persistedScrobble) {
+        scrobbles.remove(persistedScrobble);
+    }
+
+    @Override
+    public int size() {
+        evictExpired(clock.millis());
+        return scrobbles.size();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void evictExpired(long now){
+        if (expiryMillis <= 0){
+            return;
+        }
+        Iterator<Map.Entry<Scrobble,Entry>> iterator = scrobbles.entrySet().iterator();
+        while (iterator.hasNext() && now - iterator.next().getValue().lastAccess >= expiryMillis){
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private void evictEldest(){
+        Iterator<Scrobble> iterator = scrobbles.keySet().iterator();
+        iterator.next();
+        iterator.remove();
+        evictionCount++;
+    }
+
+    private static class Entry {
+        private final Scrobble originalScrobble;
+        private long lastAccess;
+
+        private Entry(Scrobble originalScrobble, long lastAccess){
+            this.originalScrobble = originalScrobble;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
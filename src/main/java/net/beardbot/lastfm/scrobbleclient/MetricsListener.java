@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.scrobble.IgnoredMessageCode;
+
+/**
+ * Receives measurements of the calls a {@link ScrobbleClient} makes, e.g. to export them to a monitoring system.
+ * All methods do nothing by default, so implementations only override what they record.
+ * Listeners are called synchronously by the calling thread and should return quickly.
+ * Gauges like the number of tracked or queued scrobbles can be read from the {@link ScrobbleClient} itself,
+ * e.g. {@link ScrobbleClient#getTrackedScrobbleCount()} and {@link ScrobbleClient#getQueuedScrobbleCount()}.
+ */
+public interface MetricsListener {
+    String GET_RECENT_TRACKS = "user.getRecentTracks";
+    String SCROBBLE = "track.scrobble";
+    String UPDATE_NOW_PLAYING = "track.updateNowPlaying";
+    String GET_SESSION = "auth.getMobileSession";
+    String UNSCROBBLER_LOGIN = "unscrobbler.login";
+    String UNSCROBBLE = "unscrobbler.unscrobble";
+
+    /**
+     * Called when a call has finished, including all of its retries.
+     * @param operation The called operation, one of the constants of this interface.
+     * @param durationNanos The time from the first attempt until the call finished, including backoff between retries.
+     * @param attempts The number of attempts.
+     * @param successful Whether the call succeeded. Ignored scrobbles count as successful calls.
+     */
+    default void onCall(String operation, long durationNanos, int attempts, boolean successful){
+    }
+
+    /**
+     * Called for every attempt that Last.fm answered with an error, also if the call is retried afterwards.
+     * @param operation The called operation.
+     * @param errorCode The Last.fm error code, or -1 if the response contained none.
+     * @param httpStatusCode The HTTP status code, or -1 if it is unknown.
+     */
+    default void onError(String operation, int errorCode, int httpStatusCode){
+    }
+
+    /**
+     * Called before a failed call is attempted again.
+     * @param operation The called operation.
+     * @param attempt The number of the upcoming attempt, starting with 2.
+     */
+    default void onRetry(String operation, int attempt){
+    }
+
+    /**
+     * Called whenever a call had to wait for the API call limit.
+     * @param waitNanos The time spent waiting.
+     */
+    default void onCallLimiterWait(long waitNanos){
+    }
+
+    /**
+     * Called for every fetched page of recent tracks.
+     * @param page The page number.
+     * @param scrobbles The number of scrobbles on the page, including a track that is currently playing.
+     */
+    default void onPageFetched(int page, int scrobbles){
+    }
+
+    /**
+     * Called for every scrobble or now playing update that Last.fm accepted but ignored.
+     * @param operation The called operation.
+     * @param ignoredMessageCode The reason why Last.fm ignored the scrobble.
+     */
+    default void onScrobbleIgnored(String operation, IgnoredMessageCode ignoredMessageCode){
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.scrobble.IgnoredMessageCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Forwards measurements to all registered {@link MetricsListener}s. A failing listener is logged and does not
+ * affect the other listeners or the measured call.
+ */
+@Slf4j
+class MetricsListeners implements MetricsListener {
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    void add(MetricsListener listener){
+        listeners.add(listener);
+    }
+
+    void remove(MetricsListener listener){
+        listeners.remove(listener);
+    }
+
+    boolean isEmpty(){
+        return listeners.isEmpty();
+    }
+
+    @Override
+    public void onCall(String operation, long durationNanos, int attempts, boolean successful){
+        notifyListeners(listener -> listener.onCall(operation, durationNanos, attempts, successful));
+    }
+
+    @Override
+    public void onError(String operation, int errorCode, int httpStatusCode){
+        notifyListeners(listener -> listener.onError(operation, errorCode, httpStatusCode));
+    }
+
+    @Override
+    public void onRetry(String operation, int attempt){
+        notifyListeners(listener -> listener.onRetry(operation, attempt));
+    }
+
+    @Override
+    public void onCallLimiterWait(long waitNanos){
+        notifyListeners(listener -> listener.onCallLimiterWait(waitNanos));
+    }
+
+    @Override
+    public void onPageFetched(int page, int scrobbles){
+        notifyListeners(listener -> listener.onPageFetched(page, scrobbles));
+    }
+
+    @Override
+    public void onScrobbleIgnored(String operation, IgnoredMessageCode ignoredMessageCode){
+        notifyListeners(listener -> listener.onScrobbleIgnored(operation, ignoredMessageCode));
+    }
+
+    private void notifyListeners(Consumer<MetricsListener> notification){
+        for (MetricsListener listener : listeners) {
+            try {
+                notification.accept(listener);
+            } catch (RuntimeException e){
+                log.warn("Metrics listener failed.",e);
+            }
+        }
+    }
+}
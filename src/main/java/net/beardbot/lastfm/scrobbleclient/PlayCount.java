@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The number of plays of an artist or a track, as returned by the queries of {@link ListeningStatistics}.
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public final class PlayCount {
+    private final String artist;
+    /**
+     * The name of the track, or null if this is the play count of an artist.
+     */
+    private final String trackName;
+    private final int plays;
+
+    PlayCount(String artist, String trackName, int plays){
+        this.artist = artist;
+        this.trackName = trackName;
+        this.plays = plays;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntFunction;
+
+/**
+ * Fetches pages of recent tracks ahead of time, keeping up to a fixed number of page requests in flight.
+ * The first page is fetched on its own to learn the total number of pages. Afterwards the following pages are
+ * requested concurrently and handed to the collector strictly in page order, so the since cutoff and the total
+ * limit are applied exactly as with sequential fetching. Outstanding requests are cancelled as soon as the
+ * collector is finished; up to prefetchCount - 1 pages beyond the cutoff may have been fetched by then.
+ */
+@Slf4j
+class PrefetchingScrobblePageIterator implements Iterator<List<Scrobble>> {
+    private final ScrobblePageCollector collector;
+    private final IntFunction<CompletableFuture<ScrobblePage>> pageFetcher;
+    private final int prefetchCount;
+    private final int pageLimit;
+
+    private final Deque<CompletableFuture<ScrobblePage>> pendingPages = new ArrayDeque<>();
+    private int currentPage = 1;
+    private int nextRequestedPage = 1;
+    private int lastPage = 1;
+    private List<Scrobble> nextPage;
+
+    /**
+     * @param collector The collector deciding which scrobbles are returned and when to stop.
+     * @param pageFetcher Requests the page with the given number asynchronously, respecting the API call limit.
+     * @param prefetchCount The maximum number of page requests in flight.
+     * @param pageLimit The maximum number of pages that shall be requested.
+     */
+    PrefetchingScrobblePageIterator(ScrobblePageCollector collector, IntFunction<CompletableFuture<ScrobblePage>> pageFetcher,
+                                    int prefetchCount, int pageLimit){
+        this.collector = collector;
+        this.pageFetcher = pageFetcher;
+        this.prefetchCount = Math.max(prefetchCount, 1);
+        this.pageLimit = pageLimit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextPage == null && !collector.isFinished()){
+            requestPages();
+            ScrobblePage recentTracks = await(pendingPages.poll());
+
+            if (currentPage == 1){
+                lastPage = Math.min(recentTracks.getTotalPages(), pageLimit);
+                log.debug("Prefetching up to {} of {} pages.",prefetchCount,lastPage);
+            }
+
+            List<Scrobble> scrobbles = collector.collect(recentTracks, currentPage);
+            currentPage++;
+
+            if (!scrobbles.isEmpty()){
+                nextPage = scrobbles;
+            }
+        }
+
+        if (collector.isFinished()){
+            cancelPendingPages();
+        }
+        return nextPage != null;
+    }
+
+    @Override
+    public List<Scrobble> next() {
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        List<Scrobble> page = nextPage;
+        nextPage = null;
+        return page;
+    }
+
+    private void requestPages(){
+        int maxRequestedPage = currentPage == 1 ? 1 : Math.min(currentPage + prefetchCount - 1, lastPage);
+
+        while (nextRequestedPage <= maxRequestedPage){
+            pendingPages.add(pageFetcher.apply(nextRequestedPage));
+            nextRequestedPage++;
+        }
+    }
+
+    private void cancelPendingPages(){
+        CompletableFuture<ScrobblePage> pendingPage;
+        while ((pendingPage = pendingPages.poll()) != null){
+            pendingPage.cancel(false);
+        }
+    }
+
+    private ScrobblePage await(CompletableFuture<ScrobblePage> page){
+        try {
+            return page.join();
+        } catch (CompletionException e){
+            cancelPendingPages();
+            if (e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.Getter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a user.getRecentTracks response with a pull parser directly into {@link Scrobble}s.
+ * Unlike lastfm-java, it neither builds a DOM nor {@link de.umass.lastfm.Track} objects and ignores everything
+ * except artist, track name, timestamp and the now playing flag. Expects the non-extended response format.
+ */
+@Getter
+class RecentTracksParser {
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private int errorCode = -1;
+    private String errorMessage;
+
+    /**
+     * @param input The response body.
+     * @return The parsed page, or null if Last.fm responded with an error, which is then available through
+     * {@link #getErrorCode()} and {@link #getErrorMessage()}.
+     * @throws XMLStreamException If the response is not well-formed XML.
+     */
+    ScrobblePage parse(InputStream input) throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(input);
+        try {
+            return parse(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private ScrobblePage parse(XMLStreamReader reader) throws XMLStreamException {
+        boolean failed = false;
+        int page = 0;
+        int totalPages = 0;
+        List<Scrobble> scrobbles = new ArrayList<>();
+
+        while (reader.hasNext()){
+            if (reader.next() != XMLStreamConstants.START_ELEMENT){
+                continue;
+            }
+
+            switch (reader.getLocalName()){
+                case "lfm":
+                    failed = "failed".equals(reader.getAttributeValue(null, "status"));
+                    break;
+                case "error":
+                    errorCode = parseInt(reader.getAttributeValue(null, "code"), -1);
+                    errorMessage = readText(reader).trim();
+                    break;
+                case "recenttracks":
+                    page = parseInt(reader.getAttributeValue(null, "page"), 0);
+                    totalPages = parseInt(reader.getAttributeValue(null, "totalPages"), 0);
+                    break;
+                case "track":
+                    scrobbles.add(parseTrack(reader));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return failed ? null : new ScrobblePage(page, totalPages, scrobbles);
+    }
+
+    private Scrobble parseTrack(XMLStreamReader reader) throws XMLStreamException {
+        Scrobble scrobble = new Scrobble();
+        scrobble.setNowPlaying("true".equals(reader.getAttributeValue(null, "nowplaying")));
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            switch (reader.getLocalName()){
+                case "artist":
+                    scrobble.setArtist(readText(reader));
+                    break;
+                case "name":
+                    scrobble.setTrackName(readText(reader));
+                    break;
+                case "date":
+                    if (!scrobble.isNowPlaying()){
+                        scrobble.setEpochSeconds(parseInt(reader.getAttributeValue(null, "uts"), Scrobble.NO_TIMESTAMP));
+                    }
+                    skipElement(reader);
+                    break;
+                default:
+                    skipElement(reader);
+                    break;
+            }
+        }
+        return scrobble;
+    }
+
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0){
+            switch (reader.next()){
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    text.append(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return text.toString();
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0){
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT){
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT){
+                depth--;
+            }
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue){
+        if (value == null || value.isEmpty()){
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e){
+            return defaultValue;
+        }
+    }
+
+    private static XMLInputFactory createXmlInputFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
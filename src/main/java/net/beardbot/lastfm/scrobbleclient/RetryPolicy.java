@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Defines how often and after which delay a Last.fm API call is repeated if it failed for a transient reason,
+ * e.g. because Last.fm is temporarily unavailable (error 11, 16), failed internally (error 8) or is rate limiting
+ * (error 29, HTTP 429), or because of a network error. Permanent errors such as invalid parameters or an invalid
+ * session are never retried.
+ * <p>
+ * The delay grows exponentially with each failed attempt up to a maximum. A random share of the delay, defined by
+ * the jitter factor, is subtracted so that clients failing at the same time don't retry in lockstep.
+ */
+@Getter
+@ToString
+public final class RetryPolicy {
+    private static final RetryPolicy NONE = new RetryPolicy(1, 0L, 0L, 1.0, 0.0);
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double backoffMultiplier;
+    private final double jitterFactor;
+
+    /**
+     * @param maxAttempts The maximum number of attempts including the first one.
+     * @param initialBackoffMillis The delay before the first retry.
+     * @param maxBackoffMillis The upper bound of the delay between two attempts.
+     * @param backoffMultiplier The factor by which the delay grows with each failed attempt.
+     * @param jitterFactor The share of the delay, between 0 and 1, that is randomized.
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, double backoffMultiplier, double jitterFactor){
+        if (maxAttempts < 1){
+            throw new IllegalArgumentException("The maximum number of attempts must be at least 1.");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < 0 || backoffMultiplier < 1.0){
+            throw new IllegalArgumentException("Backoff delays must not be negative and must not shrink.");
+        }
+        if (jitterFactor < 0.0 || jitterFactor > 1.0){
+            throw new IllegalArgumentException("The jitter factor must be between 0 and 1.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.backoffMultiplier = backoffMultiplier;
+        this.jitterFactor = jitterFactor;
+    }
+
+    /**
+     * @return A {@link RetryPolicy} that never retries.
+     */
+    public static RetryPolicy none(){
+        return NONE;
+    }
+
+    /**
+     * Creates a {@link RetryPolicy} that doubles the delay with each failed attempt and randomizes half of it.
+     * @param maxAttempts The maximum number of attempts including the first one.
+     * @param initialBackoffMillis The delay before the first retry.
+     * @param maxBackoffMillis The upper bound of the delay between two attempts.
+     * @return The {@link RetryPolicy}.
+     */
+    public static RetryPolicy exponentialBackoff(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis){
+        return new RetryPolicy(maxAttempts, initialBackoffMillis, maxBackoffMillis, 2.0, 0.5);
+    }
+
+    boolean canRetry(int attempts){
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * @param failedAttempts The number of attempts that have failed so far.
+     * @param random A random number between 0 and 1.
+     * @return The delay before the next attempt.
+     */
+    long getBackoffMillis(int failedAttempts, double random){
+        double backoff = initialBackoffMillis * Math.pow(backoffMultiplier, Math.max(failedAttempts - 1, 0));
+        double cappedBackoff = Math.min(backoff, maxBackoffMillis);
+        return (long) (cappedBackoff * (1.0 - jitterFactor * random));
+    }
+}
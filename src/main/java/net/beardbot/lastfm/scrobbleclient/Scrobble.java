@@ -27,11 +27,18 @@ import java.time.ZonedDateTime;
 @Setter
 @NoArgsConstructor
 public class Scrobble {
+    /**
+     * Value of {@link #timestampSeconds} if the scrobble has no timestamp.
+     */
+    static final int NO_TIMESTAMP = Integer.MIN_VALUE;
 
     private String artist;
     private String trackName;
     private boolean nowPlaying;
-    private Integer timestampSeconds;
+    private int timestampSeconds = NO_TIMESTAMP;
+    /**
+     * The timestamp as date-time. It is only created when requested, since most scrobbles are never asked for it.
+     */
     private ZonedDateTime timestamp;
 
     public Scrobble(Track track){
@@ -41,7 +48,6 @@ public class Scrobble {
 
         if (!track.isNowPlaying()){
             this.timestampSeconds = Utils.dateToEpochSeconds(track.getPlayedWhen());
-            this.timestamp = Utils.epochSecondsToDateTime(this.timestampSeconds);
         }
     }
 
@@ -66,29 +72,55 @@ public class Scrobble {
         Scrobble clonedScrobble = new Scrobble();
         clonedScrobble.setArtist(this.artist);
         clonedScrobble.setTrackName(this.trackName);
-        clonedScrobble.setTimestampSeconds(this.timestampSeconds);
-        clonedScrobble.setTimestamp(this.timestamp);
+        clonedScrobble.timestampSeconds = this.timestampSeconds;
+        clonedScrobble.timestamp = this.timestamp;
         return clonedScrobble;
     }
 
+    /**
+     * @return The time of playback in seconds since the epoch or null, if the scrobble has no timestamp.
+     */
+    public Integer getTimestampSeconds() {
+        return hasTimestamp() ? timestampSeconds : null;
+    }
+
+    /**
+     * @param timestampSeconds The time of playback in seconds since the epoch or null to remove the timestamp.
+     *                         {@link Integer#MIN_VALUE} is treated like null.
+     */
     public void setTimestampSeconds(Integer timestampSeconds) {
-        this.timestampSeconds = timestampSeconds;
+        setEpochSeconds(timestampSeconds == null ? NO_TIMESTAMP : timestampSeconds);
+    }
 
-        if (timestampSeconds == null){
-            this.timestamp = null;
-        } else {
-            this.timestamp = Utils.epochSecondsToDateTime(timestampSeconds);
+    /**
+     * @return The time of playback in UTC, unless it has been set with another time zone, or null if the scrobble has no timestamp.
+     */
+    public ZonedDateTime getTimestamp() {
+        if (timestamp == null && hasTimestamp()){
+            timestamp = Utils.epochSecondsToDateTime(timestampSeconds);
         }
+        return timestamp;
     }
 
     public void setTimestamp(ZonedDateTime timestamp) {
         this.timestamp = timestamp;
+        this.timestampSeconds = timestamp == null ? NO_TIMESTAMP : Utils.dateTimeToEpochSeconds(timestamp);
+    }
 
-        if (timestamp == null){
-            this.timestampSeconds = null;
-        } else {
-            this.timestampSeconds = Utils.dateTimeToEpochSeconds(timestamp);
-        }
+    boolean hasTimestamp() {
+        return timestampSeconds != NO_TIMESTAMP;
+    }
+
+    /**
+     * @return The time of playback in seconds since the epoch or {@link #NO_TIMESTAMP}. Unlike {@link #getTimestampSeconds()}, this does not box the value.
+     */
+    int getEpochSeconds() {
+        return timestampSeconds;
+    }
+
+    void setEpochSeconds(int epochSeconds) {
+        this.timestampSeconds = epochSeconds;
+        this.timestamp = null;
     }
 
     @Override
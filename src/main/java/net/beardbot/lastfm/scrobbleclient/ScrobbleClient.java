@@ -18,6 +18,7 @@ package net.beardbot.lastfm.scrobbleclient;
 
 import de.umass.lastfm.*;
 
+import de.umass.lastfm.scrobble.ScrobbleData;
 import de.umass.lastfm.scrobble.ScrobbleResult;
 import lombok.extern.slf4j.Slf4j;
 import net.beardbot.lastfm.scrobbleclient.exception.*;
@@ -25,23 +26,60 @@ import net.beardbot.lastfm.unscrobble.Unscrobbler;
 import net.beardbot.lastfm.unscrobble.exception.UnscrobblerAuthenticationException;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Clock;
-import java.time.Duration;
 import java.time.temporal.Temporal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Slf4j
-public class ScrobbleClient {
+public class ScrobbleClient implements AutoCloseable {
+    /**
+     * The name of the circuit breaker guarding calls to the Last.fm API.
+     */
+    public static final String API_CIRCUIT_BREAKER = "lastfm-api";
+    /**
+     * The name of the circuit breaker guarding calls of the {@link Unscrobbler} to the Last.fm website.
+     */
+    public static final String UNSCROBBLER_CIRCUIT_BREAKER = "unscrobbler";
 
     private LastfmAuthenticationDetails authDetails;
 
     private LastfmAPI lastfmAPI;
 
-    private Session session;
+    private volatile Session session;
+    private volatile boolean sessionRestored;
+    private final Object sessionLock = new Object();
     private Unscrobbler unscrobbler;
     private ScrobbleManager scrobbleManager;
     private LastfmApiCallLimiter callLimiter;
+    private LastfmApiCallLimiterRegistry callLimiterRegistry;
+    private ScrobbleHistoryStore historyStore;
+    private volatile ScrobbleQueue scrobbleQueue;
+    private ScheduledExecutorService queueDrainer;
+    private final Object queueDrainLock = new Object();
+    private CircuitBreaker apiCircuitBreaker;
+    private CircuitBreaker unscrobblerCircuitBreaker;
+    private final MetricsListeners metricsListeners = new MetricsListeners();
+    private StringPool stringPool;
+    private volatile ListeningStatistics listeningStatistics;
 
     private LastfmConfiguration config;
 
@@ -50,11 +88,25 @@ public class ScrobbleClient {
     }
 
     public ScrobbleClient(final LastfmConfiguration config){
+        this(config, LastfmApiCallLimiterRegistry.getDefault());
+    }
+
+    /**
+     * Creates a client whose API call limit is shared with all clients of the given registry using the same API key
+     * (and username, if {@link LastfmConfiguration#isRateLimitPerUser()} is set).
+     * @param config The client configuration.
+     * @param callLimiterRegistry The registry providing the API call limiter after login.
+     */
+    public ScrobbleClient(final LastfmConfiguration config, final LastfmApiCallLimiterRegistry callLimiterRegistry){
         this.config = config;
-        lastfmAPI = new DefaultLastfmAPI();
-        scrobbleManager = new ScrobbleManager();
+        lastfmAPI = createLastfmAPI(config);
+        scrobbleManager = new ScrobbleManager(config);
         callLimiter = new LastfmApiCallLimiter(config);
+        this.callLimiterRegistry = callLimiterRegistry;
         this.unscrobbler = new Unscrobbler();
+        this.apiCircuitBreaker = new CircuitBreaker(API_CIRCUIT_BREAKER, config);
+        this.unscrobblerCircuitBreaker = new CircuitBreaker(UNSCROBBLER_CIRCUIT_BREAKER, config);
+        this.stringPool = createStringPool(config);
     }
 
     ScrobbleClient(final LastfmConfiguration config, final LastfmAPI lastfmAPI, final Unscrobbler unscrobbler,
@@ -64,6 +116,9 @@ public class ScrobbleClient {
         this.unscrobbler = unscrobbler;
         this.scrobbleManager = scrobbleManager;
         this.callLimiter = callLimiter;
+        this.apiCircuitBreaker = new CircuitBreaker(API_CIRCUIT_BREAKER, config);
+        this.unscrobblerCircuitBreaker = new CircuitBreaker(UNSCROBBLER_CIRCUIT_BREAKER, config);
+        this.stringPool = createStringPool(config);
     }
 
     /**
@@ -76,12 +131,122 @@ public class ScrobbleClient {
     public void login(final LastfmAuthenticationDetails authenticationDetails) throws LastfmAuthenticationException {
         this.authDetails = authenticationDetails;
 
-        if (authenticationDetails.hasAllData()){
-            loginWithLastfmApi(authenticationDetails);
+        if (callLimiterRegistry != null && StringUtils.isNotBlank(authenticationDetails.getApiKey())){
+            callLimiter = callLimiterRegistry.getLimiter(authenticationDetails, config);
+        }
+        if (config.getHistoryStoreDirectory() != null && StringUtils.isNotBlank(authenticationDetails.getUsername())){
+            historyStore = ScrobbleHistoryStore.open(config.getHistoryStoreDirectory().resolve(authenticationDetails.getUsername().toLowerCase()));
+        }
+        if (config.getScrobbleQueueDirectory() != null && StringUtils.isNotBlank(authenticationDetails.getUsername())){
+            synchronized (queueDrainLock){
+                closeScrobbleQueue();
+                scrobbleQueue = ScrobbleQueue.open(config.getScrobbleQueueDirectory().resolve(authenticationDetails.getUsername().toLowerCase()), config);
+            }
         }
-        if (authenticationDetails.hasDataForDirectLogin()){
+
+        boolean apiLoginNeeded = authenticationDetails.hasAllData() && !restoreSession(authenticationDetails);
+        boolean unscrobblerLoginNeeded = authenticationDetails.hasDataForDirectLogin();
+        if (apiLoginNeeded && unscrobblerLoginNeeded){
+            loginInParallel(authenticationDetails);
+        } else if (apiLoginNeeded){
+            loginWithLastfmApi(authenticationDetails);
+        } else if (unscrobblerLoginNeeded){
             loginWithUnscrobbler(authenticationDetails);
         }
+        if (scrobbleQueue != null && authenticationDetails.hasAllData() && config.getScrobbleQueueDrainIntervalMillis() > 0){
+            startQueueDrainer();
+        }
+    }
+
+    /**
+     * Appends a track to the local scrobble queue, from which it is scrobbled to Last.fm in the background.
+     * The scrobble survives process restarts until it has been submitted. If the scrobble has no timestamp,
+     * the current time is used, so the original time of playback is preserved regardless of when it is submitted.
+     * Scrobbles are submitted at least once; a crash right after submitting a batch may cause it to be submitted again.
+     * @param scrobble A {@link Scrobble} object containing track information.
+     * @throws IllegalStateException If no scrobble queue directory has been configured.
+     * @throws ScrobbleQueueException If the scrobble could not be written to the queue, e.g. because it has been closed concurrently.
+     */
+    public void enqueueScrobble(final Scrobble scrobble){
+        validateScrobble(scrobble,false);
+        ScrobbleQueue queue = scrobbleQueue;
+        if (queue == null){
+            throw new IllegalStateException("Enqueueing scrobbles requires a scrobble queue directory to be configured and a login.");
+        }
+
+        Scrobble queuedScrobble = scrobble.clone();
+        if (queuedScrobble.getTimestampSeconds() == null){
+            queuedScrobble.setTimestampSeconds(currentSeconds());
+        }
+        queue.append(queuedScrobble);
+    }
+
+    /**
+     * Submits all queued scrobbles to Last.fm in batches.
+     * Draining stops as soon as a batch fails as a whole, e.g. because Last.fm is unavailable; the remaining scrobbles
+     * stay queued. Single scrobbles of a batch that are ignored by Last.fm are removed from the queue, even if Last.fm
+     * ignores every scrobble of the batch.
+     * This is done periodically in the background, so there is usually no need to call this method.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws IllegalStateException If no scrobble queue directory has been configured.
+     * @return The number of scrobbles that have been removed from the queue.
+     */
+    public int drainQueue(){
+        authDetails.assureAllPermissions();
+
+        synchronized (queueDrainLock){
+            if (scrobbleQueue == null){
+                throw new IllegalStateException("Draining the scrobble queue requires a scrobble queue directory to be configured and a login.");
+            }
+
+            int drainedScrobbles = 0;
+            List<Scrobble> batch;
+
+            while (!(batch = scrobbleQueue.peek(config.getMaxScrobblesPerBatch())).isEmpty()){
+                List<Scrobble> successfulScrobbles = new ArrayList<>(batch.size());
+                List<Scrobble> rejectedScrobbles = new ArrayList<>();
+                try {
+                    if (!scrobbleBatch(batch, successfulScrobbles, rejectedScrobbles)){
+                        log.warn("Submitting queued scrobbles failed. {} scrobbles remain queued.",scrobbleQueue.size());
+                        break;
+                    }
+                } catch (CircuitBreakerOpenException e){
+                    log.info("Last.fm is considered unavailable. {} scrobbles remain queued.",scrobbleQueue.size());
+                    break;
+                }
+                if (!rejectedScrobbles.isEmpty()){
+                    log.warn("Removing {} queued scrobbles that have been rejected by Last.fm: {}",rejectedScrobbles.size(),rejectedScrobbles);
+                }
+                recordScrobbled(successfulScrobbles);
+                scrobbleManager.persistAll(successfulScrobbles);
+                scrobbleQueue.acknowledge(batch.size());
+                drainedScrobbles += batch.size();
+            }
+            return drainedScrobbles;
+        }
+    }
+
+    /**
+     * @return The number of scrobbles in the local scrobble queue that have not been submitted yet.
+     */
+    public int getQueuedScrobbleCount(){
+        ScrobbleQueue queue = scrobbleQueue;
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Stops submitting queued scrobbles in the background and releases the local scrobble queue.
+     * Queued scrobbles remain on disk and are submitted after the next login.
+     */
+    @Override
+    public void close(){
+        if (queueDrainer != null){
+            queueDrainer.shutdownNow();
+            queueDrainer = null;
+        }
+        synchronized (queueDrainLock){
+            closeScrobbleQueue();
+        }
     }
 
     /**
@@ -89,24 +254,80 @@ public class ScrobbleClient {
      * @param scrobble A {@link Scrobble} object containing track information.
      * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
      * @throws ScrobbleException If scrobbling failed.
-     * @return A persisted scrobble object that can be used for updating scrobble data.
+     * @throws CircuitBreakerOpenException If Last.fm is considered unavailable and the scrobble has not been queued.
+     * @return A persisted scrobble object that can be used for updating scrobble data. If the scrobble has been queued
+     *         because Last.fm is considered unavailable (see {@link LastfmConfiguration#isQueueScrobblesWhileCircuitOpen()}),
+     *         the passed object is returned unmanaged.
      */
     public Scrobble scrobble(final Scrobble scrobble){
-        validateScrobble(scrobble,false);
-        authDetails.assureAllPermissions();
-        callLimiter.considerCallLimit();
+        checkScrobbleOperation(scrobble);
+        if (isQueueingWhileCircuitOpen() && apiCircuitBreaker.getState() == CircuitBreakerState.OPEN){
+            return queueWhileCircuitOpen(scrobble);
+        }
+
+        considerCallLimit();
+        try {
+            return executeScrobble(scrobble);
+        } catch (CircuitBreakerOpenException e){
+            if (isQueueingWhileCircuitOpen()){
+                return queueWhileCircuitOpen(scrobble);
+            }
+            throw e;
+        }
+    }
+
+    Scrobble executeScrobble(final Scrobble scrobble){
+        return completeScrobble(scrobble, callLastfmApi(MetricsListener.SCROBBLE, config.getScrobbleRetryPolicy(), scrobbleCall(scrobble)));
+    }
+
+    /**
+     * Scrobbles a track like {@link #scrobble(Scrobble)}, including queueing it while Last.fm is considered unavailable,
+     * but without blocking a thread while waiting for the call limit or backing off.
+     */
+    CompletableFuture<Scrobble> scrobbleAsync(final Scrobble scrobble, final Executor executor){
+        if (isQueueingWhileCircuitOpen() && apiCircuitBreaker.getState() == CircuitBreakerState.OPEN){
+            return CompletableFuture.supplyAsync(() -> queueWhileCircuitOpen(scrobble), executor);
+        }
 
+        CompletableFuture<Scrobble> persistedScrobble = new CompletableFuture<>();
+        acquireCallPermitAsync()
+                .thenComposeAsync(permit -> callLastfmApiAsync(MetricsListener.SCROBBLE, config.getScrobbleRetryPolicy(), scrobbleCall(scrobble), executor), executor)
+                .thenApply(response -> completeScrobble(scrobble, response))
+                .whenComplete((result, e) -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    try {
+                        if (cause instanceof CircuitBreakerOpenException && isQueueingWhileCircuitOpen()){
+                            persistedScrobble.complete(queueWhileCircuitOpen(scrobble));
+                        } else if (cause != null){
+                            persistedScrobble.completeExceptionally(cause);
+                        } else {
+                            persistedScrobble.complete(result);
+                        }
+                    } catch (RuntimeException queueingException){
+                        persistedScrobble.completeExceptionally(queueingException);
+                    }
+                });
+        return persistedScrobble;
+    }
+
+    private Supplier<ScrobbleResult> scrobbleCall(final Scrobble scrobble){
         if (scrobble.getTimestampSeconds() == null){
             scrobble.setTimestampSeconds(currentSeconds());
         }
 
         log.info("Scrobbling {}",scrobble);
-        ScrobbleResult scrobbleResult = lastfmAPI.scrobble(scrobble.getArtist(), scrobble.getTrackName(), scrobble.getTimestampSeconds(), session);
+        return () -> lastfmAPI.scrobble(scrobble.getArtist(), scrobble.getTrackName(), scrobble.getTimestampSeconds(), session);
+    }
+
+    private Scrobble completeScrobble(final Scrobble scrobble, final LastfmResponse<ScrobbleResult> response){
+        ScrobbleResult scrobbleResult = response.getValue();
+        recordIgnoredScrobble(MetricsListener.SCROBBLE, scrobbleResult);
 
         if (!scrobbleResult.isSuccessful() || scrobbleResult.isIgnored()){
-            throw new ScrobbleException(String.format("Scrobbling of Scrobble %s failed.",scrobble),scrobble);
+            throw new ScrobbleException(String.format("Scrobbling of Scrobble %s failed.",scrobble),scrobble,response.getAttempts());
         }
 
+        recordScrobbled(Collections.singletonList(scrobble));
         return scrobbleManager.persist(scrobble);
     }
 
@@ -122,6 +343,73 @@ public class ScrobbleClient {
         return scrobble(Scrobble.of(artist,trackName));
     }
 
+    /**
+     * Scrobbles multiple tracks to Last.fm.
+     * The tracks are sent in batches of up to {@link LastfmConfiguration#getMaxScrobblesPerBatch()} tracks per API call.
+     * @param scrobbles A {@link Collection} of {@link Scrobble} objects containing track information.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws PartialScrobbleException If scrobbling failed for some of the tracks.
+     *                                  The exception contains the failed as well as the persisted scrobbles.
+     * @return Persisted scrobble objects that can be used for updating scrobble data.
+     */
+    public List<Scrobble> scrobbleAll(final Collection<Scrobble> scrobbles){
+        checkScrobbleAllOperation(scrobbles);
+
+        List<Scrobble> successfulScrobbles = new ArrayList<>(scrobbles.size());
+        List<Scrobble> failedScrobbles = new ArrayList<>();
+        for (List<Scrobble> batch : splitIntoBatches(scrobbles)) {
+            scrobbleBatch(batch, successfulScrobbles, failedScrobbles);
+        }
+        return completeScrobbleAll(scrobbles.size(), successfulScrobbles, failedScrobbles);
+    }
+
+    /**
+     * Scrobbles multiple tracks like {@link #scrobbleAll(Collection)}, but without blocking a thread while waiting
+     * for the call limit or backing off. The batches are sent one after another.
+     */
+    CompletableFuture<List<Scrobble>> scrobbleAllAsync(final Collection<Scrobble> scrobbles, final Executor executor){
+        List<Scrobble> successfulScrobbles = new ArrayList<>(scrobbles.size());
+        List<Scrobble> failedScrobbles = new ArrayList<>();
+
+        CompletableFuture<Boolean> batches = CompletableFuture.completedFuture(true);
+        for (List<Scrobble> batch : splitIntoBatches(scrobbles)) {
+            batches = batches.thenCompose(ignored -> acquireCallPermitAsync())
+                    .thenComposeAsync(permit -> callLastfmApiAsync(MetricsListener.SCROBBLE, config.getScrobbleRetryPolicy(), batchScrobbleCall(batch), executor), executor)
+                    .thenApply(response -> sortBatchResults(batch, response.getValue(), successfulScrobbles, failedScrobbles));
+        }
+        return batches.thenApply(ignored -> completeScrobbleAll(scrobbles.size(), successfulScrobbles, failedScrobbles));
+    }
+
+    private List<Scrobble> completeScrobbleAll(int scrobbleCount, List<Scrobble> successfulScrobbles, List<Scrobble> failedScrobbles){
+        recordScrobbled(successfulScrobbles);
+        List<Scrobble> persistedScrobbles = scrobbleManager.persistAll(successfulScrobbles);
+
+        if (!failedScrobbles.isEmpty()){
+            throw new PartialScrobbleException(String.format("Scrobbling of %d out of %d Scrobbles failed.",failedScrobbles.size(),scrobbleCount),
+                    failedScrobbles, persistedScrobbles);
+        }
+
+        return persistedScrobbles;
+    }
+
+    private List<List<Scrobble>> splitIntoBatches(Collection<Scrobble> scrobbles){
+        List<List<Scrobble>> batches = new ArrayList<>();
+        List<Scrobble> batch = new ArrayList<>(config.getMaxScrobblesPerBatch());
+
+        for (Scrobble scrobble : scrobbles) {
+            batch.add(scrobble);
+
+            if (batch.size() == config.getMaxScrobblesPerBatch()){
+                batches.add(batch);
+                batch = new ArrayList<>(config.getMaxScrobblesPerBatch());
+            }
+        }
+        if (!batch.isEmpty()){
+            batches.add(batch);
+        }
+        return batches;
+    }
+
     /**
      * Sends the now playing status for a track to Last.fm.
      * @param scrobble A {@link Scrobble} object containing track information.
@@ -130,15 +418,31 @@ public class ScrobbleClient {
      * @return A persisted scrobble object that can be used for updating scrobble data.
      */
     public Scrobble nowPlaying(final Scrobble scrobble){
-        validateScrobble(scrobble,false);
-        authDetails.assureAllPermissions();
-        callLimiter.considerCallLimit();
+        checkScrobbleOperation(scrobble);
+        considerCallLimit();
+        return executeNowPlaying(scrobble);
+    }
+
+    Scrobble executeNowPlaying(final Scrobble scrobble){
+        return completeNowPlaying(scrobble, callLastfmApi(MetricsListener.UPDATE_NOW_PLAYING, config.getNowPlayingRetryPolicy(), nowPlayingCall(scrobble)));
+    }
 
+    CompletableFuture<Scrobble> executeNowPlayingAsync(final Scrobble scrobble, final Executor executor){
+        return callLastfmApiAsync(MetricsListener.UPDATE_NOW_PLAYING, config.getNowPlayingRetryPolicy(), nowPlayingCall(scrobble), executor)
+                .thenApply(response -> completeNowPlaying(scrobble, response));
+    }
+
+    private Supplier<ScrobbleResult> nowPlayingCall(final Scrobble scrobble){
         log.info("Setting now playing status {}",scrobble);
-        ScrobbleResult scrobbleResult = lastfmAPI.updateNowPlaying(scrobble.getArtist(), scrobble.getTrackName(), session);
+        return () -> lastfmAPI.updateNowPlaying(scrobble.getArtist(), scrobble.getTrackName(), session);
+    }
+
+    private Scrobble completeNowPlaying(final Scrobble scrobble, final LastfmResponse<ScrobbleResult> response){
+        ScrobbleResult scrobbleResult = response.getValue();
+        recordIgnoredScrobble(MetricsListener.UPDATE_NOW_PLAYING, scrobbleResult);
 
         if (!scrobbleResult.isSuccessful() || scrobbleResult.isIgnored()){
-            throw new ScrobbleException(String.format("Setting now playing status of Scrobble %s failed.",scrobble),scrobble);
+            throw new ScrobbleException(String.format("Setting now playing status of Scrobble %s failed.",scrobble),scrobble,response.getAttempts());
         }
 
         return scrobbleManager.persist(scrobble);
@@ -165,15 +469,21 @@ public class ScrobbleClient {
      * @param scrobble The {@link Scrobble} that shall be removed.
      */
     public void unscrobble(final Scrobble scrobble){
-        validateScrobble(scrobble,true);
-        authDetails.assurePermissionForDirectLogin();
-        callLimiter.considerCallLimit();
+        checkUnscrobbleOperation(scrobble);
+        considerCallLimit();
+        executeUnscrobble(scrobble);
+    }
 
+    void executeUnscrobble(final Scrobble scrobble){
         log.info("Unscrobbling {}",scrobble);
 
-        boolean success = unscrobbler.unscrobble(scrobble.getArtist(),scrobble.getTrackName(),scrobble.getTimestampSeconds());
+        boolean success = callUnscrobbler(MetricsListener.UNSCROBBLE, () -> unscrobbler.unscrobble(scrobble.getArtist(),scrobble.getTrackName(),scrobble.getTimestampSeconds()));
 
         if (success){
+            if (historyStore != null){
+                Scrobble originalScrobble = scrobbleManager.getOriginalScrobble(scrobble);
+                historyStore.recordRemoval(originalScrobble != null ? originalScrobble : scrobble);
+            }
             scrobbleManager.remove(scrobble);
         } else {
             throw new ScrobbleException(String.format("Unscrobbling of Scrobble %s failed.",scrobble),scrobble);
@@ -189,30 +499,55 @@ public class ScrobbleClient {
      * @param scrobble A persisted {@link Scrobble} object that shall be updated.
      */
     public void updateScrobble(final Scrobble scrobble){
-        validateScrobble(scrobble,true);
-        authDetails.assureAllPermissions();
-        callLimiter.considerCallLimit();
+        checkUpdateOperation(scrobble);
+        considerCallLimit();
+        executeUpdateScrobble(scrobble);
+    }
 
+    void executeUpdateScrobble(final Scrobble scrobble){
+        Scrobble originalScrobble = managedOriginalScrobble(scrobble);
+        completeUpdateScrobble(scrobble, originalScrobble,
+                callLastfmApi(MetricsListener.SCROBBLE, config.getScrobbleRetryPolicy(), updateScrobbleCall(scrobble, originalScrobble)));
+    }
+
+    CompletableFuture<Void> executeUpdateScrobbleAsync(final Scrobble scrobble, final Executor executor){
+        Scrobble originalScrobble = managedOriginalScrobble(scrobble);
+        return callLastfmApiAsync(MetricsListener.SCROBBLE, config.getScrobbleRetryPolicy(), updateScrobbleCall(scrobble, originalScrobble), executor)
+                .thenAccept(response -> completeUpdateScrobble(scrobble, originalScrobble, response));
+    }
+
+    private Scrobble managedOriginalScrobble(final Scrobble scrobble){
         Scrobble originalScrobble = scrobbleManager.getOriginalScrobble(scrobble);
 
         if (originalScrobble == null){
             throw new UnmanagedScrobbleException(String.format("The given scrobble %s is not managed by a scrobble manager.",scrobble));
         }
+        return originalScrobble;
+    }
 
+    private Supplier<ScrobbleResult> updateScrobbleCall(final Scrobble scrobble, final Scrobble originalScrobble){
         log.info("Scrobbling {}",scrobble);
-        ScrobbleResult scrobbleResult = lastfmAPI.scrobble(scrobble.getArtist(), scrobble.getTrackName(), originalScrobble.getTimestampSeconds(), session);
+        return () -> lastfmAPI.scrobble(scrobble.getArtist(), scrobble.getTrackName(), originalScrobble.getTimestampSeconds(), session);
+    }
+
+    private void completeUpdateScrobble(final Scrobble scrobble, final Scrobble originalScrobble, final LastfmResponse<ScrobbleResult> response){
+        ScrobbleResult scrobbleResult = response.getValue();
+        recordIgnoredScrobble(MetricsListener.SCROBBLE, scrobbleResult);
 
         if (!scrobbleResult.isSuccessful() || scrobbleResult.isIgnored()){
-            throw new ScrobbleException(String.format("Scrobbling of Scrobble %s failed.",scrobble),scrobble);
+            throw new ScrobbleException(String.format("Scrobbling of Scrobble %s failed.",scrobble),scrobble,response.getAttempts());
         }
 
         log.info("Unscrobbling {}",originalScrobble);
-        boolean unscrobbleSuccess = unscrobbler.unscrobble(originalScrobble.getArtist(), originalScrobble.getTrackName(), originalScrobble.getTimestampSeconds());
+        boolean unscrobbleSuccess = callUnscrobbler(MetricsListener.UNSCROBBLE, () -> unscrobbler.unscrobble(originalScrobble.getArtist(), originalScrobble.getTrackName(), originalScrobble.getTimestampSeconds()));
 
         if (!unscrobbleSuccess){
             throw new ScrobbleException(String.format("Unscrobbling of Scrobble %s failed.",originalScrobble),scrobble,true);
         }
 
+        if (historyStore != null){
+            historyStore.recordUpdate(originalScrobble, scrobble);
+        }
         scrobbleManager.updateOriginalScrobble(scrobble);
     }
 
@@ -222,7 +557,10 @@ public class ScrobbleClient {
      * @return A {@link List} containing all {@link Scrobble}s.
      */
     public List<Scrobble> getAllScrobbles(){
-        return getScrobbles(null, config.getMaxResultsPerPage(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+        if (isReadingFromHistoryStore(true)){
+            return readHistory(null, Integer.MAX_VALUE);
+        }
+        return getScrobbles(null, null, config.getMaxResultsPerPage(), Integer.MAX_VALUE, Integer.MAX_VALUE);
     }
 
     /**
@@ -244,7 +582,40 @@ public class ScrobbleClient {
      * @return A {@link List} containing all {@link Scrobble}s since the time defined in <b>since</b>.
      */
     public List<Scrobble> getScrobblesSince(final Temporal since, final int resultsPerPage){
-        return getScrobbles(since ,resultsPerPage, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        if (isReadingFromHistoryStore(since == null)){
+            return readHistory(since == null ? null : Utils.temporalToEpochSeconds(since), Integer.MAX_VALUE);
+        }
+        return getScrobbles(since, null, resultsPerPage, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s of the authenticated user within a time range.
+     * The range is filtered by Last.fm, so only pages within the range are transferred.
+     * Tracks that are currently playing are never included.
+     * @param from A {@link Temporal} representing the beginning of the range.
+     * @param to A {@link Temporal} representing the end of the range.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws IllegalArgumentException If <b>from</b> is after <b>to</b>.
+     * @return A {@link List} containing all {@link Scrobble}s within the range, starting with the most recent one.
+     */
+    public List<Scrobble> getScrobblesBetween(final Temporal from, final Temporal to){
+        return getScrobblesBetween(from, to, config.getMaxResultsPerPage());
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s of the authenticated user within a time range.
+     * The range is filtered by Last.fm, so only pages within the range are transferred.
+     * Tracks that are currently playing are never included.
+     * @param from A {@link Temporal} representing the beginning of the range.
+     * @param to A {@link Temporal} representing the end of the range.
+     * @param resultsPerPage The results per page that shall be fetched from Last.fm.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws IllegalArgumentException If <b>from</b> is after <b>to</b>.
+     * @return A {@link List} containing all {@link Scrobble}s within the range, starting with the most recent one.
+     */
+    public List<Scrobble> getScrobblesBetween(final Temporal from, final Temporal to, final int resultsPerPage){
+        validateRange(from, to);
+        return getScrobbles(from, to, resultsPerPage, Integer.MAX_VALUE, Integer.MAX_VALUE);
     }
 
     /**
@@ -254,10 +625,162 @@ public class ScrobbleClient {
      * @return A {@link List} containing the last <b>amount</b> {@link Scrobble}s.
      */
     public List<Scrobble> getLastScrobbles(int amount){
-        int defaultResultsPerPage = config.getResultsPerPage();
-        int resultsPerPage = amount > defaultResultsPerPage ? defaultResultsPerPage : amount;
-        int pageLimit = amount > defaultResultsPerPage ? (amount / resultsPerPage) + (amount % resultsPerPage == 0 ? 0 : 1) : 1;
-        return getScrobbles(null,resultsPerPage,pageLimit,amount);
+        if (isReadingFromHistoryStore(false)){
+            return readHistory(null, amount);
+        }
+        int resultsPerPage = resultsPerPageForAmount(amount);
+        return getScrobbles(null, null, resultsPerPage, pageLimitForAmount(amount,resultsPerPage), amount);
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s since the newest {@link Scrobble} in the local history store and appends the new
+     * ones to the store. The second of the newest stored {@link Scrobble} is fetched again, so scrobbles sharing its
+     * timestamp are not missed.
+     * Tracks that are currently playing are not stored.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws IllegalStateException If no history store directory has been configured.
+     * @throws HistoryStoreException If the history store can not be written.
+     * @return The number of {@link Scrobble}s that have been added to the store.
+     */
+    public int syncHistory(){
+        checkFetchOperation();
+
+        if (historyStore == null){
+            throw new IllegalStateException("Syncing the scrobble history requires a history store directory to be configured.");
+        }
+
+        return storeFetchedScrobbles(fetchHistoryChanges());
+    }
+
+    /**
+     * Splits the complete scrobble history of the authenticated user into monthly {@link HistoryShard}s.
+     * Two API calls are used to find the oldest {@link Scrobble}; the last shard ends at the current time.
+     * The shards can be exported with {@link #exportShard(HistoryShard)}, also by other processes.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @return A {@link List} containing the shards, starting with the oldest one. The list is empty if the user has no scrobbles.
+     */
+    public List<HistoryShard> planHistoryShards(){
+        checkFetchOperation();
+
+        int now = currentSeconds();
+        Integer oldestTimestamp = probeOldestTimestamp();
+        if (oldestTimestamp == null){
+            return Collections.emptyList();
+        }
+        return HistoryShard.monthly(Math.min(oldestTimestamp, now), now);
+    }
+
+    /**
+     * Fetches all {@link Scrobble}s within the time range of a {@link HistoryShard}.
+     * Calls are subject to the same API call limit as all other calls of this client, so several shards
+     * of the same user can be exported concurrently without exceeding it.
+     * @param shard The {@link HistoryShard} that shall be exported.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @return A {@link List} containing all {@link Scrobble}s of the shard, starting with the most recent one.
+     */
+    public List<Scrobble> exportShard(final HistoryShard shard){
+        return getScrobbles(shard.getFrom(), shard.getTo(), config.getMaxResultsPerPage(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetches the complete scrobble history of the authenticated user by exporting monthly {@link HistoryShard}s
+     * concurrently. The number of workers is defined by {@link LastfmConfiguration#getHistoryExportParallelism()};
+     * all workers share the API call limit of this client.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @return A {@link List} containing all {@link Scrobble}s, starting with the most recent one.
+     */
+    public List<Scrobble> exportScrobbles(){
+        List<HistoryShard> shards = planHistoryShards();
+        if (shards.isEmpty()){
+            return new ArrayList<>();
+        }
+
+        int workerCount = Math.max(1, Math.min(config.getHistoryExportParallelism(), shards.size()));
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount, Utils.daemonThreadFactory("lastfm-history-export"));
+        try {
+            List<CompletableFuture<List<Scrobble>>> shardResults = new ArrayList<>();
+            for (HistoryShard shard : shards) {
+                shardResults.add(CompletableFuture.supplyAsync(() -> exportShard(shard), workers));
+            }
+
+            List<List<Scrobble>> exportedShards = new ArrayList<>();
+            for (CompletableFuture<List<Scrobble>> shardResult : shardResults) {
+                exportedShards.add(awaitResult(shardResult));
+            }
+
+            List<Scrobble> scrobbles = HistoryShard.merge(exportedShards);
+            log.info("Exported {} scrobbles in {} shards.",scrobbles.size(),shards.size());
+            return scrobbles;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches the complete scrobble history of the authenticated user and writes it into a columnar history file,
+     * which can be scanned with a {@link ColumnarHistoryReader}. The history is streamed page by page like
+     * {@link #streamAllScrobbles()}, so only the current page and the dictionary encoded columns are held in memory.
+     * Tracks that are currently playing are never written.
+     * @param file The path of the history file. An existing file is replaced.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws HistoryStoreException If the file could not be written.
+     * @return The number of written {@link Scrobble}s. They are written starting with the most recent one.
+     */
+    public int exportHistory(final Path file){
+        ColumnarHistoryWriter writer = new ColumnarHistoryWriter();
+        streamAllScrobbles().filter(Scrobble::hasTimestamp).forEachOrdered(writer::add);
+        writer.write(file);
+
+        log.info("Wrote {} scrobbles to columnar history {}.",writer.size(),file);
+        return writer.size();
+    }
+
+    /**
+     * Streams all {@link Scrobble}s of the authenticated user from Last.fm.
+     * Pages are fetched lazily while the stream is consumed, so only the current page is held in memory and
+     * short-circuiting operations like {@link Stream#limit(long)} stop fetching further pages.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @return A sequential {@link Stream} of all {@link Scrobble}s, starting with the most recent one.
+     */
+    public Stream<Scrobble> streamAllScrobbles(){
+        return streamScrobbles(null, null, config.getMaxResultsPerPage(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Streams all {@link Scrobble}s of the authenticated user from a specific time until now.
+     * Pages are fetched lazily while the stream is consumed.
+     * @param since A {@link Temporal} representing the time from when the {@link Scrobble}s should be fetched.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @return A sequential {@link Stream} of all {@link Scrobble}s since the time defined in <b>since</b>.
+     */
+    public Stream<Scrobble> streamScrobblesSince(final Temporal since){
+        return streamScrobblesSince(since, config.getResultsPerPage());
+    }
+
+    /**
+     * Streams all {@link Scrobble}s of the authenticated user from a specific time until now.
+     * Pages are fetched lazily while the stream is consumed.
+     * @param since A {@link Temporal} representing the time from when the {@link Scrobble}s should be fetched.
+     * @param resultsPerPage The results per page that shall be fetched from Last.fm.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @return A sequential {@link Stream} of all {@link Scrobble}s since the time defined in <b>since</b>.
+     */
+    public Stream<Scrobble> streamScrobblesSince(final Temporal since, final int resultsPerPage){
+        return streamScrobbles(since, null, resultsPerPage, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Streams all {@link Scrobble}s of the authenticated user within a time range.
+     * Pages are fetched lazily while the stream is consumed. Tracks that are currently playing are never included.
+     * @param from A {@link Temporal} representing the beginning of the range.
+     * @param to A {@link Temporal} representing the end of the range.
+     * @throws LastfmInsufficientAuthenticationDataException If the provided authentication details are insufficient for this operation.
+     * @throws IllegalArgumentException If <b>from</b> is after <b>to</b>.
+     * @return A sequential {@link Stream} of all {@link Scrobble}s within the range.
+     */
+    public Stream<Scrobble> streamScrobblesBetween(final Temporal from, final Temporal to){
+        validateRange(from, to);
+        return streamScrobbles(from, to, config.getMaxResultsPerPage(), Integer.MAX_VALUE, Integer.MAX_VALUE);
     }
 
     /**
@@ -269,93 +792,698 @@ public class ScrobbleClient {
         unscrobbler.setUserAgent(userAgent);
     }
 
+    /**
+     * @return The number of {@link Scrobble}s that can currently be unscrobbled or updated.
+     */
+    public int getTrackedScrobbleCount(){
+        return scrobbleManager.size();
+    }
+
+    /**
+     * @return The number of {@link Scrobble}s that are no longer tracked because they have been evicted
+     *         according to the configured {@link ScrobbleTrackingMode}.
+     */
+    public long getEvictedScrobbleCount(){
+        return scrobbleManager.getEvictionCount();
+    }
+
+    /**
+     * @return The number of artist and track names of fetched {@link Scrobble}s that have been replaced by an equal
+     *         pooled instance. Always 0 unless {@link LastfmConfiguration#isStringDeduplication()} is enabled.
+     */
+    public long getStringPoolHitCount(){
+        return stringPool == null ? 0 : stringPool.getHitCount();
+    }
+
+    /**
+     * @return The number of artist and track names of fetched {@link Scrobble}s that have not been found in the string pool.
+     *         Always 0 unless {@link LastfmConfiguration#isStringDeduplication()} is enabled.
+     */
+    public long getStringPoolMissCount(){
+        return stringPool == null ? 0 : stringPool.getMissCount();
+    }
+
+    /**
+     * @return The number of Last.fm API calls per second currently permitted for this client.
+     *         Only changes over time if {@link LastfmConfiguration#isAdaptiveRateLimiting()} is enabled.
+     */
+    public double getCurrentApiCallRate(){
+        return callLimiter.getCurrentCallsPerSecond();
+    }
+
+    /**
+     * Attaches listening statistics to the client, which records every track that has been scrobbled successfully
+     * by this client from now on. Scrobbles fetched from Last.fm are not recorded automatically; they can be recorded
+     * with {@link ListeningStatistics#recordAll(Stream)}, e.g. from {@link #streamAllScrobbles()}.
+     * @param listeningStatistics The statistics, or null to detach the current statistics.
+     */
+    public void setListeningStatistics(final ListeningStatistics listeningStatistics){
+        this.listeningStatistics = listeningStatistics;
+    }
+
+    /**
+     * @return The attached listening statistics, or null if there are none.
+     */
+    public ListeningStatistics getListeningStatistics(){
+        return listeningStatistics;
+    }
+
+    /**
+     * @return The state of the circuit breaker guarding calls to the Last.fm API.
+     */
+    public CircuitBreakerState getApiCircuitBreakerState(){
+        return apiCircuitBreaker.getState();
+    }
+
+    /**
+     * @return The state of the circuit breaker guarding unscrobble calls to the Last.fm website.
+     */
+    public CircuitBreakerState getUnscrobblerCircuitBreakerState(){
+        return unscrobblerCircuitBreaker.getState();
+    }
+
+    /**
+     * Registers a listener that is notified about state transitions of both circuit breakers.
+     * Circuit breakers are only active if {@link LastfmConfiguration#isCircuitBreakerEnabled()} is set.
+     * @param listener The {@link CircuitBreakerListener}.
+     */
+    public void addCircuitBreakerListener(final CircuitBreakerListener listener){
+        apiCircuitBreaker.addListener(listener);
+        unscrobblerCircuitBreaker.addListener(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #addCircuitBreakerListener(CircuitBreakerListener)}.
+     * @param listener The {@link CircuitBreakerListener}.
+     */
+    public void removeCircuitBreakerListener(final CircuitBreakerListener listener){
+        apiCircuitBreaker.removeListener(listener);
+        unscrobblerCircuitBreaker.removeListener(listener);
+    }
+
+    /**
+     * Registers a listener that receives measurements of all calls made by this client.
+     * @param listener The {@link MetricsListener}.
+     */
+    public void addMetricsListener(final MetricsListener listener){
+        metricsListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #addMetricsListener(MetricsListener)}.
+     * @param listener The {@link MetricsListener}.
+     */
+    public void removeMetricsListener(final MetricsListener listener){
+        metricsListeners.remove(listener);
+    }
+
+    LastfmConfiguration getConfig(){
+        return config;
+    }
+
+    LastfmApiCallLimiter getCallLimiter(){
+        return callLimiter;
+    }
+
+    void checkScrobbleOperation(final Scrobble scrobble){
+        validateScrobble(scrobble,false);
+        authDetails.assureAllPermissions();
+    }
+
+    void checkScrobbleAllOperation(final Collection<Scrobble> scrobbles){
+        for (Scrobble scrobble : scrobbles) {
+            validateScrobble(scrobble,false);
+        }
+        authDetails.assureAllPermissions();
+    }
+
+    void checkUnscrobbleOperation(final Scrobble scrobble){
+        validateScrobble(scrobble,true);
+        authDetails.assurePermissionForDirectLogin();
+    }
+
+    void checkUpdateOperation(final Scrobble scrobble){
+        validateScrobble(scrobble,true);
+        authDetails.assureAllPermissions();
+    }
+
+    void checkFetchOperation(){
+        authDetails.assurePermissionForPublicUserData();
+    }
+
+    int resultsPerPageForAmount(int amount){
+        int defaultResultsPerPage = config.getResultsPerPage();
+        return amount > defaultResultsPerPage ? defaultResultsPerPage : amount;
+    }
+
+    int pageLimitForAmount(int amount, int resultsPerPage){
+        return amount > config.getResultsPerPage() ? (amount / resultsPerPage) + (amount % resultsPerPage == 0 ? 0 : 1) : 1;
+    }
+
+    boolean isFetchable(Temporal since, int resultsPerPage, int pageLimit, int totalLimit){
+        return resultsPerPage >= 1 && pageLimit >= 1 && totalLimit >= 1 && !Utils.isInFuture(since);
+    }
+
+    ScrobblePageCollector createPageCollector(Temporal since, Temporal to, int pageLimit, int totalLimit){
+        boolean includePlayingTracks = to == null && config.isIncludePlayingTracks();
+        return new ScrobblePageCollector(since, pageLimit, totalLimit, includePlayingTracks, scrobbleManager::persist);
+    }
+
+    Iterator<List<Scrobble>> scrobblePages(Temporal since, Temporal to, int resultsPerPage, int pageLimit, int totalLimit){
+        if (!isFetchable(since, resultsPerPage, pageLimit, totalLimit)){
+            return Collections.emptyIterator();
+        }
+
+        ScrobblePageCollector collector = createPageCollector(since, to, pageLimit, totalLimit);
+        Integer from = since == null ? null : Utils.temporalToEpochSeconds(since);
+        Integer toSeconds = to == null ? null : Utils.temporalToEpochSeconds(to);
+
+        if (config.getPagePrefetchCount() > 1){
+            return new PrefetchingScrobblePageIterator(collector, page -> acquireCallPermitAsync()
+                    .thenComposeAsync(permit -> fetchScrobblePageAsync(page, resultsPerPage, from, toSeconds, Utils.defaultExecutor()), Utils.defaultExecutor()),
+                    config.getPagePrefetchCount(), pageLimit);
+        }
+
+        return new ScrobblePageIterator(collector, page -> {
+            considerCallLimit();
+            return fetchScrobblePage(page, resultsPerPage, from, toSeconds);
+        });
+    }
+
+    ScrobblePage fetchScrobblePage(int page, int resultsPerPage, Integer from, Integer to){
+        return completeScrobblePage(page, callLastfmApi(MetricsListener.GET_RECENT_TRACKS, config.getFetchRetryPolicy(),
+                scrobblePageCall(page, resultsPerPage, from, to)).getValue());
+    }
+
+    /**
+     * Fetches a page like {@link #fetchScrobblePage(int, int, Integer, Integer)}, but without blocking a thread while
+     * backing off. The call permit for the first attempt has to be acquired beforehand.
+     */
+    CompletableFuture<ScrobblePage> fetchScrobblePageAsync(int page, int resultsPerPage, Integer from, Integer to, Executor executor){
+        return callLastfmApiAsync(MetricsListener.GET_RECENT_TRACKS, config.getFetchRetryPolicy(), scrobblePageCall(page, resultsPerPage, from, to), executor)
+                .thenApply(response -> completeScrobblePage(page, response.getValue()));
+    }
+
+    private Supplier<ScrobblePage> scrobblePageCall(int page, int resultsPerPage, Integer from, Integer to){
+        if (config.isStreamingResponseParsing()){
+            return () -> lastfmAPI.getRecentScrobbles(authDetails.getUsername(), page, resultsPerPage, from, to, authDetails.getApiKey());
+        } else if (from == null && to == null){
+            return () -> ScrobblePage.of(lastfmAPI.getRecentTracks(authDetails.getUsername(), page, resultsPerPage, authDetails.getApiKey()));
+        }
+        return () -> ScrobblePage.of(lastfmAPI.getRecentTracks(authDetails.getUsername(), page, resultsPerPage, from, to, authDetails.getApiKey()));
+    }
+
+    private ScrobblePage completeScrobblePage(int page, ScrobblePage scrobblePage){
+        if (scrobblePage != null){
+            metricsListeners.onPageFetched(page, scrobblePage.getScrobbles().size());
+            deduplicateStrings(scrobblePage);
+        }
+        return scrobblePage;
+    }
+
+    /**
+     * Reserves an API call permit without blocking, reporting the time waited to the metrics listeners.
+     */
+    CompletableFuture<Void> acquireCallPermitAsync(){
+        CompletableFuture<Void> permit = callLimiter.acquireAsync();
+        if (permit.isDone() || metricsListeners.isEmpty()){
+            return permit;
+        }
+
+        long start = System.nanoTime();
+        return permit.thenApply(ignored -> {
+            metricsListeners.onCallLimiterWait(System.nanoTime() - start);
+            return ignored;
+        });
+    }
+
     private void loginWithLastfmApi(final LastfmAuthenticationDetails authenticationDetails) throws LastfmAuthenticationException {
-        this.session = createSession(authenticationDetails);
-        if (this.session == null){
+        useSession(authenticationDetails, createSession(authenticationDetails));
+    }
+
+    private void loginInParallel(final LastfmAuthenticationDetails authenticationDetails) throws LastfmAuthenticationException {
+        CompletableFuture<Session> createdSession = CompletableFuture.supplyAsync(() -> createSession(authenticationDetails), Utils.defaultExecutor());
+        loginWithUnscrobbler(authenticationDetails);
+        useSession(authenticationDetails, awaitResult(createdSession));
+    }
+
+    private void useSession(final LastfmAuthenticationDetails authenticationDetails, final Session createdSession) throws LastfmAuthenticationException {
+        if (createdSession == null){
             throw new LastfmAuthenticationException(String.format("Failed to login to Last.FM API account: username=%s, password=******, apiKey=%s, sharedSecret=******",
                     authenticationDetails.getUsername(),
                     authenticationDetails.getApiKey()));
         }
+        this.session = createdSession;
+        this.sessionRestored = false;
+
+        SessionStore sessionStore = config.getSessionStore();
+        if (sessionStore != null){
+            try {
+                sessionStore.saveSessionKey(authenticationDetails.getApiKey(), authenticationDetails.getUsername(), createdSession.getKey());
+            } catch (IOException e){
+                log.warn("Failed to store the Last.fm API session of user {}.",authenticationDetails.getUsername(),e);
+            }
+        }
+    }
+
+    /**
+     * Restores the session key of the user from the configured {@link SessionStore}.
+     * The key is not validated here; if Last.fm rejects it, a new session is created on demand.
+     * @return Whether a session has been restored.
+     */
+    private boolean restoreSession(final LastfmAuthenticationDetails authenticationDetails) {
+        SessionStore sessionStore = config.getSessionStore();
+        if (sessionStore == null){
+            return false;
+        }
+
+        String sessionKey;
+        try {
+            sessionKey = sessionStore.loadSessionKey(authenticationDetails.getApiKey(), authenticationDetails.getUsername());
+        } catch (IOException e){
+            log.warn("Failed to load the Last.fm API session of user {} from the session store.",authenticationDetails.getUsername(),e);
+            return false;
+        }
+        if (sessionKey == null){
+            return false;
+        }
+
+        log.debug("Restored Last.fm API session of user {}.",authenticationDetails.getUsername());
+        this.session = Session.createSession(authenticationDetails.getApiKey(), authenticationDetails.getSharedSecret(), sessionKey, authenticationDetails.getUsername(), false);
+        this.sessionRestored = true;
+        return true;
+    }
+
+    /**
+     * Replaces a restored session that has been rejected by Last.fm with a newly created one.
+     * @param rejectedSession The session that has been used for the rejected call.
+     * @return Whether the call can be repeated with a new session.
+     */
+    private boolean renewRejectedSession(final Session rejectedSession) {
+        synchronized (sessionLock){
+            if (rejectedSession != session){
+                return true;
+            }
+            if (!sessionRestored){
+                return false;
+            }
+
+            log.info("Last.fm rejected the restored session of user {}. Logging in again.",authDetails.getUsername());
+            sessionRestored = false;
+            try {
+                config.getSessionStore().removeSessionKey(authDetails.getApiKey(), authDetails.getUsername());
+            } catch (IOException e){
+                log.warn("Failed to remove the Last.fm API session of user {} from the session store.",authDetails.getUsername(),e);
+            }
+            try {
+                loginWithLastfmApi(authDetails);
+                return true;
+            } catch (LastfmAuthenticationException e){
+                log.warn("Renewing the Last.fm API session of user {} failed.",authDetails.getUsername(),e);
+                return false;
+            }
+        }
     }
 
     private void loginWithUnscrobbler(final LastfmAuthenticationDetails authenticationDetails) throws LastfmAuthenticationException {
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             this.unscrobbler.login(authenticationDetails.getUsername(),authenticationDetails.getPassword());
+            success = true;
         } catch (UnscrobblerAuthenticationException e) {
             throw new LastfmAuthenticationException(String.format("Failed to login to Last.FM account: username=%s, password=******",
                     authenticationDetails.getUsername()),e);
+        } finally {
+            metricsListeners.onCall(MetricsListener.UNSCROBBLER_LOGIN, System.nanoTime() - start, 1, success);
         }
     }
 
-    private Session createSession(final LastfmAuthenticationDetails authenticationDetails) {
-        return lastfmAPI.getSession(
-                authenticationDetails.getUsername(),
-                authenticationDetails.getPassword(),
-                authenticationDetails.getApiKey(),
-                authenticationDetails.getSharedSecret());
+    private void startQueueDrainer() {
+        if (queueDrainer != null){
+            return;
+        }
+        queueDrainer = Executors.newSingleThreadScheduledExecutor(Utils.daemonThreadFactory("lastfm-scrobble-queue"));
+        queueDrainer.scheduleWithFixedDelay(() -> {
+            try {
+                ScrobbleQueue queue = scrobbleQueue;
+                if (queue != null && queue.size() > 0){
+                    drainQueue();
+                }
+            } catch (RuntimeException e){
+                log.warn("Draining the scrobble queue failed.",e);
+            }
+        }, 0, config.getScrobbleQueueDrainIntervalMillis(), TimeUnit.MILLISECONDS);
     }
 
-    private List<Scrobble> getScrobbles(Temporal since, int resultsPerPage, int pageLimit, int totalLimit) {
-        authDetails.assurePermissionForPublicUserData();
-
-        ArrayList<Scrobble> scrobbles = new ArrayList<>();
+    private void closeScrobbleQueue() {
+        if (scrobbleQueue == null){
+            return;
+        }
+        try {
+            scrobbleQueue.close();
+        } catch (IOException e){
+            log.warn("Failed to close scrobble queue.",e);
+        }
+        scrobbleQueue = null;
+    }
 
-        if (resultsPerPage < 1 || pageLimit < 1 || totalLimit < 1 || Utils.isInFuture(since)){
-            return scrobbles;
+    private <T> LastfmResponse<T> callLastfmApi(String operation, RetryPolicy retryPolicy, Supplier<T> call) {
+        ApiCall<T> apiCall = new ApiCall<>(operation, retryPolicy, call);
+        try {
+            LastfmResponse<T> response;
+            while ((response = apiCall.attempt()) == null){
+                if (!apiCall.isRetryingImmediately()){
+                    Utils.sleep(apiCall.backoffMillis());
+                    considerCallLimit();
+                }
+            }
+            return response;
+        } finally {
+            apiCall.finish();
         }
+    }
 
-        boolean finished = false;
-        int currentPage = 1;
+    /**
+     * Calls the Last.fm API like {@link #callLastfmApi(String, RetryPolicy, Supplier)}, but without blocking a thread
+     * while backing off or waiting for the call limit between attempts. The attempts are executed on the given executor.
+     * The caller is expected to have acquired the call permit for the first attempt.
+     */
+    <T> CompletableFuture<LastfmResponse<T>> callLastfmApiAsync(String operation, RetryPolicy retryPolicy, Supplier<T> call, Executor executor) {
+        ApiCall<T> apiCall = new ApiCall<>(operation, retryPolicy, call);
+        CompletableFuture<LastfmResponse<T>> response = new CompletableFuture<>();
+        attemptAsync(apiCall, executor, response);
+        return response.whenComplete((value, e) -> apiCall.finish());
+    }
 
-        while (!finished){
-            callLimiter.considerCallLimit();
-            PaginatedResult<Track> recentTracks = lastfmAPI.getRecentTracks(authDetails.getUsername(), currentPage, resultsPerPage, authDetails.getApiKey());
+    private <T> void attemptAsync(ApiCall<T> apiCall, Executor executor, CompletableFuture<LastfmResponse<T>> response) {
+        try {
+            LastfmResponse<T> attemptResponse = apiCall.attempt();
+            if (attemptResponse != null){
+                response.complete(attemptResponse);
+                return;
+            }
+            if (apiCall.isRetryingImmediately()){
+                attemptAsync(apiCall, executor, response);
+                return;
+            }
+            Utils.delay(apiCall.backoffMillis())
+                    .thenCompose(ignored -> acquireCallPermitAsync())
+                    .thenRunAsync(() -> attemptAsync(apiCall, executor, response), executor)
+                    .exceptionally(e -> {
+                        response.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                        return null;
+                    });
+        } catch (Throwable e){
+            response.completeExceptionally(e);
+        }
+    }
 
-            log.debug("Fetched scrobble page {}/{}",currentPage,recentTracks.getTotalPages());
+    /**
+     * A Last.fm API call including its retries.
+     * Every attempt either completes the call or tells how to retry it, so the call can be driven by a blocking loop
+     * as well as by scheduled tasks.
+     */
+    private final class ApiCall<T> {
+        private final String operation;
+        private final RetryPolicy retryPolicy;
+        private final Supplier<T> call;
+        private final long callStart = System.nanoTime();
+        private int attempts = 0;
+        private boolean successful = false;
+        private boolean sessionRenewed = false;
+        private boolean retryImmediately = false;
+
+        private ApiCall(String operation, RetryPolicy retryPolicy, Supplier<T> call) {
+            this.operation = operation;
+            this.retryPolicy = retryPolicy;
+            this.call = call;
+        }
 
-            for (Track track : recentTracks.getPageResults()) {
-                if (track.isNowPlaying() && !config.isIncludePlayingTracks()){
-                    continue;
+        /**
+         * Executes the next attempt.
+         * @return The response, or null if the call shall be retried.
+         */
+        LastfmResponse<T> attempt() {
+            attempts++;
+            retryImmediately = false;
+
+            apiCircuitBreaker.acquirePermission();
+            Session attemptSession = session;
+            long start = System.nanoTime();
+            T response;
+            try {
+                response = call.get();
+            } catch (CallException e){
+                apiCircuitBreaker.onFailure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (!retryPolicy.canRetry(attempts)){
+                    throw e;
                 }
+                log.warn("Last.fm API call failed: {}",e.getMessage());
+                return null;
+            } catch (RuntimeException e){
+                apiCircuitBreaker.releasePermission();
+                throw e;
+            }
 
-                Scrobble scrobble = createScrobble(track);
+            long latencyNanos = System.nanoTime() - start;
+            Result result = response instanceof Result ? (Result) response : lastfmAPI.getLastResult();
+            boolean transientError = LastfmErrors.isTransient(result);
+            callLimiter.recordResponse(result, latencyNanos);
+            if (transientError){
+                apiCircuitBreaker.onFailure(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            } else {
+                apiCircuitBreaker.onSuccess(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            }
+            if (result != null && !result.isSuccessful()){
+                metricsListeners.onError(operation, result.getErrorCode(), result.getHttpErrorCode());
+            }
+            if (!sessionRenewed && result != null && result.getErrorCode() == LastfmErrors.INVALID_SESSION_KEY
+                    && renewRejectedSession(attemptSession)){
+                sessionRenewed = true;
+                retryImmediately = true;
+                return null;
+            }
 
-                log.debug("Fetched scrobble {}", scrobble);
+            if (!transientError || !retryPolicy.canRetry(attempts)){
+                successful = result == null || result.isSuccessful();
+                return new LastfmResponse<>(response, attempts);
+            }
+            log.warn("Last.fm API call failed with error {} (HTTP {}): {}",result.getErrorCode(),result.getHttpErrorCode(),result.getErrorMessage());
+            return null;
+        }
 
-                if (since != null && scrobble.getTimestamp() != null){
-                    Duration duration = Duration.between(since, scrobble.getTimestamp());
+        /**
+         * @return Whether the next attempt shall be executed without backing off and waiting for the call limit.
+         */
+        boolean isRetryingImmediately() {
+            return retryImmediately;
+        }
 
-                    log.debug("Checking scrobble's timestamp. Since: {} Timestamp: {}.",since, scrobble.getTimestamp());
+        long backoffMillis() {
+            long backoffMillis = retryPolicy.getBackoffMillis(attempts, ThreadLocalRandom.current().nextDouble());
+            log.debug("Retrying Last.fm API call in {} ms (attempt {} of {}).",backoffMillis,attempts + 1,retryPolicy.getMaxAttempts());
+            metricsListeners.onRetry(operation, attempts + 1);
+            return backoffMillis;
+        }
 
-                    if (duration.isNegative()){
-                        log.debug("Finished scrobble fetching due to reaching the value defined in 'since' parameter.");
-                        finished = true;
-                        break;
-                    }
-                }
+        void finish() {
+            metricsListeners.onCall(operation, System.nanoTime() - callStart, attempts, successful);
+        }
+    }
 
-                scrobbles.add(scrobble);
+    private boolean callUnscrobbler(String operation, BooleanSupplier call) {
+        unscrobblerCircuitBreaker.acquirePermission();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            success = call.getAsBoolean();
+            unscrobblerCircuitBreaker.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return success;
+        } catch (RuntimeException e){
+            unscrobblerCircuitBreaker.onFailure(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            throw e;
+        } finally {
+            metricsListeners.onCall(operation, System.nanoTime() - start, 1, success);
+        }
+    }
 
-                if (scrobbles.size() == totalLimit){
-                    log.debug("Finished scrobble fetching due to reaching the value defined in 'totalLimit' parameter.");
-                    finished = true;
-                    break;
-                }
-            }
+    private void considerCallLimit() {
+        long waitNanos = callLimiter.considerCallLimit();
+        if (waitNanos > 0){
+            metricsListeners.onCallLimiterWait(waitNanos);
+        }
+    }
+
+    private void recordIgnoredScrobble(String operation, ScrobbleResult scrobbleResult) {
+        if (scrobbleResult != null && scrobbleResult.isSuccessful() && scrobbleResult.isIgnored()){
+            metricsListeners.onScrobbleIgnored(operation, scrobbleResult.getIgnoredMessageCode());
+        }
+    }
 
-            if (currentPage >= pageLimit){
-                log.debug("Finished scrobble fetching due to reaching the value defined in 'pageLimit' parameter.");
-                finished = true;
+    private boolean isQueueingWhileCircuitOpen() {
+        return config.isQueueScrobblesWhileCircuitOpen() && scrobbleQueue != null;
+    }
+
+    private Scrobble queueWhileCircuitOpen(Scrobble scrobble) {
+        log.info("Last.fm is considered unavailable. Queueing {}",scrobble);
+        enqueueScrobble(scrobble);
+        return scrobble;
+    }
+
+    private Session createSession(final LastfmAuthenticationDetails authenticationDetails) {
+        long start = System.nanoTime();
+        Session createdSession = null;
+        try {
+            createdSession = lastfmAPI.getSession(
+                    authenticationDetails.getUsername(),
+                    authenticationDetails.getPassword(),
+                    authenticationDetails.getApiKey(),
+                    authenticationDetails.getSharedSecret());
+            return createdSession;
+        } finally {
+            metricsListeners.onCall(MetricsListener.GET_SESSION, System.nanoTime() - start, 1, createdSession != null);
+        }
+    }
+
+    private List<Scrobble> getScrobbles(Temporal since, Temporal to, int resultsPerPage, int pageLimit, int totalLimit) {
+        checkFetchOperation();
+
+        ArrayList<Scrobble> scrobbles = new ArrayList<>();
+        scrobblePages(since, to, resultsPerPage, pageLimit, totalLimit).forEachRemaining(scrobbles::addAll);
+        return scrobbles;
+    }
+
+    /**
+     * Whether a read is served from the history store.
+     * Partial reads are not served from an empty store, since that would download the complete history.
+     */
+    boolean isReadingFromHistoryStore(boolean completeHistory){
+        ScrobbleHistoryStore store = historyStore;
+        return store != null && (completeHistory || store.getNewestTimestamp() != null);
+    }
+
+    /**
+     * @return The timestamp from which on {@link Scrobble}s are fetched for syncing the history store.
+     */
+    Integer historySyncStart(){
+        return historyStore.getNewestTimestamp();
+    }
+
+    ScrobblePageCollector createHistorySyncCollector(Integer from){
+        Temporal since = from == null ? null : Utils.epochSecondsToDateTime(from);
+        return new ScrobblePageCollector(since, Integer.MAX_VALUE, Integer.MAX_VALUE, true, UnaryOperator.identity());
+    }
+
+    /**
+     * Stores the {@link Scrobble}s fetched for syncing the history store and reads from the store.
+     * @param fetchedScrobbles The fetched {@link Scrobble}s, starting with the most recent one.
+     * @param sinceSeconds The timestamp of the oldest {@link Scrobble} that shall be read, or null for reading all.
+     * @param totalLimit The maximum number of {@link Scrobble}s that shall be read.
+     * @return The read {@link Scrobble}s, starting with the most recent one.
+     */
+    List<Scrobble> readStoredScrobbles(List<Scrobble> fetchedScrobbles, Integer sinceSeconds, int totalLimit){
+        storeFetchedScrobbles(fetchedScrobbles);
+
+        Scrobble playingTrack = null;
+        if (config.isIncludePlayingTracks()){
+            playingTrack = fetchedScrobbles.stream().filter(Scrobble::isNowPlaying).findFirst().orElse(null);
+        }
+
+        List<Scrobble> scrobbles;
+        if (totalLimit == Integer.MAX_VALUE){
+            scrobbles = historyStore.readSince(sinceSeconds);
+        } else {
+            scrobbles = historyStore.readLast(playingTrack == null ? totalLimit : totalLimit - 1);
+        }
+        Collections.reverse(scrobbles);
+        if (playingTrack != null){
+            scrobbles.add(0, playingTrack);
+        }
+        return scrobbleManager.persistAll(scrobbles);
+    }
+
+    private List<Scrobble> readHistory(Integer sinceSeconds, int totalLimit) {
+        checkFetchOperation();
+        return readStoredScrobbles(fetchHistoryChanges(), sinceSeconds, totalLimit);
+    }
+
+    private List<Scrobble> fetchHistoryChanges() {
+        Integer from = historySyncStart();
+        int resultsPerPage = config.getMaxResultsPerPage();
+
+        List<Scrobble> fetchedScrobbles = new ArrayList<>();
+        new ScrobblePageIterator(createHistorySyncCollector(from), page -> {
+            considerCallLimit();
+            return fetchScrobblePage(page, resultsPerPage, from, null);
+        }).forEachRemaining(fetchedScrobbles::addAll);
+        return fetchedScrobbles;
+    }
+
+    private int storeFetchedScrobbles(List<Scrobble> fetchedScrobbles) {
+        List<Scrobble> newScrobbles = new ArrayList<>(fetchedScrobbles.size());
+        for (Scrobble scrobble : fetchedScrobbles) {
+            if (!scrobble.isNowPlaying() && scrobble.hasTimestamp()){
+                newScrobbles.add(scrobble);
             }
-            else if (currentPage >= recentTracks.getTotalPages()){
-                log.debug("Finished scrobble fetching due to end of results.");
-                finished = true;
+        }
+        Collections.reverse(newScrobbles);
+        int addedScrobbles = historyStore.append(newScrobbles);
+
+        log.info("Added {} scrobbles to the history store.",addedScrobbles);
+        return addedScrobbles;
+    }
+
+    private Stream<Scrobble> streamScrobbles(Temporal since, Temporal to, int resultsPerPage, int pageLimit, int totalLimit) {
+        checkFetchOperation();
+
+        return StreamSupport.stream(new ScrobbleSpliterator(scrobblePages(since, to, resultsPerPage, pageLimit, totalLimit)), false);
+    }
+
+    /**
+     * Scrobbles a single batch and sorts its scrobbles into successful and failed ones.
+     * @return false if the API call failed as a whole, in which case every scrobble of the batch counts as failed.
+     *         true if Last.fm answered for every single scrobble, even if it ignored some or all of them.
+     */
+    private boolean scrobbleBatch(List<Scrobble> batch, List<Scrobble> successfulScrobbles, List<Scrobble> failedScrobbles){
+        considerCallLimit();
+        List<ScrobbleResult> scrobbleResults = callLastfmApi(MetricsListener.SCROBBLE, config.getScrobbleRetryPolicy(), batchScrobbleCall(batch)).getValue();
+        return sortBatchResults(batch, scrobbleResults, successfulScrobbles, failedScrobbles);
+    }
+
+    private Supplier<List<ScrobbleResult>> batchScrobbleCall(List<Scrobble> batch){
+        List<ScrobbleData> scrobbleData = new ArrayList<>(batch.size());
+        for (Scrobble scrobble : batch) {
+            if (scrobble.getTimestampSeconds() == null){
+                scrobble.setTimestampSeconds(currentSeconds());
             }
+            scrobbleData.add(new ScrobbleData(scrobble.getArtist(), scrobble.getTrackName(), scrobble.getTimestampSeconds()));
+        }
+
+        log.info("Scrobbling batch of {} Scrobbles",batch.size());
+        return () -> lastfmAPI.scrobble(scrobbleData, session);
+    }
 
-            currentPage++;
+    private boolean sortBatchResults(List<Scrobble> batch, List<ScrobbleResult> scrobbleResults, List<Scrobble> successfulScrobbles, List<Scrobble> failedScrobbles){
+        if (scrobbleResults == null || scrobbleResults.size() != batch.size() ||
+                scrobbleResults.stream().anyMatch(scrobbleResult -> !scrobbleResult.isSuccessful())){
+            log.debug("Scrobbling of batch failed as a whole: {}",scrobbleResults);
+            failedScrobbles.addAll(batch);
+            return false;
         }
 
-        return scrobbles;
+        for (int i = 0; i < batch.size(); i++) {
+            ScrobbleResult scrobbleResult = scrobbleResults.get(i);
+            recordIgnoredScrobble(MetricsListener.SCROBBLE, scrobbleResult);
+
+            if (scrobbleResult.isIgnored()){
+                log.debug("Scrobbling of Scrobble {} failed.",batch.get(i));
+                failedScrobbles.add(batch.get(i));
+            } else {
+                successfulScrobbles.add(batch.get(i));
+            }
+        }
+        return true;
     }
 
     private void validateScrobble(Scrobble scrobble, boolean expectTimestamp){
@@ -366,12 +1494,82 @@ public class ScrobbleClient {
         }
     }
 
-    private int currentSeconds(){
-        return (int) (Clock.systemUTC().millis() / 1000);
+    private Integer probeOldestTimestamp(){
+        considerCallLimit();
+        ScrobblePage firstPage = fetchScrobblePage(1, 1, null, null);
+        if (firstPage == null || firstPage.isEmpty() || firstPage.getTotalPages() < 1){
+            return null;
+        }
+
+        considerCallLimit();
+        ScrobblePage lastPage = fetchScrobblePage(firstPage.getTotalPages(), 1, null, null);
+        Integer oldestTimestamp = null;
+        for (Scrobble scrobble : lastPage.getScrobbles()) {
+            if (!scrobble.isNowPlaying() && scrobble.hasTimestamp()){
+                int timestamp = scrobble.getEpochSeconds();
+                oldestTimestamp = oldestTimestamp == null ? timestamp : Math.min(oldestTimestamp, timestamp);
+            }
+        }
+        return oldestTimestamp;
     }
 
-    private Scrobble createScrobble(Track track){
-        Scrobble scrobble = new Scrobble(track);
-        return scrobbleManager.persist(scrobble);
+    private <T> T awaitResult(CompletableFuture<T> result){
+        try {
+            return result.join();
+        } catch (CompletionException e){
+            if (e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void validateRange(Temporal from, Temporal to){
+        if (from == null || to == null || Utils.temporalToEpochSeconds(from) > Utils.temporalToEpochSeconds(to)){
+            throw new IllegalArgumentException(String.format("Invalid time range from %s to %s",from,to));
+        }
+    }
+
+    private void recordScrobbled(Collection<Scrobble> scrobbles) {
+        ListeningStatistics statistics = listeningStatistics;
+        if (statistics != null){
+            statistics.recordAll(scrobbles);
+        }
+        ScrobbleHistoryStore store = historyStore;
+        if (store != null){
+            try {
+                store.add(scrobbles);
+            } catch (HistoryStoreException e){
+                log.warn("Failed to add {} scrobbles to the history store.",scrobbles.size(),e);
+            }
+        }
+    }
+
+    private void deduplicateStrings(ScrobblePage scrobblePage) {
+        if (stringPool == null){
+            return;
+        }
+        for (Scrobble scrobble : scrobblePage.getScrobbles()) {
+            scrobble.setArtist(stringPool.intern(scrobble.getArtist()));
+            scrobble.setTrackName(stringPool.intern(scrobble.getTrackName()));
+        }
+    }
+
+    private static StringPool createStringPool(LastfmConfiguration config){
+        return config.isStringDeduplication() ? new StringPool(config.getStringPoolCapacity()) : null;
+    }
+
+    private static LastfmAPI createLastfmAPI(LastfmConfiguration config){
+        if (config.getTransport() != null){
+            return new TransportLastfmAPI(config.getTransport(), config.getApiRootUrl());
+        }
+        if (config.isStreamingResponseParsing()){
+            return new TransportLastfmAPI(new HttpUrlConnectionTransport(), config.getApiRootUrl());
+        }
+        return new DefaultLastfmAPI();
+    }
+
+    private int currentSeconds(){
+        return (int) (Clock.systemUTC().millis() / 1000);
     }
 }
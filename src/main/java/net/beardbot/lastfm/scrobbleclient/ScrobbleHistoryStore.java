@@ -0,0 +1,603 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.extern.slf4j.Slf4j;
+import net.beardbot.lastfm.scrobbleclient.exception.HistoryStoreException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk store of the scrobble history of a single user.
+ * Scrobbles are stored in ascending timestamp order, so new scrobbles are always appended to the end of the file.
+ * A sparse in-memory index maps the timestamp of every {@value #INDEX_INTERVAL}th record to its file offset, which
+ * allows reading a time range without scanning the whole file.
+ * Since the scrobble file is never rewritten, unscrobbled and updated scrobbles are recorded in a separate edits
+ * file and applied when reading. Edits always refer to the scrobble as it has been stored, so a scrobble can be
+ * updated several times.
+ * Scrobbles that are older than the newest stored scrobble, e.g. backfilled scrobbles, are recorded as additions in
+ * the edits file as well and merged into the results when reading.
+ * Every edit consists of the payload length, a CRC32 checksum of the payload and the payload itself.
+ * A record or edit that has only been written partially, e.g. due to a crash, is truncated when the store is opened.
+ */
+@Slf4j
+class ScrobbleHistoryStore {
+    static final String SCROBBLES_FILE_NAME = "scrobbles.dat";
+    static final String EDITS_FILE_NAME = "edits.dat";
+
+    private static final int INDEX_INTERVAL = 256;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+    private static final int EDIT_HEADER_SIZE = 8;
+    private static final byte EDIT_REMOVAL = 0;
+    private static final byte EDIT_UPDATE = 1;
+    private static final byte EDIT_ADDITION = 2;
+
+    private final Path scrobblesFile;
+    private final Path editsFile;
+    private final Map<String,Scrobble> edits = new HashMap<>();
+    private final Map<String,Scrobble> storedScrobblesByUpdate = new HashMap<>();
+    private final List<Scrobble> additions = new ArrayList<>();
+
+    private int[] indexTimestamps = new int[16];
+    private long[] indexOffsets = new long[16];
+    private int indexSize;
+    private long recordCount;
+    private long endOffset;
+    private int newestTimestamp;
+    private Set<String> newestKeys = new HashSet<>();
+
+    private ScrobbleHistoryStore(Path directory){
+        this.scrobblesFile = directory.resolve(SCROBBLES_FILE_NAME);
+        this.editsFile = directory.resolve(EDITS_FILE_NAME);
+    }
+
+    /**
+     * Opens the store located in the given directory, creating it if necessary.
+     * @throws HistoryStoreException If the store can not be read.
+     */
+    static ScrobbleHistoryStore open(Path directory){
+        ScrobbleHistoryStore store = new ScrobbleHistoryStore(directory);
+        try {
+            Files.createDirectories(directory);
+            store.loadEdits();
+            store.loadIndex();
+        } catch (IOException e){
+            throw new HistoryStoreException(String.format("Failed to open scrobble history store at %s",directory),e);
+        }
+        log.debug("Opened scrobble history store at {} containing {} scrobbles.",directory,store.recordCount);
+        return store;
+    }
+
+    /**
+     * @return The timestamp of the newest appended scrobble, or null if nothing has been appended yet.
+     */
+    synchronized Integer getNewestTimestamp(){
+        return recordCount == 0 ? null : newestTimestamp;
+    }
+
+    /**
+     * @return The number of stored records, including additions and unscrobbled ones.
+     */
+    synchronized long getRecordCount(){
+        return recordCount + additions.size();
+    }
+
+    /**
+     * Appends scrobbles to the store.
+     * Scrobbles that have the same timestamp as the newest stored scrobble and are already stored are skipped, so
+     * a sync may start at the timestamp of the newest stored scrobble.
+     * @param scrobbles The scrobbles in ascending timestamp order. None of them may be older than the newest stored scrobble.
+     * @return The number of scrobbles that have been appended.
+     */
+    synchronized int append(List<Scrobble> scrobbles){
+        List<Scrobble> newScrobbles = new ArrayList<>(scrobbles.size());
+        Set<String> keys = new HashSet<>(newestKeys);
+        Integer newest = getNewestTimestamp();
+
+        for (Scrobble scrobble : scrobbles) {
+            int timestamp = scrobble.getEpochSeconds();
+            if (newest != null && timestamp < newest){
+                throw new IllegalArgumentException(String.format("Scrobble %s is older than the newest stored scrobble.",scrobble));
+            }
+            if (newest == null || timestamp != newest){
+                keys.clear();
+                newest = timestamp;
+            }
+            if (keys.add(editKey(scrobble))){
+                newScrobbles.add(scrobble);
+            }
+        }
+        if (newScrobbles.isEmpty()){
+            return 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(scrobblesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)){
+            channel.truncate(endOffset);
+            channel.position(endOffset);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            for (Scrobble scrobble : newScrobbles) {
+                writeRecord(output, scrobble);
+            }
+            output.flush();
+            channel.force(false);
+        } catch (IOException e){
+            throw new HistoryStoreException(String.format("Failed to write to scrobble history store %s",scrobblesFile),e);
+        }
+
+        for (Scrobble scrobble : newScrobbles) {
+            addIndexEntry(scrobble.getEpochSeconds(), endOffset);
+            endOffset += recordSize(scrobble);
+            recordCount++;
+        }
+        newestTimestamp = newest;
+        newestKeys = keys;
+        return newScrobbles.size();
+    }
+
+    /**
+     * Adds scrobbles that have been submitted by this client.
+     * Only scrobbles that are older than the newest appended scrobble are added, since newer ones are fetched by the
+     * next sync. Scrobbles that are already stored are skipped.
+     * @return The number of scrobbles that have been added.
+     */
+    synchronized int add(Collection<Scrobble> scrobbles){
+        List<Scrobble> newAdditions = new ArrayList<>();
+        for (Scrobble scrobble : scrobbles) {
+            if (recordCount == 0 || !scrobble.hasTimestamp() || scrobble.getEpochSeconds() >= newestTimestamp || isStored(scrobble)){
+                continue;
+            }
+            Scrobble addition = Scrobble.of(scrobble.getArtist(), scrobble.getTrackName());
+            addition.setEpochSeconds(scrobble.getEpochSeconds());
+            newAdditions.add(addition);
+        }
+        if (newAdditions.isEmpty()){
+            return 0;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (Scrobble addition : newAdditions) {
+                bytes.write(encodeEdit(EDIT_ADDITION, addition, null));
+            }
+            writeEdits(bytes.toByteArray());
+        } catch (IOException e){
+            throw new HistoryStoreException(String.format("Failed to write to scrobble history edits %s",editsFile),e);
+        }
+
+        newAdditions.forEach(this::insertAddition);
+        return newAdditions.size();
+    }
+
+    /**
+     * Reads all scrobbles with a timestamp greater than or equal to the given one.
+     * @param sinceSeconds The timestamp of the oldest scrobble that shall be read, or null for reading all scrobbles.
+     * @return The scrobbles in ascending timestamp order.
+     */
+    synchronized List<Scrobble> readSince(Integer sinceSeconds){
+        int startEntry = sinceSeconds == null ? 0 : entryBefore(sinceSeconds);
+
+        List<Scrobble> scrobbles = new ArrayList<>();
+        readFrom(startEntry, scrobble -> {
+            if (sinceSeconds == null || scrobble.getEpochSeconds() >= sinceSeconds){
+                scrobbles.add(scrobble);
+            }
+        });
+        return scrobbles;
+    }
+
+    /**
+     * Reads the most recent scrobbles.
+     * @param amount The maximum number of scrobbles that shall be read.
+     * @return The scrobbles in ascending timestamp order.
+     */
+    synchronized List<Scrobble> readLast(int amount){
+        if (amount <= 0){
+            return new ArrayList<>();
+        }
+
+        int entriesToRead = (amount / INDEX_INTERVAL) + 2;
+        while (true){
+            int startEntry = Math.max(indexSize - entriesToRead, 0);
+            Deque<Scrobble> scrobbles = new ArrayDeque<>(amount);
+
+            readFrom(startEntry, scrobble -> {
+                if (scrobbles.size() == amount){
+                    scrobbles.removeFirst();
+                }
+                scrobbles.addLast(scrobble);
+            });
+
+            if (scrobbles.size() == amount || startEntry == 0){
+                return new ArrayList<>(scrobbles);
+            }
+            entriesToRead *= 2;
+        }
+    }
+
+    /**
+     * Records that a stored scrobble has been unscrobbled.
+     * @param scrobble The scrobble as it is stored or with the data of its latest update.
+     */
+    synchronized void recordRemoval(Scrobble scrobble){
+        Scrobble storedScrobble = storedScrobble(scrobble);
+        writeEdit(EDIT_REMOVAL, storedScrobble, null);
+        applyEdit(storedScrobble, null);
+    }
+
+    /**
+     * Records that the artist or track name of a stored scrobble has been updated.
+     * @param originalScrobble The scrobble as it is stored or with the data of its latest update.
+     * @param updatedScrobble The scrobble containing the updated data.
+     */
+    synchronized void recordUpdate(Scrobble originalScrobble, Scrobble updatedScrobble){
+        Scrobble storedScrobble = storedScrobble(originalScrobble);
+        writeEdit(EDIT_UPDATE, storedScrobble, updatedScrobble);
+        applyEdit(storedScrobble, updatedScrobble);
+    }
+
+    private void readFrom(int startEntry, Consumer<Scrobble> consumer){
+        int[] additionIndex = {startEntry == 0 || indexSize == 0 ? 0 : firstAdditionWithTimestamp(indexTimestamps[startEntry])};
+
+        scan(startEntry, record -> {
+            while (additionIndex[0] < additions.size() && additions.get(additionIndex[0]).getEpochSeconds() < record.getEpochSeconds()){
+                acceptEdited(additions.get(additionIndex[0]++).clone(), consumer);
+            }
+            acceptEdited(record, consumer);
+            return true;
+        });
+        for (int i = additionIndex[0]; i < additions.size(); i++) {
+            acceptEdited(additions.get(i).clone(), consumer);
+        }
+    }
+
+    /**
+     * Reads the appended records starting at an index entry, without applying edits or additions.
+     * @param consumer Returns false to stop reading.
+     */
+    private void scan(int startEntry, Predicate<Scrobble> consumer){
+        if (indexSize == 0){
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(scrobblesFile, StandardOpenOption.READ)){
+            channel.position(indexOffsets[startEntry]);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long remainingRecords = recordCount - (long) startEntry * INDEX_INTERVAL;
+
+            for (long i = 0; i < remainingRecords; i++) {
+                if (!consumer.test(readRecord(input))){
+                    return;
+                }
+            }
+        } catch (IOException e){
+            throw new HistoryStoreException(String.format("Failed to read from scrobble history store %s",scrobblesFile),e);
+        }
+    }
+
+    private void acceptEdited(Scrobble scrobble, Consumer<Scrobble> consumer){
+        Scrobble editedScrobble = applyEdits(scrobble);
+        if (editedScrobble != null){
+            consumer.accept(editedScrobble);
+        }
+    }
+
+    private boolean isStored(Scrobble scrobble){
+        String key = editKey(scrobble);
+        int timestamp = scrobble.getEpochSeconds();
+
+        for (int i = firstAdditionWithTimestamp(timestamp); i < additions.size() && additions.get(i).getEpochSeconds() == timestamp; i++) {
+            if (editKey(additions.get(i)).equals(key)){
+                return true;
+            }
+        }
+
+        boolean[] stored = {false};
+        scan(entryBefore(timestamp), record -> {
+            stored[0] = editKey(record).equals(key);
+            return !stored[0] && record.getEpochSeconds() <= timestamp;
+        });
+        return stored[0];
+    }
+
+    private void insertAddition(Scrobble addition){
+        int position = firstAdditionWithTimestamp(addition.getEpochSeconds() + 1);
+        additions.add(position, addition);
+    }
+
+    private int firstAdditionWithTimestamp(int timestamp){
+        int low = 0;
+        int high = additions.size();
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (additions.get(middle).getEpochSeconds() < timestamp){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The scrobble as it has been stored, resolving the data of previous updates.
+     */
+    private Scrobble storedScrobble(Scrobble scrobble){
+        Scrobble storedScrobble = storedScrobblesByUpdate.get(editKey(scrobble));
+        return storedScrobble != null ? storedScrobble : scrobble;
+    }
+
+    private void applyEdit(Scrobble storedScrobble, Scrobble updatedScrobble){
+        String key = editKey(storedScrobble);
+        Scrobble previousUpdate = edits.get(key);
+        if (previousUpdate != null){
+            storedScrobblesByUpdate.remove(editKey(previousUpdate));
+        }
+
+        if (updatedScrobble == null){
+            edits.put(key, null);
+            return;
+        }
+        Scrobble update = Scrobble.of(updatedScrobble.getArtist(), updatedScrobble.getTrackName());
+        update.setEpochSeconds(storedScrobble.getEpochSeconds());
+        Scrobble identity = Scrobble.of(storedScrobble.getArtist(), storedScrobble.getTrackName());
+        identity.setEpochSeconds(storedScrobble.getEpochSeconds());
+
+        edits.put(key, update);
+        storedScrobblesByUpdate.put(editKey(update), identity);
+    }
+
+    private Scrobble applyEdits(Scrobble scrobble){
+        String key = editKey(scrobble);
+        if (!edits.containsKey(key)){
+            return scrobble;
+        }
+
+        Scrobble updatedScrobble = edits.get(key);
+        if (updatedScrobble == null){
+            return null;
+        }
+        scrobble.setArtist(updatedScrobble.getArtist());
+        scrobble.setTrackName(updatedScrobble.getTrackName());
+        return scrobble;
+    }
+
+    private int entryBefore(int seconds){
+        int position = Arrays.binarySearch(indexTimestamps, 0, indexSize, seconds);
+        return Math.max(position >= 0 ? firstEntryWithTimestamp(position) - 1 : -position - 2, 0);
+    }
+
+    private int firstEntryWithTimestamp(int position){
+        while (position > 0 && indexTimestamps[position - 1] == indexTimestamps[position]){
+            position--;
+        }
+        return position;
+    }
+
+    private void addIndexEntry(int timestamp, long offset){
+        if (recordCount % INDEX_INTERVAL != 0){
+            return;
+        }
+        if (indexSize == indexTimestamps.length){
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+        }
+        indexTimestamps[indexSize] = timestamp;
+        indexOffsets[indexSize] = offset;
+        indexSize++;
+    }
+
+    private void loadIndex() throws IOException {
+        if (!Files.exists(scrobblesFile)){
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(scrobblesFile, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long offset = 0;
+            long fileSize = channel.size();
+
+            while (offset < fileSize){
+                Scrobble scrobble;
+                try {
+                    scrobble = readRecord(input);
+                } catch (EOFException e){
+                    log.warn("Truncating incomplete record at offset {} of scrobble history store {}.",offset,scrobblesFile);
+                    channel.truncate(offset);
+                    break;
+                }
+                addIndexEntry(scrobble.getEpochSeconds(), offset);
+                offset += recordSize(scrobble);
+                if (recordCount == 0 || scrobble.getEpochSeconds() != newestTimestamp){
+                    newestKeys.clear();
+                    newestTimestamp = scrobble.getEpochSeconds();
+                }
+                newestKeys.add(editKey(scrobble));
+                recordCount++;
+            }
+            endOffset = offset;
+        }
+    }
+
+    private void loadEdits() throws IOException {
+        if (!Files.exists(editsFile)){
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(editsFile, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            long offset = 0;
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(EDIT_HEADER_SIZE);
+
+            while (offset < fileSize){
+                header.clear();
+                if (fileSize - offset < EDIT_HEADER_SIZE || channel.read(header, offset) < EDIT_HEADER_SIZE){
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                long checksum = header.getInt() & 0xFFFFFFFFL;
+
+                if (length <= 0 || offset + EDIT_HEADER_SIZE + length > fileSize){
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                channel.read(payload, offset + EDIT_HEADER_SIZE);
+
+                if (checksum(payload.array()) != checksum){
+                    break;
+                }
+                applyEdit(payload.array(), offset);
+                offset += EDIT_HEADER_SIZE + length;
+            }
+
+            if (offset < fileSize){
+                log.warn("Truncating incomplete or corrupted edit at offset {} of scrobble history edits {}.",offset,editsFile);
+                channel.truncate(offset);
+                channel.force(false);
+            }
+        }
+    }
+
+    private void applyEdit(byte[] payload, long offset) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = input.readByte();
+        Scrobble scrobble = readRecord(input);
+
+        if (type == EDIT_ADDITION){
+            insertAddition(scrobble);
+        } else if (type == EDIT_REMOVAL){
+            applyEdit(storedScrobble(scrobble), null);
+        } else if (type == EDIT_UPDATE){
+            applyEdit(storedScrobble(scrobble), readRecord(input));
+        } else {
+            throw new IOException(String.format("Unknown edit type %d at offset %d of %s",type,offset,editsFile));
+        }
+    }
+
+    private void writeEdit(byte type, Scrobble scrobble, Scrobble updatedScrobble){
+        try {
+            writeEdits(encodeEdit(type, scrobble, updatedScrobble));
+        } catch (IOException e){
+            throw new HistoryStoreException(String.format("Failed to write to scrobble history edits %s",editsFile),e);
+        }
+    }
+
+    private void writeEdits(byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(editsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)){
+            channel.write(ByteBuffer.wrap(bytes));
+            channel.force(false);
+        }
+    }
+
+    private static byte[] encodeEdit(byte type, Scrobble scrobble, Scrobble updatedScrobble) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(type);
+        writeRecord(payload, scrobble);
+        if (updatedScrobble != null){
+            Scrobble record = updatedScrobble.clone();
+            record.setEpochSeconds(scrobble.getEpochSeconds());
+            writeRecord(payload, record);
+        }
+        payload.flush();
+
+        byte[] payloadArray = payloadBytes.toByteArray();
+        return ByteBuffer.allocate(EDIT_HEADER_SIZE + payloadArray.length)
+                .putInt(payloadArray.length)
+                .putInt((int) checksum(payloadArray))
+                .put(payloadArray)
+                .array();
+    }
+
+    private static int writeRecord(DataOutputStream output, Scrobble scrobble) throws IOException {
+        byte[] artist = encode(scrobble.getArtist());
+        byte[] trackName = encode(scrobble.getTrackName());
+
+        output.writeInt(scrobble.getEpochSeconds());
+        output.writeShort(artist.length);
+        output.write(artist);
+        output.writeShort(trackName.length);
+        output.write(trackName);
+
+        return 8 + artist.length + trackName.length;
+    }
+
+    private static Scrobble readRecord(DataInputStream input) throws IOException {
+        int timestamp = input.readInt();
+        String artist = readString(input);
+        String trackName = readString(input);
+
+        Scrobble scrobble = Scrobble.of(artist, trackName);
+        scrobble.setEpochSeconds(timestamp);
+        return scrobble;
+    }
+
+    private static byte[] encode(String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH){
+            throw new IllegalArgumentException(String.format("Value exceeds %d bytes: %s",MAX_STRING_LENGTH,value));
+        }
+        return bytes;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int recordSize(Scrobble scrobble){
+        return 8 + scrobble.getArtist().getBytes(StandardCharsets.UTF_8).length + scrobble.getTrackName().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static long checksum(byte[] bytes){
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static String editKey(Scrobble scrobble){
+        return String.format("%d\u0000%s\u0000%s",scrobble.getTimestampSeconds(),scrobble.getArtist(),scrobble.getTrackName());
+    }
+}
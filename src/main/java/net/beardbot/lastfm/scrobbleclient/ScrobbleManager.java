@@ -16,12 +16,34 @@
  */
 package net.beardbot.lastfm.scrobbleclient;
 
-import java.util.HashMap;
-import java.util.Map;
+import net.beardbot.lastfm.scrobbleclient.exception.UnmanagedScrobbleException;
 
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the original data of the scrobbles returned by the {@link ScrobbleClient}.
+ * All operations are safe for concurrent use.
+ */
 class ScrobbleManager {
+    private static final int SEGMENT_COUNT = 16;
 
-    private Map<Scrobble,Scrobble> scrobbles = new HashMap<>();
+    private final ScrobbleStore scrobbles;
+
+    ScrobbleManager(){
+        this(new UnboundedScrobbleStore());
+    }
+
+    ScrobbleManager(LastfmConfiguration config){
+        this(createStore(config));
+    }
+
+    ScrobbleManager(ScrobbleStore scrobbles){
+        this.scrobbles = scrobbles;
+    }
 
     Scrobble persist(Scrobble originalScrobble){
         Scrobble persistedScrobble = originalScrobble.clone();
@@ -29,6 +51,16 @@ class ScrobbleManager {
         return persistedScrobble;
     }
 
+    List<Scrobble> persistAll(Collection<Scrobble> originalScrobbles){
+        List<Scrobble> persistedScrobbles = new ArrayList<>(originalScrobbles.size());
+        for (Scrobble originalScrobble : originalScrobbles) {
+            Scrobble persistedScrobble = originalScrobble.clone();
+            scrobbles.put(persistedScrobble, originalScrobble);
+            persistedScrobbles.add(persistedScrobble);
+        }
+        return persistedScrobbles;
+    }
+
     void remove(Scrobble persistedScrobble){
         scrobbles.remove(persistedScrobble);
     }
@@ -37,14 +69,46 @@ class ScrobbleManager {
         return scrobbles.size();
     }
 
+    long getEvictionCount(){
+        return scrobbles.getEvictionCount();
+    }
+
     Scrobble getOriginalScrobble(Scrobble persistedScrobble){
         return scrobbles.get(persistedScrobble);
     }
 
     Scrobble updateOriginalScrobble(Scrobble persistedScrobble){
-        Scrobble originalScrobble = scrobbles.get(persistedScrobble);
-        originalScrobble.setArtist(persistedScrobble.getArtist());
-        originalScrobble.setTrackName(persistedScrobble.getTrackName());
+        String artist = persistedScrobble.getArtist();
+        String trackName = persistedScrobble.getTrackName();
+
+        return updateOriginalScrobble(persistedScrobble, originalScrobble -> {
+            originalScrobble.setArtist(artist);
+            originalScrobble.setTrackName(trackName);
+        });
+    }
+
+    /**
+     * Applies the given update to the original scrobble atomically with respect to all other operations on it.
+     * @throws UnmanagedScrobbleException If the scrobble is not managed by this manager.
+     */
+    Scrobble updateOriginalScrobble(Scrobble persistedScrobble, Consumer<Scrobble> update){
+        if (!scrobbles.update(persistedScrobble, update)){
+            throw new UnmanagedScrobbleException(String.format("The given scrobble %s is not managed by a scrobble manager.",persistedScrobble));
+        }
         return persistedScrobble;
     }
+
+    private static ScrobbleStore createStore(LastfmConfiguration config){
+        switch (config.getScrobbleTrackingMode()){
+            case LRU:
+                int segmentCount = Math.max(Math.min(SEGMENT_COUNT, config.getMaxTrackedScrobbles()), 1);
+                int maxSegmentSize = (config.getMaxTrackedScrobbles() + segmentCount - 1) / segmentCount;
+                return new StripedScrobbleStore(segmentCount, () ->
+                        new LruScrobbleStore(maxSegmentSize, config.getScrobbleTrackingExpiryMillis(), Clock.systemUTC()));
+            case WEAK:
+                return new StripedScrobbleStore(SEGMENT_COUNT, WeakScrobbleStore::new);
+            default:
+                return new UnboundedScrobbleStore();
+        }
+    }
 }
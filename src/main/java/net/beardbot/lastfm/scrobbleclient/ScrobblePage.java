@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.Track;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of recent tracks reduced to {@link Scrobble}s.
+ * A track that is currently playing is contained as a {@link Scrobble} without timestamp that is flagged as now playing.
+ */
+@Getter
+@RequiredArgsConstructor
+class ScrobblePage {
+    private final int page;
+    private final int totalPages;
+    private final List<Scrobble> scrobbles;
+
+    static ScrobblePage empty(){
+        return new ScrobblePage(0, 0, Collections.emptyList());
+    }
+
+    /**
+     * Converts a page of lastfm-java {@link Track}s.
+     * @return The converted page, or null if the passed page is null.
+     */
+    static ScrobblePage of(PaginatedResult<Track> recentTracks){
+        if (recentTracks == null){
+            return null;
+        }
+
+        List<Scrobble> scrobbles = new ArrayList<>(recentTracks.getPageResults().size());
+        for (Track track : recentTracks.getPageResults()) {
+            scrobbles.add(new Scrobble(track));
+        }
+        return new ScrobblePage(recentTracks.getPage(), recentTracks.getTotalPages(), scrobbles);
+    }
+
+    boolean isEmpty(){
+        return scrobbles.isEmpty();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.temporal.ChronoField;
+import java.time.temporal.Temporal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+@Slf4j
+@RequiredArgsConstructor
+class ScrobblePageCollector {
+    private final Temporal since;
+    private final int pageLimit;
+    private final int totalLimit;
+    private final boolean includePlayingTracks;
+    private final UnaryOperator<Scrobble> scrobbleFactory;
+
+    private int collectedScrobbles = 0;
+    private boolean finished = false;
+    private Long sinceSeconds;
+
+    List<Scrobble> collect(ScrobblePage recentTracks, int currentPage){
+        List<Scrobble> scrobbles = new ArrayList<>();
+
+        log.debug("Fetched scrobble page {}/{}",currentPage,recentTracks.getTotalPages());
+
+        for (Scrobble fetchedScrobble : recentTracks.getScrobbles()) {
+            if (fetchedScrobble.isNowPlaying() && !includePlayingTracks){
+                continue;
+            }
+
+            Scrobble scrobble = scrobbleFactory.apply(fetchedScrobble);
+
+            log.debug("Fetched scrobble {}", scrobble);
+
+            if (since != null && scrobble.hasTimestamp()){
+                log.debug("Checking scrobble's timestamp. Since: {} Timestamp: {}.",since, scrobble.getEpochSeconds());
+
+                if (scrobble.getEpochSeconds() < sinceSeconds()){
+                    log.debug("Finished scrobble fetching due to reaching the value defined in 'since' parameter.");
+                    finished = true;
+                    return scrobbles;
+                }
+            }
+
+            scrobbles.add(scrobble);
+            collectedScrobbles++;
+
+            if (collectedScrobbles == totalLimit){
+                log.debug("Finished scrobble fetching due to reaching the value defined in 'totalLimit' parameter.");
+                finished = true;
+                return scrobbles;
+            }
+        }
+
+        if (currentPage >= pageLimit){
+            log.debug("Finished scrobble fetching due to reaching the value defined in 'pageLimit' parameter.");
+            finished = true;
+        }
+        else if (currentPage >= recentTracks.getTotalPages()){
+            log.debug("Finished scrobble fetching due to end of results.");
+            finished = true;
+        }
+
+        return scrobbles;
+    }
+
+    /**
+     * @return The epoch second from which on scrobbles are collected, rounded up if {@link #since} has a fraction of a second.
+     */
+    private long sinceSeconds(){
+        if (sinceSeconds == null){
+            long seconds = Utils.temporalToEpochSeconds(since);
+            if (since.isSupported(ChronoField.NANO_OF_SECOND) && since.get(ChronoField.NANO_OF_SECOND) > 0){
+                seconds++;
+            }
+            sinceSeconds = seconds;
+        }
+        return sinceSeconds;
+    }
+
+    boolean isFinished(){
+        return finished;
+    }
+}
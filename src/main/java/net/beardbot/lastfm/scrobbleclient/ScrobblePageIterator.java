@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * Fetches pages of recent tracks on demand and converts them into {@link Scrobble}s.
+ * A page is only fetched when the next element is requested, so callers may stop at any time without fetching
+ * the remaining history. Pages that contain no scrobbles after filtering are skipped.
+ */
+class ScrobblePageIterator implements Iterator<List<Scrobble>> {
+    private final ScrobblePageCollector collector;
+    private final IntFunction<ScrobblePage> pageFetcher;
+
+    private int currentPage = 1;
+    private List<Scrobble> nextPage;
+
+    /**
+     * @param collector The collector deciding which scrobbles are returned and when to stop.
+     * @param pageFetcher Fetches the page with the given number, respecting the API call limit.
+     */
+    ScrobblePageIterator(ScrobblePageCollector collector, IntFunction<ScrobblePage> pageFetcher){
+        this.collector = collector;
+        this.pageFetcher = pageFetcher;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextPage == null && !collector.isFinished()){
+            List<Scrobble> scrobbles = collector.collect(pageFetcher.apply(currentPage), currentPage);
+            currentPage++;
+
+            if (!scrobbles.isEmpty()){
+                nextPage = scrobbles;
+            }
+        }
+        return nextPage != null;
+    }
+
+    @Override
+    public List<Scrobble> next() {
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        List<Scrobble> page = nextPage;
+        nextPage = null;
+        return page;
+    }
+}
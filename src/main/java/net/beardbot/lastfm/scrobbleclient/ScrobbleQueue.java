@@ -0,0 +1,414 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import lombok.extern.slf4j.Slf4j;
+import net.beardbot.lastfm.scrobbleclient.exception.ScrobbleQueueException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable queue of scrobbles that have not been submitted to Last.fm yet, backed by a write-ahead log.
+ * Every record consists of the payload length, a CRC32 checksum of the payload and the payload itself.
+ * The generation of the current log and the offset up to which its records have been acknowledged are kept in a
+ * separate file, so acknowledging never modifies the log. Once the acknowledged part of the log exceeds the
+ * compaction threshold, the remaining records are copied into a log of the next generation. Atomically replacing
+ * the acknowledgement file switches to the new log, after which the old one is deleted.
+ * When the queue is opened, the log is replayed from the acknowledged offset and truncated at the first incomplete
+ * or corrupted record.
+ * With {@link ScrobbleQueueSyncPolicy#PERIODIC}, appended records that have not been forced to disk yet are synced in
+ * the background once per sync interval, so they are not left unsynced when no further scrobbles are appended.
+ */
+@Slf4j
+class ScrobbleQueue implements Closeable {
+    static final String ACK_FILE_NAME = "queue.ack";
+
+    private static final String LOG_FILE_PREFIX = "queue-";
+    private static final String LOG_FILE_SUFFIX = ".wal";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private final Path directory;
+    private final Path ackFile;
+    private final ScrobbleQueueSyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final long compactionThresholdBytes;
+    private final Clock clock;
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private Path logFile;
+    private FileChannel channel;
+    private long generation;
+    private long acknowledgedOffset;
+    private long endOffset;
+    private long syncedOffset;
+    private long lastSyncMillis;
+    private ScheduledFuture<?> periodicSync;
+
+    private ScrobbleQueue(Path directory, ScrobbleQueueSyncPolicy syncPolicy, long syncIntervalMillis, long compactionThresholdBytes, Clock clock){
+        this.directory = directory;
+        this.ackFile = directory.resolve(ACK_FILE_NAME);
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.compactionThresholdBytes = compactionThresholdBytes;
+        this.clock = clock;
+    }
+
+    /**
+     * Opens the queue located in the given directory, creating it if necessary, and replays all unacknowledged scrobbles.
+     * @throws ScrobbleQueueException If the queue can not be opened.
+     */
+    static ScrobbleQueue open(Path directory, LastfmConfiguration config){
+        return open(directory, config.getScrobbleQueueSyncPolicy(), config.getScrobbleQueueSyncIntervalMillis(),
+                config.getScrobbleQueueCompactionThresholdBytes(), Clock.systemUTC());
+    }
+
+    static ScrobbleQueue open(Path directory, ScrobbleQueueSyncPolicy syncPolicy, long syncIntervalMillis, long compactionThresholdBytes, Clock clock){
+        ScrobbleQueue queue = new ScrobbleQueue(directory, syncPolicy, syncIntervalMillis, compactionThresholdBytes, clock);
+        try {
+            Files.createDirectories(directory);
+            queue.replay();
+            queue.schedulePeriodicSync();
+        } catch (IOException e){
+            throw new ScrobbleQueueException(String.format("Failed to open scrobble queue at %s",directory),e);
+        }
+        log.debug("Opened scrobble queue at {} containing {} scrobbles.",directory,queue.entries.size());
+        return queue;
+    }
+
+    /**
+     * Appends a scrobble to the log. The scrobble has to contain a timestamp.
+     * @throws ScrobbleQueueException If the queue has been closed or the scrobble could not be written.
+     */
+    synchronized void append(Scrobble scrobble){
+        if (!channel.isOpen()){
+            throw new ScrobbleQueueException(String.format("Scrobble queue %s has been closed",logFile));
+        }
+        try {
+            byte[] record = encode(scrobble);
+            channel.write(ByteBuffer.wrap(record), endOffset);
+            entries.addLast(new Entry(scrobble.clone(), endOffset + record.length));
+            endOffset += record.length;
+
+            if (syncPolicy == ScrobbleQueueSyncPolicy.ALWAYS){
+                sync();
+            } else if (syncPolicy == ScrobbleQueueSyncPolicy.PERIODIC && clock.millis() - lastSyncMillis >= syncIntervalMillis){
+                sync();
+            }
+        } catch (IOException e){
+            throw new ScrobbleQueueException(String.format("Failed to append scrobble %s to scrobble queue %s",scrobble,logFile),e);
+        }
+    }
+
+    /**
+     * @return The oldest unacknowledged scrobbles, up to the given amount, in the order in which they have been appended.
+     */
+    synchronized List<Scrobble> peek(int maxAmount){
+        List<Scrobble> scrobbles = new ArrayList<>(Math.min(maxAmount, entries.size()));
+        for (Entry entry : entries) {
+            if (scrobbles.size() == maxAmount){
+                break;
+            }
+            scrobbles.add(entry.scrobble.clone());
+        }
+        return scrobbles;
+    }
+
+    /**
+     * Acknowledges the given amount of the oldest scrobbles, removing them from the queue.
+     */
+    synchronized void acknowledge(int amount){
+        if (amount <= 0 || entries.isEmpty()){
+            return;
+        }
+
+        long offset = acknowledgedOffset;
+        for (int i = 0; i < amount && !entries.isEmpty(); i++) {
+            offset = entries.removeFirst().endOffset;
+        }
+
+        try {
+            if (syncPolicy != ScrobbleQueueSyncPolicy.NEVER){
+                sync();
+            }
+            writeAcknowledgement(generation, offset);
+            acknowledgedOffset = offset;
+
+            if (acknowledgedOffset >= compactionThresholdBytes){
+                compact();
+            }
+        } catch (IOException e){
+            throw new ScrobbleQueueException(String.format("Failed to acknowledge scrobbles of scrobble queue %s",logFile),e);
+        }
+    }
+
+    synchronized int size(){
+        return entries.size();
+    }
+
+    synchronized long getLogSize(){
+        return endOffset;
+    }
+
+    synchronized Path getLogFile(){
+        return logFile;
+    }
+
+    /**
+     * Forces all appended scrobbles to disk.
+     */
+    synchronized void sync() throws IOException {
+        channel.force(false);
+        syncedOffset = endOffset;
+        lastSyncMillis = clock.millis();
+    }
+
+    /**
+     * @return true if all appended scrobbles have been forced to disk.
+     */
+    synchronized boolean isSynced(){
+        return syncedOffset == endOffset;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (periodicSync != null){
+            periodicSync.cancel(false);
+            periodicSync = null;
+        }
+        if (channel != null && channel.isOpen()){
+            if (syncPolicy != ScrobbleQueueSyncPolicy.NEVER){
+                channel.force(false);
+            }
+            channel.close();
+        }
+    }
+
+    private void replay() throws IOException {
+        readAcknowledgement();
+        logFile = logFile(generation);
+        deleteStaleLogs();
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long fileSize = channel.size();
+        if (acknowledgedOffset > fileSize){
+            log.warn("Acknowledged offset {} exceeds size of scrobble queue {}. Discarding the queue.",acknowledgedOffset,logFile);
+            acknowledgedOffset = fileSize;
+        }
+
+        long offset = acknowledgedOffset;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (offset < fileSize){
+            header.clear();
+            if (fileSize - offset < HEADER_SIZE || channel.read(header, offset) < HEADER_SIZE){
+                break;
+            }
+            header.flip();
+            int length = header.getInt();
+            long checksum = header.getInt() & 0xFFFFFFFFL;
+
+            if (length <= 0 || offset + HEADER_SIZE + length > fileSize){
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, offset + HEADER_SIZE);
+            payload.flip();
+
+            if (checksum(payload.array()) != checksum){
+                break;
+            }
+
+            offset += HEADER_SIZE + length;
+            entries.addLast(new Entry(decode(payload), offset));
+        }
+
+        if (offset < fileSize){
+            log.warn("Truncating incomplete or corrupted record at offset {} of scrobble queue {}.",offset,logFile);
+            channel.truncate(offset);
+            channel.force(false);
+        }
+        endOffset = offset;
+        syncedOffset = offset;
+        lastSyncMillis = clock.millis();
+    }
+
+    private void schedulePeriodicSync() {
+        if (syncPolicy != ScrobbleQueueSyncPolicy.PERIODIC || syncIntervalMillis <= 0){
+            return;
+        }
+        periodicSync = Utils.scheduler().scheduleWithFixedDelay(this::syncPending, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void syncPending() {
+        if (!channel.isOpen() || isSynced()){
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e){
+            log.warn("Failed to sync scrobble queue {}.",logFile,e);
+        }
+    }
+
+    private void compact() throws IOException {
+        Path compactedFile = logFile(generation + 1);
+        long remainingBytes = endOffset - acknowledgedOffset;
+
+        try (FileChannel compactedChannel = FileChannel.open(compactedFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            long position = 0;
+            while (position < remainingBytes){
+                position += channel.transferTo(acknowledgedOffset + position, remainingBytes - position, compactedChannel.position(position));
+            }
+            compactedChannel.force(true);
+        }
+
+        // switching the acknowledgement to the new generation is the commit point of the compaction,
+        // until then a crash leaves the old log in place
+        writeAcknowledgement(generation + 1, 0);
+        channel.close();
+        Files.deleteIfExists(logFile);
+
+        generation++;
+        logFile = compactedFile;
+        channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        for (Entry entry : entries) {
+            entry.endOffset -= acknowledgedOffset;
+        }
+        log.debug("Compacted scrobble queue from {} to {} bytes.",endOffset,remainingBytes);
+        endOffset = remainingBytes;
+        syncedOffset = remainingBytes;
+        acknowledgedOffset = 0;
+    }
+
+    private void readAcknowledgement() throws IOException {
+        if (!Files.exists(ackFile)){
+            return;
+        }
+        ByteBuffer acknowledgement = ByteBuffer.wrap(Files.readAllBytes(ackFile));
+        if (acknowledgement.remaining() == 2 * Long.BYTES){
+            generation = acknowledgement.getLong();
+            acknowledgedOffset = acknowledgement.getLong();
+        }
+    }
+
+    private void writeAcknowledgement(long generation, long offset) throws IOException {
+        Path temporaryFile = directory.resolve(ACK_FILE_NAME + ".tmp");
+        try (FileChannel ackChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer acknowledgement = ByteBuffer.allocate(2 * Long.BYTES).putLong(generation).putLong(offset);
+            acknowledgement.flip();
+            ackChannel.write(acknowledgement);
+            if (syncPolicy != ScrobbleQueueSyncPolicy.NEVER){
+                ackChannel.force(false);
+            }
+        }
+        Files.move(temporaryFile, ackFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteStaleLogs() throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, LOG_FILE_PREFIX + "*" + LOG_FILE_SUFFIX)){
+            for (Path staleLog : logs) {
+                if (!staleLog.equals(logFile)){
+                    Files.delete(staleLog);
+                }
+            }
+        }
+    }
+
+    private Path logFile(long generation){
+        return directory.resolve(LOG_FILE_PREFIX + generation + LOG_FILE_SUFFIX);
+    }
+
+    private static byte[] encode(Scrobble scrobble) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeInt(scrobble.getEpochSeconds());
+        writeString(payload, scrobble.getArtist());
+        writeString(payload, scrobble.getTrackName());
+        payload.flush();
+
+        byte[] payloadArray = payloadBytes.toByteArray();
+        return ByteBuffer.allocate(HEADER_SIZE + payloadArray.length)
+                .putInt(payloadArray.length)
+                .putInt((int) checksum(payloadArray))
+                .put(payloadArray)
+                .array();
+    }
+
+    private static Scrobble decode(ByteBuffer payload){
+        int timestamp = payload.getInt();
+        String artist = readString(payload);
+        String trackName = readString(payload);
+
+        Scrobble scrobble = Scrobble.of(artist, trackName);
+        scrobble.setEpochSeconds(timestamp);
+        return scrobble;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH){
+            throw new IllegalArgumentException(String.format("Value exceeds %d bytes: %s",MAX_STRING_LENGTH,value));
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer payload){
+        byte[] bytes = new byte[payload.getShort() & 0xFFFF];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long checksum(byte[] bytes){
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static class Entry {
+        private final Scrobble scrobble;
+        private long endOffset;
+
+        private Entry(Scrobble scrobble, long endOffset){
+            this.scrobble = scrobble;
+            this.endOffset = endOffset;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+/**
+ * Defines when enqueued scrobbles are forced to disk.
+ */
+public enum ScrobbleQueueSyncPolicy {
+    /**
+     * Every enqueued scrobble is forced to disk before {@link ScrobbleClient#enqueueScrobble(Scrobble)} returns.
+     */
+    ALWAYS,
+    /**
+     * Enqueued scrobbles are forced to disk periodically in the background, once per
+     * {@link LastfmConfiguration#getScrobbleQueueSyncIntervalMillis()}.
+     * Scrobbles enqueued within the last interval may be lost if the machine crashes.
+     */
+    PERIODIC,
+    /**
+     * Forcing enqueued scrobbles to disk is left to the operating system.
+     */
+    NEVER
+}
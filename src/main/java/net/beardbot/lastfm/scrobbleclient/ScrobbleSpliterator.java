@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Traverses the {@link Scrobble}s of a {@link ScrobblePageIterator} one by one.
+ * Splitting hands out the remaining scrobbles of the current page, or the next page, as a sized chunk,
+ * so parallel streams process whole pages while the pages themselves are still fetched sequentially.
+ */
+class ScrobbleSpliterator implements Spliterator<Scrobble> {
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+    private final Iterator<List<Scrobble>> pages;
+    private Iterator<Scrobble> currentPage = Collections.emptyIterator();
+
+    ScrobbleSpliterator(Iterator<List<Scrobble>> pages){
+        this.pages = pages;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Scrobble> action) {
+        if (!currentPage.hasNext()){
+            if (!pages.hasNext()){
+                return false;
+            }
+            currentPage = pages.next().iterator();
+        }
+        action.accept(currentPage.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Scrobble> action) {
+        currentPage.forEachRemaining(action);
+        while (pages.hasNext()){
+            pages.next().forEach(action);
+        }
+        currentPage = Collections.emptyIterator();
+    }
+
+    @Override
+    public Spliterator<Scrobble> trySplit() {
+        if (currentPage.hasNext()){
+            Spliterator<Scrobble> chunk = Spliterators.spliteratorUnknownSize(currentPage, CHARACTERISTICS);
+            currentPage = Collections.emptyIterator();
+            return chunk;
+        }
+        if (pages.hasNext()){
+            return Spliterators.spliterator(pages.next(), CHARACTERISTICS);
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.function.Consumer;
+
+/**
+ * Maps persisted {@link Scrobble}s to the original scrobbles they have been created from.
+ * Scrobbles are compared by identity.
+ */
+interface ScrobbleStore {
+    void put(Scrobble persistedScrobble, Scrobble originalScrobble);
+
+    Scrobble get(Scrobble persistedScrobble);
+
+    /**
+     * Applies the given action to the original scrobble of the given persisted scrobble.
+     * No other operation on the same entry is executed concurrently.
+     * @return Whether the persisted scrobble is present in the store.
+     */
+    boolean update(Scrobble persistedScrobble, Consumer<Scrobble> action);
+
+    void remove(Scrobble persistedScrobble);
+
+    int size();
+
+    /**
+     * @return The number of scrobbles that have been dropped without being removed explicitly.
+     */
+    long getEvictionCount();
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+/**
+ * Defines how long the {@link ScrobbleClient} keeps track of the {@link Scrobble}s it returned.
+ * Only tracked scrobbles can be unscrobbled or updated.
+ */
+public enum ScrobbleTrackingMode {
+    /**
+     * Every scrobble is tracked until it is unscrobbled.
+     */
+    UNBOUNDED,
+    /**
+     * At most {@link LastfmConfiguration#getMaxTrackedScrobbles()} scrobbles are tracked.
+     * The least recently used scrobbles are evicted first, and scrobbles that have not been used for
+     * {@link LastfmConfiguration#getScrobbleTrackingExpiryMillis()} are evicted as well.
+     */
+    LRU,
+    /**
+     * Scrobbles are tracked as long as they are referenced by the application.
+     */
+    WEAK
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.io.IOException;
+
+/**
+ * Persists Last.fm API session keys, so that a client can skip the authentication round trip on login.
+ * Session keys obtained via mobile authentication do not expire, they only become invalid if the user revokes the
+ * access of the application. Implementations have to be safe for concurrent use.
+ * See {@link LastfmConfiguration#setSessionStore(SessionStore)} and {@link FileSessionStore}.
+ */
+public interface SessionStore {
+    /**
+     * @param apiKey The API key the session has been created for.
+     * @param username The name of the user the session belongs to.
+     * @throws IOException If the store could not be read.
+     * @return The stored session key or null, if there is none.
+     */
+    String loadSessionKey(String apiKey, String username) throws IOException;
+
+    /**
+     * Stores a session key, replacing a previously stored key of the same API key and user.
+     * @param apiKey The API key the session has been created for.
+     * @param username The name of the user the session belongs to.
+     * @param sessionKey The session key.
+     * @throws IOException If the store could not be written.
+     */
+    void saveSessionKey(String apiKey, String username, String sessionKey) throws IOException;
+
+    /**
+     * Removes a stored session key, e.g. because Last.fm rejected it. Does nothing if there is no such key.
+     * @param apiKey The API key the session has been created for.
+     * @param username The name of the user the session belongs to.
+     * @throws IOException If the store could not be written.
+     */
+    void removeSessionKey(String apiKey, String username) throws IOException;
+}
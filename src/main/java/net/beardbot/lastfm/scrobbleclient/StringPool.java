@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of canonical {@link String} instances, used for deduplicating artist and track names of fetched scrobbles.
+ * Every string is assigned to two neighbouring slots by its hash code. If neither slot holds an equal string, the
+ * string is put into a free slot or replaces the content of the first one, so the pool never holds more strings than
+ * its capacity and frequently used strings tend to stay. The pool is lock-free; concurrent misses may overwrite each
+ * other, which only costs another miss later on.
+ */
+class StringPool {
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity The maximum number of pooled strings. It is rounded up to the next power of two.
+     */
+    StringPool(int capacity){
+        if (capacity < 2 || capacity > MAX_CAPACITY){
+            throw new IllegalArgumentException(String.format("Invalid string pool capacity %d",capacity));
+        }
+        int slotCount = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * @return The pooled string equal to the given one, or the given string itself if there is none yet.
+     */
+    String intern(String value){
+        if (value == null){
+            return null;
+        }
+
+        int hash = value.hashCode();
+        int first = (hash ^ (hash >>> 16)) & mask;
+        int second = first ^ 1;
+
+        String pooled = slots.get(first);
+        if (value.equals(pooled)){
+            hits.increment();
+            return pooled;
+        }
+        String neighbour = slots.get(second);
+        if (value.equals(neighbour)){
+            hits.increment();
+            return neighbour;
+        }
+
+        misses.increment();
+        slots.lazySet(pooled != null && neighbour == null ? second : first, value);
+        return value;
+    }
+
+    long getHitCount(){
+        return hits.sum();
+    }
+
+    long getMissCount(){
+        return misses.sum();
+    }
+
+    int getCapacity(){
+        return slots.length();
+    }
+}
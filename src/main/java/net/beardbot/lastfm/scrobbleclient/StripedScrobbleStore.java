@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Makes non thread-safe stores safe for concurrent use by distributing the scrobbles over several independently
+ * locked segments, based on the identity hash code of the persisted scrobble.
+ * Limits of the segment stores apply per segment.
+ */
+class StripedScrobbleStore implements ScrobbleStore {
+    private final ScrobbleStore[] segments;
+
+    StripedScrobbleStore(int segmentCount, Supplier<ScrobbleStore> segmentFactory){
+        segments = new ScrobbleStore[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = segmentFactory.get();
+        }
+    }
+
+    @Override
+    public void put(Scrobble persistedScrobble, Scrobble originalScrobble) {
+        ScrobbleStore segment = segmentFor(persistedScrobble);
+        synchronized (segment){
+            segment.put(persistedScrobble, originalScrobble);
+        }
+    }
+
+    @Override
+    public Scrobble get(Scrobble persistedScrobble) {
+        ScrobbleStore segment = segmentFor(persistedScrobble);
+        synchronized (segment){
+            return segment.get(persistedScrobble);
+        }
+    }
+
+    @Override
+    public boolean update(Scrobble persistedScrobble, Consumer<Scrobble> action) {
+        ScrobbleStore segment = segmentFor(persistedScrobble);
+        synchronized (segment){
+            return segment.update(persistedScrobble, action);
+        }
+    }
+
+    @Override
+    public void remove(Scrobble persistedScrobble) {
+        ScrobbleStore segment = segmentFor(persistedScrobble);
+        synchronized (segment){
+            segment.remove(persistedScrobble);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (ScrobbleStore segment : segments) {
+            synchronized (segment){
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        long evictionCount = 0;
+        for (ScrobbleStore segment : segments) {
+            synchronized (segment){
+                evictionCount += segment.getEvictionCount();
+            }
+        }
+        return evictionCount;
+    }
+
+    private ScrobbleStore segmentFor(Scrobble persistedScrobble){
+        int hash = System.identityHashCode(persistedScrobble);
+        hash ^= hash >>> 16;
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+}
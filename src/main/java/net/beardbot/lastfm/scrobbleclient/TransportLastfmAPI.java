@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.*;
+import de.umass.lastfm.scrobble.IgnoredMessageCode;
+import de.umass.lastfm.scrobble.ScrobbleData;
+import de.umass.lastfm.scrobble.ScrobbleResult;
+import de.umass.xml.DomElement;
+import lombok.extern.slf4j.Slf4j;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link LastfmAPI} sending its requests through a {@link LastfmTransport} instead of lastfm-java's {@link Caller}.
+ * Responses are converted into the same lastfm-java types, so both implementations are interchangeable.
+ * The user agent is taken from {@link Caller#getUserAgent()}, so {@link ScrobbleClient#setUserAgent(String)}
+ * applies to both implementations. Pages of recent tracks requested through
+ * {@link #getRecentScrobbles(String, int, int, Integer, Integer, String)} are parsed by a {@link RecentTracksParser}.
+ */
+@Slf4j
+class TransportLastfmAPI implements LastfmAPI {
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<>();
+
+    private final LastfmTransport transport;
+    private final String apiRootUrl;
+    private final ThreadLocal<Result> lastResult = new ThreadLocal<>();
+
+    TransportLastfmAPI(LastfmTransport transport, String apiRootUrl) {
+        this.transport = transport;
+        this.apiRootUrl = apiRootUrl;
+    }
+
+    @Override
+    public PaginatedResult<Track> getRecentTracks(String user, int page, int limit, String apiKey) {
+        return getRecentTracks(user, page, limit, null, null, apiKey);
+    }
+
+    @Override
+    public PaginatedResult<Track> getRecentTracks(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        Result result = call("user.getRecentTracks", recentTracksParams(user, page, limit, from, to, apiKey), null);
+        return ResponseBuilder.buildPaginatedResult(result,Track.class);
+    }
+
+    @Override
+    public ScrobblePage getRecentScrobbles(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        LastfmHttpResponse response = send("user.getRecentTracks", recentTracksParams(user, page, limit, from, to, apiKey), null);
+        RecentTracksParser parser = new RecentTracksParser();
+        ScrobblePage scrobblePage;
+        try {
+            scrobblePage = parser.parse(new ByteArrayInputStream(response.getBody()));
+        } catch (XMLStreamException e){
+            record("user.getRecentTracks", TransportResult.httpError(response.getStatusCode(), String.format("Unparseable response with HTTP status %d",response.getStatusCode())));
+            return ScrobblePage.empty();
+        }
+
+        if (scrobblePage == null){
+            record("user.getRecentTracks", TransportResult.restError(parser.getErrorCode(), parser.getErrorMessage(), httpErrorCode(response)));
+            return ScrobblePage.empty();
+        }
+        record("user.getRecentTracks", TransportResult.ok());
+        return scrobblePage;
+    }
+
+    @Override
+    public ScrobbleResult scrobble(String artist, String trackname, int timestamp, Session session) {
+        Map<String,String> params = new HashMap<>();
+        params.put("artist",artist);
+        params.put("track",trackname);
+        params.put("timestamp",String.valueOf(timestamp));
+
+        List<ScrobbleResult> scrobbleResults = toScrobbleResults(callSigned("track.scrobble", params, session), "scrobble");
+        return scrobbleResults.get(0);
+    }
+
+    @Override
+    public List<ScrobbleResult> scrobble(List<ScrobbleData> scrobbleData, Session session) {
+        Map<String,String> params = new HashMap<>();
+        for (int i = 0; i < scrobbleData.size(); i++) {
+            ScrobbleData data = scrobbleData.get(i);
+            params.put(String.format("artist[%d]",i),data.getArtist());
+            params.put(String.format("track[%d]",i),data.getTrack());
+            params.put(String.format("timestamp[%d]",i),String.valueOf(data.getTimestamp()));
+        }
+
+        Result result = callSigned("track.scrobble", params, session);
+        if (!result.isSuccessful()){
+            return Collections.singletonList(new ScrobbleResult(result));
+        }
+        return toScrobbleResults(result, "scrobble");
+    }
+
+    @Override
+    public ScrobbleResult updateNowPlaying(String artist, String trackname, Session session) {
+        Map<String,String> params = new HashMap<>();
+        params.put("artist",artist);
+        params.put("track",trackname);
+
+        return toScrobbleResults(callSigned("track.updateNowPlaying", params, session), "nowplaying").get(0);
+    }
+
+    @Override
+    public Session getSession(String username, String password, String apiKey, String secret) {
+        Map<String,String> params = new HashMap<>();
+        params.put("username",username);
+        params.put("password",password);
+        params.put("api_key",apiKey);
+
+        Result result = call("auth.getMobileSession", params, secret);
+        if (!result.isSuccessful()){
+            return null;
+        }
+        DomElement sessionElement = result.getContentElement();
+        return Session.createSession(apiKey, secret, sessionElement.getChildText("key"),
+                sessionElement.getChildText("name"), "1".equals(sessionElement.getChildText("subscriber")));
+    }
+
+    @Override
+    public Caller getCaller() {
+        return Caller.getInstance();
+    }
+
+    @Override
+    public Result getLastResult() {
+        return lastResult.get();
+    }
+
+    private static Map<String,String> recentTracksParams(String user, int page, int limit, Integer from, Integer to, String apiKey) {
+        Map<String,String> params = new HashMap<>();
+        params.put("user",user);
+        params.put("page",String.valueOf(page));
+        params.put("limit",String.valueOf(limit));
+        if (from != null){
+            params.put("from",String.valueOf(from));
+        }
+        if (to != null){
+            params.put("to",String.valueOf(to));
+        }
+        params.put("api_key",apiKey);
+        return params;
+    }
+
+    private Result callSigned(String method, Map<String,String> params, Session session) {
+        params.put("api_key",session.getApiKey());
+        params.put("sk",session.getKey());
+        return call(method, params, session.getSecret());
+    }
+
+    private Result call(String method, Map<String,String> params, String secret) {
+        return record(method, parseResponse(send(method, params, secret)));
+    }
+
+    private LastfmHttpResponse send(String method, Map<String,String> params, String secret) {
+        params.put("method",method);
+        if (secret != null){
+            params.put("api_sig",createSignature(params, secret));
+        }
+
+        try {
+            return transport.post(apiRootUrl, params, Caller.getInstance().getUserAgent());
+        } catch (IOException e){
+            throw new CallException(e);
+        }
+    }
+
+    private <T extends Result> T record(String method, T result) {
+        lastResult.set(result);
+        if (!result.isSuccessful()){
+            log.debug("API call {} failed with result: {}",method,result);
+        }
+        return result;
+    }
+
+    private static Result parseResponse(LastfmHttpResponse response) {
+        Document document;
+        try {
+            document = documentBuilder().parse(new ByteArrayInputStream(response.getBody()));
+        } catch (ParserConfigurationException | SAXException | IOException e){
+            return TransportResult.httpError(response.getStatusCode(), String.format("Unparseable response with HTTP status %d",response.getStatusCode()));
+        }
+
+        Element root = document.getDocumentElement();
+        if ("ok".equals(root.getAttribute("status"))){
+            return TransportResult.ok(document);
+        }
+
+        DomElement errorElement = new DomElement(root).getChild("error");
+        if (errorElement == null){
+            return TransportResult.httpError(response.getStatusCode(), String.format("Unexpected response with HTTP status %d",response.getStatusCode()));
+        }
+        return TransportResult.restError(Integer.parseInt(errorElement.getAttribute("code")), errorElement.getText(), httpErrorCode(response));
+    }
+
+    /**
+     * @return A document builder of the current thread, since neither document builders nor their factories are
+     *         guaranteed to be thread-safe. DTDs and external entities are rejected.
+     */
+    private static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = documentBuilders.get();
+        if (documentBuilder != null){
+            documentBuilder.reset();
+            return documentBuilder;
+        }
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setExpandEntityReferences(false);
+        documentBuilder = factory.newDocumentBuilder();
+        documentBuilders.set(documentBuilder);
+        return documentBuilder;
+    }
+
+    private static int httpErrorCode(LastfmHttpResponse response) {
+        return response.getStatusCode() == 200 ? -1 : response.getStatusCode();
+    }
+
+    private static List<ScrobbleResult> toScrobbleResults(Result result, String elementName) {
+        if (!result.isSuccessful()){
+            return Collections.singletonList(new ScrobbleResult(result));
+        }
+
+        DomElement contentElement = result.getContentElement();
+        List<DomElement> elements = elementName.equals(contentElement.getTagName())
+                ? Collections.singletonList(contentElement)
+                : contentElement.getChildren(elementName);
+
+        List<ScrobbleResult> scrobbleResults = new ArrayList<>(elements.size());
+        for (DomElement element : elements) {
+            ScrobbleResult scrobbleResult = new ScrobbleResult(result);
+            parseScrobbleResult(element, scrobbleResult);
+            scrobbleResults.add(scrobbleResult);
+        }
+        return scrobbleResults;
+    }
+
+    private static void parseScrobbleResult(DomElement element, ScrobbleResult scrobbleResult) {
+        DomElement track = element.getChild("track");
+        if (track != null){
+            scrobbleResult.setTrack(track.getText());
+            scrobbleResult.setTrackCorrected("1".equals(track.getAttribute("corrected")));
+        }
+        DomElement artist = element.getChild("artist");
+        if (artist != null){
+            scrobbleResult.setArtist(artist.getText());
+            scrobbleResult.setArtistCorrected("1".equals(artist.getAttribute("corrected")));
+        }
+        if (element.hasChild("timestamp")){
+            scrobbleResult.setTimestamp(Integer.parseInt(element.getChildText("timestamp")));
+        }
+        DomElement ignoredMessage = element.getChild("ignoredMessage");
+        if (ignoredMessage != null && ignoredMessage.hasAttribute("code")){
+            int code = Integer.parseInt(ignoredMessage.getAttribute("code"));
+            if (code > 0){
+                scrobbleResult.setIgnored(true);
+                scrobbleResult.setIgnoredMessageCode(IgnoredMessageCode.valueOfCode(code));
+                scrobbleResult.setIgnoredMessage(ignoredMessage.getText());
+            }
+        }
+    }
+
+    private static String createSignature(Map<String,String> params, String secret) {
+        StringBuilder signature = new StringBuilder();
+        for (Map.Entry<String,String> param : new TreeMap<>(params).entrySet()) {
+            signature.append(param.getKey()).append(param.getValue());
+        }
+        signature.append(secret);
+
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(signature.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x",b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException("MD5 is not available.", e);
+        }
+    }
+}
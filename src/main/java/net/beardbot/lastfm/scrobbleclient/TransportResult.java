@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Result;
+import org.w3c.dom.Document;
+
+/**
+ * A lastfm-java {@link Result} created from a response received through a {@link LastfmTransport}.
+ */
+class TransportResult extends Result {
+
+    private TransportResult(Document document) {
+        super(document);
+    }
+
+    private TransportResult(String errorMessage, int errorCode, int httpErrorCode) {
+        super(errorMessage);
+        this.errorCode = errorCode;
+        this.httpErrorCode = httpErrorCode;
+    }
+
+    static TransportResult ok(Document document) {
+        return new TransportResult(document);
+    }
+
+    /**
+     * @return A successful result without document, for responses that were parsed without building a DOM.
+     */
+    static TransportResult ok() {
+        return new TransportResult((Document) null);
+    }
+
+    static TransportResult restError(int errorCode, String errorMessage, int httpErrorCode) {
+        return new TransportResult(errorMessage, errorCode, httpErrorCode);
+    }
+
+    static TransportResult httpError(int httpErrorCode, String errorMessage) {
+        return new TransportResult(errorMessage, -1, httpErrorCode);
+    }
+}
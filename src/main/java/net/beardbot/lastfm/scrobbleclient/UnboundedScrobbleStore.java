@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+class UnboundedScrobbleStore implements ScrobbleStore {
+    private final Map<Scrobble,Scrobble> scrobbles = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(Scrobble persistedScrobble, Scrobble originalScrobble) {
+        scrobbles.put(persistedScrobble, originalScrobble);
+    }
+
+    @Override
+    public Scrobble get(Scrobble persistedScrobble) {
+        return scrobbles.get(persistedScrobble);
+    }
+
+    @Override
+    public boolean update(Scrobble persistedScrobble, Consumer<Scrobble> action) {
+        return scrobbles.computeIfPresent(persistedScrobble, (persisted, original) -> {
+            action.accept(original);
+            return original;
+        }) != null;
+    }
+
+    @Override
+    public void remove(Scrobble persistedScrobble) {
+        scrobbles.remove(persistedScrobble);
+    }
+
+    @Override
+    public int size() {
+        return scrobbles.size();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return 0;
+    }
+}
@@ -18,12 +18,24 @@ package net.beardbot.lastfm.scrobbleclient;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.temporal.ChronoField;
 import java.time.temporal.Temporal;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class Utils {
+    private static volatile ExecutorService defaultExecutor;
+    private static volatile ScheduledExecutorService scheduler;
+
     static ZonedDateTime epochSecondsToDateTime(int epochSeconds){
         return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds),ZoneOffset.UTC);
     }
@@ -32,6 +44,13 @@ class Utils {
         return (int) (dateTime.toInstant().toEpochMilli()/1000);
     }
 
+    static int temporalToEpochSeconds(Temporal temporal){
+        if (temporal.isSupported(ChronoField.INSTANT_SECONDS)){
+            return (int) temporal.getLong(ChronoField.INSTANT_SECONDS);
+        }
+        return (int) LocalDateTime.from(temporal).toEpochSecond(ZoneOffset.UTC);
+    }
+
     static int dateToEpochSeconds(Date date){
         return (int) (date.getTime() / 1000);
     }
@@ -39,7 +58,30 @@ class Utils {
     static void sleep(long millis){
         try {
             Thread.sleep(millis);
-        } catch (InterruptedException ignored) {}
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return A future that completes after the given delay without blocking a thread meanwhile.
+     */
+    static CompletableFuture<Void> delay(long millis){
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (millis <= 0){
+            future.complete(null);
+        } else {
+            scheduler().schedule(() -> future.complete(null), millis, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    static void sleepNanos(long nanos){
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     static ZonedDateTime currentTimestamp(){
@@ -54,4 +96,35 @@ class Utils {
         Duration duration = Duration.between(temporal,currentTimestamp());
         return duration.isNegative();
     }
+
+    static ThreadFactory daemonThreadFactory(String namePrefix){
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static ExecutorService defaultExecutor(){
+        if (defaultExecutor == null){
+            synchronized (Utils.class){
+                if (defaultExecutor == null){
+                    defaultExecutor = Executors.newCachedThreadPool(daemonThreadFactory("lastfm-scrobble-client"));
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    static ScheduledExecutorService scheduler(){
+        if (scheduler == null){
+            synchronized (Utils.class){
+                if (scheduler == null){
+                    scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("lastfm-scrobble-client-scheduler"));
+                }
+            }
+        }
+        return scheduler;
+    }
 }
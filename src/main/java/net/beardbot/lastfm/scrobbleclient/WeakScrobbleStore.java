@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.WeakHashMap;
+
+/**
+ * Tracks scrobbles as long as the persisted scrobble is strongly reachable.
+ * Since {@link Scrobble} does not override equals and hashCode, the persisted scrobble itself is the only way
+ * to look up its entry, so entries of unreachable scrobbles can be dropped safely.
+ * This store is not thread-safe.
+ */
+class WeakScrobbleStore implements ScrobbleStore {
+    private final Map<Scrobble,Scrobble> scrobbles = new WeakHashMap<>();
+    private long addedCount;
+    private long removedCount;
+
+    @Override
+    public void put(Scrobble persistedScrobble, Scrobble originalScrobble) {
+        if (scrobbles.put(persistedScrobble, originalScrobble) == null){
+            addedCount++;
+        }
+    }
+
+    @Override
+    public Scrobble get(Scrobble persistedScrobble) {
+        return scrobbles.get(persistedScrobble);
+    }
+
+    @Override
+    public boolean update(Scrobble persistedScrobble, Consumer<Scrobble> action) {
+        Scrobble originalScrobble = scrobbles.get(persistedScrobble);
+        if (originalScrobble == null){
+            return false;
+        }
+        action.accept(originalScrobble);
+        return true;
+    }
+
+    @Override
+    public void remove(Scrobble persistedScrobble) {
+        if (scrobbles.remove(persistedScrobble) != null){
+            removedCount++;
+        }
+    }
+
+    @Override
+    public int size() {
+        return scrobbles.size();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return addedCount - removedCount - scrobbles.size();
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient.exception;
+
+import lombok.Getter;
+import net.beardbot.lastfm.scrobbleclient.Scrobble;
+
+import java.util.List;
+
+@Getter
+public class PartialScrobbleException extends ScrobbleException {
+    private List<Scrobble> failedScrobbles;
+    private List<Scrobble> persistedScrobbles;
+
+    public PartialScrobbleException(String message, List<Scrobble> failedScrobbles, List<Scrobble> persistedScrobbles) {
+        super(message, failedScrobbles.get(0));
+        this.failedScrobbles = failedScrobbles;
+        this.persistedScrobbles = persistedScrobbles;
+    }
+}
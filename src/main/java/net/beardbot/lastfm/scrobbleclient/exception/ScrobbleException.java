@@ -23,11 +23,16 @@ import net.beardbot.lastfm.scrobbleclient.Scrobble;
 public class ScrobbleException extends RuntimeException {
     private boolean causedDuplicate = false;
     private Scrobble scrobble = null;
+    private int attempts = 1;
 
     public ScrobbleException(String message, Scrobble scrobble) {
         super(message);
         this.scrobble = scrobble;
     }
+    public ScrobbleException(String message, Scrobble scrobble, int attempts) {
+        this(message, scrobble);
+        this.attempts = attempts;
+    }
     public ScrobbleException(String message, Scrobble scrobble, boolean causedDuplicate) {
         this(message, scrobble);
         this.causedDuplicate = causedDuplicate;
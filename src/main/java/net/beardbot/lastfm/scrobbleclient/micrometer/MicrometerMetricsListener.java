@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient.micrometer;
+
+import de.umass.lastfm.scrobble.IgnoredMessageCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import net.beardbot.lastfm.scrobbleclient.MetricsListener;
+import net.beardbot.lastfm.scrobbleclient.ScrobbleClient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the measurements of a {@link ScrobbleClient} in a Micrometer {@link MeterRegistry}.
+ * Requires micrometer-core on the classpath, which is an optional dependency of this library.
+ * <p>
+ * Call durations and call limiter waits are recorded as timers with percentile histograms, so latency
+ * distributions can be aggregated across clients. Gauges for tracked and queued scrobbles are registered
+ * per client with {@link #bindTo(ScrobbleClient)}.
+ */
+public class MicrometerMetricsListener implements MetricsListener {
+    private static final String CALLS = "lastfm.client.calls";
+    private static final String CALL_ATTEMPTS = "lastfm.client.call.attempts";
+    private static final String RETRIES = "lastfm.client.retries";
+    private static final String ERRORS = "lastfm.client.errors";
+    private static final String CALL_LIMITER_WAIT = "lastfm.client.call.limiter.wait";
+    private static final String PAGES = "lastfm.client.pages";
+    private static final String FETCHED_SCROBBLES = "lastfm.client.scrobbles.fetched";
+    private static final String IGNORED_SCROBBLES = "lastfm.client.scrobbles.ignored";
+    private static final String STRING_POOL_LOOKUPS = "lastfm.client.string.pool.lookups";
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final Timer callLimiterWaitTimer;
+    private final Counter pageCounter;
+    private final Counter fetchedScrobbleCounter;
+    private final Map<String,Timer> callTimers = new ConcurrentHashMap<>();
+    private final Map<String,DistributionSummary> attemptSummaries = new ConcurrentHashMap<>();
+    private final Map<String,Counter> counters = new ConcurrentHashMap<>();
+
+    public MicrometerMetricsListener(final MeterRegistry registry){
+        this(registry, Tags.empty());
+    }
+
+    /**
+     * @param registry The registry the meters are registered in.
+     * @param tags Tags added to all meters, e.g. to distinguish several clients.
+     */
+    public MicrometerMetricsListener(final MeterRegistry registry, final Iterable<Tag> tags){
+        this.registry = registry;
+        this.tags = Tags.of(tags);
+        this.callLimiterWaitTimer = Timer.builder(CALL_LIMITER_WAIT)
+                .description("Time spent waiting for the Last.fm API call limit")
+                .tags(this.tags)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.pageCounter = Counter.builder(PAGES)
+                .description("Fetched pages of recent tracks")
+                .tags(this.tags)
+                .register(registry);
+        this.fetchedScrobbleCounter = Counter.builder(FETCHED_SCROBBLES)
+                .description("Scrobbles on fetched pages of recent tracks")
+                .tags(this.tags)
+                .register(registry);
+    }
+
+    /**
+     * Registers gauges for the tracked, evicted and queued scrobbles, the current API call rate and the string pool lookups of a client.
+     * The gauges only hold a weak reference to the client.
+     * @param scrobbleClient The client.
+     */
+    public void bindTo(final ScrobbleClient scrobbleClient){
+        Gauge.builder("lastfm.client.scrobbles.tracked", scrobbleClient, ScrobbleClient::getTrackedScrobbleCount)
+                .description("Scrobbles that can currently be unscrobbled or updated")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("lastfm.client.scrobbles.evicted", scrobbleClient, ScrobbleClient::getEvictedScrobbleCount)
+                .description("Scrobbles that are no longer tracked")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("lastfm.client.scrobbles.queued", scrobbleClient, ScrobbleClient::getQueuedScrobbleCount)
+                .description("Scrobbles in the local scrobble queue")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("lastfm.client.call.rate", scrobbleClient, ScrobbleClient::getCurrentApiCallRate)
+                .description("Last.fm API calls per second currently permitted")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder(STRING_POOL_LOOKUPS, scrobbleClient, ScrobbleClient::getStringPoolHitCount)
+                .description("Lookups of artist and track names in the string pool")
+                .tags(tags)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder(STRING_POOL_LOOKUPS, scrobbleClient, ScrobbleClient::getStringPoolMissCount)
+                .description("Lookups of artist and track names in the string pool")
+                .tags(tags)
+                .tag("result", "miss")
+                .register(registry);
+    }
+
+    @Override
+    public void onCall(String operation, long durationNanos, int attempts, boolean successful){
+        String outcome = successful ? "success" : "failure";
+        callTimers.computeIfAbsent(operation + ':' + outcome, key -> Timer.builder(CALLS)
+                .description("Duration of calls including retries")
+                .tags(tags)
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry))
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        attemptSummaries.computeIfAbsent(operation, key -> DistributionSummary.builder(CALL_ATTEMPTS)
+                .description("Attempts per call")
+                .tags(tags)
+                .tag("operation", operation)
+                .register(registry))
+                .record(attempts);
+    }
+
+    @Override
+    public void onError(String operation, int errorCode, int httpStatusCode){
+        counter(ERRORS, "Calls answered with an error", Tags.of("operation", operation,
+                "code", String.valueOf(errorCode), "status", String.valueOf(httpStatusCode))).increment();
+    }
+
+    @Override
+    public void onRetry(String operation, int attempt){
+        counter(RETRIES, "Retried calls", Tags.of("operation", operation)).increment();
+    }
+
+    @Override
+    public void onCallLimiterWait(long waitNanos){
+        callLimiterWaitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onPageFetched(int page, int scrobbles){
+        pageCounter.increment();
+        fetchedScrobbleCounter.increment(scrobbles);
+    }
+
+    @Override
+    public void onScrobbleIgnored(String operation, IgnoredMessageCode ignoredMessageCode){
+        String reason = ignoredMessageCode == null ? "UNKNOWN" : ignoredMessageCode.name();
+        counter(IGNORED_SCROBBLES, "Scrobbles ignored by Last.fm", Tags.of("operation", operation, "reason", reason)).increment();
+    }
+
+    private Counter counter(String name, String description, Tags counterTags){
+        return counters.computeIfAbsent(name + counterTags, key -> Counter.builder(name)
+                .description(description)
+                .tags(tags)
+                .tags(counterTags)
+                .register(registry));
+    }
+}
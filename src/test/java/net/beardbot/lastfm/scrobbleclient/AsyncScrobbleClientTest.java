@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Caller;
+import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.Session;
+import de.umass.lastfm.Track;
+import de.umass.lastfm.scrobble.ScrobbleData;
+import de.umass.lastfm.scrobble.ScrobbleResult;
+import net.beardbot.lastfm.scrobbleclient.exception.LastfmInsufficientAuthenticationDataException;
+import net.beardbot.lastfm.scrobbleclient.exception.ScrobbleException;
+import net.beardbot.lastfm.unscrobble.Unscrobbler;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncScrobbleClientTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LastfmConfiguration config;
+    @Mock
+    private LastfmAPI lastfmAPI;
+    @Mock
+    private Unscrobbler unscrobbler;
+    @Mock
+    private LastfmApiCallLimiter lastfmApiCallLimiter;
+    @Mock
+    private Session session;
+    @Mock
+    private Caller caller;
+
+    private AsyncScrobbleClient asyncScrobbleClient;
+    private ScrobbleManager scrobbleManager;
+    private AtomicInteger executions;
+
+    @Before
+    public void setUp() {
+        config = new LastfmConfiguration();
+        scrobbleManager = new ScrobbleManager();
+        executions = new AtomicInteger();
+
+        ScrobbleResult scrobbleResult = TestUtils.createSuccessfulScrobbleResult();
+
+        when(lastfmAPI.getSession(any(),any(),any(),any())).thenReturn(session);
+        when(lastfmAPI.getCaller()).thenReturn(caller);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(scrobbleResult);
+        when(lastfmAPI.updateNowPlaying(anyString(),anyString(),eq(session))).thenReturn(scrobbleResult);
+        when(unscrobbler.unscrobble(anyString(),anyString(),anyInt())).thenReturn(true);
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
+
+        Executor executor = runnable -> {
+            executions.incrementAndGet();
+            runnable.run();
+        };
+
+        ScrobbleClient scrobbleClient = new ScrobbleClient(config,lastfmAPI,unscrobbler,scrobbleManager,lastfmApiCallLimiter);
+        asyncScrobbleClient = new AsyncScrobbleClient(scrobbleClient, executor);
+    }
+
+    @Test
+    public void login_triggersApiLogin() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createSufficientAuthDetails();
+        asyncScrobbleClient.login(authDetails).get();
+
+        verify(lastfmAPI,times(1)).getSession(authDetails.getUsername(),authDetails.getPassword(),authDetails.getApiKey(),authDetails.getSharedSecret());
+    }
+
+    @Test
+    public void scrobble_returnsPersistedScrobble() throws Exception {
+        Scrobble scrobble = TestUtils.createScrobbleWithTimestamp();
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        Scrobble persistedScrobble = asyncScrobbleClient.scrobble(scrobble).get();
+
+        assertThat(scrobbleManager.getOriginalScrobble(persistedScrobble),is(scrobble));
+        verify(lastfmAPI,times(1)).scrobble(scrobble.getArtist(),scrobble.getTrackName(),scrobble.getTimestampSeconds(),session);
+    }
+    @Test
+    public void scrobble_executesInvocationOnExecutor() throws Exception {
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        executions.set(0);
+
+        asyncScrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp()).get();
+
+        assertThat(executions.get(),is(1));
+    }
+    @Test
+    public void scrobble_waitsForCallLimit_withoutBlockingCaller() throws Exception {
+        CompletableFuture<Void> callPermit = new CompletableFuture<>();
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(callPermit);
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        CompletableFuture<Scrobble> future = asyncScrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(future.isDone(),is(false));
+        verify(lastfmAPI,times(0)).scrobble(anyString(),anyString(),anyInt(),any(Session.class));
+
+        callPermit.complete(null);
+
+        assertThat(future.isDone(),is(true));
+        verify(lastfmAPI,times(1)).scrobble(anyString(),anyString(),anyInt(),any(Session.class));
+    }
+    @Test
+    public void scrobble_backsOffWithoutBlockingExecutor_whenRetryingTransientError() throws Exception {
+        config.setScrobbleRetryPolicy(new RetryPolicy(2, 200L, 200L, 1.0, 0.0));
+        ScrobbleResult temporaryError = TestUtils.createFailedScrobbleResult(LastfmErrors.TEMPORARY_ERROR);
+        ScrobbleResult successfulResult = TestUtils.createSuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(temporaryError, successfulResult);
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        executions.set(0);
+        CompletableFuture<Scrobble> future = asyncScrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(future.isDone(),is(false));
+        future.get(5, TimeUnit.SECONDS);
+        assertThat(executions.get(),is(2));
+        verify(lastfmAPI,times(2)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+        verify(lastfmApiCallLimiter,times(2)).acquireAsync();
+        verify(lastfmApiCallLimiter,never()).considerCallLimit();
+    }
+    @Test
+    public void scrobble_queuesScrobble_whenApiCircuitBreakerIsOpen_andQueueingIsConfigured() throws Exception {
+        config.setCircuitBreakerEnabled(true);
+        config.setCircuitBreakerMinimumCalls(2);
+        config.setScrobbleRetryPolicy(RetryPolicy.none());
+        config.setQueueScrobblesWhileCircuitOpen(true);
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+        ScrobbleResult serviceOffline = TestUtils.createFailedScrobbleResult(LastfmErrors.SERVICE_OFFLINE);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(serviceOffline);
+        ScrobbleClient scrobbleClient = new ScrobbleClient(config,lastfmAPI,unscrobbler,scrobbleManager,lastfmApiCallLimiter);
+        asyncScrobbleClient = new AsyncScrobbleClient(scrobbleClient, Runnable::run);
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        for (int i = 0; i < 2; i++) {
+            assertFailure(asyncScrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp()), ScrobbleException.class);
+        }
+        Scrobble scrobble = TestUtils.createScrobbleWithTimestamp();
+
+        assertThat(asyncScrobbleClient.scrobble(scrobble).get(),is(scrobble));
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(1));
+        verify(lastfmAPI,times(2)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+        scrobbleClient.close();
+    }
+    @Test
+    public void scrobbleAll_waitsForCallLimitBetweenBatches_withoutBlockingCaller() throws Exception {
+        config.setMaxScrobblesPerBatch(2);
+        CompletableFuture<Void> secondCallPermit = new CompletableFuture<>();
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null), secondCallPermit);
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),eq(session))).thenAnswer(invocation ->
+                TestUtils.createSuccessfulScrobbleResults(((List<?>) invocation.getArguments()[0]).size()));
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        CompletableFuture<List<Scrobble>> future = asyncScrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(3));
+
+        assertThat(future.isDone(),is(false));
+        verify(lastfmAPI,times(1)).scrobble(anyListOf(ScrobbleData.class),eq(session));
+
+        secondCallPermit.complete(null);
+
+        assertThat(future.get().size(),is(3));
+        verify(lastfmAPI,times(2)).scrobble(anyListOf(ScrobbleData.class),eq(session));
+        verify(lastfmApiCallLimiter,never()).considerCallLimit();
+    }
+    @Test
+    public void scrobble_completesExceptionally_whenArtistIsMissing() throws Exception {
+        Scrobble scrobble = TestUtils.createScrobbleWithoutTimestamp();
+        scrobble.setArtist(null);
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        assertFailure(asyncScrobbleClient.scrobble(scrobble), IllegalArgumentException.class);
+
+        verify(lastfmApiCallLimiter,times(0)).acquireAsync();
+    }
+    @Test
+    public void scrobble_completesExceptionally_whenScrobblingFails() throws Exception {
+        ScrobbleResult scrobbleResult = TestUtils.createUnsuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),any(Session.class))).thenReturn(scrobbleResult);
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        assertFailure(asyncScrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp()), ScrobbleException.class);
+    }
+
+    @Test
+    public void nowPlaying_triggersLastfmApi() throws Exception {
+        Scrobble scrobble = TestUtils.createScrobbleWithoutTimestamp();
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        asyncScrobbleClient.nowPlaying(scrobble).get();
+
+        verify(lastfmAPI,times(1)).updateNowPlaying(scrobble.getArtist(),scrobble.getTrackName(),session);
+    }
+
+    @Test
+    public void unscrobble_removesScrobbleFromScrobbleManager() throws Exception {
+        Scrobble persistedScrobble = scrobbleManager.persist(TestUtils.createScrobbleWithTimestamp());
+
+        asyncScrobbleClient.login(TestUtils.createAuthDetailsWithUsernameAndPassword()).get();
+        asyncScrobbleClient.unscrobble(persistedScrobble).get();
+
+        assertThat(scrobbleManager.size(),is(0));
+    }
+    @Test
+    public void unscrobble_completesExceptionally_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
+        asyncScrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername()).get();
+        assertFailure(asyncScrobbleClient.unscrobble(TestUtils.createScrobbleWithTimestamp()), LastfmInsufficientAuthenticationDataException.class);
+    }
+
+    @Test
+    public void updateScrobble_updatesOriginalScrobble() throws Exception {
+        Scrobble originalScrobble = TestUtils.createScrobbleWithTimestamp();
+        Scrobble updatedScrobble = scrobbleManager.persist(originalScrobble);
+        updatedScrobble.setArtist("updated-artist");
+
+        asyncScrobbleClient.login(TestUtils.createSufficientAuthDetails()).get();
+        asyncScrobbleClient.updateScrobble(updatedScrobble).get();
+
+        assertThat(originalScrobble.getArtist(),is("updated-artist"));
+    }
+
+    @Test
+    public void getAllScrobbles_returnsAllScrobbles() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getMaxResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getMaxResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        asyncScrobbleClient.login(authDetails).get();
+        List<Scrobble> scrobbles = asyncScrobbleClient.getAllScrobbles().get();
+
+        assertThat(scrobbles.size(),is(result1.getPageResults().size() + result2.getPageResults().size()));
+        verify(lastfmApiCallLimiter,times(2)).acquireAsync();
+    }
+    @Test
+    public void getLastScrobbles_loadsCorrectAmountOverTwoPages() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        asyncScrobbleClient.login(authDetails).get();
+        List<Scrobble> scrobbles = asyncScrobbleClient.getLastScrobbles(64).get();
+
+        assertThat(scrobbles.size(),is(64));
+    }
+    @Test
+    public void getAllScrobbles_withHistoryStore_onlyFetchesNewScrobbles_onSubsequentCalls() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 10, false);
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentTracks(eq(authDetails.getUsername()), eq(1), eq(config.getMaxResultsPerPage()), anyInt(), (Integer) isNull(), eq(authDetails.getApiKey())))
+                .thenReturn(emptyResult);
+
+        asyncScrobbleClient.login(authDetails).get();
+        List<Scrobble> scrobbles = asyncScrobbleClient.getAllScrobbles().get();
+        List<Scrobble> lastScrobbles = asyncScrobbleClient.getLastScrobbles(4).get();
+
+        assertThat(scrobbles.size(),is(10));
+        assertThat(lastScrobbles.size(),is(4));
+        assertThat(lastScrobbles.get(0).getTimestampSeconds(),is(scrobbles.get(0).getTimestampSeconds()));
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getMaxResultsPerPage(),authDetails.getApiKey());
+        verify(lastfmAPI,times(1)).getRecentTracks(eq(authDetails.getUsername()),eq(1),eq(config.getMaxResultsPerPage()),anyInt(),any(),eq(authDetails.getApiKey()));
+    }
+    @Test
+    public void getScrobblesSince_completesExceptionally_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
+        asyncScrobbleClient.login(TestUtils.createAuthDetailsWithUsernameAndPassword()).get();
+        assertFailure(asyncScrobbleClient.getScrobblesSince(Utils.currentTimestamp().minusDays(1)), LastfmInsufficientAuthenticationDataException.class);
+    }
+
+    private void assertFailure(CompletableFuture<?> future, Class<? extends Throwable> expectedCause) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e){
+            assertThat(e.getCause(),is(instanceOf(expectedCause)));
+        }
+    }
+}
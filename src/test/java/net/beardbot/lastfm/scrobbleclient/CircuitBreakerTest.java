@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.CircuitBreakerOpenException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CircuitBreakerTest {
+    private LastfmConfiguration config;
+    private Clock clock;
+    private long now;
+
+    @Before
+    public void setUp(){
+        config = new LastfmConfiguration();
+        config.setCircuitBreakerEnabled(true);
+        config.setCircuitBreakerWindowSize(10);
+        config.setCircuitBreakerMinimumCalls(4);
+        config.setCircuitBreakerFailureRateThreshold(50);
+        config.setCircuitBreakerSlowCallRateThreshold(80);
+        config.setCircuitBreakerSlowCallDurationMillis(1000);
+        config.setCircuitBreakerOpenDurationMillis(5000);
+        config.setCircuitBreakerHalfOpenCalls(2);
+
+        now = 1000000L;
+        clock = mock(Clock.class);
+        when(clock.millis()).thenAnswer(invocation -> now);
+        when(clock.instant()).thenAnswer(invocation -> Instant.ofEpochMilli(now));
+        when(clock.getZone()).thenReturn(ZoneOffset.UTC);
+    }
+
+    @Test
+    public void staysClosed_untilMinimumNumberOfCallsIsRecorded() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.acquirePermission();
+            circuitBreaker.onFailure(10);
+        }
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.CLOSED));
+    }
+    @Test
+    public void opens_whenFailureRateReachesThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+
+        circuitBreaker.onSuccess(10);
+        circuitBreaker.onSuccess(10);
+        circuitBreaker.onFailure(10);
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.CLOSED));
+        circuitBreaker.onFailure(10);
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.OPEN));
+    }
+    @Test
+    public void opens_whenSlowCallRateReachesThreshold() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+
+        circuitBreaker.onSuccess(10);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onSuccess(1500);
+        }
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.OPEN));
+    }
+    @Test
+    public void forgetsOutcomesThatLeftTheWindow() {
+        config.setCircuitBreakerMinimumCalls(10);
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onFailure(10);
+        }
+        for (int i = 0; i < 6; i++) {
+            circuitBreaker.onSuccess(10);
+        }
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onFailure(10);
+        }
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.CLOSED));
+    }
+    @Test(expected = CircuitBreakerOpenException.class)
+    public void acquirePermission_throwsCircuitBreakerOpenException_whenOpen() {
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+
+        circuitBreaker.acquirePermission();
+    }
+    @Test
+    public void becomesHalfOpen_afterOpenDuration_andPermitsLimitedTrialCalls() {
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+        now += config.getCircuitBreakerOpenDurationMillis();
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.HALF_OPEN));
+        try {
+            circuitBreaker.acquirePermission();
+            fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException ignored){}
+    }
+    @Test
+    public void releasePermission_returnsTrialCallPermission_withoutRecordingOutcome() {
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+        now += config.getCircuitBreakerOpenDurationMillis();
+
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.acquirePermission();
+            circuitBreaker.releasePermission();
+        }
+        circuitBreaker.acquirePermission();
+        circuitBreaker.acquirePermission();
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.HALF_OPEN));
+        try {
+            circuitBreaker.acquirePermission();
+            fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException ignored){}
+    }
+    @Test
+    public void closes_whenTrialCallsSucceed() {
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+        now += config.getCircuitBreakerOpenDurationMillis();
+
+        for (int i = 0; i < config.getCircuitBreakerHalfOpenCalls(); i++) {
+            circuitBreaker.acquirePermission();
+            circuitBreaker.onSuccess(10);
+        }
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.CLOSED));
+        circuitBreaker.acquirePermission();
+    }
+    @Test
+    public void reopens_whenTrialCallFails() {
+        CircuitBreaker circuitBreaker = openCircuitBreaker();
+        now += config.getCircuitBreakerOpenDurationMillis();
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure(10);
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.OPEN));
+    }
+    @Test
+    public void notifiesListenersAboutStateTransitions() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+        List<String> transitions = new ArrayList<>();
+        circuitBreaker.addListener((name, from, to) -> transitions.add(name + ":" + from + "->" + to));
+
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onFailure(10);
+        }
+        now += config.getCircuitBreakerOpenDurationMillis();
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess(10);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess(10);
+
+        assertThat(transitions.size(),is(3));
+        assertThat(transitions.get(0),is("test:CLOSED->OPEN"));
+        assertThat(transitions.get(1),is("test:OPEN->HALF_OPEN"));
+        assertThat(transitions.get(2),is("test:HALF_OPEN->CLOSED"));
+    }
+    @Test
+    public void neverOpens_whenDisabled() {
+        config.setCircuitBreakerEnabled(false);
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+
+        for (int i = 0; i < 20; i++) {
+            circuitBreaker.acquirePermission();
+            circuitBreaker.onFailure(10);
+        }
+
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.CLOSED));
+    }
+
+    private CircuitBreaker openCircuitBreaker(){
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", config, clock);
+        for (int i = 0; i < config.getCircuitBreakerMinimumCalls(); i++) {
+            circuitBreaker.onFailure(10);
+        }
+        assertThat(circuitBreaker.getState(),is(CircuitBreakerState.OPEN));
+        return circuitBreaker;
+    }
+}
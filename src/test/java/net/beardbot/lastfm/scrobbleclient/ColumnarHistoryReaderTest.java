@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.HistoryStoreException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ColumnarHistoryReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = temporaryFolder.newFolder().toPath().resolve("history.lfmc");
+    }
+
+    @Test
+    public void getScrobble_returnsWrittenScrobbles_inWrittenOrder() throws Exception {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(100);
+        write(scrobbles);
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            assertThat(reader.size(),is(100));
+            for (int i = 0; i < scrobbles.size(); i++) {
+                assertScrobble(reader.getScrobble(i),scrobbles.get(i));
+            }
+        }
+    }
+    @Test
+    public void stream_returnsAllScrobbles() throws Exception {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(20);
+        write(scrobbles);
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            List<Scrobble> readScrobbles = reader.stream().collect(Collectors.toList());
+
+            assertThat(readScrobbles.size(),is(20));
+            for (int i = 0; i < scrobbles.size(); i++) {
+                assertScrobble(readScrobbles.get(i),scrobbles.get(i));
+            }
+        }
+    }
+    @Test
+    public void getArtistId_returnsSameId_forEqualNames() throws Exception {
+        write(Arrays.asList(scrobble("Artist","Track 1",100), scrobble("Other Artist","Track 2",200), scrobble("Artist","Track 3",300)));
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            int artistId = reader.getStringId("Artist");
+
+            assertThat(reader.getArtistId(0),is(artistId));
+            assertThat(reader.getArtistId(2),is(artistId));
+            assertThat(reader.getString(artistId),is("Artist"));
+            assertThat(reader.getDictionarySize(),is(5));
+            assertThat(reader.getScrobble(0).getArtist(),is(sameInstance(reader.getScrobble(2).getArtist())));
+        }
+    }
+    @Test
+    public void getStringId_returnsMinusOne_whenNameIsUnknown() throws Exception {
+        write(Arrays.asList(scrobble("Artist","Track",100)));
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            assertThat(reader.getStringId("Unknown"),is(-1));
+        }
+    }
+    @Test
+    public void getScrobble_returnsScrobbleWithoutTimestampOrNames_whenTheyWereMissing() throws Exception {
+        write(Arrays.asList(Scrobble.of(null,null)));
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            Scrobble scrobble = reader.getScrobble(0);
+
+            assertThat(scrobble.getArtist(),is(nullValue()));
+            assertThat(scrobble.getTrackName(),is(nullValue()));
+            assertThat(scrobble.getTimestampSeconds(),is(nullValue()));
+        }
+    }
+    @Test
+    public void getString_decodesMultiByteCharacters() throws Exception {
+        write(Arrays.asList(scrobble("Sigur Rós","Hoppípolla",100), scrobble("坂本龍一","戦場のメリークリスマス",200)));
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            assertThat(reader.getScrobble(0).getTrackName(),is("Hoppípolla"));
+            assertThat(reader.getScrobble(1).getArtist(),is("坂本龍一"));
+            assertThat(reader.getScrobble(1).getTrackName(),is("戦場のメリークリスマス"));
+        }
+    }
+    @Test
+    public void open_readsEmptyHistory() throws Exception {
+        write(new ArrayList<>());
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            assertThat(reader.size(),is(0));
+            assertThat(reader.stream().count(),is(0L));
+        }
+    }
+    @Test
+    public void write_replacesExistingFile() throws Exception {
+        write(TestUtils.createScrobblesWithTimestamp(10));
+        write(TestUtils.createScrobblesWithTimestamp(3));
+
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            assertThat(reader.size(),is(3));
+        }
+    }
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenFileIsTruncated() throws Exception {
+        write(TestUtils.createScrobblesWithTimestamp(10));
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+
+        ColumnarHistoryReader.open(file);
+    }
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenStringOffsetsAreNotAscending() throws Exception {
+        write(TestUtils.createScrobblesWithTimestamp(10));
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int stringOffsetsPosition = ColumnarHistoryReader.HEADER_SIZE + 12 * buffer.getInt(8);
+        buffer.putInt(stringOffsetsPosition + 4, buffer.getInt(stringOffsetsPosition + 8) + 1);
+        Files.write(file, content);
+
+        ColumnarHistoryReader.open(file);
+    }
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenStringOffsetExceedsStringData() throws Exception {
+        write(TestUtils.createScrobblesWithTimestamp(10));
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int lastStringOffsetPosition = ColumnarHistoryReader.HEADER_SIZE + 12 * buffer.getInt(8) + 4 * buffer.getInt(12);
+        buffer.putInt(lastStringOffsetPosition, buffer.getInt(16) + 1);
+        Files.write(file, content);
+
+        ColumnarHistoryReader.open(file);
+    }
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenArtistIdExceedsDictionary() throws Exception {
+        write(TestUtils.createScrobblesWithTimestamp(10));
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int artistIdsPosition = ColumnarHistoryReader.HEADER_SIZE + 4 * buffer.getInt(8);
+        buffer.putInt(artistIdsPosition + 4, buffer.getInt(12));
+        Files.write(file, content);
+
+        ColumnarHistoryReader.open(file);
+    }
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenTrackIdIsNegative() throws Exception {
+        write(TestUtils.createScrobblesWithTimestamp(10));
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        int trackIdsPosition = ColumnarHistoryReader.HEADER_SIZE + 8 * buffer.getInt(8);
+        buffer.putInt(trackIdsPosition, -2);
+        Files.write(file, content);
+
+        ColumnarHistoryReader.open(file);
+    }
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenFileIsNoHistoryFile() throws Exception {
+        Files.write(file, new byte[64]);
+
+        ColumnarHistoryReader.open(file);
+    }
+
+    private void write(List<Scrobble> scrobbles){
+        ColumnarHistoryWriter writer = new ColumnarHistoryWriter();
+        writer.addAll(scrobbles);
+        writer.write(file);
+    }
+
+    private static Scrobble scrobble(String artist, String trackName, int timestamp){
+        Scrobble scrobble = Scrobble.of(artist, trackName);
+        scrobble.setTimestampSeconds(timestamp);
+        return scrobble;
+    }
+
+    private static void assertScrobble(Scrobble actual, Scrobble expected){
+        assertThat(actual.getArtist(),is(expected.getArtist()));
+        assertThat(actual.getTrackName(),is(expected.getTrackName()));
+        assertThat(actual.getTimestampSeconds(),is(expected.getTimestampSeconds()));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Caller;
+import de.umass.lastfm.Session;
+import de.umass.lastfm.cache.Cache;
+import de.umass.lastfm.scrobble.ScrobbleResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DefaultLastfmAPITest {
+    private static final String LASTFM_JAVA_API_ROOT_URL = "http://ws.audioscrobbler.com/2.0/";
+    private static final String USERNAME = "user";
+
+    private FakeLastfmServer server;
+    private Cache cache;
+    private DefaultLastfmAPI lastfmAPI;
+    private Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeLastfmServer.start();
+        server.addUser(USERNAME, "password");
+        cache = Caller.getInstance().getCache();
+        Caller.getInstance().setCache(null);
+        Caller.getInstance().setApiRootUrl(server.getApiRootUrl());
+
+        lastfmAPI = new DefaultLastfmAPI();
+        session = Session.createSession(FakeLastfmServer.API_KEY, FakeLastfmServer.SHARED_SECRET, server.createSession(USERNAME), USERNAME, false);
+    }
+
+    @After
+    public void tearDown() {
+        Caller.getInstance().setApiRootUrl(LASTFM_JAVA_API_ROOT_URL);
+        Caller.getInstance().setCache(cache);
+        server.close();
+    }
+
+    @Test
+    public void getLastResult_returnsResultOfLastCall() {
+        server.failNextCalls(LastfmErrors.RATE_LIMIT_EXCEEDED, 1);
+
+        lastfmAPI.getRecentTracks(USERNAME, 1, 10, FakeLastfmServer.API_KEY);
+
+        assertThat(lastfmAPI.getLastResult().isSuccessful(),is(false));
+        assertThat(lastfmAPI.getLastResult().getHttpErrorCode(),is(429));
+    }
+    @Test
+    public void getLastResult_isNotAffectedByCallsOfOtherThreads() {
+        ScrobbleResult scrobbleResult = lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        server.failNextCalls(LastfmErrors.TEMPORARY_ERROR, 1);
+        CompletableFuture.runAsync(() -> lastfmAPI.updateNowPlaying("Artist", "Track", session)).join();
+
+        assertThat(scrobbleResult.isSuccessful(),is(true));
+        assertThat(lastfmAPI.getLastResult().isSuccessful(),is(true));
+    }
+    @Test
+    public void getLastResult_returnsNull_whenThreadHasNotCalledAnyMethod() throws Exception {
+        lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        assertThat(CompletableFuture.supplyAsync(lastfmAPI::getLastResult).get(),is(nullValue()));
+    }
+}
@@ -0,0 +1,460 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the Last.fm API and the unscrobble endpoints of the Last.fm website, listening on a local port.
+ * Implements <code>auth.getMobileSession</code>, <code>track.scrobble</code> (single and batch),
+ * <code>track.updateNowPlaying</code> and <code>user.getRecentTracks</code>, including request signatures and sessions.
+ * Responses can be delayed and errors can be injected, so throughput and error handling can be tested without network.
+ */
+class FakeLastfmServer implements AutoCloseable {
+    static final String API_KEY = "fakeApiKey";
+    static final String SHARED_SECRET = "fakeSharedSecret";
+
+    private static final int MAX_RECENT_TRACKS_PER_PAGE = 1000;
+    private static final int MAX_SCROBBLES_PER_BATCH = 50;
+    private static final int INVALID_METHOD = 3;
+    private static final int AUTHENTICATION_FAILED = 4;
+    private static final int INVALID_PARAMETERS = 6;
+    private static final int INVALID_API_KEY = 10;
+    private static final int INVALID_SIGNATURE = 13;
+    private static final String CSRF_TOKEN = "fakeCsrfToken";
+    private static final Comparator<Scrobble> MOST_RECENT_FIRST = Comparator.comparingInt(Scrobble::getEpochSeconds).reversed();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String,String> passwords = new ConcurrentHashMap<>();
+    private final Map<String,String> sessionUsers = new ConcurrentHashMap<>();
+    private final Map<String,List<Scrobble>> scrobbles = new ConcurrentHashMap<>();
+    private final Map<String,Scrobble> nowPlaying = new ConcurrentHashMap<>();
+    private final Map<String,AtomicInteger> callCounts = new ConcurrentHashMap<>();
+    private final List<Integer> injectedErrors = Collections.synchronizedList(new ArrayList<>());
+    private volatile long latencyMillis;
+
+    private FakeLastfmServer(HttpServer server) {
+        this.server = server;
+        server.createContext("/2.0/", this::handleApiCall);
+        server.createContext("/login", this::handleWebLogin);
+        server.createContext("/user/", this::handleUnscrobble);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts a server on a free local port.
+     */
+    static FakeLastfmServer start() throws IOException {
+        FakeLastfmServer fakeServer = new FakeLastfmServer(HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0));
+        fakeServer.server.start();
+        return fakeServer;
+    }
+
+    String getApiRootUrl() {
+        return getWebRootUrl() + "2.0/";
+    }
+
+    String getWebRootUrl() {
+        return String.format("http://%s:%d/",server.getAddress().getHostString(),server.getAddress().getPort());
+    }
+
+    /**
+     * Adds a user who can log in with {@link #API_KEY} and {@link #SHARED_SECRET}.
+     */
+    void addUser(String username, String password) {
+        passwords.put(username.toLowerCase(), password);
+        scrobbles.computeIfAbsent(username.toLowerCase(), key -> new ArrayList<>());
+    }
+
+    /**
+     * Creates a session for a user without authenticating, e.g. for clients that can not log in to this server.
+     * @return The session key.
+     */
+    String createSession(String username) {
+        String sessionKey = UUID.randomUUID().toString().replace("-","");
+        sessionUsers.put(sessionKey, username.toLowerCase());
+        return sessionKey;
+    }
+
+    /**
+     * Adds scrobbles of generated tracks to the history of a user, one per minute before the oldest scrobble of the user
+     * or before now.
+     */
+    void addScrobbles(String username, int amount) {
+        List<Scrobble> history = history(username);
+        synchronized (history){
+            int timestamp = history.isEmpty() ? (int) (System.currentTimeMillis() / 1000) : history.get(history.size() - 1).getEpochSeconds();
+            for (int i = 0; i < amount; i++) {
+                timestamp -= 60;
+                Scrobble scrobble = Scrobble.of("Artist " + (i % 100), "Track " + i);
+                scrobble.setEpochSeconds(timestamp);
+                history.add(scrobble);
+            }
+        }
+    }
+
+    /**
+     * @return The history of a user, the most recent scrobble first.
+     */
+    List<Scrobble> getScrobbles(String username) {
+        List<Scrobble> history = history(username);
+        synchronized (history){
+            return new ArrayList<>(history);
+        }
+    }
+
+    Scrobble getNowPlaying(String username) {
+        return nowPlaying.get(username.toLowerCase());
+    }
+
+    /**
+     * @return How often an API method or the unscrobble endpoint (<code>unscrobble</code>) was called, including failed calls.
+     */
+    int getCallCount(String method) {
+        AtomicInteger callCount = callCounts.get(method);
+        return callCount == null ? 0 : callCount.get();
+    }
+
+    /**
+     * Delays every response.
+     */
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Lets the next API calls fail with the given error, e.g. {@link LastfmErrors#SERVICE_OFFLINE},
+     * {@link LastfmErrors#TEMPORARY_ERROR} or {@link LastfmErrors#RATE_LIMIT_EXCEEDED}.
+     * @param errorCode The Last.fm error code.
+     * @param calls The number of calls that fail.
+     */
+    void failNextCalls(int errorCode, int calls) {
+        for (int i = 0; i < calls; i++) {
+            injectedErrors.add(errorCode);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleApiCall(HttpExchange exchange) throws IOException {
+        delay();
+        Map<String,String> params = readForm(exchange);
+        String method = params.get("method");
+        callCounts.computeIfAbsent(String.valueOf(method), key -> new AtomicInteger()).incrementAndGet();
+
+        Integer injectedError = nextInjectedError();
+        if (injectedError != null){
+            respondError(exchange, injectedError, String.format("Injected error %d",injectedError));
+            return;
+        }
+        if (!API_KEY.equals(params.get("api_key"))){
+            respondError(exchange, INVALID_API_KEY, "Invalid API key - You must be granted a valid key by last.fm");
+            return;
+        }
+        if ("user.getRecentTracks".equals(method)){
+            respondOk(exchange, recentTracks(params));
+            return;
+        }
+        if (!isSignatureValid(params)){
+            respondError(exchange, INVALID_SIGNATURE, "Invalid method signature supplied");
+            return;
+        }
+        if ("auth.getMobileSession".equals(method)){
+            getMobileSession(exchange, params);
+            return;
+        }
+
+        String username = sessionUsers.get(String.valueOf(params.get("sk")));
+        if (username == null){
+            respondError(exchange, LastfmErrors.INVALID_SESSION_KEY, "Invalid session key - Please re-authenticate");
+        } else if ("track.scrobble".equals(method)){
+            scrobble(exchange, username, params);
+        } else if ("track.updateNowPlaying".equals(method)){
+            Scrobble scrobble = Scrobble.of(params.get("artist"), params.get("track"));
+            nowPlaying.put(username, scrobble);
+            respondOk(exchange, "<nowplaying>" + scrobbleResult(scrobble, false) + "</nowplaying>");
+        } else {
+            respondError(exchange, INVALID_METHOD, "Invalid Method - No method with that name in this package");
+        }
+    }
+
+    private void getMobileSession(HttpExchange exchange, Map<String,String> params) throws IOException {
+        String username = String.valueOf(params.get("username")).toLowerCase();
+        String password = passwords.get(username);
+        if (password == null || !password.equals(params.get("password"))){
+            respondError(exchange, AUTHENTICATION_FAILED, "Authentication Failed - You do not have permissions to access the service");
+            return;
+        }
+        String sessionKey = createSession(username);
+        respondOk(exchange, String.format("<session><name>%s</name><key>%s</key><subscriber>0</subscriber></session>",escape(params.get("username")),sessionKey));
+    }
+
+    private void scrobble(HttpExchange exchange, String username, Map<String,String> params) throws IOException {
+        List<Scrobble> received = new ArrayList<>();
+        if (params.containsKey("artist")){
+            received.add(scrobbleOf(params.get("artist"), params.get("track"), params.get("timestamp")));
+        }
+        for (int i = 0; params.containsKey(String.format("artist[%d]",i)); i++) {
+            received.add(scrobbleOf(params.get(String.format("artist[%d]",i)), params.get(String.format("track[%d]",i)), params.get(String.format("timestamp[%d]",i))));
+        }
+        if (received.isEmpty() || received.size() > MAX_SCROBBLES_PER_BATCH || received.contains(null)){
+            respondError(exchange, INVALID_PARAMETERS, "Invalid parameters - Your request is missing a required parameter");
+            return;
+        }
+
+        List<Scrobble> history = history(username);
+        synchronized (history){
+            history.addAll(received);
+            history.sort(MOST_RECENT_FIRST);
+        }
+
+        StringBuilder content = new StringBuilder(String.format("<scrobbles accepted=\"%d\" ignored=\"0\">",received.size()));
+        for (Scrobble scrobble : received) {
+            content.append("<scrobble>").append(scrobbleResult(scrobble, true)).append("</scrobble>");
+        }
+        respondOk(exchange, content.append("</scrobbles>").toString());
+    }
+
+    private String recentTracks(Map<String,String> params) {
+        String username = String.valueOf(params.get("user"));
+        int page = Math.max(1, parseInt(params.get("page"), 1));
+        int limit = Math.min(MAX_RECENT_TRACKS_PER_PAGE, Math.max(1, parseInt(params.get("limit"), 50)));
+        int from = parseInt(params.get("from"), Integer.MIN_VALUE);
+        int to = parseInt(params.get("to"), Integer.MAX_VALUE);
+
+        List<Scrobble> matching = new ArrayList<>();
+        for (Scrobble scrobble : getScrobbles(username)) {
+            if (scrobble.getEpochSeconds() >= from && scrobble.getEpochSeconds() <= to){
+                matching.add(scrobble);
+            }
+        }
+        int totalPages = (matching.size() + limit - 1) / limit;
+
+        StringBuilder content = new StringBuilder(String.format("<recenttracks user=\"%s\" page=\"%d\" perPage=\"%d\" totalPages=\"%d\" total=\"%d\">",
+                escape(username),page,limit,totalPages,matching.size()));
+        Scrobble playing = nowPlaying.get(username.toLowerCase());
+        if (page == 1 && playing != null && !params.containsKey("to")){
+            content.append("<track nowplaying=\"true\">").append(trackElements(playing)).append("</track>");
+        }
+        for (int i = (page - 1) * limit; i < Math.min(matching.size(), page * limit); i++) {
+            Scrobble scrobble = matching.get(i);
+            content.append("<track>").append(trackElements(scrobble))
+                   .append(String.format("<date uts=\"%d\">%s</date>",scrobble.getEpochSeconds(),scrobble.getTimestamp()))
+                   .append("</track>");
+        }
+        return content.append("</recenttracks>").toString();
+    }
+
+    private void handleWebLogin(HttpExchange exchange) throws IOException {
+        delay();
+        if ("GET".equals(exchange.getRequestMethod())){
+            exchange.getResponseHeaders().add("Set-Cookie", "csrftoken=" + CSRF_TOKEN);
+            respond(exchange, 200, "text/html", "<html><body><form method=\"post\"></form></body></html>");
+            return;
+        }
+        Map<String,String> params = readForm(exchange);
+        String password = passwords.get(String.valueOf(params.get("username_or_email")).toLowerCase());
+        if (!CSRF_TOKEN.equals(params.get("csrfmiddlewaretoken")) || password == null || !password.equals(params.get("password"))){
+            respond(exchange, 403, "text/html", "<html><body>Login failed</body></html>");
+            return;
+        }
+        exchange.getResponseHeaders().add("Set-Cookie", "sessionid=" + UUID.randomUUID());
+        respond(exchange, 200, "text/html", "<html><body>Logged in</body></html>");
+    }
+
+    /**
+     * Handles <code>POST /user/{name}/library/delete</code>, the endpoint the website uses for deleting a scrobble.
+     */
+    private void handleUnscrobble(HttpExchange exchange) throws IOException {
+        delay();
+        String[] pathSegments = exchange.getRequestURI().getPath().split("/");
+        Map<String,String> params = readForm(exchange);
+        if (pathSegments.length != 5 || !"library".equals(pathSegments[3]) || !"delete".equals(pathSegments[4])){
+            respond(exchange, 404, "text/html", "<html><body>Not found</body></html>");
+            return;
+        }
+        callCounts.computeIfAbsent("unscrobble", key -> new AtomicInteger()).incrementAndGet();
+
+        boolean removed = false;
+        List<Scrobble> history = history(URLDecoder.decode(pathSegments[2], "UTF-8"));
+        synchronized (history){
+            Scrobble scrobble = scrobbleOf(params.get("artist_name"), params.get("track_name"), params.get("timestamp"));
+            if (scrobble != null){
+                removed = history.removeIf(other -> other.getEpochSeconds() == scrobble.getEpochSeconds()
+                        && other.getArtist().equals(scrobble.getArtist()) && other.getTrackName().equals(scrobble.getTrackName()));
+            }
+        }
+        respond(exchange, 200, "application/json", String.format("{\"result\": %b}",removed));
+    }
+
+    private List<Scrobble> history(String username) {
+        return scrobbles.computeIfAbsent(username.toLowerCase(), key -> new ArrayList<>());
+    }
+
+    private Integer nextInjectedError() {
+        synchronized (injectedErrors){
+            return injectedErrors.isEmpty() ? null : injectedErrors.remove(0);
+        }
+    }
+
+    private void delay() {
+        if (latencyMillis <= 0){
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isSignatureValid(Map<String,String> params) {
+        StringBuilder signature = new StringBuilder();
+        for (Map.Entry<String,String> param : new TreeMap<>(params).entrySet()) {
+            if (!"api_sig".equals(param.getKey())){
+                signature.append(param.getKey()).append(param.getValue());
+            }
+        }
+        signature.append(SHARED_SECRET);
+
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(signature.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x",b));
+            }
+            return hex.toString().equals(params.get("api_sig"));
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException("MD5 is not available.", e);
+        }
+    }
+
+    private static Scrobble scrobbleOf(String artist, String trackName, String timestamp) {
+        if (artist == null || trackName == null || timestamp == null){
+            return null;
+        }
+        Scrobble scrobble = Scrobble.of(artist, trackName);
+        scrobble.setEpochSeconds(Integer.parseInt(timestamp));
+        return scrobble;
+    }
+
+    private static String scrobbleResult(Scrobble scrobble, boolean withTimestamp) {
+        String result = String.format("<track corrected=\"0\">%s</track><artist corrected=\"0\">%s</artist>" +
+                "<album corrected=\"0\"></album><albumArtist corrected=\"0\"></albumArtist>",escape(scrobble.getTrackName()),escape(scrobble.getArtist()));
+        if (withTimestamp){
+            result += String.format("<timestamp>%d</timestamp>",scrobble.getEpochSeconds());
+        }
+        return result + "<ignoredMessage code=\"0\"></ignoredMessage>";
+    }
+
+    private static String trackElements(Scrobble scrobble) {
+        return String.format("<artist mbid=\"\">%s</artist><name>%s</name><streamable>0</streamable><mbid></mbid>",escape(scrobble.getArtist()),escape(scrobble.getTrackName()));
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&","&amp;").replace("<","&lt;").replace(">","&gt;").replace("\"","&quot;");
+    }
+
+    private static Map<String,String> readForm(HttpExchange exchange) throws IOException {
+        Map<String,String> params = new HashMap<>();
+        String form = new String(readFully(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        for (String pair : form.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0){
+                params.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1){
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void respondOk(HttpExchange exchange, String content) throws IOException {
+        respond(exchange, 200, "text/xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?><lfm status=\"ok\">" + content + "</lfm>");
+    }
+
+    private static void respondError(HttpExchange exchange, int errorCode, String message) throws IOException {
+        int statusCode;
+        switch (errorCode){
+            case LastfmErrors.RATE_LIMIT_EXCEEDED:
+                statusCode = 429;
+                break;
+            case LastfmErrors.SERVICE_OFFLINE:
+            case LastfmErrors.TEMPORARY_ERROR:
+                statusCode = 503;
+                break;
+            default:
+                statusCode = 400;
+        }
+        respond(exchange, statusCode, "text/xml", String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?><lfm status=\"failed\"><error code=\"%d\">%s</error></lfm>",errorCode,escape(message)));
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
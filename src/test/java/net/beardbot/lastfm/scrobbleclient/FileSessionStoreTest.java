@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FileSessionStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private FileSessionStore sessionStore;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder().toPath();
+        sessionStore = new FileSessionStore(directory, "passphrase".toCharArray());
+    }
+
+    @Test
+    public void loadSessionKey_returnsSavedKey() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+
+        assertThat(sessionStore.loadSessionKey("apiKey","user"),is("sessionKey"));
+    }
+    @Test
+    public void saveSessionKey_createsMissingDirectory() throws Exception {
+        Path missingDirectory = directory.resolve("sessions").resolve("user");
+        FileSessionStore store = new FileSessionStore(missingDirectory, "passphrase".toCharArray());
+
+        store.saveSessionKey("apiKey","user","sessionKey");
+
+        assertThat(Files.exists(missingDirectory.resolve(FileSessionStore.SALT_FILE_NAME)),is(true));
+        assertThat(new FileSessionStore(missingDirectory, "passphrase".toCharArray()).loadSessionKey("apiKey","user"),is("sessionKey"));
+    }
+    @Test
+    public void saveSessionKey_usesSameSalt_whenStoresCreateItConcurrently() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String username = "user" + i;
+            saves.add(CompletableFuture.runAsync(() -> {
+                try {
+                    start.await();
+                    new FileSessionStore(directory, "passphrase".toCharArray()).saveSessionKey("apiKey",username,"sessionKey");
+                } catch (Exception e){
+                    throw new IllegalStateException(e);
+                }
+            }, runnable -> new Thread(runnable).start()));
+        }
+        start.countDown();
+        CompletableFuture.allOf(saves.toArray(new CompletableFuture[0])).get();
+
+        FileSessionStore reopenedStore = new FileSessionStore(directory, "passphrase".toCharArray());
+        for (int i = 0; i < 4; i++) {
+            assertThat(reopenedStore.loadSessionKey("apiKey","user" + i),is("sessionKey"));
+        }
+        assertThat(sessionFiles().size(),is(4));
+    }
+    @Test
+    public void loadSessionKey_returnsSavedKey_afterReopening() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+
+        FileSessionStore reopenedStore = new FileSessionStore(directory, "passphrase".toCharArray());
+
+        assertThat(reopenedStore.loadSessionKey("apiKey","user"),is("sessionKey"));
+    }
+    @Test
+    public void loadSessionKey_ignoresCaseOfUsername() throws Exception {
+        sessionStore.saveSessionKey("apiKey","User","sessionKey");
+
+        assertThat(sessionStore.loadSessionKey("apiKey","user"),is("sessionKey"));
+    }
+    @Test
+    public void loadSessionKey_returnsLatestKey_whenKeyHasBeenReplaced() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+        sessionStore.saveSessionKey("apiKey","user","newSessionKey");
+
+        assertThat(sessionStore.loadSessionKey("apiKey","user"),is("newSessionKey"));
+    }
+    @Test
+    public void loadSessionKey_returnsNull_whenNoKeyHasBeenSaved() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+
+        assertThat(sessionStore.loadSessionKey("apiKey","otherUser"),is(nullValue()));
+        assertThat(sessionStore.loadSessionKey("otherApiKey","user"),is(nullValue()));
+    }
+    @Test
+    public void loadSessionKey_returnsNull_whenKeyHasBeenRemoved() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+        sessionStore.removeSessionKey("apiKey","user");
+
+        assertThat(sessionStore.loadSessionKey("apiKey","user"),is(nullValue()));
+    }
+    @Test
+    public void loadSessionKey_returnsNull_whenPassphraseDiffers() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+
+        FileSessionStore otherStore = new FileSessionStore(directory, "otherPassphrase".toCharArray());
+
+        assertThat(otherStore.loadSessionKey("apiKey","user"),is(nullValue()));
+    }
+    @Test
+    public void loadSessionKey_returnsNull_whenFileHasBeenTamperedWith() throws Exception {
+        sessionStore.saveSessionKey("apiKey","user","sessionKey");
+        Path sessionFile = sessionFiles().get(0);
+        byte[] content = Files.readAllBytes(sessionFile);
+        content[content.length - 1] ^= 1;
+        Files.write(sessionFile, content);
+
+        assertThat(sessionStore.loadSessionKey("apiKey","user"),is(nullValue()));
+    }
+    @Test
+    public void saveSessionKey_doesNotWriteKeyOrUsernameInPlainText() throws Exception {
+        sessionStore.saveSessionKey("apiKey","someUser","someSessionKey");
+
+        List<Path> sessionFiles = sessionFiles();
+        assertThat(sessionFiles.size(),is(1));
+        String content = new String(Files.readAllBytes(sessionFiles.get(0)), StandardCharsets.ISO_8859_1);
+        assertThat(content.contains("someSessionKey"),is(false));
+        assertThat(sessionFiles.get(0).getFileName().toString().contains("someUser"),is(false));
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_throwsIllegalArgumentException_whenPassphraseIsEmpty() {
+        new FileSessionStore(directory, new char[0]);
+    }
+
+    private List<Path> sessionFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)){
+            return files.filter(file -> !file.getFileName().toString().equals(FileSessionStore.SALT_FILE_NAME))
+                    .collect(Collectors.toList());
+        }
+    }
+}
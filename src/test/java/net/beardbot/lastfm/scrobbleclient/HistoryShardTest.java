@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class HistoryShardTest {
+
+    @Test
+    public void monthly_splitsRangeAtMonthBoundaries() {
+        int from = seconds(ZonedDateTime.of(2019, 1, 15, 12, 0, 0, 0, ZoneOffset.UTC));
+        int to = seconds(ZonedDateTime.of(2019, 3, 10, 8, 0, 0, 0, ZoneOffset.UTC));
+
+        List<HistoryShard> shards = HistoryShard.monthly(from, to);
+
+        assertThat(shards.size(),is(3));
+        assertThat(shards.get(0).getFromSeconds(),is(from));
+        assertThat(shards.get(0).getTo(),is(ZonedDateTime.of(2019, 2, 1, 0, 0, 0, 0, ZoneOffset.UTC)));
+        assertThat(shards.get(1).getFrom(),is(ZonedDateTime.of(2019, 2, 1, 0, 0, 0, 0, ZoneOffset.UTC)));
+        assertThat(shards.get(1).getTo(),is(ZonedDateTime.of(2019, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC)));
+        assertThat(shards.get(2).getToSeconds(),is(to));
+        for (int i = 0; i < shards.size(); i++) {
+            assertThat(shards.get(i).getIndex(),is(i));
+        }
+    }
+    @Test
+    public void monthly_returnsSingleShard_whenRangeIsWithinOneMonth() {
+        int from = seconds(ZonedDateTime.of(2019, 5, 2, 0, 0, 0, 0, ZoneOffset.UTC));
+        int to = seconds(ZonedDateTime.of(2019, 5, 20, 0, 0, 0, 0, ZoneOffset.UTC));
+
+        List<HistoryShard> shards = HistoryShard.monthly(from, to);
+
+        assertThat(shards.size(),is(1));
+        assertThat(shards.get(0).getFromSeconds(),is(from));
+        assertThat(shards.get(0).getToSeconds(),is(to));
+    }
+    @Test
+    public void fromDescriptor_returnsEqualShard() {
+        HistoryShard shard = new HistoryShard(7, 1000, 2000);
+
+        assertThat(HistoryShard.fromDescriptor(shard.toDescriptor()),is(shard));
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void fromDescriptor_throwsIllegalArgumentException_whenDescriptorIsMalformed() {
+        HistoryShard.fromDescriptor("7:abc");
+    }
+    @Test
+    public void serialization_returnsEqualShard() throws Exception {
+        HistoryShard shard = new HistoryShard(3, 1000, 2000);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(shard);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertThat(in.readObject(),is(shard));
+        }
+    }
+    @Test
+    public void merge_ordersByTimestamp_andRemovesDuplicatesAtShardEdges() {
+        Scrobble edge = scrobble("Artist", "Edge", 2000);
+        List<Scrobble> olderShard = Arrays.asList(edge, scrobble("Artist", "Old", 1500));
+        List<Scrobble> newerShard = Arrays.asList(scrobble("Artist", "New", 2500), edge.clone());
+
+        List<Scrobble> merged = HistoryShard.merge(Arrays.asList(olderShard, newerShard));
+
+        assertThat(merged.size(),is(3));
+        assertThat(merged.get(0).getTrackName(),is("New"));
+        assertThat(merged.get(1).getTrackName(),is("Edge"));
+        assertThat(merged.get(2).getTrackName(),is("Old"));
+    }
+    @Test
+    public void merge_keepsDifferentScrobblesWithSameTimestamp_inDeterministicOrder() {
+        List<Scrobble> shard1 = Collections.singletonList(scrobble("B", "Track", 1000));
+        List<Scrobble> shard2 = Collections.singletonList(scrobble("A", "Track", 1000));
+
+        List<Scrobble> merged = HistoryShard.merge(Arrays.asList(shard1, shard2));
+        List<Scrobble> mergedReversed = HistoryShard.merge(Arrays.asList(shard2, shard1));
+
+        assertThat(merged.size(),is(2));
+        assertThat(merged.get(0).getArtist(),is("A"));
+        assertThat(mergedReversed.get(0).getArtist(),is("A"));
+    }
+
+    private static Scrobble scrobble(String artist, String trackName, int timestampSeconds){
+        Scrobble scrobble = Scrobble.of(artist, trackName);
+        scrobble.setTimestampSeconds(timestampSeconds);
+        return scrobble;
+    }
+
+    private static int seconds(ZonedDateTime dateTime){
+        return Utils.dateTimeToEpochSeconds(dateTime);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class IntCountMapTest {
+
+    @Test
+    public void get_returnsSumOfAddedAmounts() {
+        IntCountMap countMap = new IntCountMap();
+        countMap.add(7,1);
+        countMap.add(7,2);
+        countMap.add(-3,5);
+
+        assertThat(countMap.get(7),is(3));
+        assertThat(countMap.get(-3),is(5));
+        assertThat(countMap.get(0),is(0));
+        assertThat(countMap.size(),is(2));
+    }
+    @Test
+    public void add_keepsAllCounts_whenMapGrows() {
+        IntCountMap countMap = new IntCountMap();
+        for (int key = 0; key < 10000; key++) {
+            countMap.add(key * 31,key + 1);
+        }
+
+        assertThat(countMap.size(),is(10000));
+        for (int key = 0; key < 10000; key++) {
+            assertThat(countMap.get(key * 31),is(key + 1));
+        }
+    }
+    @Test
+    public void forEach_visitsEveryEntryOnce() {
+        IntCountMap countMap = new IntCountMap(100);
+        for (int key = 0; key < 100; key++) {
+            countMap.add(key,key + 1);
+        }
+        Map<Integer,Integer> entries = new HashMap<>();
+
+        countMap.forEach((key, count) -> assertThat(entries.put(key, count) == null,is(true)));
+
+        assertThat(entries.size(),is(100));
+        entries.forEach((key, count) -> assertThat(count,is(key + 1)));
+    }
+    @Test
+    public void addAll_addsCountsOfOtherMap() {
+        IntCountMap countMap = new IntCountMap();
+        countMap.add(1,1);
+        IntCountMap other = new IntCountMap();
+        other.add(1,2);
+        other.add(2,3);
+
+        countMap.addAll(other);
+
+        assertThat(countMap.get(1),is(3));
+        assertThat(countMap.get(2),is(3));
+        assertThat(other.get(1),is(2));
+    }
+}
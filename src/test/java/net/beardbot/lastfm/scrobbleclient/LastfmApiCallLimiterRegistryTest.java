@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LastfmApiCallLimiterRegistryTest {
+    private LastfmApiCallLimiterRegistry registry;
+    private LastfmConfiguration config;
+
+    @Before
+    public void setUp(){
+        registry = new LastfmApiCallLimiterRegistry();
+        config = new LastfmConfiguration();
+        config.setMillisForCallLimit(100);
+    }
+
+    @Test
+    public void getLimiter_returnsSameLimiter_forSameApiKey() {
+        LastfmApiCallLimiter first = registry.getLimiter(authDetails("apiKey","user1"), config);
+        LastfmApiCallLimiter second = registry.getLimiter(authDetails("apiKey","user2"), config);
+
+        assertThat(first,is(sameInstance(second)));
+        assertThat(registry.size(),is(1));
+    }
+
+    @Test
+    public void getLimiter_returnsDifferentLimiters_forDifferentApiKeys() {
+        LastfmApiCallLimiter first = registry.getLimiter(authDetails("apiKey1","user"), config);
+        LastfmApiCallLimiter second = registry.getLimiter(authDetails("apiKey2","user"), config);
+
+        assertThat(first,is(not(sameInstance(second))));
+        assertThat(registry.size(),is(2));
+    }
+
+    @Test
+    public void getLimiter_returnsDifferentLimiters_forDifferentUsers_whenRateLimitingPerUser() {
+        config.setRateLimitPerUser(true);
+
+        LastfmApiCallLimiter first = registry.getLimiter(authDetails("apiKey","user1"), config);
+        LastfmApiCallLimiter second = registry.getLimiter(authDetails("apiKey","user2"), config);
+        LastfmApiCallLimiter third = registry.getLimiter(authDetails("apiKey","USER1"), config);
+
+        assertThat(first,is(not(sameInstance(second))));
+        assertThat(first,is(sameInstance(third)));
+    }
+
+    @Test
+    public void getLimiter_doesNotThrottleOtherApiKeys() {
+        LastfmApiCallLimiter first = registry.getLimiter(authDetails("apiKey1","user"), config);
+        LastfmApiCallLimiter second = registry.getLimiter(authDetails("apiKey2","user"), config);
+
+        assertThat(first.tryAcquire(),is(true));
+        assertThat(first.tryAcquire(),is(false));
+        assertThat(second.tryAcquire(),is(true));
+    }
+
+    @Test
+    public void getLimiter_sharesGlobalCallLimit_acrossApiKeys() {
+        config.setApiCallLimitPerSecond(5);
+        config.setGlobalApiCallLimitPerSecond(1);
+
+        LastfmApiCallLimiter first = registry.getLimiter(authDetails("apiKey1","user"), config);
+        LastfmApiCallLimiter second = registry.getLimiter(authDetails("apiKey2","user"), config);
+
+        assertThat(first.tryAcquire(),is(true));
+        assertThat(second.tryAcquire(),is(false));
+    }
+
+    @Test
+    public void clear_removesAllLimiters() {
+        LastfmApiCallLimiter first = registry.getLimiter(authDetails("apiKey","user"), config);
+        registry.clear();
+        LastfmApiCallLimiter second = registry.getLimiter(authDetails("apiKey","user"), config);
+
+        assertThat(first,is(not(sameInstance(second))));
+    }
+
+    private LastfmAuthenticationDetails authDetails(String apiKey, String username){
+        return new LastfmAuthenticationDetails(apiKey,"sharedSecret",username,"password");
+    }
+}
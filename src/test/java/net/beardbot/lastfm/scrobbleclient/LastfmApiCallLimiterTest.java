@@ -16,55 +16,86 @@
  */
 package net.beardbot.lastfm.scrobbleclient;
 
+import de.umass.lastfm.Result;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class LastfmApiCallLimiterTest {
     private LastfmApiCallLimiter callLimiter;
     private LastfmConfiguration config;
 
     private long graceTime = 5L;
+    private long emissionInterval;
 
     @Before
     public void setUp(){
         config = new LastfmConfiguration();
         config.setMillisForCallLimit(100);
         callLimiter = new LastfmApiCallLimiter(config);
+        emissionInterval = config.getMillisForCallLimit() / config.getApiCallLimitPerSecond();
     }
 
     @Test
-    public void doesNotBlockAfterFiveCalls() {
+    public void doesNotBlockFirstCall() {
         long start = System.currentTimeMillis();
+        callLimiter.considerCallLimit();
+        long duration = System.currentTimeMillis() - start;
 
-        for (int i = 0; i < config.getApiCallLimitPerSecond(); i++) {
+        assertThat(duration,is(lessThan(emissionInterval)));
+    }
+
+    @Test
+    public void spreadsCallsEvenlyOverCallLimitInterval() {
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < config.getApiCallLimitPerSecond() + 1; i++) {
             callLimiter.considerCallLimit();
         }
 
         long duration = System.currentTimeMillis() - start;
 
-        assertThat(duration,is(lessThan(config.getMillisForCallLimit())));
+        assertThat(duration,is(greaterThanOrEqualTo(config.getMillisForCallLimit() - graceTime)));
+        assertThat(duration,is(lessThan(config.getMillisForCallLimit() + emissionInterval)));
     }
 
     @Test
-    public void blocksAfterSixCalls() {
+    public void doesNotBlockWithinBurstLimit() {
+        config.setApiCallBurstLimit(config.getApiCallLimitPerSecond());
+        callLimiter = new LastfmApiCallLimiter(config);
+
         long start = System.currentTimeMillis();
 
-        for (int i = 0; i < config.getApiCallLimitPerSecond() + 1; i++) {
+        for (int i = 0; i < config.getApiCallLimitPerSecond(); i++) {
             callLimiter.considerCallLimit();
         }
 
         long duration = System.currentTimeMillis() - start;
 
-        assertThat(duration,is(greaterThanOrEqualTo(config.getMillisForCallLimit() - graceTime)));
+        assertThat(duration,is(lessThan(emissionInterval)));
     }
 
     @Test
-    public void blocksTwiceAfter11Calls() {
+    public void blocksAfterBurstLimit() {
+        config.setApiCallBurstLimit(config.getApiCallLimitPerSecond());
+        callLimiter = new LastfmApiCallLimiter(config);
+
         long start = System.currentTimeMillis();
 
         for (int i = 0; i < config.getApiCallLimitPerSecond() * 2 + 1; i++) {
@@ -73,6 +104,304 @@ public class LastfmApiCallLimiterTest {
 
         long duration = System.currentTimeMillis() - start;
 
-        assertThat(duration,is(greaterThanOrEqualTo(config.getMillisForCallLimit() * 2 - graceTime)));
+        assertThat(duration,is(greaterThanOrEqualTo(config.getMillisForCallLimit() + emissionInterval - graceTime)));
+    }
+
+    @Test
+    public void tryAcquire_failsWithoutAvailablePermit() {
+        assertThat(callLimiter.tryAcquire(),is(true));
+        assertThat(callLimiter.tryAcquire(),is(false));
+    }
+
+    @Test
+    public void tryAcquire_succeedsAfterEmissionInterval() {
+        assertThat(callLimiter.tryAcquire(),is(true));
+        Utils.sleep(emissionInterval + 1);
+        assertThat(callLimiter.tryAcquire(),is(true));
+    }
+
+    @Test
+    public void acquire_failsWithoutReservingPermit_whenTimeoutIsTooShort() {
+        callLimiter.considerCallLimit();
+
+        assertThat(callLimiter.acquire(1, TimeUnit.MILLISECONDS),is(false));
+
+        long start = System.currentTimeMillis();
+        assertThat(callLimiter.acquire(emissionInterval * 2, TimeUnit.MILLISECONDS),is(true));
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(duration,is(lessThan(emissionInterval + graceTime)));
+    }
+
+    @Test
+    public void tryAcquire_failsWithoutAvailableParentPermit_andReleasesOwnPermit() {
+        LastfmApiCallLimiter parent = new LastfmApiCallLimiter(config);
+        LastfmApiCallLimiter sibling = new LastfmApiCallLimiter(config, parent);
+        callLimiter = new LastfmApiCallLimiter(config, parent);
+
+        assertThat(sibling.tryAcquire(),is(true));
+        assertThat(callLimiter.tryAcquire(),is(false));
+
+        Utils.sleep(emissionInterval + 1);
+        assertThat(callLimiter.tryAcquire(),is(true));
+    }
+
+    @Test
+    public void acquire_doesNotConsumeOwnPermits_whenParentRejectsRepeatedly() {
+        LastfmConfiguration parentConfig = new LastfmConfiguration();
+        parentConfig.setMillisForCallLimit(config.getMillisForCallLimit() * 10);
+        LastfmApiCallLimiter parent = new LastfmApiCallLimiter(parentConfig);
+        callLimiter = new LastfmApiCallLimiter(config, parent);
+        long parentEmissionInterval = parentConfig.getMillisForCallLimit() / parentConfig.getApiCallLimitPerSecond();
+
+        assertThat(callLimiter.tryAcquire(),is(true));
+        for (int i = 0; i < 20; i++) {
+            assertThat(callLimiter.acquire(emissionInterval + graceTime, TimeUnit.MILLISECONDS),is(false));
+        }
+
+        Utils.sleep(parentEmissionInterval + graceTime);
+        assertThat(callLimiter.tryAcquire(),is(true));
+    }
+    @Test
+    public void tryAcquire_keepsSiblingReservation_whenParentRejectsWhileSiblingReservesAfterIdleTime() {
+        LastfmApiCallLimiter parent = new LastfmApiCallLimiter(config) {
+            private boolean reservingSibling;
+
+            @Override
+            long reservePermit(long maxWaitNanos) {
+                if (reservingSibling){
+                    return 0L;
+                }
+                reservingSibling = true;
+                assertThat(callLimiter.tryAcquire(),is(true));
+                return -1L;
+            }
+        };
+        config.setApiCallBurstLimit(2);
+        callLimiter = new LastfmApiCallLimiter(config, parent);
+        Utils.sleep(emissionInterval * 5);
+
+        assertThat(callLimiter.tryAcquire(),is(false));
+        assertThat(callLimiter.tryAcquire(),is(true));
+        assertThat(callLimiter.tryAcquire(),is(false));
+    }
+    @Test
+    public void considerCallLimit_restoresInterruptStatus_whenInterruptedWhileWaiting() {
+        callLimiter.considerCallLimit();
+
+        Thread.currentThread().interrupt();
+        callLimiter.considerCallLimit();
+
+        assertThat(Thread.interrupted(),is(true));
+    }
+    @Test
+    public void considerCallLimit_waitsForParentPermit() {
+        LastfmApiCallLimiter parent = new LastfmApiCallLimiter(config);
+        LastfmApiCallLimiter sibling = new LastfmApiCallLimiter(config, parent);
+        callLimiter = new LastfmApiCallLimiter(config, parent);
+
+        sibling.considerCallLimit();
+
+        long start = System.currentTimeMillis();
+        callLimiter.considerCallLimit();
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(duration,is(greaterThanOrEqualTo(emissionInterval - graceTime)));
+    }
+
+    @Test
+    public void acquireAsync_completesDelayed_withoutBlocking() throws Exception {
+        config.setMillisForCallLimit(500);
+        callLimiter = new LastfmApiCallLimiter(config);
+        emissionInterval = config.getMillisForCallLimit() / config.getApiCallLimitPerSecond();
+
+        callLimiter.considerCallLimit();
+
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> future = callLimiter.acquireAsync();
+        long invocationDuration = System.currentTimeMillis() - start;
+
+        future.get();
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(invocationDuration,is(lessThan(emissionInterval / 2)));
+        assertThat(duration,is(greaterThanOrEqualTo(emissionInterval - graceTime)));
+    }
+
+    @Test
+    public void considerCallLimit_grantsPermitsFairlyAtConfiguredRate_underContention() throws Exception {
+        config.setApiCallLimitPerSecond(10);
+        callLimiter = new LastfmApiCallLimiter(config);
+
+        int threadCount = 30;
+        int callsPerThread = 3;
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getMillisForCallLimit()) / config.getApiCallLimitPerSecond();
+
+        List<long[]> grants = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch startSignal = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            long threadIndex = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException ignored) {}
+                for (int j = 0; j < callsPerThread; j++) {
+                    callLimiter.considerCallLimit();
+                    grants.add(new long[]{System.nanoTime(), threadIndex});
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long start = System.nanoTime();
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long duration = System.nanoTime() - start;
+
+        int totalCalls = threadCount * callsPerThread;
+        long expectedDuration = (totalCalls - 1) * intervalNanos;
+
+        assertThat(grants.size(),is(totalCalls));
+        assertThat(duration,is(greaterThanOrEqualTo(expectedDuration - TimeUnit.MILLISECONDS.toNanos(graceTime))));
+        assertThat(duration,is(lessThan(expectedDuration + expectedDuration / 2)));
+
+        List<long[]> sortedGrants = new ArrayList<>(grants);
+        sortedGrants.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        // threads may wake up late, but never before their reserved slot
+        for (int i = 0; i < sortedGrants.size(); i++) {
+            long earliestGrant = start + i * intervalNanos - TimeUnit.MILLISECONDS.toNanos(graceTime);
+            assertThat(sortedGrants.get(i)[0],is(greaterThanOrEqualTo(earliestGrant)));
+        }
+
+        boolean[] threadServed = new boolean[threadCount];
+        for (int i = 0; i < threadCount * 2; i++) {
+            threadServed[(int) sortedGrants.get(i)[1]] = true;
+        }
+        for (boolean served : threadServed) {
+            assertThat(served,is(true));
+        }
+    }
+
+    @Test
+    public void recordResponse_doesNotChangeRate_whenNotAdaptive() {
+        double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+        callLimiter.recordResponse(createResult(false, 29, 0), 0);
+
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(initialRate));
+    }
+    @Test
+    public void recordResponse_halvesRate_onRateLimitExceededError() {
+        callLimiter = createAdaptiveLimiter();
+        double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+        callLimiter.recordResponse(createResult(false, 29, 0), 0);
+
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(closeTo(initialRate / 2, 0.01)));
+    }
+    @Test
+    public void recordResponse_decreasesRate_onTooManyRequestsAndServerErrors() {
+        for (int httpErrorCode : new int[]{429, 500, 503}) {
+            callLimiter = createAdaptiveLimiter();
+            double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+            callLimiter.recordResponse(createResult(false, 0, httpErrorCode), 0);
+
+            assertThat(callLimiter.getCurrentCallsPerSecond(),is(lessThan(initialRate)));
+        }
+    }
+    @Test
+    public void recordResponse_decreasesRateOnlyOncePerWindow_whenSeveralResponsesFail() {
+        callLimiter = createAdaptiveLimiter();
+        double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+        for (int i = 0; i < 5; i++) {
+            callLimiter.recordResponse(createResult(false, 29, 0), 0);
+        }
+
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(closeTo(initialRate / 2, 0.01)));
+    }
+    @Test
+    public void recordResponse_doesNotDecreaseRateBelowMinimum() {
+        config.setAdaptiveMinApiCallLimitPerSecond(2);
+        callLimiter = createAdaptiveLimiter();
+
+        for (int i = 0; i < 5; i++) {
+            callLimiter.recordResponse(createResult(false, 29, 0), 0);
+            Utils.sleep(config.getMillisForCallLimit() + 1);
+        }
+
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(closeTo(2 * 1000.0 / config.getMillisForCallLimit(), 0.01)));
+    }
+    @Test
+    public void recordResponse_increasesRateUpToMaximum_onHealthyResponses() {
+        config.setAdaptiveMaxApiCallLimitPerSecond(8);
+        callLimiter = createAdaptiveLimiter();
+        double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+        callLimiter.recordResponse(createResult(true, 0, 0), 0);
+        double increasedRate = callLimiter.getCurrentCallsPerSecond();
+        for (int i = 0; i < 1000; i++) {
+            callLimiter.recordResponse(createResult(true, 0, 0), 0);
+        }
+
+        assertThat(increasedRate,is(greaterThan(initialRate)));
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(closeTo(8 * 1000.0 / config.getMillisForCallLimit(), 0.01)));
+    }
+    @Test
+    public void recordResponse_recoversConfiguredRate_afterDecrease() {
+        callLimiter = createAdaptiveLimiter();
+        double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+        callLimiter.recordResponse(createResult(false, 29, 0), 0);
+        for (int i = 0; i < 100; i++) {
+            callLimiter.recordResponse(createResult(true, 0, 0), 0);
+        }
+
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(closeTo(initialRate, 0.01)));
+    }
+    @Test
+    public void recordResponse_holdsRate_whenResponseIsSlow() {
+        config.setAdaptiveMaxApiCallLimitPerSecond(8);
+        config.setAdaptiveLatencyThresholdMillis(100);
+        callLimiter = createAdaptiveLimiter();
+        double initialRate = callLimiter.getCurrentCallsPerSecond();
+
+        callLimiter.recordResponse(createResult(true, 0, 0), TimeUnit.MILLISECONDS.toNanos(150));
+
+        assertThat(callLimiter.getCurrentCallsPerSecond(),is(initialRate));
+    }
+    @Test
+    public void considerCallLimit_spreadsCallsAccordingToDecreasedRate() {
+        callLimiter = createAdaptiveLimiter();
+        callLimiter.recordResponse(createResult(false, 29, 0), 0);
+        long decreasedInterval = emissionInterval * 2;
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            callLimiter.considerCallLimit();
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        assertThat(duration,is(greaterThanOrEqualTo(decreasedInterval * 2 - graceTime)));
+    }
+
+    private LastfmApiCallLimiter createAdaptiveLimiter(){
+        config.setAdaptiveRateLimiting(true);
+        return new LastfmApiCallLimiter(config);
+    }
+
+    private static Result createResult(boolean successful, int errorCode, int httpErrorCode){
+        Result result = mock(Result.class);
+        when(result.isSuccessful()).thenReturn(successful);
+        when(result.getErrorCode()).thenReturn(errorCode);
+        when(result.getHttpErrorCode()).thenReturn(httpErrorCode);
+        return result;
     }
-}
\ No newline at end of file
+}
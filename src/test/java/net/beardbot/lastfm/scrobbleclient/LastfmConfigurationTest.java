@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LastfmConfigurationTest {
+
+    @Test
+    public void setMaxScrobblesPerBatch_acceptsValuesWithinLastfmBatchLimit() {
+        LastfmConfiguration config = new LastfmConfiguration();
+
+        config.setMaxScrobblesPerBatch(1);
+        assertThat(config.getMaxScrobblesPerBatch(),is(1));
+        config.setMaxScrobblesPerBatch(LastfmConfiguration.MAX_SCROBBLES_PER_BATCH_LIMIT);
+        assertThat(config.getMaxScrobblesPerBatch(),is(LastfmConfiguration.MAX_SCROBBLES_PER_BATCH_LIMIT));
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxScrobblesPerBatch_throwsIllegalArgumentException_whenValueIsZero() {
+        new LastfmConfiguration().setMaxScrobblesPerBatch(0);
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxScrobblesPerBatch_throwsIllegalArgumentException_whenValueIsNegative() {
+        new LastfmConfiguration().setMaxScrobblesPerBatch(-1);
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxScrobblesPerBatch_throwsIllegalArgumentException_whenValueExceedsLastfmBatchLimit() {
+        new LastfmConfiguration().setMaxScrobblesPerBatch(LastfmConfiguration.MAX_SCROBBLES_PER_BATCH_LIMIT + 1);
+    }
+}
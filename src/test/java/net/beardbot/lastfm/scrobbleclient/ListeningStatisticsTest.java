@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.ListeningStatisticsException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ListeningStatisticsTest {
+    private static final ZonedDateTime DAY_1 = ZonedDateTime.of(2019,6,1,12,0,0,0,ZoneOffset.UTC);
+    private static final ZonedDateTime DAY_2 = DAY_1.plusDays(1);
+    private static final ZonedDateTime DAY_3 = DAY_1.plusDays(2);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ListeningStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = new ListeningStatistics();
+        statistics.recordAll(Arrays.asList(
+                scrobble("Artist A","Track 1",DAY_1),
+                scrobble("Artist A","Track 1",DAY_1.plusMinutes(5)),
+                scrobble("Artist B","Track 2",DAY_1.plusMinutes(10)),
+                scrobble("Artist B","Track 2",DAY_2),
+                scrobble("Artist B","Track 3",DAY_2.plusMinutes(5)),
+                scrobble("Artist C","Track 1",DAY_3)));
+    }
+
+    @Test
+    public void getTopArtists_returnsArtistsOrderedByPlays() {
+        List<PlayCount> topArtists = statistics.getTopArtists(2);
+
+        assertThat(topArtists,is(Arrays.asList(new PlayCount("Artist B",null,3), new PlayCount("Artist A",null,2))));
+    }
+    @Test
+    public void getTopArtists_ordersArtistsWithSamePlaysByFirstPlay() {
+        statistics.record(scrobble("Artist C","Track 1",DAY_3.plusMinutes(5)));
+
+        List<PlayCount> topArtists = statistics.getTopArtists(10);
+
+        assertThat(topArtists,is(Arrays.asList(new PlayCount("Artist B",null,3), new PlayCount("Artist A",null,2), new PlayCount("Artist C",null,2))));
+    }
+    @Test
+    public void getTopArtists_onlyCountsPlaysWithinTimeRange() {
+        List<PlayCount> topArtists = statistics.getTopArtists(10, DAY_2, DAY_3);
+
+        assertThat(topArtists,is(Arrays.asList(new PlayCount("Artist B",null,2), new PlayCount("Artist C",null,1))));
+    }
+    @Test
+    public void getTopTracks_distinguishesTracksWithSameNameOfDifferentArtists() {
+        List<PlayCount> topTracks = statistics.getTopTracks(10);
+
+        assertThat(topTracks,is(Arrays.asList(
+                new PlayCount("Artist A","Track 1",2),
+                new PlayCount("Artist B","Track 2",2),
+                new PlayCount("Artist B","Track 3",1),
+                new PlayCount("Artist C","Track 1",1))));
+    }
+    @Test
+    public void getTopTracks_onlyCountsPlaysWithinTimeRange() {
+        List<PlayCount> topTracks = statistics.getTopTracks(1, DAY_1, DAY_1);
+
+        assertThat(topTracks,is(Arrays.asList(new PlayCount("Artist A","Track 1",2))));
+    }
+    @Test
+    public void getPlaysPerDay_returnsPlaysOfEveryDayWithinTimeRange() {
+        SortedMap<LocalDate,Integer> playsPerDay = statistics.getPlaysPerDay(DAY_1.minusDays(10), DAY_2);
+
+        assertThat(playsPerDay.size(),is(2));
+        assertThat(playsPerDay.get(DAY_1.toLocalDate()),is(3));
+        assertThat(playsPerDay.get(DAY_2.toLocalDate()),is(2));
+    }
+    @Test
+    public void record_ignoresScrobblesWithoutTimestamp() {
+        statistics.record(Scrobble.of("Artist A","Track 1"));
+
+        assertThat(statistics.getPlayCount(),is(6L));
+    }
+    @Test
+    public void getNewestTimestamp_returnsTimestampOfMostRecentPlay() {
+        assertThat(statistics.getNewestTimestamp(),is(Utils.dateTimeToEpochSeconds(DAY_3)));
+        assertThat(new ListeningStatistics().getNewestTimestamp(),is(nullValue()));
+    }
+    @Test
+    public void merge_addsPlaysOfOtherStatistics() {
+        ListeningStatistics other = new ListeningStatistics();
+        other.record(scrobble("Artist C","Track 1",DAY_3.plusMinutes(1)));
+        other.record(scrobble("Artist C","Track 4",DAY_3.plusDays(1)));
+        other.record(scrobble("Artist D","Track 5",DAY_1));
+
+        statistics.merge(other);
+
+        assertThat(statistics.getPlayCount(),is(9L));
+        assertThat(statistics.getTopArtists(1),is(Arrays.asList(new PlayCount("Artist B",null,3))));
+        assertThat(statistics.getTopArtists(2, DAY_3, DAY_3.plusDays(1)),is(Arrays.asList(new PlayCount("Artist C",null,3))));
+        assertThat(statistics.getPlaysPerDay(DAY_1, DAY_1).get(DAY_1.toLocalDate()),is(4));
+        assertThat(statistics.getNewestTimestamp(),is(Utils.dateTimeToEpochSeconds(DAY_3.plusDays(1))));
+        assertThat(other.getPlayCount(),is(3L));
+    }
+    @Test
+    public void merge_producesSameStatistics_asRecordingAllShardsIntoOne() {
+        ListeningStatistics shard1 = new ListeningStatistics();
+        ListeningStatistics shard2 = new ListeningStatistics();
+        ListeningStatistics all = new ListeningStatistics();
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(200);
+        for (int i = 0; i < scrobbles.size(); i++) {
+            Scrobble scrobble = scrobbles.get(i);
+            scrobble.setArtist("Artist " + (i % 7));
+            scrobble.setTrackName("Track " + (i % 13));
+            (i < 100 ? shard1 : shard2).record(scrobble);
+            all.record(scrobble);
+        }
+
+        ListeningStatistics merged = new ListeningStatistics();
+        merged.merge(shard1);
+        merged.merge(shard2);
+
+        assertThat(merged.getPlayCount(),is(all.getPlayCount()));
+        assertThat(merged.getTopArtists(7),is(all.getTopArtists(7)));
+        assertThat(merged.getTopTracks(100).size(),is(all.getTopTracks(100).size()));
+        assertThat(merged.getPlaysPerDay(DAY_1.minusYears(1), DAY_1.plusYears(1)),is(all.getPlaysPerDay(DAY_1.minusYears(1), DAY_1.plusYears(1))));
+    }
+    @Test
+    public void readFrom_restoresSavedStatistics() throws Exception {
+        Path file = temporaryFolder.newFolder().toPath().resolve("statistics.dat");
+
+        statistics.writeTo(file);
+        ListeningStatistics restored = ListeningStatistics.readFrom(file);
+
+        assertThat(restored.getPlayCount(),is(statistics.getPlayCount()));
+        assertThat(restored.getNewestTimestamp(),is(statistics.getNewestTimestamp()));
+        assertThat(restored.getTopArtists(10),is(statistics.getTopArtists(10)));
+        assertThat(restored.getTopTracks(10),is(statistics.getTopTracks(10)));
+        assertThat(restored.getTopArtists(10, DAY_2, DAY_3),is(statistics.getTopArtists(10, DAY_2, DAY_3)));
+
+        restored.record(scrobble("Artist A","Track 1",DAY_3));
+        assertThat(restored.getTopTracks(1),is(Arrays.asList(new PlayCount("Artist A","Track 1",3))));
+    }
+    @Test(expected = ListeningStatisticsException.class)
+    public void readFrom_throwsListeningStatisticsException_whenFileIsNoStatisticsFile() throws Exception {
+        Path file = temporaryFolder.newFile().toPath();
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        ListeningStatistics.readFrom(file);
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void getTopArtists_throwsIllegalArgumentException_whenRangeIsInvalid() {
+        statistics.getTopArtists(10, DAY_2, DAY_1);
+    }
+
+    private static Scrobble scrobble(String artist, String trackName, ZonedDateTime timestamp){
+        Scrobble scrobble = Scrobble.of(artist, trackName);
+        scrobble.setTimestamp(timestamp);
+        return scrobble;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class RecentTracksParserTest {
+
+    @Test
+    public void parse_readsPageAndScrobbles() throws Exception {
+        ScrobblePage page = parse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<lfm status=\"ok\"><recenttracks user=\"user\" page=\"2\" perPage=\"2\" totalPages=\"7\" total=\"14\">" +
+                "<track><artist mbid=\"a\">Artist 1</artist><name>Track 1</name><streamable>0</streamable>" +
+                "<mbid/><album mbid=\"\">Album</album><url>https://www.last.fm/music/Artist+1/_/Track+1</url>" +
+                "<image size=\"small\">https://example.com/small.png</image><image size=\"large\"/>" +
+                "<date uts=\"1500000100\">14 Jul 2017, 02:41</date></track>" +
+                "<track><artist mbid=\"\">Artist 2</artist><name>Track 2</name><date uts=\"1500000000\">14 Jul 2017, 02:40</date></track>" +
+                "</recenttracks></lfm>");
+
+        assertThat(page.getPage(),is(2));
+        assertThat(page.getTotalPages(),is(7));
+        assertThat(page.getScrobbles().size(),is(2));
+        assertThat(page.getScrobbles().get(0).getArtist(),is("Artist 1"));
+        assertThat(page.getScrobbles().get(0).getTrackName(),is("Track 1"));
+        assertThat(page.getScrobbles().get(0).getTimestampSeconds(),is(1500000100));
+        assertThat(page.getScrobbles().get(0).isNowPlaying(),is(false));
+        assertThat(page.getScrobbles().get(1).getTimestampSeconds(),is(1500000000));
+    }
+    @Test
+    public void parse_readsNowPlayingTrackWithoutTimestamp() throws Exception {
+        ScrobblePage page = parse("<lfm status=\"ok\"><recenttracks page=\"1\" totalPages=\"1\">" +
+                "<track nowplaying=\"true\"><artist>Artist</artist><name>Track</name></track>" +
+                "</recenttracks></lfm>");
+
+        assertThat(page.getScrobbles().get(0).isNowPlaying(),is(true));
+        assertThat(page.getScrobbles().get(0).getTimestampSeconds(),is(nullValue()));
+    }
+    @Test
+    public void parse_readsTrackWithoutTimestamp_whenUtsIsMissingOrInvalid() throws Exception {
+        ScrobblePage page = parse("<lfm status=\"ok\"><recenttracks page=\"1\" totalPages=\"1\">" +
+                "<track><artist>Artist 1</artist><name>Track 1</name><date>14 Jul 2017, 02:41</date></track>" +
+                "<track><artist>Artist 2</artist><name>Track 2</name><date uts=\"yesterday\"/></track>" +
+                "</recenttracks></lfm>");
+
+        for (Scrobble scrobble : page.getScrobbles()) {
+            assertThat(scrobble.hasTimestamp(),is(false));
+            assertThat(scrobble.getTimestampSeconds(),is(nullValue()));
+        }
+    }
+    @Test
+    public void parse_decodesEntitiesAndCData() throws Exception {
+        ScrobblePage page = parse("<lfm status=\"ok\"><recenttracks page=\"1\" totalPages=\"1\">" +
+                "<track><artist>Simon &amp; Garfunkel</artist><name><![CDATA[Track <Live>]]></name><date uts=\"1\"/></track>" +
+                "</recenttracks></lfm>");
+
+        assertThat(page.getScrobbles().get(0).getArtist(),is("Simon & Garfunkel"));
+        assertThat(page.getScrobbles().get(0).getTrackName(),is("Track <Live>"));
+    }
+    @Test
+    public void parse_emptyPage_returnsPageWithoutScrobbles() throws Exception {
+        ScrobblePage page = parse("<lfm status=\"ok\"><recenttracks page=\"1\" totalPages=\"0\"></recenttracks></lfm>");
+
+        assertThat(page.isEmpty(),is(true));
+        assertThat(page.getTotalPages(),is(0));
+    }
+    @Test
+    public void parse_errorResponse_returnsNullAndExposesError() throws Exception {
+        RecentTracksParser parser = new RecentTracksParser();
+
+        ScrobblePage page = parser.parse(toStream("<lfm status=\"failed\"><error code=\"6\">User not found</error></lfm>"));
+
+        assertThat(page,is(nullValue()));
+        assertThat(parser.getErrorCode(),is(6));
+        assertThat(parser.getErrorMessage(),is("User not found"));
+    }
+    @Test(expected = XMLStreamException.class)
+    public void parse_throwsXMLStreamException_onMalformedResponse() throws Exception {
+        parse("<lfm status=\"ok\"><recenttracks>");
+    }
+
+    private static ScrobblePage parse(String xml) throws XMLStreamException {
+        return new RecentTracksParser().parse(toStream(xml));
+    }
+
+    private static ByteArrayInputStream toStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
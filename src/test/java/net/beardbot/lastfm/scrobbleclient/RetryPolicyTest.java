@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Result;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void getBackoffMillis_growsExponentially() {
+        RetryPolicy retryPolicy = new RetryPolicy(5, 100L, 10000L, 2.0, 0.0);
+
+        assertThat(retryPolicy.getBackoffMillis(1, 0.7),is(100L));
+        assertThat(retryPolicy.getBackoffMillis(2, 0.7),is(200L));
+        assertThat(retryPolicy.getBackoffMillis(3, 0.7),is(400L));
+    }
+    @Test
+    public void getBackoffMillis_isCappedAtMaxBackoff() {
+        RetryPolicy retryPolicy = new RetryPolicy(20, 100L, 1000L, 2.0, 0.0);
+
+        assertThat(retryPolicy.getBackoffMillis(10, 0.0),is(1000L));
+        assertThat(retryPolicy.getBackoffMillis(100, 0.0),is(1000L));
+    }
+    @Test
+    public void getBackoffMillis_subtractsJitter() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 1000L, 1000L, 2.0, 0.5);
+
+        assertThat(retryPolicy.getBackoffMillis(1, 0.0),is(1000L));
+        assertThat(retryPolicy.getBackoffMillis(1, 0.5),is(750L));
+        assertThat(retryPolicy.getBackoffMillis(1, 1.0),is(500L));
+    }
+    @Test
+    public void canRetry_isFalse_whenMaxAttemptsAreReached() {
+        RetryPolicy retryPolicy = RetryPolicy.exponentialBackoff(3, 100L, 1000L);
+
+        assertThat(retryPolicy.canRetry(2),is(true));
+        assertThat(retryPolicy.canRetry(3),is(false));
+        assertThat(RetryPolicy.none().canRetry(1),is(false));
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_throwsIllegalArgumentException_whenMaxAttemptsIsZero() {
+        new RetryPolicy(0, 100L, 1000L, 2.0, 0.5);
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_throwsIllegalArgumentException_whenJitterFactorIsOutOfRange() {
+        new RetryPolicy(3, 100L, 1000L, 2.0, 1.5);
+    }
+    @Test
+    public void isTransient_classifiesLastfmErrors() {
+        for (int errorCode : new int[]{8, 11, 16, 29}) {
+            assertThat(LastfmErrors.isTransient(createResult(errorCode, 0)),is(true));
+        }
+        for (int errorCode : new int[]{6, 9, 13}) {
+            assertThat(LastfmErrors.isTransient(createResult(errorCode, 0)),is(false));
+        }
+        assertThat(LastfmErrors.isTransient(createResult(0, 503)),is(true));
+        assertThat(LastfmErrors.isTransient(createResult(0, 429)),is(true));
+        assertThat(LastfmErrors.isTransient(createResult(0, 404)),is(false));
+        assertThat(LastfmErrors.isTransient(null),is(false));
+    }
+
+    private static Result createResult(int errorCode, int httpErrorCode){
+        Result result = mock(Result.class);
+        when(result.isSuccessful()).thenReturn(false);
+        when(result.getErrorCode()).thenReturn(errorCode);
+        when(result.getHttpErrorCode()).thenReturn(httpErrorCode);
+        return result;
+    }
+}
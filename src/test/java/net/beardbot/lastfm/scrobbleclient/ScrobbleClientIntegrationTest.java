@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.Caller;
+import de.umass.lastfm.cache.Cache;
+import net.beardbot.lastfm.scrobbleclient.exception.LastfmAuthenticationException;
+import net.beardbot.lastfm.scrobbleclient.exception.ScrobbleException;
+import net.beardbot.lastfm.unscrobble.Unscrobbler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+/**
+ * Runs the {@link ScrobbleClient} with its HTTP transport against a {@link FakeLastfmServer}.
+ */
+public class ScrobbleClientIntegrationTest {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "password";
+    private static final String LASTFM_JAVA_API_ROOT_URL = "http://ws.audioscrobbler.com/2.0/";
+
+    private FakeLastfmServer server;
+    private LastfmConfiguration config;
+    private LastfmAuthenticationDetails authDetails;
+    private Cache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeLastfmServer.start();
+        server.addUser(USERNAME, PASSWORD);
+        cache = Caller.getInstance().getCache();
+
+        config = new LastfmConfiguration();
+        config.setApiCallLimitPerSecond(1000);
+        config.setApiCallBurstLimit(1000);
+        config.setScrobbleRetryPolicy(RetryPolicy.exponentialBackoff(3, 10L, 50L));
+        config.setFetchRetryPolicy(RetryPolicy.exponentialBackoff(3, 10L, 50L));
+        authDetails = new LastfmAuthenticationDetails(FakeLastfmServer.API_KEY, FakeLastfmServer.SHARED_SECRET, USERNAME, PASSWORD);
+    }
+
+    @After
+    public void tearDown() {
+        Caller.getInstance().setApiRootUrl(LASTFM_JAVA_API_ROOT_URL);
+        Caller.getInstance().setCache(cache);
+        server.close();
+    }
+
+    @Test
+    public void login_createsSession() throws Exception {
+        createClient().login(authDetails);
+
+        assertThat(server.getCallCount("auth.getMobileSession"),is(1));
+    }
+    @Test(expected = LastfmAuthenticationException.class)
+    public void login_throwsLastfmAuthenticationException_whenPasswordIsWrong() throws Exception {
+        authDetails.setPassword("wrong");
+
+        createClient().login(authDetails);
+    }
+    @Test
+    public void scrobble_addsScrobbleToHistory() throws Exception {
+        ScrobbleClient scrobbleClient = createClient();
+        Scrobble scrobble = TestUtils.createScrobbleWithTimestamp();
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.scrobble(scrobble);
+
+        List<Scrobble> history = server.getScrobbles(USERNAME);
+        assertThat(history.size(),is(1));
+        assertThat(history.get(0).getArtist(),is(scrobble.getArtist()));
+        assertThat(history.get(0).getTrackName(),is(scrobble.getTrackName()));
+        assertThat(history.get(0).getEpochSeconds(),is(scrobble.getEpochSeconds()));
+    }
+    @Test
+    public void scrobbleAll_sendsScrobblesInBatches() throws Exception {
+        ScrobbleClient scrobbleClient = createClient();
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbled = scrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(120));
+
+        assertThat(scrobbled.size(),is(120));
+        assertThat(server.getScrobbles(USERNAME).size(),is(120));
+        assertThat(server.getCallCount("track.scrobble"),is(3));
+    }
+    @Test
+    public void nowPlaying_setsNowPlayingTrack() throws Exception {
+        ScrobbleClient scrobbleClient = createClient();
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.nowPlaying("Artist","Track");
+
+        assertThat(server.getNowPlaying(USERNAME).getArtist(),is("Artist"));
+        assertThat(server.getNowPlaying(USERNAME).getTrackName(),is("Track"));
+    }
+    @Test
+    public void getAllScrobbles_fetchesAllPagesWithoutPlayingTrack() throws Exception {
+        server.addScrobbles(USERNAME, 250);
+        config.setResultsPerPage(100);
+        ScrobbleClient scrobbleClient = createClient();
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.nowPlaying("Artist","Track");
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+
+        assertThat(scrobbles.size(),is(250));
+        assertThat(scrobbles.get(0).getTrackName(),is("Track 0"));
+        assertThat(scrobbles.get(249).getTrackName(),is("Track 249"));
+    }
+    @Test
+    public void getScrobblesSince_fetchesScrobblesWithinTimeRange_withStreamingParser() throws Exception {
+        server.addScrobbles(USERNAME, 300);
+        config.setStreamingResponseParsing(true);
+        ScrobbleClient scrobbleClient = createClient();
+        ZonedDateTime since = server.getScrobbles(USERNAME).get(99).getTimestamp();
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(since, 30);
+
+        assertThat(scrobbles.size(),is(100));
+        assertThat(scrobbles.get(99).getTrackName(),is("Track 99"));
+    }
+    @Test
+    public void scrobble_retries_whenLastfmIsTemporarilyUnavailable() throws Exception {
+        ScrobbleClient scrobbleClient = createClient();
+
+        scrobbleClient.login(authDetails);
+        server.failNextCalls(LastfmErrors.SERVICE_OFFLINE, 1);
+        server.failNextCalls(LastfmErrors.TEMPORARY_ERROR, 1);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(server.getScrobbles(USERNAME).size(),is(1));
+        assertThat(server.getCallCount("track.scrobble"),is(3));
+    }
+    @Test
+    public void scrobble_throwsScrobbleException_whenRateLimitIsExceededOnEveryAttempt() throws Exception {
+        ScrobbleClient scrobbleClient = createClient();
+
+        scrobbleClient.login(authDetails);
+        server.failNextCalls(LastfmErrors.RATE_LIMIT_EXCEEDED, 3);
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            fail();
+        } catch (ScrobbleException e){
+            assertThat(e.getAttempts(),is(3));
+        }
+
+        assertThat(server.getScrobbles(USERNAME).isEmpty(),is(true));
+    }
+    @Test
+    public void scrobble_deliversAllScrobblesOfConcurrentCallers_whenResponsesAreSlow() throws Exception {
+        server.setLatencyMillis(20);
+        ScrobbleClient scrobbleClient = createClient();
+        scrobbleClient.login(authDetails);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<Scrobble>> futures = new ArrayList<>();
+            for (Scrobble scrobble : TestUtils.createScrobblesWithTimestamp(80)) {
+                futures.add(executor.submit(() -> scrobbleClient.scrobble(scrobble)));
+            }
+            for (Future<Scrobble> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(server.getScrobbles(USERNAME).size(),is(80));
+        assertThat(server.getCallCount("track.scrobble"),is(80));
+    }
+    @Test
+    public void getAllScrobbles_retriesTransientError_whenAnotherThreadCallsLastfmJavaMeanwhile() throws Exception {
+        server.addScrobbles(USERNAME, 250);
+        Caller.getInstance().setApiRootUrl(server.getApiRootUrl());
+        Caller.getInstance().setCache(null);
+        DefaultLastfmAPI otherLastfmAPI = new DefaultLastfmAPI();
+        DefaultLastfmAPI lastfmAPI = spy(new DefaultLastfmAPI());
+        doAnswer(invocation -> {
+            Object recentTracks = invocation.callRealMethod();
+            CompletableFuture.runAsync(() -> otherLastfmAPI.getRecentTracks(USERNAME, 1, 1, FakeLastfmServer.API_KEY)).join();
+            return recentTracks;
+        }).when(lastfmAPI).getRecentTracks(anyString(), anyInt(), anyInt(), anyString());
+        ScrobbleClient scrobbleClient = new ScrobbleClient(config, lastfmAPI, mock(Unscrobbler.class), new ScrobbleManager(config), new LastfmApiCallLimiter(config));
+        scrobbleClient.login(new LastfmAuthenticationDetails(FakeLastfmServer.API_KEY, null, USERNAME, null));
+
+        server.failNextCalls(LastfmErrors.TEMPORARY_ERROR, 1);
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+
+        assertThat(scrobbles.size(),is(250));
+        assertThat(server.getCallCount("user.getRecentTracks"),is(4));
+    }
+    @Test
+    public void unscrobbleEndpoint_removesScrobbleFromHistory() throws Exception {
+        server.addScrobbles(USERNAME, 2);
+        Scrobble scrobble = server.getScrobbles(USERNAME).get(0);
+        Map<String,String> parameters = new HashMap<>();
+        parameters.put("artist_name",scrobble.getArtist());
+        parameters.put("track_name",scrobble.getTrackName());
+        parameters.put("timestamp",String.valueOf(scrobble.getEpochSeconds()));
+
+        LastfmHttpResponse response = new HttpUrlConnectionTransport().post(server.getWebRootUrl() + "user/" + USERNAME + "/library/delete", parameters, null);
+
+        assertThat(new String(response.getBody(), StandardCharsets.UTF_8),is("{\"result\": true}"));
+        assertThat(server.getScrobbles(USERNAME).size(),is(1));
+        assertThat(server.getCallCount("unscrobble"),is(1));
+    }
+
+    private ScrobbleClient createClient() {
+        TransportLastfmAPI lastfmAPI = new TransportLastfmAPI(new HttpUrlConnectionTransport(), server.getApiRootUrl());
+        return new ScrobbleClient(config, lastfmAPI, mock(Unscrobbler.class), new ScrobbleManager(config), new LastfmApiCallLimiter(config));
+    }
+}
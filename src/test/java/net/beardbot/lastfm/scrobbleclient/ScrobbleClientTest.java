@@ -16,13 +16,18 @@
  */
 package net.beardbot.lastfm.scrobbleclient;
 
+import de.umass.lastfm.CallException;
 import de.umass.lastfm.Caller;
 import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.Result;
 import de.umass.lastfm.Session;
 import de.umass.lastfm.Track;
+import de.umass.lastfm.scrobble.ScrobbleData;
 import de.umass.lastfm.scrobble.ScrobbleResult;
+import net.beardbot.lastfm.scrobbleclient.exception.CircuitBreakerOpenException;
 import net.beardbot.lastfm.scrobbleclient.exception.LastfmAuthenticationException;
 import net.beardbot.lastfm.scrobbleclient.exception.LastfmInsufficientAuthenticationDataException;
+import net.beardbot.lastfm.scrobbleclient.exception.PartialScrobbleException;
 import net.beardbot.lastfm.scrobbleclient.exception.ScrobbleException;
 import net.beardbot.lastfm.scrobbleclient.exception.UnmanagedScrobbleException;
 import net.beardbot.lastfm.unscrobble.Unscrobbler;
@@ -32,16 +37,34 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.CoreMatchers.anyOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.fail;
@@ -53,6 +76,8 @@ public class ScrobbleClientTest {
 
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     private LastfmConfiguration config;
     @Mock
@@ -65,6 +90,8 @@ public class ScrobbleClientTest {
     private Session session;
     @Mock
     private Caller caller;
+    @Captor
+    private ArgumentCaptor<List<ScrobbleData>> scrobbleDataCaptor;
 
     private ScrobbleClient scrobbleClient;
     private LastfmAuthenticationDetails sufficientAuthDetails;
@@ -85,6 +112,8 @@ public class ScrobbleClientTest {
         when(lastfmAPI.getSession(any(),any(),any(),any())).thenReturn(session);
         when(lastfmAPI.getCaller()).thenReturn(caller);
         when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(scrobbleResult);
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),eq(session))).thenAnswer(invocation ->
+                TestUtils.createSuccessfulScrobbleResults(((List<?>) invocation.getArguments()[0]).size()));
         when(lastfmAPI.updateNowPlaying(anyString(),anyString(),eq(session))).thenReturn(scrobbleResult);
         when(unscrobbler.unscrobble(anyString(),anyString(),anyInt())).thenReturn(true);
 
@@ -130,6 +159,103 @@ public class ScrobbleClientTest {
         doThrow(UnscrobblerAuthenticationException.class).when(unscrobbler).login(any(),any());
         scrobbleClient.login(sufficientAuthDetails);
     }
+    @Test
+    public void login_doesNotTriggerApiLogin_whenSessionKeyIsStored() throws Exception {
+        SessionStore sessionStore = mock(SessionStore.class);
+        when(sessionStore.loadSessionKey(sufficientAuthDetails.getApiKey(),sufficientAuthDetails.getUsername())).thenReturn("storedKey");
+        config.setSessionStore(sessionStore);
+        ScrobbleResult scrobbleResult = TestUtils.createSuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),any(Session.class))).thenReturn(scrobbleResult);
+        ArgumentCaptor<Session> sessionCaptor = ArgumentCaptor.forClass(Session.class);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verify(lastfmAPI,never()).getSession(any(),any(),any(),any());
+        verify(unscrobbler).login(sufficientAuthDetails.getUsername(),sufficientAuthDetails.getPassword());
+        verify(lastfmAPI).scrobble(anyString(),anyString(),anyInt(),sessionCaptor.capture());
+        assertThat(sessionCaptor.getValue().getKey(),is("storedKey"));
+        assertThat(sessionCaptor.getValue().getUsername(),is(sufficientAuthDetails.getUsername()));
+    }
+    @Test
+    public void login_storesSessionKey_afterApiLogin() throws Exception {
+        SessionStore sessionStore = mock(SessionStore.class);
+        config.setSessionStore(sessionStore);
+        when(session.getKey()).thenReturn("newKey");
+
+        scrobbleClient.login(sufficientAuthDetails);
+
+        verify(lastfmAPI).getSession(any(),any(),any(),any());
+        verify(sessionStore).saveSessionKey(sufficientAuthDetails.getApiKey(),sufficientAuthDetails.getUsername(),"newKey");
+    }
+    @Test
+    public void login_triggersApiLogin_whenSessionStoreFails() throws Exception {
+        SessionStore sessionStore = mock(SessionStore.class);
+        when(sessionStore.loadSessionKey(any(),any())).thenThrow(new IOException("broken"));
+        config.setSessionStore(sessionStore);
+
+        scrobbleClient.login(sufficientAuthDetails);
+
+        verify(lastfmAPI).getSession(any(),any(),any(),any());
+    }
+    @Test
+    public void login_logsInToApiAndUnscrobblerConcurrently() throws Exception {
+        CountDownLatch bothLoginsStarted = new CountDownLatch(2);
+        AtomicInteger overlappingLogins = new AtomicInteger();
+        when(lastfmAPI.getSession(any(),any(),any(),any())).thenAnswer(invocation -> {
+            bothLoginsStarted.countDown();
+            if (bothLoginsStarted.await(5,TimeUnit.SECONDS)){
+                overlappingLogins.incrementAndGet();
+            }
+            return session;
+        });
+        doAnswer(invocation -> {
+            bothLoginsStarted.countDown();
+            if (bothLoginsStarted.await(5,TimeUnit.SECONDS)){
+                overlappingLogins.incrementAndGet();
+            }
+            return null;
+        }).when(unscrobbler).login(any(),any());
+
+        scrobbleClient.login(sufficientAuthDetails);
+
+        assertThat(overlappingLogins.get(),is(2));
+    }
+    @Test
+    public void scrobble_renewsSession_whenRestoredSessionKeyIsRejected() throws Exception {
+        SessionStore sessionStore = mock(SessionStore.class);
+        when(sessionStore.loadSessionKey(any(),any())).thenReturn("revokedKey");
+        config.setSessionStore(sessionStore);
+        when(session.getKey()).thenReturn("newKey");
+        ScrobbleResult invalidSessionResult = TestUtils.createFailedScrobbleResult(LastfmErrors.INVALID_SESSION_KEY);
+        ScrobbleResult scrobbleResult = TestUtils.createSuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),any(Session.class))).thenReturn(invalidSessionResult);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(scrobbleResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        Scrobble persistedScrobble = scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(persistedScrobble,is(not(nullValue())));
+        verify(lastfmAPI,times(2)).scrobble(anyString(),anyString(),anyInt(),any(Session.class));
+        verify(lastfmAPI).getSession(any(),any(),any(),any());
+        verify(sessionStore).removeSessionKey(sufficientAuthDetails.getApiKey(),sufficientAuthDetails.getUsername());
+        verify(sessionStore).saveSessionKey(sufficientAuthDetails.getApiKey(),sufficientAuthDetails.getUsername(),"newKey");
+    }
+    @Test
+    public void scrobble_throwsScrobbleException_whenNewSessionKeyIsRejected() throws Exception {
+        expectedException.expect(ScrobbleException.class);
+
+        ScrobbleResult invalidSessionResult = TestUtils.createFailedScrobbleResult(LastfmErrors.INVALID_SESSION_KEY);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(invalidSessionResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+        } finally {
+            verify(lastfmAPI,times(1)).getSession(any(),any(),any(),any());
+            verify(lastfmAPI,times(1)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+        }
+    }
 
     @Test
     public void unscrobble_throwsIllegalArgumentException_whenScrobbleIsMissingTimestamp() throws Exception {
@@ -290,6 +416,87 @@ public class ScrobbleClientTest {
         verify(lastfmAPI,times(2)).scrobble(eq(scrobble.getArtist()),eq(scrobble.getTrackName()),anyInt(),eq(session));
     }
 
+    @Test
+    public void scrobbleAll_throwsIllegalArgumentException_whenArtistIsMissing() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+
+        Scrobble scrobble = TestUtils.createScrobbleWithoutTimestamp();
+        scrobble.setArtist(null);
+
+        scrobbleClient.login(TestUtils.createSufficientAuthDetails());
+        scrobbleClient.scrobbleAll(Arrays.asList(TestUtils.createScrobbleWithTimestamp(), scrobble));
+    }
+    @Test
+    public void scrobbleAll_throwsLastfmInsufficientAuthenticationDataException_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
+        expectedException.expect(LastfmInsufficientAuthenticationDataException.class);
+
+        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
+        scrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(3));
+    }
+    @Test
+    public void scrobbleAll_sendsScrobblesInBatches() throws Exception {
+        scrobbleClient.login(TestUtils.createSufficientAuthDetails());
+        scrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(config.getMaxScrobblesPerBatch() * 2 + 1));
+
+        verify(lastfmAPI,times(3)).scrobble(anyListOf(ScrobbleData.class),eq(session));
+        verify(lastfmAPI,times(0)).scrobble(anyString(),anyString(),anyInt(),any(Session.class));
+        verify(lastfmApiCallLimiter,times(3)).considerCallLimit();
+    }
+    @Test
+    public void scrobbleAll_addsScrobblesToScrobbleManager() throws Exception {
+        scrobbleClient.login(TestUtils.createSufficientAuthDetails());
+        List<Scrobble> persistedScrobbles = scrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(75));
+
+        assertThat(persistedScrobbles.size(),is(75));
+        assertThat(scrobbleManager.size(),is(75));
+    }
+    @Test
+    public void scrobbleAll_scrobblesWithoutTimestamp_generateTimestamps() throws Exception {
+        List<Scrobble> scrobbles = Arrays.asList(TestUtils.createScrobbleWithoutTimestamp(), TestUtils.createScrobbleWithoutTimestamp());
+
+        scrobbleClient.login(TestUtils.createSufficientAuthDetails());
+        scrobbleClient.scrobbleAll(scrobbles);
+
+        for (Scrobble scrobble : scrobbles) {
+            assertThat(scrobble.getTimestampSeconds(),not(is(nullValue())));
+        }
+    }
+    @Test
+    public void scrobbleAll_throwsPartialScrobbleException_containingFailedAndPersistedScrobbles() throws Exception {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(3);
+        List<ScrobbleResult> scrobbleResults = Arrays.asList(
+                TestUtils.createSuccessfulScrobbleResult(),
+                TestUtils.createIgnoredScrobbleResult(),
+                TestUtils.createSuccessfulScrobbleResult());
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),any(Session.class))).thenReturn(scrobbleResults);
+        scrobbleClient.login(TestUtils.createSufficientAuthDetails());
+
+        try{
+            scrobbleClient.scrobbleAll(scrobbles);
+            fail();
+        } catch (PartialScrobbleException e){
+            assertThat(e.getFailedScrobbles(),is(Arrays.asList(scrobbles.get(1))));
+            assertThat(e.getScrobble(),is(scrobbles.get(1)));
+            assertThat(e.getPersistedScrobbles().size(),is(2));
+            assertThat(scrobbleManager.size(),is(2));
+        }
+    }
+    @Test
+    public void scrobbleAll_failsWholeBatch_whenApiCallFails() throws Exception {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(3);
+        List<ScrobbleResult> scrobbleResults = new ArrayList<>(Arrays.asList(TestUtils.createUnsuccessfulScrobbleResult()));
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),any(Session.class))).thenReturn(scrobbleResults);
+        scrobbleClient.login(TestUtils.createSufficientAuthDetails());
+
+        try{
+            scrobbleClient.scrobbleAll(scrobbles);
+            fail();
+        } catch (PartialScrobbleException e){
+            assertThat(e.getFailedScrobbles(),is(scrobbles));
+            assertThat(e.getPersistedScrobbles().size(),is(0));
+        }
+    }
+
     @Test
     public void nowPlaying_throwsIllegalArgumentException_whenArtistIsMissing() throws Exception {
         expectedException.expect(IllegalArgumentException.class);
@@ -401,6 +608,72 @@ public class ScrobbleClientTest {
         assertThat(scrobbles.size(),is(result1.getPageResults().size() + result2.getPageResults().size()));
     }
     @Test
+    public void getAllScrobbles_deduplicatesArtistAndTrackNames_whenStringDeduplicationIsEnabled() throws Exception {
+        config.setStringDeduplication(true);
+        scrobbleClient = new ScrobbleClient(config,lastfmAPI,unscrobbler,scrobbleManager,lastfmApiCallLimiter);
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, 3, false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, 3, false);
+        for (PaginatedResult<Track> result : Arrays.asList(result1, result2)) {
+            for (Track track : result.getPageResults()) {
+                when(track.getArtist()).thenReturn(new String("Artist"));
+            }
+        }
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+
+        assertThat(scrobbles.size(),is(6));
+        for (Scrobble scrobble : scrobbles) {
+            assertThat(scrobble.getArtist(),is(sameInstance(scrobbles.get(0).getArtist())));
+        }
+        assertThat(scrobbleClient.getStringPoolHitCount(),is(5L));
+        assertThat(scrobbleClient.getStringPoolMissCount(),is(7L));
+    }
+    @Test
+    public void getStringPoolHitCount_returnsZero_whenStringDeduplicationIsDisabled() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 3, false);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getAllScrobbles();
+
+        assertThat(scrobbleClient.getStringPoolHitCount(),is(0L));
+        assertThat(scrobbleClient.getStringPoolMissCount(),is(0L));
+    }
+    @Test
+    public void scrobble_recordsPlayInAttachedListeningStatistics() throws Exception {
+        ListeningStatistics statistics = new ListeningStatistics();
+        scrobbleClient.setListeningStatistics(statistics);
+        Scrobble scrobble = TestUtils.createScrobbleWithTimestamp();
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(scrobble);
+        scrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(3));
+
+        assertThat(statistics.getPlayCount(),is(4L));
+        assertThat(statistics.getTopArtists(10).stream().anyMatch(playCount -> playCount.getArtist().equals(scrobble.getArtist())),is(true));
+    }
+    @Test
+    public void scrobble_doesNotRecordPlay_whenScrobblingFailed() throws Exception {
+        ListeningStatistics statistics = new ListeningStatistics();
+        scrobbleClient.setListeningStatistics(statistics);
+        ScrobbleResult scrobbleResult = TestUtils.createUnsuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(scrobbleResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            fail();
+        } catch (ScrobbleException ignored){}
+
+        assertThat(statistics.getPlayCount(),is(0L));
+    }
+    @Test
     public void getAllScrobbles_emptyResultReturnsEmptyList() throws Exception {
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
         PaginatedResult<Track> result = TestUtils.createEmptyTrackList();
@@ -438,199 +711,1099 @@ public class ScrobbleClientTest {
         assertThat(scrobbles.size(),is(result1.getPageResults().size()-1));
     }
     @Test
-    public void getLastScrobbles_loadsNextPage_whenAmountBiggerThanDefaultResultsPerPage() throws Exception {
+    public void streamAllScrobbles_throwsLastfmInsufficientAuthenticationDataException_beforeConsumingStream() throws Exception {
+        expectedException.expect(LastfmInsufficientAuthenticationDataException.class);
+
+        scrobbleClient.login(TestUtils.createEmptyAuthDetails());
+        scrobbleClient.streamAllScrobbles();
+    }
+    @Test
+    public void streamAllScrobbles_streamsAllScrobbles() throws Exception {
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
-        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getMaxResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getMaxResultsPerPage(), false);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
 
         scrobbleClient.login(authDetails);
-        scrobbleClient.getLastScrobbles(config.getResultsPerPage()+1);
+        long count = scrobbleClient.streamAllScrobbles().count();
 
-        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getResultsPerPage(),authDetails.getApiKey());
-        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),2,config.getResultsPerPage(),authDetails.getApiKey());
+        assertThat(count,is((long) (result1.getPageResults().size() + result2.getPageResults().size())));
     }
     @Test
-    public void getLastScrobbles_onlyLoadsFirstPage_whenAmountNotBiggerThanDefaultResultsPerPage() throws Exception {
+    public void streamAllScrobbles_doesNotFetchPages_untilStreamIsConsumed() throws Exception {
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
-
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
 
         scrobbleClient.login(authDetails);
-        scrobbleClient.getLastScrobbles(config.getResultsPerPage());
+        scrobbleClient.streamAllScrobbles();
 
-        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getResultsPerPage(),authDetails.getApiKey());
-        verify(lastfmAPI,times(0)).getRecentTracks(authDetails.getUsername(),2,config.getResultsPerPage(),authDetails.getApiKey());
+        verify(lastfmAPI,times(0)).getRecentTracks(anyString(),anyInt(),anyInt(),anyString());
+        verify(lastfmApiCallLimiter,times(0)).considerCallLimit();
     }
     @Test
-    public void getLastScrobbles_returnsEmptyList_whenAmountIsZero() throws Exception {
-        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
-        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(0);
+    public void streamAllScrobbles_stopsFetchingPages_whenStreamIsShortCircuited() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getMaxResultsPerPage(), false);
 
-        assertThat(scrobbles.size(),is(0));
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.streamAllScrobbles().limit(3).collect(Collectors.toList());
+
+        assertThat(scrobbles.size(),is(3));
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getMaxResultsPerPage(),authDetails.getApiKey());
+        verify(lastfmAPI,times(0)).getRecentTracks(authDetails.getUsername(),2,config.getMaxResultsPerPage(),authDetails.getApiKey());
     }
     @Test
-    public void getLastScrobbles_loadsCorrectAmountOverOnePage() throws Exception {
+    public void streamAllScrobbles_canBeConsumedInParallel() throws Exception {
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 3, config.getMaxResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 3, config.getMaxResultsPerPage(), false);
+        PaginatedResult<Track> result3 = TestUtils.createTrackList(3, 3, config.getMaxResultsPerPage(), false);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 32, authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 3, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result3);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(32);
+        List<Scrobble> sequentialScrobbles = scrobbleClient.getAllScrobbles();
+        List<Scrobble> parallelScrobbles = scrobbleClient.streamAllScrobbles().parallel().collect(Collectors.toList());
 
-        assertThat(scrobbles.size(),is(32));
+        assertThat(parallelScrobbles.size(),is(sequentialScrobbles.size()));
+        for (int i = 0; i < sequentialScrobbles.size(); i++) {
+            assertThat(parallelScrobbles.get(i).getTimestamp(),is(sequentialScrobbles.get(i).getTimestamp()));
+        }
     }
     @Test
-    public void getLastScrobbles_loadsCorrectAmountOverTwoPages() throws Exception {
+    public void streamScrobblesSince_stopsAtSince() throws Exception {
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
         PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
-        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+        List<Scrobble> expectedScrobbles = new ArrayList<>();
+        for (Track track : result1.getPageResults()) {
+            expectedScrobbles.add(new Scrobble(track));
+        }
+        Scrobble lastExpectedScrobble = expectedScrobbles.get(4);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result1);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(64);
+        long count = scrobbleClient.streamScrobblesSince(lastExpectedScrobble.getTimestamp()).count();
 
-        assertThat(scrobbles.size(),is(64));
+        assertThat(count,is(5L));
+        verify(lastfmAPI,times(0)).getRecentTracks(anyString(),eq(2),anyInt(),anyInt(),any(),anyString());
     }
     @Test
-    public void getLastScrobbles_loadsCorrectAmount_withNowPlayingTrack() throws Exception {
+    public void getAllScrobbles_withPrefetching_returnsAllScrobblesInOrder() throws Exception {
+        config.setPagePrefetchCount(2);
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+        List<Track> expectedTracks = new ArrayList<>();
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        for (int page = 1; page <= 4; page++) {
+            PaginatedResult<Track> result = TestUtils.createTrackList(page, 4, config.getMaxResultsPerPage(), false);
+            expectedTracks.addAll(result.getPageResults());
+            when(lastfmAPI.getRecentTracks(authDetails.getUsername(), page, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        }
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(config.getResultsPerPage());
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
 
-        assertThat(scrobbles.size(),is(result.getPageResults().size()));
+        assertThat(scrobbles.size(),is(expectedTracks.size()));
+        for (int i = 0; i < expectedTracks.size(); i++) {
+            assertThat(scrobbles.get(i).getArtist(),is(expectedTracks.get(i).getArtist()));
+        }
+        verify(lastfmApiCallLimiter,times(4)).acquireAsync();
     }
     @Test
-    public void getLastScrobbles_excludesNowPlayingTrack_whenExcludeConfigured() throws Exception {
-        config.setIncludePlayingTracks(false);
+    public void getAllScrobbles_withPrefetching_keepsMultiplePageRequestsInFlight() throws Exception {
+        config.setPagePrefetchCount(2);
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 3, config.getMaxResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 3, config.getMaxResultsPerPage(), false);
+        PaginatedResult<Track> result3 = TestUtils.createTrackList(3, 3, config.getMaxResultsPerPage(), false);
+        CountDownLatch thirdPageRequested = new CountDownLatch(1);
+        AtomicReference<Boolean> requestsOverlapped = new AtomicReference<>(false);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenAnswer(invocation -> {
+            requestsOverlapped.set(thirdPageRequested.await(5, TimeUnit.SECONDS));
+            return result2;
+        });
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 3, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenAnswer(invocation -> {
+            thirdPageRequested.countDown();
+            return result3;
+        });
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(config.getResultsPerPage());
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
 
-        assertThat(scrobbles.size(),is(result.getPageResults().size()-1));
+        assertThat(scrobbles.size(),is(config.getMaxResultsPerPage() * 3));
+        assertThat(requestsOverlapped.get(),is(true));
     }
     @Test
-    public void getLastScrobbles_loadsCorrectAmount_whenAmountBiggerThanResults() throws Exception {
+    public void getScrobblesSince_withPrefetching_doesNotFetchFurtherPages_whenSinceIsReachedOnFirstPage() throws Exception {
+        config.setPagePrefetchCount(4);
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, 50, false);
-        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, 13, false);
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 10, config.getResultsPerPage(), false);
+        Scrobble lastExpectedScrobble = new Scrobble(new ArrayList<>(result1.getPageResults()).get(4));
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result1);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(5000);
-
-        assertThat(scrobbles.size(),is(result1.getPageResults().size() + result2.getPageResults().size()));
-    }
-    @Test
-    public void getScrobblesSince_throwsLastfmInsufficientAuthenticationDataException_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
-        expectedException.expect(LastfmInsufficientAuthenticationDataException.class);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(lastExpectedScrobble.getTimestamp());
 
-        scrobbleClient.login(TestUtils.createAuthDetailsWithUsernameAndPassword());
-        scrobbleClient.getScrobblesSince(LocalDateTime.now());
+        assertThat(scrobbles.size(),is(5));
+        verify(lastfmAPI,times(1)).getRecentTracks(anyString(),anyInt(),anyInt(),anyInt(),any(),anyString());
     }
     @Test
-    public void getScrobblesSince_dateInFuture_returnsEmptyList() throws Exception {
+    public void getLastScrobbles_withPrefetching_doesNotRequestPagesBeyondPageLimit() throws Exception {
+        config.setPagePrefetchCount(4);
+        when(lastfmApiCallLimiter.acquireAsync()).thenReturn(CompletableFuture.completedFuture(null));
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        for (int page = 1; page <= 10; page++) {
+            PaginatedResult<Track> result = TestUtils.createTrackList(page, 10, config.getResultsPerPage(), false);
+            when(lastfmAPI.getRecentTracks(authDetails.getUsername(), page, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        }
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().plusDays(1), config.getResultsPerPage());
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(config.getResultsPerPage() * 2);
 
-        assertThat(scrobbles.size(),is(0));
+        assertThat(scrobbles.size(),is(config.getResultsPerPage() * 2));
+        verify(lastfmAPI,times(2)).getRecentTracks(anyString(),anyInt(),anyInt(),anyString());
     }
     @Test
-    public void getScrobblesSince_dateInFuture_doesNotInvokeLastfmApi() throws Exception {
-        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
-        scrobbleClient.getScrobblesSince(LocalDateTime.now().plusSeconds(15), config.getResultsPerPage());
+    public void syncHistory_throwsIllegalStateException_whenNoHistoryStoreIsConfigured() throws Exception {
+        expectedException.expect(IllegalStateException.class);
 
-        verify(lastfmAPI,times(0)).getRecentTracks(any(),anyInt(),anyInt(),any());
+        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
+        scrobbleClient.syncHistory();
     }
     @Test
-    public void getScrobblesSince_dateInPast_returnsCompleteList() throws Exception {
+    public void getAllScrobbles_withHistoryStore_onlyFetchesNewScrobbles_onSubsequentCalls() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        config.setIncludePlayingTracks(false);
+        config.setMaxResultsPerPage(50);
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getMaxResultsPerPage(), true);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getMaxResultsPerPage(), false);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+        when(getRecentTracksSince(authDetails, 1, config.getMaxResultsPerPage())).thenReturn(emptyResult);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+        List<Scrobble> cachedScrobbles = scrobbleClient.getAllScrobbles();
 
-        assertThat(scrobbles.size(),is(result.getPageResults().size()));
+        assertThat(scrobbles.size(),is(config.getMaxResultsPerPage() * 2 - 1));
+        assertThat(cachedScrobbles.size(),is(scrobbles.size()));
+        for (int i = 0; i < scrobbles.size(); i++) {
+            assertThat(cachedScrobbles.get(i).getArtist(),is(scrobbles.get(i).getArtist()));
+            assertThat(cachedScrobbles.get(i).getTimestampSeconds(),is(scrobbles.get(i).getTimestampSeconds()));
+        }
+        assertThat(scrobbles.get(0).getTimestampSeconds() > scrobbles.get(1).getTimestampSeconds(),is(true));
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getMaxResultsPerPage(),authDetails.getApiKey());
+        verify(lastfmAPI,times(1)).getRecentTracks(eq(authDetails.getUsername()),eq(1),eq(config.getMaxResultsPerPage()),anyInt(),any(),eq(authDetails.getApiKey()));
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),2,config.getMaxResultsPerPage(),authDetails.getApiKey());
     }
     @Test
-    public void getScrobblesSince_fiveScrobblesSinceDate_returnsListWithFiveScrobbles() throws Exception {
+    public void getScrobbles_withStreamingResponseParsing_usesRecentScrobbles() throws Exception {
+        config.setStreamingResponseParsing(true);
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), false);
+        ScrobblePage page1 = ScrobblePage.of(TestUtils.createTrackList(1, 2, config.getMaxResultsPerPage(), true));
+        ScrobblePage page2 = ScrobblePage.of(TestUtils.createTrackList(2, 2, config.getMaxResultsPerPage(), false));
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentScrobbles(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), null, null, authDetails.getApiKey())).thenReturn(page1);
+        when(lastfmAPI.getRecentScrobbles(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), null, null, authDetails.getApiKey())).thenReturn(page2);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusHours(6).minusSeconds(1), config.getResultsPerPage());
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
 
-        assertThat(scrobbles.size(),is(5));
+        assertThat(scrobbles.size(),is(config.getMaxResultsPerPage() * 2));
+        assertThat(scrobbles.get(0).getTimestampSeconds(),is(nullValue()));
+        verify(lastfmAPI,never()).getRecentTracks(anyString(),anyInt(),anyInt(),anyString());
     }
     @Test
-    public void getScrobblesSince_resultLimit_triggersLastfmApiWithResultLimit() throws Exception {
+    public void getScrobblesSince_withHistoryStore_returnsStoredScrobblesSinceTimestamp() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 39, false);
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 20, false);
+        Scrobble lastExpectedScrobble = new Scrobble(new ArrayList<>(result.getPageResults()).get(4));
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 39, authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+        when(getRecentTracksSince(authDetails, 1, config.getMaxResultsPerPage())).thenReturn(emptyResult);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), 39);
+        scrobbleClient.syncHistory();
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(lastExpectedScrobble.getTimestamp());
+        List<Scrobble> lastScrobbles = scrobbleClient.getLastScrobbles(3);
 
-        assertThat(scrobbles.size(),is(39));
+        assertThat(scrobbles.size(),is(5));
+        assertThat(scrobbles.get(4).getTimestampSeconds(),is(lastExpectedScrobble.getTimestampSeconds()));
+        assertThat(lastScrobbles.size(),is(3));
+        assertThat(lastScrobbles.get(0).getTimestampSeconds(),is(scrobbles.get(0).getTimestampSeconds()));
     }
     @Test
-    public void getScrobblesSince_correctAmountOfScrobbles_withNowPlayingTrack() throws Exception {
-        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+    public void unscrobble_withHistoryStore_removesScrobbleFromStore() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        LastfmAuthenticationDetails authDetails = TestUtils.createSufficientAuthDetails();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 10, false);
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+        when(getRecentTracksSince(authDetails, 1, config.getMaxResultsPerPage())).thenReturn(emptyResult);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+        scrobbleClient.unscrobble(scrobbles.get(3));
 
-        assertThat(scrobbles.size(),is(result.getPageResults().size()));
+        assertThat(scrobbleClient.getAllScrobbles().size(),is(9));
     }
     @Test
-    public void getScrobblesSince_excludesNowPlayingTrack_whenExcludeConfigured() throws Exception {
-        config.setIncludePlayingTracks(false);
+    public void syncHistory_storesScrobblesWithSameTimestampAsNewestStoredScrobble() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
         LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
-        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 10, false);
+        Track newestTrack = result.getPageResults().iterator().next();
+        int newestTimestamp = new Scrobble(newestTrack).getTimestampSeconds();
+        Track trackWithSameTimestamp = TestUtils.createTrack(newestTrack.getPlayedWhen(), false);
+        PaginatedResult<Track> newResult = TestUtils.createTrackList(1, 1, 1, false);
+        when(newResult.getPageResults()).thenReturn(Arrays.asList(trackWithSameTimestamp, newestTrack));
 
-        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(getRecentTracksSince(authDetails, 1, config.getMaxResultsPerPage())).thenReturn(newResult);
 
         scrobbleClient.login(authDetails);
-        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+        assertThat(scrobbleClient.syncHistory(),is(10));
+        assertThat(scrobbleClient.syncHistory(),is(1));
+        assertThat(scrobbleClient.syncHistory(),is(0));
 
-        assertThat(scrobbles.size(),is(result.getPageResults().size()-1));
+        assertThat(scrobbleClient.getAllScrobbles().size(),is(11));
+        verify(lastfmAPI,atLeastOnce()).getRecentTracks(authDetails.getUsername(),1,config.getMaxResultsPerPage(),newestTimestamp,null,authDetails.getApiKey());
     }
+    @Test
+    public void scrobbleAll_withHistoryStore_storesScrobblesOlderThanNewestStoredScrobble() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 10, false);
+        Scrobble backfilledScrobble = TestUtils.createScrobbleWithoutTimestamp();
+        backfilledScrobble.setTimestamp(Utils.currentTimestamp().minusMinutes(90));
+
+        when(lastfmAPI.getRecentTracks(sufficientAuthDetails.getUsername(), 1, config.getMaxResultsPerPage(), sufficientAuthDetails.getApiKey())).thenReturn(result);
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+        when(getRecentTracksSince(sufficientAuthDetails, 1, config.getMaxResultsPerPage())).thenReturn(emptyResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.syncHistory();
+        scrobbleClient.scrobbleAll(Collections.singletonList(backfilledScrobble));
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
 
+        assertThat(scrobbles.size(),is(11));
+        assertThat(scrobbles.get(2).getArtist(),is(backfilledScrobble.getArtist()));
+        assertThat(scrobbles.get(2).getTimestampSeconds(),is(backfilledScrobble.getTimestampSeconds()));
+    }
     @Test
-    public void updateScrobble_throwsLastfmInsufficientAuthenticationDataException_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
-        try{
-            scrobbleClient.login(TestUtils.createAuthDetailsWithUsernameAndPassword());
-            scrobbleClient.updateScrobble(TestUtils.createScrobbleWithTimestamp());
-            fail();
+    public void updateScrobble_withHistoryStore_keepsLatestUpdate_whenScrobbleIsUpdatedTwice() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 10, false);
+
+        when(lastfmAPI.getRecentTracks(sufficientAuthDetails.getUsername(), 1, config.getMaxResultsPerPage(), sufficientAuthDetails.getApiKey())).thenReturn(result);
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+        when(getRecentTracksSince(sufficientAuthDetails, 1, config.getMaxResultsPerPage())).thenReturn(emptyResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        Scrobble scrobble = scrobbleClient.getAllScrobbles().get(3);
+        scrobble.setArtist("firstUpdate");
+        scrobbleClient.updateScrobble(scrobble);
+        scrobble.setArtist("secondUpdate");
+        scrobbleClient.updateScrobble(scrobble);
+
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+        assertThat(scrobbles.size(),is(10));
+        assertThat(scrobbles.get(3).getArtist(),is("secondUpdate"));
+    }
+    @Test
+    public void getLastScrobbles_withHistoryStore_includesPlayingTrack() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 10, false);
+        PaginatedResult<Track> playingResult = TestUtils.createTrackList(1, 1, 1, true);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        when(getRecentTracksSince(authDetails, 1, config.getMaxResultsPerPage())).thenReturn(playingResult);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.syncHistory();
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(3);
+
+        assertThat(scrobbles.size(),is(3));
+        assertThat(scrobbles.get(0).getTimestampSeconds(),is(nullValue()));
+        assertThat(scrobbleClient.getAllScrobbles().size(),is(11));
+        config.setIncludePlayingTracks(false);
+        assertThat(scrobbleClient.getAllScrobbles().size(),is(10));
+    }
+    @Test
+    public void getLastScrobbles_withEmptyHistoryStore_fetchesOnlyRequestedScrobbles() throws Exception {
+        config.setHistoryStoreDirectory(temporaryFolder.newFolder().toPath());
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 100, 3, false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 3, authDetails.getApiKey())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(3);
+
+        assertThat(scrobbles.size(),is(3));
+        verify(lastfmAPI,never()).getRecentTracks(authDetails.getUsername(),1,config.getMaxResultsPerPage(),authDetails.getApiKey());
+    }
+    @Test
+    public void enqueueScrobble_throwsIllegalStateException_whenNoScrobbleQueueIsConfigured() throws Exception {
+        expectedException.expect(IllegalStateException.class);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.enqueueScrobble(TestUtils.createScrobbleWithoutTimestamp());
+    }
+    @Test
+    public void drainQueue_scrobblesQueuedScrobblesInBatches_withOriginalTimestamps() throws Exception {
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+        config.setMaxScrobblesPerBatch(2);
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(3);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbles.forEach(scrobbleClient::enqueueScrobble);
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(3));
+
+        int drainedScrobbles = scrobbleClient.drainQueue();
+
+        assertThat(drainedScrobbles,is(3));
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(0));
+        verify(lastfmAPI,times(2)).scrobble(scrobbleDataCaptor.capture(),eq(session));
+        ScrobbleData firstScrobbleData = scrobbleDataCaptor.getAllValues().get(0).get(0);
+        assertThat(firstScrobbleData.getTimestamp(),is(scrobbles.get(0).getTimestampSeconds()));
+    }
+    @Test
+    public void drainQueue_keepsScrobblesQueued_whenBatchFailsAsAWhole() throws Exception {
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+        List<ScrobbleResult> failedResults = Arrays.asList(TestUtils.createUnsuccessfulScrobbleResult());
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),eq(session))).thenReturn(failedResults);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        TestUtils.createScrobblesWithTimestamp(3).forEach(scrobbleClient::enqueueScrobble);
+
+        assertThat(scrobbleClient.drainQueue(),is(0));
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(3));
+    }
+    @Test
+    public void drainQueue_keepsScrobbleQueued_whenSingleScrobbleBatchFailsAsAWhole() throws Exception {
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+        List<ScrobbleResult> failedResults = Arrays.asList(TestUtils.createUnsuccessfulScrobbleResult());
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),eq(session))).thenReturn(failedResults);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.enqueueScrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(scrobbleClient.drainQueue(),is(0));
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(1));
+    }
+    @Test
+    public void drainQueue_removesScrobbles_whenLastfmIgnoresEveryScrobbleOfBatch() throws Exception {
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+        config.setMaxScrobblesPerBatch(2);
+        List<ScrobbleResult> ignoredResults = Arrays.asList(TestUtils.createIgnoredScrobbleResult(),TestUtils.createIgnoredScrobbleResult());
+        when(lastfmAPI.scrobble(anyListOf(ScrobbleData.class),eq(session))).thenReturn(ignoredResults)
+                .thenReturn(TestUtils.createSuccessfulScrobbleResults(1));
+
+        scrobbleClient.login(sufficientAuthDetails);
+        TestUtils.createScrobblesWithTimestamp(3).forEach(scrobbleClient::enqueueScrobble);
+
+        assertThat(scrobbleClient.drainQueue(),is(3));
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(0));
+        verify(lastfmAPI,times(2)).scrobble(anyListOf(ScrobbleData.class),eq(session));
+    }
+    @Test
+    public void enqueueScrobble_survivesRestart() throws Exception {
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.enqueueScrobble(TestUtils.createScrobbleWithoutTimestamp());
+        scrobbleClient.close();
+
+        ScrobbleClient restartedClient = new ScrobbleClient(config,lastfmAPI,unscrobbler,scrobbleManager,lastfmApiCallLimiter);
+        restartedClient.login(sufficientAuthDetails);
+
+        assertThat(restartedClient.getQueuedScrobbleCount(),is(1));
+        restartedClient.close();
+    }
+    @Test
+    public void login_startsBackgroundDrainer_whenScrobbleQueueIsConfigured() throws Exception {
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(10);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.enqueueScrobble(TestUtils.createScrobbleWithoutTimestamp());
+
+        for (int i = 0; i < 200 && scrobbleClient.getQueuedScrobbleCount() > 0; i++) {
+            Utils.sleep(10);
+        }
+        int queuedScrobbles = scrobbleClient.getQueuedScrobbleCount();
+        scrobbleClient.close();
+
+        assertThat(queuedScrobbles,is(0));
+        verify(lastfmAPI,times(1)).scrobble(anyListOf(ScrobbleData.class),eq(session));
+    }
+    @Test
+    public void getLastScrobbles_loadsNextPage_whenAmountBiggerThanDefaultResultsPerPage() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getLastScrobbles(config.getResultsPerPage()+1);
+
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getResultsPerPage(),authDetails.getApiKey());
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),2,config.getResultsPerPage(),authDetails.getApiKey());
+    }
+    @Test
+    public void getLastScrobbles_onlyLoadsFirstPage_whenAmountNotBiggerThanDefaultResultsPerPage() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getLastScrobbles(config.getResultsPerPage());
+
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getResultsPerPage(),authDetails.getApiKey());
+        verify(lastfmAPI,times(0)).getRecentTracks(authDetails.getUsername(),2,config.getResultsPerPage(),authDetails.getApiKey());
+    }
+    @Test
+    public void getLastScrobbles_returnsEmptyList_whenAmountIsZero() throws Exception {
+        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(0);
+
+        assertThat(scrobbles.size(),is(0));
+    }
+    @Test
+    public void getLastScrobbles_loadsCorrectAmountOverOnePage() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 32, authDetails.getApiKey())).thenReturn(result1);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(32);
+
+        assertThat(scrobbles.size(),is(32));
+    }
+    @Test
+    public void getLastScrobbles_loadsCorrectAmountOverTwoPages() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(64);
+
+        assertThat(scrobbles.size(),is(64));
+    }
+    @Test
+    public void getLastScrobbles_loadsCorrectAmount_withNowPlayingTrack() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(result.getPageResults().size()));
+    }
+    @Test
+    public void getLastScrobbles_excludesNowPlayingTrack_whenExcludeConfigured() throws Exception {
+        config.setIncludePlayingTracks(false);
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(result.getPageResults().size()-1));
+    }
+    @Test
+    public void getLastScrobbles_loadsCorrectAmount_whenAmountBiggerThanResults() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, 50, false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, 13, false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getLastScrobbles(5000);
+
+        assertThat(scrobbles.size(),is(result1.getPageResults().size() + result2.getPageResults().size()));
+    }
+    @Test
+    public void getScrobblesSince_throwsLastfmInsufficientAuthenticationDataException_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
+        expectedException.expect(LastfmInsufficientAuthenticationDataException.class);
+
+        scrobbleClient.login(TestUtils.createAuthDetailsWithUsernameAndPassword());
+        scrobbleClient.getScrobblesSince(LocalDateTime.now());
+    }
+    @Test
+    public void getScrobblesSince_dateInFuture_returnsEmptyList() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().plusDays(1), config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(0));
+    }
+    @Test
+    public void getScrobblesSince_dateInFuture_doesNotInvokeLastfmApi() throws Exception {
+        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
+        scrobbleClient.getScrobblesSince(LocalDateTime.now().plusSeconds(15), config.getResultsPerPage());
+
+        verify(lastfmAPI,times(0)).getRecentTracks(any(),anyInt(),anyInt(),any());
+    }
+    @Test
+    public void getScrobblesSince_dateInPast_returnsCompleteList() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), false);
+
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(result.getPageResults().size()));
+    }
+    @Test
+    public void getScrobblesSince_fiveScrobblesSinceDate_returnsListWithFiveScrobbles() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), false);
+
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusHours(6).minusSeconds(1), config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(5));
+    }
+    @Test
+    public void getScrobblesSince_resultLimit_triggersLastfmApiWithResultLimit() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 39, false);
+
+        when(getRecentTracksSince(authDetails, 1, 39)).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), 39);
+
+        assertThat(scrobbles.size(),is(39));
+    }
+    @Test
+    public void getScrobblesSince_correctAmountOfScrobbles_withNowPlayingTrack() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(result.getPageResults().size()));
+    }
+    @Test
+    public void getScrobblesSince_excludesNowPlayingTrack_whenExcludeConfigured() throws Exception {
+        config.setIncludePlayingTracks(false);
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getResultsPerPage(), true);
+
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(result.getPageResults().size()-1));
+    }
+
+    @Test
+    public void getScrobblesBetween_throwsIllegalArgumentException_whenFromIsAfterTo() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+
+        scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
+        scrobbleClient.getScrobblesBetween(LocalDateTime.now(), LocalDateTime.now().minusDays(1));
+    }
+    @Test
+    public void getScrobblesBetween_passesRangeToLastfmApi() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 5, false);
+        ZonedDateTime from = ZonedDateTime.now(ZoneOffset.UTC).minusDays(2);
+        ZonedDateTime to = ZonedDateTime.now(ZoneOffset.UTC).minusDays(1);
+        int fromSeconds = (int) from.toEpochSecond();
+        int toSeconds = (int) to.toEpochSecond();
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getResultsPerPage(), fromSeconds, toSeconds, authDetails.getApiKey())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getScrobblesBetween(from, to, config.getResultsPerPage());
+
+        verify(lastfmAPI,times(1)).getRecentTracks(authDetails.getUsername(),1,config.getResultsPerPage(),fromSeconds,toSeconds,authDetails.getApiKey());
+        verify(lastfmAPI,times(0)).getRecentTracks(anyString(),anyInt(),anyInt(),anyString());
+    }
+    @Test
+    public void getScrobblesBetween_fetchesAllPagesOfRange_withoutNowPlayingTrack() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), true);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(eq(authDetails.getUsername()), eq(1), eq(config.getResultsPerPage()), anyInt(), anyInt(), eq(authDetails.getApiKey()))).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(eq(authDetails.getUsername()), eq(2), eq(config.getResultsPerPage()), anyInt(), anyInt(), eq(authDetails.getApiKey()))).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getScrobblesBetween(LocalDateTime.now().minusYears(30), LocalDateTime.now(), config.getResultsPerPage());
+
+        assertThat(scrobbles.size(),is(config.getResultsPerPage() * 2 - 1));
+    }
+    @Test
+    public void streamScrobblesBetween_passesRangeToLastfmApi() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getMaxResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(eq(authDetails.getUsername()), eq(1), eq(config.getMaxResultsPerPage()), anyInt(), anyInt(), eq(authDetails.getApiKey()))).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        long count = scrobbleClient.streamScrobblesBetween(LocalDateTime.now().minusYears(30), LocalDateTime.now()).count();
+
+        assertThat(count,is((long) config.getMaxResultsPerPage()));
+    }
+
+    @Test
+    public void planHistoryShards_returnsEmptyList_whenUserHasNoScrobbles() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> emptyResult = TestUtils.createEmptyTrackList();
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 1, authDetails.getApiKey())).thenReturn(emptyResult);
+
+        scrobbleClient.login(authDetails);
+
+        assertThat(scrobbleClient.planHistoryShards().isEmpty(),is(true));
+    }
+    @Test
+    public void planHistoryShards_coversRangeFromOldestScrobbleUntilNow() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        ZonedDateTime oldest = ZonedDateTime.now(ZoneOffset.UTC).minusMonths(5);
+        PaginatedResult<Track> firstPage = TestUtils.createTrackList(1, 300, 1, false);
+        PaginatedResult<Track> lastPage = TestUtils.createTrackList(300, 300, 0, false);
+        Track oldestTrack = TestUtils.createTrack(Date.from(oldest.toInstant()), false);
+        when(lastPage.getPageResults()).thenReturn(Collections.singletonList(oldestTrack));
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 1, authDetails.getApiKey())).thenReturn(firstPage);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 300, 1, authDetails.getApiKey())).thenReturn(lastPage);
+
+        scrobbleClient.login(authDetails);
+        List<HistoryShard> shards = scrobbleClient.planHistoryShards();
+
+        assertThat(shards.size() >= 5,is(true));
+        assertThat(shards.get(0).getFromSeconds(),is((int) oldest.toEpochSecond()));
+        assertThat(shards.get(shards.size() - 1).getTo().isAfter(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(1)),is(true));
+        verify(lastfmApiCallLimiter,times(2)).considerCallLimit();
+    }
+    @Test
+    public void exportScrobbles_exportsAllShardsConcurrently_andMergesResults() throws Exception {
+        config.setHistoryExportParallelism(3);
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        ZonedDateTime oldest = ZonedDateTime.now(ZoneOffset.UTC).minusMonths(3);
+        PaginatedResult<Track> firstPage = TestUtils.createTrackList(1, 50, 1, false);
+        PaginatedResult<Track> lastPage = TestUtils.createTrackList(50, 50, 0, false);
+        Track oldestTrack = TestUtils.createTrack(Date.from(oldest.toInstant()), false);
+        when(lastPage.getPageResults()).thenReturn(Collections.singletonList(oldestTrack));
+        PaginatedResult<Track> shardResult = TestUtils.createTrackList(1, 1, 10, false);
+        AtomicInteger exportedShards = new AtomicInteger();
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, 1, authDetails.getApiKey())).thenReturn(firstPage);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 50, 1, authDetails.getApiKey())).thenReturn(lastPage);
+        when(lastfmAPI.getRecentTracks(eq(authDetails.getUsername()), eq(1), eq(config.getMaxResultsPerPage()), anyInt(), anyInt(), eq(authDetails.getApiKey()))).thenAnswer(invocation -> {
+            exportedShards.incrementAndGet();
+            return shardResult;
+        });
+
+        scrobbleClient.login(authDetails);
+        int shardCount = scrobbleClient.planHistoryShards().size();
+        List<Scrobble> scrobbles = scrobbleClient.exportScrobbles();
+
+        assertThat(exportedShards.get(),is(shardCount));
+        assertThat(scrobbles.size(),is(10));
+        for (int i = 1; i < scrobbles.size(); i++) {
+            assertThat(scrobbles.get(i - 1).getTimestampSeconds() > scrobbles.get(i).getTimestampSeconds(),is(true));
+        }
+    }
+    @Test
+    public void exportHistory_writesAllScrobblesToColumnarHistoryFile_exceptPlayingTrack() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, 5, true);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, 5, false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result1);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 2, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        Path file = temporaryFolder.getRoot().toPath().resolve("history.lfmc");
+        int writtenScrobbles = scrobbleClient.exportHistory(file);
+
+        assertThat(writtenScrobbles,is(9));
+        List<Track> tracks = new ArrayList<>(result1.getPageResults());
+        tracks.remove(0);
+        tracks.addAll(result2.getPageResults());
+        try (ColumnarHistoryReader reader = ColumnarHistoryReader.open(file)){
+            assertThat(reader.size(),is(9));
+            for (int i = 0; i < reader.size(); i++) {
+                Scrobble scrobble = reader.getScrobble(i);
+                assertThat(scrobble.getArtist(),is(tracks.get(i).getArtist()));
+                assertThat(scrobble.getTrackName(),is(tracks.get(i).getName()));
+                assertThat(scrobble.getTimestampSeconds(),is(Utils.dateToEpochSeconds(tracks.get(i).getPlayedWhen())));
+            }
+        }
+    }
+    @Test
+    public void exportShard_fetchesShardRangeFromLastfmApi() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        HistoryShard shard = HistoryShard.fromDescriptor("0:1546300800:1548979200");
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 5, false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), 1546300800, 1548979200, authDetails.getApiKey())).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+
+        assertThat(scrobbleClient.exportShard(shard).size(),is(5));
+    }
+
+    @Test
+    public void scrobble_reportsScrobbleResultToCallLimiter() throws Exception {
+        ScrobbleResult scrobbleResult = TestUtils.createSuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(scrobbleResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verify(lastfmApiCallLimiter,times(1)).recordResponse(eq(scrobbleResult),anyLong());
+    }
+    @Test
+    public void getScrobblesSince_reportsLastResultOfEveryPageToCallLimiter() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result1 = TestUtils.createTrackList(1, 2, config.getResultsPerPage(), false);
+        PaginatedResult<Track> result2 = TestUtils.createTrackList(2, 2, config.getResultsPerPage(), false);
+        Result lastResult = mock(Result.class);
+
+        when(lastfmAPI.getLastResult()).thenReturn(lastResult);
+        when(getRecentTracksSince(authDetails, 1, config.getResultsPerPage())).thenReturn(result1);
+        when(getRecentTracksSince(authDetails, 2, config.getResultsPerPage())).thenReturn(result2);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getScrobblesSince(LocalDateTime.now().minusYears(30), config.getResultsPerPage());
+
+        verify(lastfmApiCallLimiter,times(2)).recordResponse(eq(lastResult),anyLong());
+    }
+    @Test
+    public void getCurrentApiCallRate_returnsRateOfCallLimiter() throws Exception {
+        when(lastfmApiCallLimiter.getCurrentCallsPerSecond()).thenReturn(2.5);
+
+        assertThat(scrobbleClient.getCurrentApiCallRate(),is(2.5));
+    }
+
+    @Test
+    public void scrobble_retriesTransientError_untilSuccessful() throws Exception {
+        config.setScrobbleRetryPolicy(new RetryPolicy(3, 1L, 1L, 1.0, 0.0));
+        ScrobbleResult temporaryError = TestUtils.createFailedScrobbleResult(LastfmErrors.TEMPORARY_ERROR);
+        ScrobbleResult successfulResult = TestUtils.createSuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(temporaryError, successfulResult);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verify(lastfmAPI,times(2)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+        verify(lastfmApiCallLimiter,times(2)).considerCallLimit();
+    }
+    @Test
+    public void scrobble_reportsAttempts_whenRetriesAreExhausted() throws Exception {
+        config.setScrobbleRetryPolicy(new RetryPolicy(3, 1L, 1L, 1.0, 0.0));
+        ScrobbleResult serviceOffline = TestUtils.createFailedScrobbleResult(LastfmErrors.SERVICE_OFFLINE);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(serviceOffline);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            fail("Expected ScrobbleException");
+        } catch (ScrobbleException e){
+            assertThat(e.getAttempts(),is(3));
+        }
+        verify(lastfmAPI,times(3)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+    }
+    @Test
+    public void scrobble_doesNotRetryPermanentError() throws Exception {
+        config.setScrobbleRetryPolicy(new RetryPolicy(3, 1L, 1L, 1.0, 0.0));
+        ScrobbleResult invalidSession = TestUtils.createFailedScrobbleResult(9);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(invalidSession);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            fail("Expected ScrobbleException");
+        } catch (ScrobbleException e){
+            assertThat(e.getAttempts(),is(1));
+        }
+        verify(lastfmAPI,times(1)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+    }
+    @Test
+    public void nowPlaying_doesNotRetryTransientError_byDefault() throws Exception {
+        ScrobbleResult rateLimitExceeded = TestUtils.createFailedScrobbleResult(LastfmErrors.RATE_LIMIT_EXCEEDED);
+        when(lastfmAPI.updateNowPlaying(anyString(),anyString(),eq(session))).thenReturn(rateLimitExceeded);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        try {
+            scrobbleClient.nowPlaying(TestUtils.createScrobbleWithoutTimestamp());
+            fail("Expected ScrobbleException");
+        } catch (ScrobbleException e){
+            assertThat(e.getAttempts(),is(1));
+        }
+        verify(lastfmAPI,times(1)).updateNowPlaying(anyString(),anyString(),eq(session));
+    }
+    @Test
+    public void scrobble_reportsCallToMetricsListener() throws Exception {
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        scrobbleClient.addMetricsListener(metricsListener);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verify(metricsListener).onCall(eq(MetricsListener.SCROBBLE),anyLong(),eq(1),eq(true));
+        verify(metricsListener,never()).onError(anyString(),anyInt(),anyInt());
+    }
+    @Test
+    public void scrobble_reportsRetriesAndErrorsToMetricsListener() throws Exception {
+        config.setScrobbleRetryPolicy(new RetryPolicy(3, 1L, 1L, 1.0, 0.0));
+        ScrobbleResult temporaryError = TestUtils.createFailedScrobbleResult(LastfmErrors.TEMPORARY_ERROR);
+        ScrobbleResult successfulResult = TestUtils.createSuccessfulScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(temporaryError, successfulResult);
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        scrobbleClient.addMetricsListener(metricsListener);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verify(metricsListener).onError(eq(MetricsListener.SCROBBLE),eq(LastfmErrors.TEMPORARY_ERROR),anyInt());
+        verify(metricsListener).onRetry(MetricsListener.SCROBBLE,2);
+        verify(metricsListener).onCall(eq(MetricsListener.SCROBBLE),anyLong(),eq(2),eq(true));
+    }
+    @Test
+    public void scrobble_reportsIgnoredScrobbleToMetricsListener() throws Exception {
+        ScrobbleResult ignoredResult = TestUtils.createIgnoredScrobbleResult();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(ignoredResult);
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        scrobbleClient.addMetricsListener(metricsListener);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            fail("Expected ScrobbleException");
+        } catch (ScrobbleException e){
+            verify(metricsListener).onScrobbleIgnored(eq(MetricsListener.SCROBBLE),any());
+        }
+    }
+    @Test
+    public void scrobble_reportsCallLimiterWaitToMetricsListener() throws Exception {
+        when(lastfmApiCallLimiter.considerCallLimit()).thenReturn(5000L);
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        scrobbleClient.addMetricsListener(metricsListener);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verify(metricsListener).onCallLimiterWait(5000L);
+    }
+    @Test
+    public void scrobble_succeeds_whenMetricsListenerFails() throws Exception {
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        doThrow(new IllegalStateException()).when(metricsListener).onCall(anyString(),anyLong(),anyInt(),anyBoolean());
+        scrobbleClient.addMetricsListener(metricsListener);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        Scrobble scrobble = scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(scrobble,is(not(nullValue())));
+    }
+    @Test
+    public void getAllScrobbles_reportsFetchedPagesToMetricsListener() throws Exception {
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, 20, false);
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey())).thenReturn(result);
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        scrobbleClient.addMetricsListener(metricsListener);
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getAllScrobbles();
+
+        verify(metricsListener).onPageFetched(1,20);
+        verify(metricsListener).onCall(eq(MetricsListener.GET_RECENT_TRACKS),anyLong(),eq(1),eq(true));
+    }
+    @Test
+    public void removeMetricsListener_stopsReporting() throws Exception {
+        MetricsListener metricsListener = mock(MetricsListener.class);
+        scrobbleClient.addMetricsListener(metricsListener);
+        scrobbleClient.removeMetricsListener(metricsListener);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        verifyZeroInteractions(metricsListener);
+    }
+    @Test
+    public void getAllScrobbles_retriesPage_onCallException() throws Exception {
+        config.setFetchRetryPolicy(new RetryPolicy(2, 1L, 1L, 1.0, 0.0));
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+        PaginatedResult<Track> result = TestUtils.createTrackList(1, 1, config.getMaxResultsPerPage(), false);
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey()))
+                .thenThrow(new CallException("Read timed out")).thenReturn(result);
+
+        scrobbleClient.login(authDetails);
+        List<Scrobble> scrobbles = scrobbleClient.getAllScrobbles();
+
+        assertThat(scrobbles.size(),is(config.getMaxResultsPerPage()));
+    }
+    @Test(expected = CallException.class)
+    public void getAllScrobbles_throwsCallException_whenRetriesAreExhausted() throws Exception {
+        config.setFetchRetryPolicy(new RetryPolicy(2, 1L, 1L, 1.0, 0.0));
+        LastfmAuthenticationDetails authDetails = TestUtils.createAuthDetailsWithApiKeyAndUsername();
+
+        when(lastfmAPI.getRecentTracks(authDetails.getUsername(), 1, config.getMaxResultsPerPage(), authDetails.getApiKey()))
+                .thenThrow(new CallException("Read timed out"));
+
+        scrobbleClient.login(authDetails);
+        scrobbleClient.getAllScrobbles();
+    }
+
+    @Test
+    public void scrobble_failsFast_whenApiCircuitBreakerIsOpen() throws Exception {
+        enableCircuitBreaker();
+        ScrobbleResult serviceOffline = TestUtils.createFailedScrobbleResult(LastfmErrors.SERVICE_OFFLINE);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(serviceOffline);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        for (int i = 0; i < 2; i++) {
+            try {
+                scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            } catch (ScrobbleException ignored){}
+        }
+
+        assertThat(scrobbleClient.getApiCircuitBreakerState(),is(CircuitBreakerState.OPEN));
+        try {
+            scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException ignored){}
+        verify(lastfmAPI,times(2)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+        assertThat(scrobbleClient.getUnscrobblerCircuitBreakerState(),is(CircuitBreakerState.CLOSED));
+    }
+    @Test
+    public void scrobble_doesNotOpenApiCircuitBreaker_whenCallFailsWithNonTransportException() throws Exception {
+        enableCircuitBreaker();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenThrow(new IllegalArgumentException());
+
+        scrobbleClient.login(sufficientAuthDetails);
+        for (int i = 0; i < 3; i++) {
+            try {
+                scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException ignored){}
+        }
+
+        assertThat(scrobbleClient.getApiCircuitBreakerState(),is(CircuitBreakerState.CLOSED));
+    }
+    @Test
+    public void scrobble_opensApiCircuitBreaker_whenCallsFailWithCallException() throws Exception {
+        enableCircuitBreaker();
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenThrow(new CallException("Connection refused"));
+
+        scrobbleClient.login(sufficientAuthDetails);
+        for (int i = 0; i < 2; i++) {
+            try {
+                scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+                fail("Expected CallException");
+            } catch (CallException ignored){}
+        }
+
+        assertThat(scrobbleClient.getApiCircuitBreakerState(),is(CircuitBreakerState.OPEN));
+    }
+    @Test
+    public void scrobble_queuesScrobble_whenApiCircuitBreakerIsOpen_andQueueingIsConfigured() throws Exception {
+        enableCircuitBreaker();
+        config.setQueueScrobblesWhileCircuitOpen(true);
+        config.setScrobbleQueueDirectory(temporaryFolder.newFolder().toPath());
+        config.setScrobbleQueueDrainIntervalMillis(0);
+        ScrobbleResult serviceOffline = TestUtils.createFailedScrobbleResult(LastfmErrors.SERVICE_OFFLINE);
+        when(lastfmAPI.scrobble(anyString(),anyString(),anyInt(),eq(session))).thenReturn(serviceOffline);
+
+        scrobbleClient.login(sufficientAuthDetails);
+        for (int i = 0; i < 2; i++) {
+            try {
+                scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+            } catch (ScrobbleException ignored){}
+        }
+        scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+
+        assertThat(scrobbleClient.getQueuedScrobbleCount(),is(1));
+        assertThat(scrobbleClient.drainQueue(),is(0));
+        verify(lastfmAPI,times(2)).scrobble(anyString(),anyString(),anyInt(),eq(session));
+        scrobbleClient.close();
+    }
+    @Test
+    public void unscrobble_opensUnscrobblerCircuitBreaker_independentlyOfApiCircuitBreaker() throws Exception {
+        enableCircuitBreaker();
+        List<String> transitions = new ArrayList<>();
+        when(unscrobbler.unscrobble(anyString(),anyString(),anyInt())).thenThrow(new IllegalStateException("Login page changed"));
+
+        scrobbleClient.addCircuitBreakerListener((name, from, to) -> transitions.add(name + ":" + to));
+        scrobbleClient.login(sufficientAuthDetails);
+        List<Scrobble> scrobbles = scrobbleClient.scrobbleAll(TestUtils.createScrobblesWithTimestamp(2));
+        for (Scrobble scrobble : scrobbles) {
+            try {
+                scrobbleClient.unscrobble(scrobble);
+            } catch (IllegalStateException ignored){}
+        }
+
+        assertThat(scrobbleClient.getUnscrobblerCircuitBreakerState(),is(CircuitBreakerState.OPEN));
+        assertThat(scrobbleClient.getApiCircuitBreakerState(),is(CircuitBreakerState.CLOSED));
+        assertThat(transitions,is(Collections.singletonList(ScrobbleClient.UNSCROBBLER_CIRCUIT_BREAKER + ":OPEN")));
+    }
+
+    @Test
+    public void updateScrobble_throwsLastfmInsufficientAuthenticationDataException_whenNecessaryAuthenticationDetailsAreMissing() throws Exception {
+        try{
+            scrobbleClient.login(TestUtils.createAuthDetailsWithUsernameAndPassword());
+            scrobbleClient.updateScrobble(TestUtils.createScrobbleWithTimestamp());
+            fail();
         } catch (LastfmInsufficientAuthenticationDataException ignored){}
         try{
             scrobbleClient.login(TestUtils.createAuthDetailsWithApiKeyAndUsername());
@@ -790,4 +1963,61 @@ public class ScrobbleClientTest {
         verify(unscrobbler,times(1)).setUserAgent(userAgent);
         verify(caller,times(1)).setUserAgent(userAgent);
     }
-}
\ No newline at end of file
+    @Test
+    public void scrobbleUpdateAndUnscrobble_fromManyThreads_keepsScrobbleManagerConsistent() throws Exception {
+        scrobbleClient.login(sufficientAuthDetails);
+
+        int threadCount = 16;
+        int scrobblesPerThread = 200;
+        CountDownLatch startSignal = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Scrobble> keptScrobbles = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    startSignal.await();
+                    for (int j = 0; j < scrobblesPerThread; j++) {
+                        Scrobble scrobble = scrobbleClient.scrobble(TestUtils.createScrobbleWithTimestamp());
+                        scrobble.setArtist(RandomStringUtils.randomAlphabetic(16));
+                        scrobbleClient.updateScrobble(scrobble);
+                        assertThat(scrobbleManager.getOriginalScrobble(scrobble).getArtist(),is(scrobble.getArtist()));
+
+                        if (j % 2 == 0){
+                            scrobbleClient.unscrobble(scrobble);
+                        } else {
+                            keptScrobbles.add(scrobble);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null){
+            throw new AssertionError(failure.get());
+        }
+        assertThat(scrobbleManager.size(),is(keptScrobbles.size()));
+        assertThat(scrobbleManager.size(),is(threadCount * scrobblesPerThread / 2));
+    }
+
+    private PaginatedResult<Track> getRecentTracksSince(LastfmAuthenticationDetails authDetails, int page, int limit){
+        return lastfmAPI.getRecentTracks(eq(authDetails.getUsername()), eq(page), eq(limit), anyInt(), (Integer) isNull(), eq(authDetails.getApiKey()));
+    }
+
+    private void enableCircuitBreaker(){
+        config.setCircuitBreakerEnabled(true);
+        config.setCircuitBreakerMinimumCalls(2);
+        config.setScrobbleRetryPolicy(RetryPolicy.none());
+        scrobbleClient = new ScrobbleClient(config,lastfmAPI,unscrobbler,scrobbleManager,lastfmApiCallLimiter);
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.HistoryStoreException;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ScrobbleHistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private ScrobbleHistoryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder().toPath();
+        store = ScrobbleHistoryStore.open(directory);
+    }
+
+    @Test
+    public void getNewestTimestamp_returnsNull_whenStoreIsEmpty() {
+        assertThat(store.getNewestTimestamp(),is(nullValue()));
+        assertThat(store.readSince(null).size(),is(0));
+    }
+
+    @Test
+    public void readSince_returnsAllScrobblesInAscendingOrder() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 1000);
+        store.append(scrobbles);
+
+        List<Scrobble> storedScrobbles = store.readSince(null);
+
+        assertThat(storedScrobbles.size(),is(scrobbles.size()));
+        for (int i = 0; i < scrobbles.size(); i++) {
+            assertScrobble(storedScrobbles.get(i),scrobbles.get(i));
+        }
+        assertThat(store.getNewestTimestamp(),is(scrobbles.get(scrobbles.size() - 1).getTimestampSeconds()));
+    }
+
+    @Test
+    public void readSince_returnsOnlyScrobblesSinceTimestamp() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 1000);
+        store.append(scrobbles);
+
+        for (int since : new int[]{999, 1000, 1255, 1256, 1257, 1600, 1999, 2000}) {
+            List<Scrobble> storedScrobbles = store.readSince(since);
+
+            assertThat(storedScrobbles.size(),is(Math.min(2000 - since, 1000)));
+            if (!storedScrobbles.isEmpty()){
+                assertThat(storedScrobbles.get(0).getTimestampSeconds(),is(Math.max(since, 1000)));
+            }
+        }
+    }
+
+    @Test
+    public void readSince_includesAllScrobblesWithSameTimestamp_acrossIndexEntries() {
+        List<Scrobble> scrobbles = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            Scrobble scrobble = Scrobble.of("artist" + i, "track" + i);
+            scrobble.setTimestampSeconds(i < 100 ? 1000 + i : 5000);
+            scrobbles.add(scrobble);
+        }
+        store.append(scrobbles);
+
+        assertThat(store.readSince(5000).size(),is(500));
+    }
+
+    @Test
+    public void readLast_returnsMostRecentScrobbles() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 1000);
+        store.append(scrobbles);
+
+        List<Scrobble> storedScrobbles = store.readLast(300);
+
+        assertThat(storedScrobbles.size(),is(300));
+        assertScrobble(storedScrobbles.get(0),scrobbles.get(700));
+        assertScrobble(storedScrobbles.get(299),scrobbles.get(999));
+        assertThat(store.readLast(5000).size(),is(1000));
+    }
+
+    @Test
+    public void append_isPersistedAcrossReopening() {
+        store.append(createAscendingScrobbles(1000, 300));
+        store.append(createAscendingScrobbles(1300, 300));
+
+        ScrobbleHistoryStore reopenedStore = ScrobbleHistoryStore.open(directory);
+
+        assertThat(reopenedStore.getRecordCount(),is(600L));
+        assertThat(reopenedStore.getNewestTimestamp(),is(1599));
+        assertThat(reopenedStore.readSince(1290).size(),is(310));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void append_throwsIllegalArgumentException_whenScrobbleIsOlderThanNewestScrobble() {
+        store.append(createAscendingScrobbles(1000, 10));
+        store.append(createAscendingScrobbles(500, 10));
+    }
+
+    @Test
+    public void open_truncatesIncompleteRecord() throws IOException {
+        store.append(createAscendingScrobbles(1000, 10));
+        try (FileChannel channel = FileChannel.open(directory.resolve(ScrobbleHistoryStore.SCROBBLES_FILE_NAME), StandardOpenOption.APPEND)){
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 4, 1, 0, 20}));
+        }
+
+        ScrobbleHistoryStore reopenedStore = ScrobbleHistoryStore.open(directory);
+        reopenedStore.append(createAscendingScrobbles(2000, 1));
+
+        assertThat(reopenedStore.getRecordCount(),is(11L));
+        assertThat(ScrobbleHistoryStore.open(directory).readSince(null).size(),is(11));
+    }
+
+    @Test
+    public void open_truncatesIncompleteEdit() throws IOException {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 10);
+        store.append(scrobbles);
+        store.recordRemoval(scrobbles.get(5));
+        try (FileChannel channel = FileChannel.open(directory.resolve(ScrobbleHistoryStore.EDITS_FILE_NAME), StandardOpenOption.APPEND)){
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 20, 1, 2, 3, 4, 0, 0}));
+        }
+
+        ScrobbleHistoryStore reopenedStore = ScrobbleHistoryStore.open(directory);
+        reopenedStore.recordRemoval(scrobbles.get(6));
+
+        List<Scrobble> storedScrobbles = ScrobbleHistoryStore.open(directory).readSince(null);
+        assertThat(storedScrobbles.size(),is(8));
+        assertThat(storedScrobbles.get(5).getTimestampSeconds(),is(1007));
+    }
+
+    @Test(expected = HistoryStoreException.class)
+    public void open_throwsHistoryStoreException_whenEditTypeIsUnknown() throws IOException {
+        store.append(createAscendingScrobbles(1000, 10));
+        byte[] payload = {9, 0, 0, 3, -21, 0, 1, 'a', 0, 1, 'b'};
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        try (FileChannel channel = FileChannel.open(directory.resolve(ScrobbleHistoryStore.EDITS_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+            channel.write(ByteBuffer.wrap(ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt((int) crc.getValue()).put(payload).array()));
+        }
+
+        ScrobbleHistoryStore.open(directory);
+    }
+
+    @Test
+    public void recordRemoval_excludesScrobbleFromReads_acrossReopening() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 10);
+        store.append(scrobbles);
+
+        store.recordRemoval(scrobbles.get(5));
+
+        assertThat(store.readSince(null).size(),is(9));
+        assertThat(ScrobbleHistoryStore.open(directory).readSince(null).size(),is(9));
+        assertThat(store.readLast(10).size(),is(9));
+    }
+
+    @Test
+    public void recordUpdate_replacesTrackData_acrossReopening() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 10);
+        store.append(scrobbles);
+
+        Scrobble updatedScrobble = scrobbles.get(5).clone();
+        updatedScrobble.setArtist("updatedArtist");
+        updatedScrobble.setTrackName("updatedTrack");
+        store.recordUpdate(scrobbles.get(5), updatedScrobble);
+
+        for (ScrobbleHistoryStore currentStore : new ScrobbleHistoryStore[]{store, ScrobbleHistoryStore.open(directory)}) {
+            Scrobble storedScrobble = currentStore.readSince(1005).get(0);
+            assertThat(storedScrobble.getArtist(),is("updatedArtist"));
+            assertThat(storedScrobble.getTrackName(),is("updatedTrack"));
+            assertThat(storedScrobble.getTimestampSeconds(),is(1005));
+        }
+    }
+
+    @Test
+    public void append_skipsStoredScrobbles_withNewestTimestamp() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 10);
+        store.append(scrobbles);
+        List<Scrobble> newScrobbles = createAscendingScrobbles(1009, 1);
+        newScrobbles.add(0, scrobbles.get(9));
+
+        assertThat(store.append(newScrobbles),is(1));
+        assertThat(store.append(newScrobbles),is(0));
+        assertThat(ScrobbleHistoryStore.open(directory).append(newScrobbles),is(0));
+        assertThat(store.readSince(1009).size(),is(2));
+    }
+
+    @Test
+    public void append_leavesStoreUnchanged_whenWritingFails() {
+        store.append(createAscendingScrobbles(1000, 10));
+        List<Scrobble> scrobbles = createAscendingScrobbles(2000, 300);
+        scrobbles.get(299).setArtist(StringUtils.repeat('a', 0x10000));
+
+        try {
+            store.append(scrobbles);
+            fail("Expected an IllegalArgumentException.");
+        } catch (IllegalArgumentException e){
+            // expected
+        }
+        store.append(createAscendingScrobbles(1500, 5));
+
+        for (ScrobbleHistoryStore currentStore : new ScrobbleHistoryStore[]{store, ScrobbleHistoryStore.open(directory)}) {
+            assertThat(currentStore.getRecordCount(),is(15L));
+            assertThat(currentStore.getNewestTimestamp(),is(1504));
+            assertThat(currentStore.readSince(null).size(),is(15));
+            assertThat(currentStore.readLast(3).get(2).getTimestampSeconds(),is(1504));
+        }
+    }
+
+    @Test
+    public void add_mergesOlderScrobbles_acrossReopening() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 600);
+        store.append(scrobbles);
+        List<Scrobble> addedScrobbles = createAscendingScrobbles(500, 1);
+        addedScrobbles.addAll(createAscendingScrobbles(1300, 1));
+        addedScrobbles.addAll(createAscendingScrobbles(1599, 2));
+        addedScrobbles.add(scrobbles.get(42));
+
+        assertThat(store.add(addedScrobbles),is(2));
+        assertThat(store.add(addedScrobbles),is(0));
+
+        for (ScrobbleHistoryStore currentStore : new ScrobbleHistoryStore[]{store, ScrobbleHistoryStore.open(directory)}) {
+            List<Scrobble> storedScrobbles = currentStore.readSince(null);
+            assertThat(storedScrobbles.size(),is(602));
+            assertScrobble(storedScrobbles.get(0),addedScrobbles.get(0));
+            assertScrobble(storedScrobbles.get(302),addedScrobbles.get(1));
+            assertThat(currentStore.readSince(1300).size(),is(301));
+            assertThat(currentStore.readLast(300).get(0).getTimestampSeconds(),is(1300));
+            assertThat(currentStore.getNewestTimestamp(),is(1599));
+        }
+    }
+
+    @Test
+    public void recordUpdate_keepsLatestUpdate_whenScrobbleIsUpdatedRepeatedly() {
+        List<Scrobble> scrobbles = createAscendingScrobbles(1000, 10);
+        store.append(scrobbles);
+
+        Scrobble firstUpdate = scrobbles.get(5).clone();
+        firstUpdate.setArtist("firstArtist");
+        store.recordUpdate(scrobbles.get(5), firstUpdate);
+        Scrobble secondUpdate = firstUpdate.clone();
+        secondUpdate.setArtist("secondArtist");
+        store.recordUpdate(firstUpdate, secondUpdate);
+
+        for (ScrobbleHistoryStore currentStore : new ScrobbleHistoryStore[]{store, ScrobbleHistoryStore.open(directory)}) {
+            assertThat(currentStore.readSince(1005).get(0).getArtist(),is("secondArtist"));
+        }
+
+        store.recordRemoval(secondUpdate);
+
+        assertThat(store.readSince(null).size(),is(9));
+        assertThat(ScrobbleHistoryStore.open(directory).readSince(null).size(),is(9));
+    }
+
+    private List<Scrobble> createAscendingScrobbles(int firstTimestamp, int amount){
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(amount);
+        for (int i = 0; i < amount; i++) {
+            scrobbles.get(i).setTimestampSeconds(firstTimestamp + i);
+        }
+        return scrobbles;
+    }
+
+    private void assertScrobble(Scrobble actual, Scrobble expected){
+        assertThat(actual.getArtist(),is(expected.getArtist()));
+        assertThat(actual.getTrackName(),is(expected.getTrackName()));
+        assertThat(actual.getTimestampSeconds(),is(expected.getTimestampSeconds()));
+    }
+}
@@ -20,7 +20,19 @@ import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class ScrobbleManagerTest {
@@ -84,9 +96,189 @@ public class ScrobbleManagerTest {
         assertThat(scrobbleManager.size(),is(2));
     }
     @Test
+    public void persistAll_persistsAllScrobbles() {
+        List<Scrobble> originalScrobbles = TestUtils.createScrobblesWithTimestamp(3);
+        List<Scrobble> persistedScrobbles = scrobbleManager.persistAll(originalScrobbles);
+
+        assertThat(scrobbleManager.size(),is(3));
+        for (int i = 0; i < originalScrobbles.size(); i++) {
+            assertThat(scrobbleManager.getOriginalScrobble(persistedScrobbles.get(i)),is(originalScrobbles.get(i)));
+        }
+    }
+    @Test
     public void getOriginalScrobble_returnsCorrectOriginalScrobbleObject() {
         Scrobble persistedScrobble = scrobbleManager.persist(originalScrobble);
         Scrobble scrobble = scrobbleManager.getOriginalScrobble(persistedScrobble);
         assertThat(scrobble,is(originalScrobble));
     }
-}
\ No newline at end of file
+    @Test
+    public void lruTracking_evictsLeastRecentlyUsedScrobble_whenMaxSizeIsExceeded() {
+        scrobbleManager = new ScrobbleManager(new LruScrobbleStore(2, 0, Clock.systemUTC()));
+        List<Scrobble> originalScrobbles = TestUtils.createScrobblesWithTimestamp(3);
+
+        Scrobble first = scrobbleManager.persist(originalScrobbles.get(0));
+        Scrobble second = scrobbleManager.persist(originalScrobbles.get(1));
+        scrobbleManager.getOriginalScrobble(first);
+        Scrobble third = scrobbleManager.persist(originalScrobbles.get(2));
+
+        assertThat(scrobbleManager.size(),is(2));
+        assertThat(scrobbleManager.getEvictionCount(),is(1L));
+        assertThat(scrobbleManager.getOriginalScrobble(first),is(originalScrobbles.get(0)));
+        assertThat(scrobbleManager.getOriginalScrobble(second),is(nullValue()));
+        assertThat(scrobbleManager.getOriginalScrobble(third),is(originalScrobbles.get(2)));
+    }
+    @Test
+    public void lruTracking_evictsExpiredScrobbles() {
+        TestClock clock = new TestClock();
+        scrobbleManager = new ScrobbleManager(new LruScrobbleStore(10, 1000, clock));
+
+        Scrobble first = scrobbleManager.persist(originalScrobble);
+        clock.millis += 600;
+        Scrobble second = scrobbleManager.persist(originalScrobble.clone());
+        clock.millis += 600;
+
+        assertThat(scrobbleManager.getOriginalScrobble(first),is(nullValue()));
+        assertThat(scrobbleManager.getOriginalScrobble(second),is(notNullValue()));
+        assertThat(scrobbleManager.getEvictionCount(),is(1L));
+    }
+    @Test
+    public void lruTracking_doesNotEvictRecentlyAccessedScrobbles() {
+        TestClock clock = new TestClock();
+        scrobbleManager = new ScrobbleManager(new LruScrobbleStore(10, 1000, clock));
+
+        Scrobble persistedScrobble = scrobbleManager.persist(originalScrobble);
+        clock.millis += 600;
+        scrobbleManager.getOriginalScrobble(persistedScrobble);
+        clock.millis += 600;
+
+        assertThat(scrobbleManager.getOriginalScrobble(persistedScrobble),is(originalScrobble));
+        assertThat(scrobbleManager.getEvictionCount(),is(0L));
+    }
+    @Test
+    public void weakTracking_evictsUnreachableScrobbles() {
+        scrobbleManager = new ScrobbleManager(new WeakScrobbleStore());
+        Scrobble persistedScrobble = scrobbleManager.persist(originalScrobble);
+        scrobbleManager.persistAll(TestUtils.createScrobblesWithTimestamp(3));
+
+        for (int i = 0; i < 50 && scrobbleManager.size() > 1; i++) {
+            System.gc();
+            Utils.sleep(10);
+        }
+
+        assertThat(scrobbleManager.size(),is(1));
+        assertThat(scrobbleManager.getEvictionCount(),is(3L));
+        assertThat(scrobbleManager.getOriginalScrobble(persistedScrobble),is(originalScrobble));
+    }
+    @Test
+    public void weakTracking_doesNotCountRemovedScrobblesAsEvicted() {
+        scrobbleManager = new ScrobbleManager(new WeakScrobbleStore());
+        Scrobble persistedScrobble = scrobbleManager.persist(originalScrobble);
+        scrobbleManager.remove(persistedScrobble);
+
+        assertThat(scrobbleManager.size(),is(0));
+        assertThat(scrobbleManager.getEvictionCount(),is(0L));
+    }
+    @Test
+    public void concurrentAccess_keepsScrobblesConsistent_inEveryTrackingMode() throws Exception {
+        for (ScrobbleTrackingMode mode : ScrobbleTrackingMode.values()) {
+            LastfmConfiguration config = new LastfmConfiguration();
+            config.setScrobbleTrackingMode(mode);
+            config.setMaxTrackedScrobbles(100000);
+            scrobbleManager = new ScrobbleManager(config);
+            List<Scrobble> allKeptScrobbles = Collections.synchronizedList(new ArrayList<>());
+
+            runConcurrently(16, threadIndex -> {
+                List<Scrobble> keptScrobbles = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                    Scrobble original = TestUtils.createScrobbleWithTimestamp();
+                    Scrobble persisted = scrobbleManager.persist(original);
+                    persisted.setArtist(String.format("artist-%d-%d",threadIndex,i));
+                    scrobbleManager.updateOriginalScrobble(persisted);
+                    assertThat(scrobbleManager.getOriginalScrobble(persisted).getArtist(),is(persisted.getArtist()));
+
+                    if (i % 2 == 0){
+                        scrobbleManager.remove(persisted);
+                    } else {
+                        keptScrobbles.add(persisted);
+                    }
+                }
+                for (Scrobble keptScrobble : keptScrobbles) {
+                    assertThat(scrobbleManager.getOriginalScrobble(keptScrobble),is(notNullValue()));
+                }
+                allKeptScrobbles.addAll(keptScrobbles);
+            });
+
+            assertThat(mode.name(),scrobbleManager.size(),is(allKeptScrobbles.size()));
+            assertThat(mode.name(),scrobbleManager.getEvictionCount(),is(0L));
+        }
+    }
+    @Test
+    public void updateOriginalScrobble_isAtomic_underConcurrentUpdates() throws Exception {
+        Scrobble persistedScrobble = scrobbleManager.persist(originalScrobble);
+
+        runConcurrently(16, threadIndex -> {
+            for (int i = 0; i < 1000; i++) {
+                scrobbleManager.updateOriginalScrobble(persistedScrobble, original -> {
+                    original.setArtist("artist-" + threadIndex);
+                    Thread.yield();
+                    original.setTrackName("track-" + threadIndex);
+                });
+            }
+        });
+
+        String artistIndex = originalScrobble.getArtist().substring("artist-".length());
+        String trackIndex = originalScrobble.getTrackName().substring("track-".length());
+        assertThat(artistIndex,is(trackIndex));
+    }
+
+    private void runConcurrently(int threadCount, ThreadTask task) throws Exception {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < threadCount; i++) {
+            int threadIndex = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    startSignal.await();
+                    task.run(threadIndex);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null){
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int threadIndex) throws Exception;
+    }
+
+    private static class TestClock extends Clock {
+        private long millis;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
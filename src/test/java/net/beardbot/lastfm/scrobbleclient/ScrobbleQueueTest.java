@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import net.beardbot.lastfm.scrobbleclient.exception.ScrobbleQueueException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ScrobbleQueueTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private ScrobbleQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder().toPath();
+        queue = openQueue(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @Test
+    public void peek_returnsScrobblesInAppendOrder_withOriginalTimestamps() {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(5);
+        scrobbles.forEach(queue::append);
+
+        List<Scrobble> queuedScrobbles = queue.peek(3);
+
+        assertThat(queuedScrobbles.size(),is(3));
+        for (int i = 0; i < queuedScrobbles.size(); i++) {
+            assertScrobble(queuedScrobbles.get(i),scrobbles.get(i));
+        }
+        assertThat(queue.size(),is(5));
+    }
+
+    @Test
+    public void open_replaysUnacknowledgedScrobbles() throws IOException {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(5);
+        scrobbles.forEach(queue::append);
+        queue.acknowledge(2);
+        queue.close();
+
+        queue = openQueue(Long.MAX_VALUE);
+        List<Scrobble> queuedScrobbles = queue.peek(10);
+
+        assertThat(queuedScrobbles.size(),is(3));
+        for (int i = 0; i < queuedScrobbles.size(); i++) {
+            assertScrobble(queuedScrobbles.get(i),scrobbles.get(i + 2));
+        }
+    }
+
+    @Test
+    public void open_truncatesCorruptedRecord() throws IOException {
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(3);
+        scrobbles.forEach(queue::append);
+        Path logFile = queue.getLogFile();
+        long validSize = queue.getLogSize();
+        queue.close();
+
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)){
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 12, 1, 2, 3, 4, 5, 6}), validSize);
+        }
+
+        queue = openQueue(Long.MAX_VALUE);
+        queue.append(TestUtils.createScrobbleWithTimestamp());
+        queue.close();
+
+        queue = openQueue(Long.MAX_VALUE);
+        assertThat(queue.size(),is(4));
+    }
+
+    @Test
+    public void open_stopsAtRecordWithInvalidChecksum() throws IOException {
+        TestUtils.createScrobblesWithTimestamp(3).forEach(queue::append);
+        Path logFile = queue.getLogFile();
+        long logSize = queue.getLogSize();
+        queue.close();
+
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)){
+            channel.write(ByteBuffer.wrap(new byte[]{42}), logSize - 1);
+        }
+
+        queue = openQueue(Long.MAX_VALUE);
+        assertThat(queue.size(),is(2));
+    }
+
+    @Test
+    public void acknowledge_compactsLog_whenThresholdIsExceeded() throws IOException {
+        queue.close();
+        queue = openQueue(200);
+        List<Scrobble> scrobbles = TestUtils.createScrobblesWithTimestamp(20);
+        scrobbles.forEach(queue::append);
+        long fullSize = queue.getLogSize();
+
+        queue.acknowledge(15);
+
+        assertThat(queue.getLogSize(),is(lessThan(fullSize)));
+        assertThat(Files.size(queue.getLogFile()),is(queue.getLogSize()));
+        queue.append(TestUtils.createScrobbleWithTimestamp());
+        queue.acknowledge(1);
+        queue.close();
+
+        queue = openQueue(200);
+        List<Scrobble> queuedScrobbles = queue.peek(10);
+        assertThat(queuedScrobbles.size(),is(5));
+        assertScrobble(queuedScrobbles.get(0),scrobbles.get(16));
+        assertThat(Files.list(directory).filter(file -> file.toString().endsWith(".wal")).count(),is(1L));
+    }
+
+    @Test(expected = ScrobbleQueueException.class)
+    public void append_throwsScrobbleQueueException_whenQueueIsClosed() throws IOException {
+        queue.close();
+
+        queue.append(TestUtils.createScrobbleWithTimestamp());
+    }
+
+    @Test
+    public void append_isSyncedInBackground_withPeriodicSyncPolicy() throws IOException {
+        queue.close();
+        queue = ScrobbleQueue.open(directory, ScrobbleQueueSyncPolicy.PERIODIC, 50, Long.MAX_VALUE, Clock.systemUTC());
+
+        queue.append(TestUtils.createScrobbleWithTimestamp());
+        Utils.sleep(200);
+
+        assertThat(queue.isSynced(),is(true));
+    }
+
+    private ScrobbleQueue openQueue(long compactionThresholdBytes){
+        return ScrobbleQueue.open(directory, ScrobbleQueueSyncPolicy.ALWAYS, 0, compactionThresholdBytes, Clock.systemUTC());
+    }
+
+    private void assertScrobble(Scrobble actual, Scrobble expected){
+        assertThat(actual.getArtist(),is(expected.getArtist()));
+        assertThat(actual.getTrackName(),is(expected.getTrackName()));
+        assertThat(actual.getTimestampSeconds(),is(expected.getTimestampSeconds()));
+    }
+}
@@ -19,6 +19,7 @@ package net.beardbot.lastfm.scrobbleclient;
 import de.umass.lastfm.Track;
 import org.junit.Test;
 
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Date;
 
@@ -101,4 +102,32 @@ public class ScrobbleTest {
         assertThat(scrobble.getTimestamp(),is(nullValue()));
         assertThat(scrobble.isNowPlaying(),is(true));
     }
-}
\ No newline at end of file
+    @Test
+    public void setTimestampSeconds_removesTimestamp_whenNullIsPassed() {
+        Scrobble scrobble = TestUtils.createScrobbleWithTimestamp();
+        scrobble.getTimestamp();
+        scrobble.setTimestampSeconds(null);
+
+        assertThat(scrobble.getTimestampSeconds(),is(nullValue()));
+        assertThat(scrobble.getTimestamp(),is(nullValue()));
+    }
+    @Test
+    public void setTimestampSeconds_replacesPreviouslyCreatedTimestamp() {
+        Scrobble scrobble = TestUtils.createScrobbleWithoutTimestamp();
+        scrobble.setTimestampSeconds(150000);
+        scrobble.getTimestamp();
+        scrobble.setTimestampSeconds(160000);
+
+        assertThat(scrobble.getTimestamp(),is(Utils.epochSecondsToDateTime(160000)));
+    }
+    @Test
+    public void getTimestamp_keepsTimeZone_whenTimestampHasBeenSetWithTimeZone() {
+        ZonedDateTime timestamp = ZonedDateTime.of(2019,5,1,12,0,0,0,ZoneId.of("Europe/Berlin"));
+        Scrobble scrobble = TestUtils.createScrobbleWithoutTimestamp();
+        scrobble.setTimestamp(timestamp);
+
+        assertThat(scrobble.getTimestamp(),is(timestamp));
+        assertThat(scrobble.clone().getTimestamp(),is(timestamp));
+        assertThat(scrobble.getTimestampSeconds(),is((int) timestamp.toEpochSecond()));
+    }
+}
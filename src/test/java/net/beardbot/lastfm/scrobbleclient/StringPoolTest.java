@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StringPoolTest {
+
+    @Test
+    public void intern_returnsPooledInstance_whenEqualStringHasBeenInterned() {
+        StringPool stringPool = new StringPool(16);
+        String first = new String("Artist");
+        String second = new String("Artist");
+
+        assertThat(stringPool.intern(first),is(sameInstance(first)));
+        assertThat(stringPool.intern(second),is(sameInstance(first)));
+        assertThat(stringPool.getHitCount(),is(1L));
+        assertThat(stringPool.getMissCount(),is(1L));
+    }
+    @Test
+    public void intern_returnsNull_whenNullIsPassed() {
+        StringPool stringPool = new StringPool(16);
+
+        assertThat(stringPool.intern(null),is(nullValue()));
+        assertThat(stringPool.getMissCount(),is(0L));
+    }
+    @Test
+    public void intern_returnsEqualStrings_whenCapacityIsExceeded() {
+        StringPool stringPool = new StringPool(4);
+
+        for (int i = 0; i < 1000; i++) {
+            String value = "Track " + (i % 100);
+            assertThat(stringPool.intern(new String(value)),is(value));
+        }
+        assertThat(stringPool.getHitCount() + stringPool.getMissCount(),is(1000L));
+    }
+    @Test
+    public void intern_keepsBothStrings_whenTheyCompeteForTheSameSlots() {
+        StringPool stringPool = new StringPool(2);
+        String first = "Aa";
+        String second = "BB";
+
+        stringPool.intern(first);
+        stringPool.intern(second);
+
+        assertThat(stringPool.intern(new String(first)),is(sameInstance(first)));
+        assertThat(stringPool.intern(new String(second)),is(sameInstance(second)));
+    }
+    @Test
+    public void constructor_roundsCapacityUpToPowerOfTwo() {
+        assertThat(new StringPool(1000).getCapacity(),is(1024));
+        assertThat(new StringPool(1024).getCapacity(),is(1024));
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_throwsIllegalArgumentException_whenCapacityIsTooSmall() {
+        new StringPool(1);
+    }
+    @Test
+    public void intern_returnsEqualStrings_underContention() throws Exception {
+        StringPool stringPool = new StringPool(64);
+        int threadCount = 8;
+        CountDownLatch startSignal = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < threadCount; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    startSignal.await();
+                    for (int i = 0; i < 10000; i++) {
+                        String value = "Artist " + (i % 200);
+                        if (!stringPool.intern(value).equals(value)){
+                            throw new AssertionError(String.format("Interning %s returned a different string",value));
+                        }
+                    }
+                } catch (Throwable e){
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null){
+            throw new AssertionError(failure.get());
+        }
+        assertThat(stringPool.getHitCount() + stringPool.getMissCount(),is((long) threadCount * 10000));
+    }
+}
@@ -69,6 +69,16 @@ public class TestUtils {
         return scrobble;
     }
 
+    static List<Scrobble> createScrobblesWithTimestamp(int amount){
+        List<Scrobble> scrobbles = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            Scrobble scrobble = createScrobbleWithoutTimestamp();
+            scrobble.setTimestamp(Utils.currentTimestamp().minusMinutes(i));
+            scrobbles.add(scrobble);
+        }
+        return scrobbles;
+    }
+
     static PaginatedResult<Track> createTrackList(int pageNumber, int totalPageNumber, int trackAmount, boolean includeOnePlayingTrack){
         PaginatedResult<Track> result = mock(PaginatedResult.class);
 
@@ -111,12 +121,24 @@ public class TestUtils {
     static ScrobbleResult createSuccessfulScrobbleResult(){
         return createScrobbleResult(true,false);
     }
+    static List<ScrobbleResult> createSuccessfulScrobbleResults(int amount){
+        List<ScrobbleResult> scrobbleResults = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            scrobbleResults.add(createSuccessfulScrobbleResult());
+        }
+        return scrobbleResults;
+    }
     static ScrobbleResult createUnsuccessfulScrobbleResult(){
         return createScrobbleResult(false,false);
     }
     static ScrobbleResult createIgnoredScrobbleResult(){
         return createScrobbleResult(true,true);
     }
+    static ScrobbleResult createFailedScrobbleResult(int errorCode){
+        ScrobbleResult scrobbleResult = createScrobbleResult(false,false);
+        when(scrobbleResult.getErrorCode()).thenReturn(errorCode);
+        return scrobbleResult;
+    }
 
     private static ScrobbleResult createScrobbleResult(boolean successful, boolean ignored){
         ScrobbleResult scrobbleResult = mock(ScrobbleResult.class);
@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient;
+
+import de.umass.lastfm.CallException;
+import de.umass.lastfm.PaginatedResult;
+import de.umass.lastfm.Result;
+import de.umass.lastfm.Session;
+import de.umass.lastfm.Track;
+import de.umass.lastfm.scrobble.IgnoredMessageCode;
+import de.umass.lastfm.scrobble.ScrobbleData;
+import de.umass.lastfm.scrobble.ScrobbleResult;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TransportLastfmAPITest {
+    private static final String API_ROOT_URL = "http://localhost/2.0/";
+
+    private FakeTransport transport;
+    private TransportLastfmAPI lastfmAPI;
+    private Session session;
+
+    @Before
+    public void setUp() {
+        transport = new FakeTransport();
+        lastfmAPI = new TransportLastfmAPI(transport, API_ROOT_URL);
+        session = Session.createSession("apiKey", "secret", "sessionKey", "user", false);
+    }
+
+    @Test
+    public void scrobble_sendsSignedRequest() {
+        transport.respond(200, "<lfm status=\"ok\"><scrobbles accepted=\"1\" ignored=\"0\"><scrobble>" +
+                "<track corrected=\"0\">Track</track><artist corrected=\"0\">Artist</artist>" +
+                "<timestamp>1500000000</timestamp><ignoredMessage code=\"0\"></ignoredMessage>" +
+                "</scrobble></scrobbles></lfm>");
+
+        lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        Map<String,String> parameters = transport.getRequests().get(0);
+        assertThat(transport.getUrls().get(0),is(API_ROOT_URL));
+        assertThat(parameters.get("method"),is("track.scrobble"));
+        assertThat(parameters.get("sk"),is("sessionKey"));
+        assertThat(parameters.get("api_key"),is("apiKey"));
+        assertThat(parameters.get("api_sig"),is(notNullValue()));
+    }
+    @Test
+    public void scrobble_parsesScrobbleResult() {
+        transport.respond(200, "<lfm status=\"ok\"><scrobbles accepted=\"1\" ignored=\"0\"><scrobble>" +
+                "<track corrected=\"1\">Corrected Track</track><artist corrected=\"0\">Artist</artist>" +
+                "<timestamp>1500000000</timestamp><ignoredMessage code=\"0\"></ignoredMessage>" +
+                "</scrobble></scrobbles></lfm>");
+
+        ScrobbleResult result = lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        assertThat(result.isSuccessful(),is(true));
+        assertThat(result.getTrack(),is("Corrected Track"));
+        assertThat(result.isTrackCorrected(),is(true));
+        assertThat(result.getArtist(),is("Artist"));
+        assertThat(result.isArtistCorrected(),is(false));
+        assertThat(result.getTimestamp(),is(1500000000L));
+        assertThat(result.isIgnored(),is(false));
+    }
+    @Test
+    public void scrobble_parsesIgnoredScrobbles() {
+        transport.respond(200, "<lfm status=\"ok\"><scrobbles accepted=\"0\" ignored=\"1\"><scrobble>" +
+                "<track corrected=\"0\">Track</track><artist corrected=\"0\">Artist</artist>" +
+                "<timestamp>1500000000</timestamp><ignoredMessage code=\"3\">Timestamp too old</ignoredMessage>" +
+                "</scrobble></scrobbles></lfm>");
+
+        ScrobbleResult result = lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        assertThat(result.isIgnored(),is(true));
+        assertThat(result.getIgnoredMessageCode(),is(IgnoredMessageCode.TIMESTAMP_TOO_OLD));
+        assertThat(result.getIgnoredMessage(),is("Timestamp too old"));
+    }
+    @Test
+    public void scrobble_batch_usesIndexedParameters() {
+        transport.respond(200, "<lfm status=\"ok\"><scrobbles accepted=\"2\" ignored=\"0\">" +
+                "<scrobble><track corrected=\"0\">Track 1</track><artist corrected=\"0\">Artist</artist><timestamp>1</timestamp></scrobble>" +
+                "<scrobble><track corrected=\"0\">Track 2</track><artist corrected=\"0\">Artist</artist><timestamp>2</timestamp></scrobble>" +
+                "</scrobbles></lfm>");
+
+        List<ScrobbleResult> results = lastfmAPI.scrobble(Arrays.asList(
+                new ScrobbleData("Artist", "Track 1", 1), new ScrobbleData("Artist", "Track 2", 2)), session);
+
+        Map<String,String> parameters = transport.getRequests().get(0);
+        assertThat(parameters.get("track[0]"),is("Track 1"));
+        assertThat(parameters.get("track[1]"),is("Track 2"));
+        assertThat(parameters.get("timestamp[1]"),is("2"));
+        assertThat(results.size(),is(2));
+        assertThat(results.get(1).getTrack(),is("Track 2"));
+    }
+    @Test
+    public void scrobble_convertsErrorResponses() {
+        transport.respond(429, "<lfm status=\"failed\"><error code=\"29\">Rate limit exceeded</error></lfm>");
+
+        ScrobbleResult result = lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        assertThat(result.isSuccessful(),is(false));
+        assertThat(result.getErrorCode(),is(29));
+        assertThat(result.getHttpErrorCode(),is(429));
+        assertThat(result.getErrorMessage(),is("Rate limit exceeded"));
+        assertThat(lastfmAPI.getLastResult().getErrorCode(),is(29));
+    }
+    @Test
+    public void scrobble_convertsUnparseableResponses() {
+        transport.respond(503, "Service Unavailable");
+
+        ScrobbleResult result = lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        assertThat(result.isSuccessful(),is(false));
+        assertThat(result.getHttpErrorCode(),is(503));
+    }
+    @Test
+    public void scrobble_rejectsResponsesWithDoctype() {
+        transport.respond(200, "<?xml version=\"1.0\"?><!DOCTYPE lfm [<!ENTITY track SYSTEM \"file:///etc/hostname\">]>" +
+                "<lfm status=\"ok\"><scrobbles accepted=\"1\" ignored=\"0\"><scrobble>" +
+                "<track corrected=\"0\">&track;</track><artist corrected=\"0\">Artist</artist>" +
+                "<timestamp>1500000000</timestamp><ignoredMessage code=\"0\"></ignoredMessage>" +
+                "</scrobble></scrobbles></lfm>");
+
+        ScrobbleResult result = lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+
+        assertThat(result.isSuccessful(),is(false));
+    }
+    @Test(expected = CallException.class)
+    public void scrobble_throwsCallException_onIOException() {
+        transport.fail(new IOException("Connection reset"));
+
+        lastfmAPI.scrobble("Artist", "Track", 1500000000, session);
+    }
+    @Test
+    public void updateNowPlaying_parsesNowPlayingResult() {
+        transport.respond(200, "<lfm status=\"ok\"><nowplaying>" +
+                "<track corrected=\"0\">Track</track><artist corrected=\"0\">Artist</artist>" +
+                "<ignoredMessage code=\"0\"></ignoredMessage></nowplaying></lfm>");
+
+        ScrobbleResult result = lastfmAPI.updateNowPlaying("Artist", "Track", session);
+
+        assertThat(transport.getRequests().get(0).get("method"),is("track.updateNowPlaying"));
+        assertThat(result.isSuccessful(),is(true));
+        assertThat(result.getTrack(),is("Track"));
+    }
+    @Test
+    public void getRecentTracks_sendsUnsignedRequestWithTimeRange() {
+        transport.respond(200, "<lfm status=\"ok\"><recenttracks user=\"user\" page=\"1\" perPage=\"50\" totalPages=\"3\" total=\"150\">" +
+                "<track><artist mbid=\"\">Artist</artist><name>Track</name><date uts=\"1500000000\">14 Jul 2017, 02:40</date></track>" +
+                "</recenttracks></lfm>");
+
+        PaginatedResult<Track> result = lastfmAPI.getRecentTracks("user", 1, 50, 1400000000, 1600000000, "apiKey");
+
+        Map<String,String> parameters = transport.getRequests().get(0);
+        assertThat(parameters.get("method"),is("user.getRecentTracks"));
+        assertThat(parameters.get("from"),is("1400000000"));
+        assertThat(parameters.get("to"),is("1600000000"));
+        assertThat(parameters.containsKey("api_sig"),is(false));
+        assertThat(result.getTotalPages(),is(3));
+        assertThat(result.getPageResults().iterator().next().getName(),is("Track"));
+    }
+    @Test
+    public void getRecentTracks_omitsUnsetTimeRange() {
+        transport.respond(200, "<lfm status=\"ok\"><recenttracks user=\"user\" page=\"1\" perPage=\"50\" totalPages=\"0\" total=\"0\"></recenttracks></lfm>");
+
+        lastfmAPI.getRecentTracks("user", 1, 50, "apiKey");
+
+        Map<String,String> parameters = transport.getRequests().get(0);
+        assertThat(parameters.containsKey("from"),is(false));
+        assertThat(parameters.containsKey("to"),is(false));
+    }
+    @Test
+    public void getRecentScrobbles_parsesScrobblesWithoutLastfmJava() {
+        transport.respond(200, "<lfm status=\"ok\"><recenttracks user=\"user\" page=\"1\" perPage=\"50\" totalPages=\"3\" total=\"150\">" +
+                "<track><artist mbid=\"\">Artist</artist><name>Track</name><date uts=\"1500000000\">14 Jul 2017, 02:40</date></track>" +
+                "</recenttracks></lfm>");
+
+        ScrobblePage result = lastfmAPI.getRecentScrobbles("user", 1, 50, 1400000000, null, "apiKey");
+
+        Map<String,String> parameters = transport.getRequests().get(0);
+        assertThat(parameters.get("method"),is("user.getRecentTracks"));
+        assertThat(parameters.get("from"),is("1400000000"));
+        assertThat(result.getTotalPages(),is(3));
+        assertThat(result.getScrobbles().get(0).getTrackName(),is("Track"));
+        assertThat(result.getScrobbles().get(0).getTimestampSeconds(),is(1500000000));
+        assertThat(lastfmAPI.getLastResult().isSuccessful(),is(true));
+    }
+    @Test
+    public void getRecentScrobbles_returnsEmptyPage_andRecordsError_onErrorResponse() {
+        transport.respond(503, "<lfm status=\"failed\"><error code=\"16\">Temporary error</error></lfm>");
+
+        ScrobblePage result = lastfmAPI.getRecentScrobbles("user", 1, 50, null, null, "apiKey");
+
+        assertThat(result.isEmpty(),is(true));
+        assertThat(lastfmAPI.getLastResult().getErrorCode(),is(16));
+        assertThat(lastfmAPI.getLastResult().getHttpErrorCode(),is(503));
+    }
+    @Test
+    public void getRecentScrobbles_returnsEmptyPage_onUnparseableResponse() {
+        transport.respond(502, "Bad Gateway");
+
+        ScrobblePage result = lastfmAPI.getRecentScrobbles("user", 1, 50, null, null, "apiKey");
+
+        assertThat(result.isEmpty(),is(true));
+        assertThat(lastfmAPI.getLastResult().getHttpErrorCode(),is(502));
+    }
+    @Test
+    public void getSession_createsSessionFromResponse() {
+        transport.respond(200, "<lfm status=\"ok\"><session><name>user</name><key>sessionKey</key><subscriber>0</subscriber></session></lfm>");
+
+        Session result = lastfmAPI.getSession("user", "password", "apiKey", "secret");
+
+        assertThat(transport.getRequests().get(0).get("method"),is("auth.getMobileSession"));
+        assertThat(result.getKey(),is("sessionKey"));
+        assertThat(result.getUsername(),is("user"));
+        assertThat(result.getApiKey(),is("apiKey"));
+    }
+    @Test
+    public void getSession_returnsNull_onAuthenticationError() {
+        transport.respond(403, "<lfm status=\"failed\"><error code=\"4\">Invalid authentication</error></lfm>");
+
+        Session result = lastfmAPI.getSession("user", "wrong", "apiKey", "secret");
+
+        assertThat(result,is(nullValue()));
+    }
+    @Test
+    public void getLastResult_isTrackedPerThread() throws InterruptedException {
+        transport.respond(200, "<lfm status=\"ok\"><nowplaying><track corrected=\"0\">Track</track></nowplaying></lfm>");
+        lastfmAPI.updateNowPlaying("Artist", "Track", session);
+
+        Result[] otherThreadResult = new Result[1];
+        Thread thread = new Thread(() -> otherThreadResult[0] = lastfmAPI.getLastResult());
+        thread.start();
+        thread.join();
+
+        assertThat(lastfmAPI.getLastResult().isSuccessful(),is(true));
+        assertThat(otherThreadResult[0],is(nullValue()));
+    }
+
+    private static class FakeTransport implements LastfmTransport {
+        private final List<String> urls = new ArrayList<>();
+        private final List<Map<String,String>> requests = new ArrayList<>();
+        private LastfmHttpResponse response;
+        private IOException exception;
+
+        void respond(int statusCode, String body) {
+            response = new LastfmHttpResponse(statusCode, body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void fail(IOException exception) {
+            this.exception = exception;
+        }
+
+        List<String> getUrls() {
+            return urls;
+        }
+
+        List<Map<String,String>> getRequests() {
+            return requests;
+        }
+
+        @Override
+        public LastfmHttpResponse post(String url, Map<String,String> parameters, String userAgent) throws IOException {
+            urls.add(url);
+            requests.add(parameters);
+            if (exception != null){
+                throw exception;
+            }
+            return response;
+        }
+    }
+}
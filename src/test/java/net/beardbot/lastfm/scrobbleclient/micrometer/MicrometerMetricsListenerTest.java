@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2019 Joscha Düringer
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.beardbot.lastfm.scrobbleclient.micrometer;
+
+import de.umass.lastfm.scrobble.IgnoredMessageCode;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.beardbot.lastfm.scrobbleclient.MetricsListener;
+import net.beardbot.lastfm.scrobbleclient.ScrobbleClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MicrometerMetricsListenerTest {
+    private SimpleMeterRegistry registry;
+    private MicrometerMetricsListener metricsListener;
+
+    @Before
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        metricsListener = new MicrometerMetricsListener(registry, Tags.of("client", "test"));
+    }
+
+    @Test
+    public void onCall_recordsDurationAndAttempts_perOperationAndOutcome() {
+        metricsListener.onCall(MetricsListener.SCROBBLE, TimeUnit.MILLISECONDS.toNanos(20), 1, true);
+        metricsListener.onCall(MetricsListener.SCROBBLE, TimeUnit.MILLISECONDS.toNanos(40), 3, true);
+        metricsListener.onCall(MetricsListener.SCROBBLE, TimeUnit.MILLISECONDS.toNanos(10), 2, false);
+
+        Timer successfulCalls = registry.get("lastfm.client.calls")
+                .tags("client", "test", "operation", MetricsListener.SCROBBLE, "outcome", "success").timer();
+        assertThat(successfulCalls.count(),is(2L));
+        assertThat(successfulCalls.totalTime(TimeUnit.MILLISECONDS),is(60.0));
+        assertThat(registry.get("lastfm.client.calls")
+                .tags("client", "test", "operation", MetricsListener.SCROBBLE, "outcome", "failure").timer().count(),is(1L));
+        assertThat(registry.get("lastfm.client.call.attempts")
+                .tags("client", "test", "operation", MetricsListener.SCROBBLE).summary().totalAmount(),is(6.0));
+    }
+    @Test
+    public void onError_countsErrors_perOperationErrorCodeAndStatus() {
+        metricsListener.onError(MetricsListener.SCROBBLE, 29, 429);
+        metricsListener.onError(MetricsListener.SCROBBLE, 29, 429);
+        metricsListener.onError(MetricsListener.GET_RECENT_TRACKS, 8, 500);
+
+        assertThat(registry.get("lastfm.client.errors")
+                .tags("client", "test", "operation", MetricsListener.SCROBBLE, "code", "29", "status", "429").counter().count(),is(2.0));
+        assertThat(registry.get("lastfm.client.errors")
+                .tags("client", "test", "operation", MetricsListener.GET_RECENT_TRACKS, "code", "8", "status", "500").counter().count(),is(1.0));
+    }
+    @Test
+    public void onRetry_countsRetries_perOperation() {
+        metricsListener.onRetry(MetricsListener.UPDATE_NOW_PLAYING, 1);
+        metricsListener.onRetry(MetricsListener.UPDATE_NOW_PLAYING, 2);
+
+        assertThat(registry.get("lastfm.client.retries")
+                .tags("client", "test", "operation", MetricsListener.UPDATE_NOW_PLAYING).counter().count(),is(2.0));
+    }
+    @Test
+    public void onPageFetched_countsPagesAndFetchedScrobbles() {
+        metricsListener.onPageFetched(1, 200);
+        metricsListener.onPageFetched(2, 37);
+
+        assertThat(registry.get("lastfm.client.pages").tags("client", "test").counter().count(),is(2.0));
+        assertThat(registry.get("lastfm.client.scrobbles.fetched").tags("client", "test").counter().count(),is(237.0));
+    }
+    @Test
+    public void onScrobbleIgnored_countsIgnoredScrobbles_perReason() {
+        metricsListener.onScrobbleIgnored(MetricsListener.SCROBBLE, IgnoredMessageCode.TIMESTAMP_TOO_OLD);
+        metricsListener.onScrobbleIgnored(MetricsListener.SCROBBLE, null);
+
+        assertThat(registry.get("lastfm.client.scrobbles.ignored")
+                .tags("client", "test", "operation", MetricsListener.SCROBBLE, "reason", "TIMESTAMP_TOO_OLD").counter().count(),is(1.0));
+        assertThat(registry.get("lastfm.client.scrobbles.ignored")
+                .tags("client", "test", "operation", MetricsListener.SCROBBLE, "reason", "UNKNOWN").counter().count(),is(1.0));
+    }
+    @Test
+    public void bindTo_registersClientGauges() {
+        ScrobbleClient scrobbleClient = mock(ScrobbleClient.class);
+        when(scrobbleClient.getTrackedScrobbleCount()).thenReturn(12);
+        when(scrobbleClient.getEvictedScrobbleCount()).thenReturn(3L);
+        when(scrobbleClient.getQueuedScrobbleCount()).thenReturn(5);
+        when(scrobbleClient.getCurrentApiCallRate()).thenReturn(4.5);
+        when(scrobbleClient.getStringPoolHitCount()).thenReturn(90L);
+        when(scrobbleClient.getStringPoolMissCount()).thenReturn(10L);
+
+        metricsListener.bindTo(scrobbleClient);
+
+        assertThat(registry.get("lastfm.client.scrobbles.tracked").tags("client", "test").gauge().value(),is(12.0));
+        assertThat(registry.get("lastfm.client.scrobbles.evicted").tags("client", "test").functionCounter().count(),is(3.0));
+        assertThat(registry.get("lastfm.client.scrobbles.queued").tags("client", "test").gauge().value(),is(5.0));
+        assertThat(registry.get("lastfm.client.call.rate").tags("client", "test").gauge().value(),is(4.5));
+        FunctionCounter hits = registry.get("lastfm.client.string.pool.lookups").tags("client", "test", "result", "hit").functionCounter();
+        FunctionCounter misses = registry.get("lastfm.client.string.pool.lookups").tags("client", "test", "result", "miss").functionCounter();
+        assertThat(hits.count(),is(90.0));
+        assertThat(misses.count(),is(10.0));
+        assertThat(hits.getId().getDescription(),is(misses.getId().getDescription()));
+    }
+}